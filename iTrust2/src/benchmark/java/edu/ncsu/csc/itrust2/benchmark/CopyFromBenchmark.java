@@ -0,0 +1,124 @@
+package edu.ncsu.csc.itrust2.benchmark;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ncsu.csc.itrust2.models.persistent.BloodSugarDiaryEntry;
+import edu.ncsu.csc.itrust2.models.persistent.DomainObject;
+
+/**
+ * Compares DomainObject.copyFrom, which copies through a per-class copy plan,
+ * with the reflective copy it replaced, on the blood sugar diary entries that
+ * a CSV upload copies once per row. Run with `mvn -P benchmark test-compile
+ * exec:exec`.
+ */
+@BenchmarkMode ( Mode.AverageTime )
+@OutputTimeUnit ( TimeUnit.NANOSECONDS )
+@Warmup ( iterations = 5, time = 1 )
+@Measurement ( iterations = 5, time = 1 )
+@Fork ( 1 )
+@State ( Scope.Thread )
+public class CopyFromBenchmark {
+
+    /** Entry copied from, as read from an uploaded row */
+    private BloodSugarDiaryEntry source;
+
+    /** Entry copied into, as already saved for the same day */
+    private BloodSugarDiaryEntry target;
+
+    /**
+     * Creates the entries to copy between
+     */
+    @Setup
+    public void setUp () {
+        source = new BloodSugarDiaryEntry();
+        source.setDate( LocalDate.of( 2020, 1, 1 ) );
+        source.setFastingLevel( 90 );
+        source.setFirstLevel( 120 );
+        source.setSecondLevel( 110 );
+        source.setThirdLevel( 100 );
+        target = new BloodSugarDiaryEntry();
+        target.setId( 1L );
+    }
+
+    /**
+     * Copies through the cached copy plan
+     *
+     * @return The entry copied into
+     */
+    @Benchmark
+    public BloodSugarDiaryEntry copyPlan () {
+        target.copyFrom( source, false );
+        return target;
+    }
+
+    /**
+     * Copies the way copyFrom did before copy plans
+     *
+     * @return The entry copied into
+     */
+    @Benchmark
+    public BloodSugarDiaryEntry reflective () {
+        reflectiveCopy( target, source, false );
+        return target;
+    }
+
+    /**
+     * copyFrom as it was before copy plans: the fields are listed, made
+     * accessible and scanned for an @Id annotation on every call
+     *
+     * @param self
+     *            Object to copy into
+     * @param other
+     *            Object to copy from
+     * @param includeId
+     *            Whether to copy the ID too
+     */
+    private static void reflectiveCopy ( final DomainObject self, final DomainObject other,
+            final Boolean includeId ) {
+        if ( !self.getClass().equals( other.getClass() ) ) {
+            throw new IllegalArgumentException( "Cannot copy between different types!" );
+        }
+        final List<Field> fields = Arrays.asList( self.getClass().getDeclaredFields() );
+        try {
+            for ( final Field f : fields ) {
+                final Integer modifiers = f.getModifiers();
+                if ( Modifier.isFinal( modifiers ) ) {
+                    continue;
+                }
+
+                f.setAccessible( true );
+                boolean id = false;
+                final List<Annotation> annotations = Arrays.asList( f.getAnnotations() );
+                for ( final Annotation annotation : annotations ) {
+                    if ( annotation.annotationType().equals( javax.persistence.Id.class ) ) {
+                        id = true;
+                    }
+                }
+                if ( ( id && includeId ) || !id ) {
+                    f.set( self, f.get( other ) );
+                }
+            }
+        }
+        catch ( final Exception e ) {
+            throw new IllegalArgumentException( e );
+        }
+    }
+
+}
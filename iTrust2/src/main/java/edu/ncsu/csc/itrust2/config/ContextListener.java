@@ -5,7 +5,14 @@ import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 
 import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.AuditArchiver;
+import edu.ncsu.csc.itrust2.utils.AuditLogWriter;
+import edu.ncsu.csc.itrust2.utils.ChartLoader;
+import edu.ncsu.csc.itrust2.utils.EmailDispatcher;
 import edu.ncsu.csc.itrust2.utils.HibernateUtil;
+import edu.ncsu.csc.itrust2.utils.IPBlockList;
+import edu.ncsu.csc.itrust2.utils.PasswordHasher;
+import edu.ncsu.csc.itrust2.utils.ReplicaRouter;
 
 /**
  * Simple listener that can bind actions to startup or shutdown of the web
@@ -35,10 +42,18 @@ public class ContextListener implements ServletContextListener {
 
 	/**
 	 * Gracefully tell Hibernate to close the connections to the database rather
-	 * than dropping everything on the floor.
+	 * than dropping everything on the floor. Audit log entries still waiting to
+	 * be saved are saved first.
 	 */
 	@Override
 	public void contextDestroyed(final ServletContextEvent arg0) {
+		AuditArchiver.getInstance().close();
+		IPBlockList.getInstance().close();
+		EmailDispatcher.getInstance().close();
+		PasswordHasher.getInstance().close();
+		ChartLoader.getInstance().close();
+		AuditLogWriter.getInstance().close();
+		ReplicaRouter.setInstance(null);
 		HibernateUtil.shutdown();
 
 		dbThread.stop();
@@ -46,6 +61,14 @@ public class ContextListener implements ServletContextListener {
 
 	@Override
 	public void contextInitialized(final ServletContextEvent arg0) {
+		// Save anything the audit log had not saved when we last stopped
+		AuditLogWriter.getInstance().start();
+		// Move audit log entries older than the hot months into the archive
+		AuditArchiver.getInstance().start();
+		// Keep the banned and locked out IPs in step with the database
+		IPBlockList.getInstance().start();
+		// Send emails left in the outbox, and any queued from now on
+		EmailDispatcher.getInstance().start();
 
 		dbThread.setName("DBKeepAlive_Thread");
 		dbThread.setPriority(Thread.MIN_PRIORITY);
@@ -18,7 +18,8 @@ import edu.ncsu.csc.itrust2.utils.DBUtil;
 public class DataConfiguration {
 
     /**
-     * Spring Bean for the DataSource used to interact with the database.
+     * Spring Bean for the DataSource used to interact with the database. This
+     * is the same connection pool that Hibernate uses.
      *
      * @return DataSource retrieved
      */
@@ -44,8 +44,8 @@ public class FailureHandler extends SimpleUrlAuthenticationFailureHandler {
         final String addr = request.getRemoteAddr();
 
         if ( ae instanceof BadCredentialsException ) {
-            // need to lockout IP
-            if ( LoginAttempt.getIPFailures( addr ) >= 5 ) {
+            // record the failure, and lockout the IP if it already had 5
+            if ( LoginAttempt.recordIPFailure( addr ) > 5 ) {
                 LoginAttempt.clearIP( addr );
                 // Check if need to ban IP
                 if ( LoginLockout.getRecentIPLockouts( addr ) >= 2 ) {
@@ -85,13 +85,6 @@ public class FailureHandler extends SimpleUrlAuthenticationFailureHandler {
                 }
                 return;
             }
-            else {
-                // fail for IP
-                final LoginAttempt attempt = new LoginAttempt();
-                attempt.setTime( ZonedDateTime.now() );
-                attempt.setIp( addr );
-                attempt.save();
-            }
 
             // check username
             if ( username != null ) {
@@ -99,8 +92,9 @@ public class FailureHandler extends SimpleUrlAuthenticationFailureHandler {
             }
 
             if ( user != null ) {
-                // check if need to lockout username
-                if ( LoginAttempt.getUserFailures( user ) >= 2 ) {
+                // record the failure, and lockout the username if it already
+                // had 2
+                if ( LoginAttempt.recordUserFailure( user ) > 2 ) {
                     LoginAttempt.clearUser( user );
                     // check if need to ban user
                     if ( LoginLockout.getRecentUserLockouts( user ) >= 2 ) {
@@ -156,13 +150,6 @@ public class FailureHandler extends SimpleUrlAuthenticationFailureHandler {
                     }
                     return;
                 }
-                else {
-                    // fail for username
-                    final LoginAttempt attempt = new LoginAttempt();
-                    attempt.setTime( ZonedDateTime.now() );
-                    attempt.setUser( user );
-                    attempt.save();
-                }
             }
 
         }
@@ -11,8 +11,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.web.filter.GenericFilterBean;
 
-import edu.ncsu.csc.itrust2.models.persistent.LoginBan;
-import edu.ncsu.csc.itrust2.models.persistent.LoginLockout;
+import edu.ncsu.csc.itrust2.utils.IPBlockList;
 
 /**
  * Custom Http Filter to redirect all requests from banned or locked out IP
@@ -26,32 +25,59 @@ public class IPFilter extends GenericFilterBean {
      * Source for filter setup:
      * http://www.baeldung.com/spring-security-custom-filter
      */
-    // Handle IP locking/banning here
+    // Handle IP locking/banning here. Checked against the in-memory block
+    // list, so that ordinary requests cost no database queries.
     @Override
     public void doFilter ( final ServletRequest request, final ServletResponse response, final FilterChain chain )
             throws IOException, ServletException {
-        final HttpServletResponse httpResponse = (HttpServletResponse) response;
-        final HttpServletRequest httpRequest = (HttpServletRequest) request;
-        final String relative = httpRequest.getRequestURI().substring( httpRequest.getContextPath().length() );
-
         final String addr = request.getRemoteAddr();
+        final IPBlockList blocks = IPBlockList.getInstance();
 
         // Redirect all banned IPs to /login?ipbanned
-        if ( LoginBan.isIPBanned( addr )
-                && ( !relative.contains( "/login" ) || !httpRequest.getParameterMap().containsKey( "ipbanned" ) ) ) {
-            httpRequest.getSession().invalidate();
-            httpResponse.sendRedirect( httpRequest.getContextPath() + "/login?ipbanned" );
+        if ( blocks.isBanned( addr ) && !onPage( request, "ipbanned" ) ) {
+            redirect( request, response, "/login?ipbanned" );
         }
         // redirect all locked out IPs to /login?iplocked
-        else if ( LoginLockout.isIPLocked( addr )
-                && ( !relative.contains( "/login" ) || !httpRequest.getParameterMap().containsKey( "iplocked" ) ) ) {
-            httpRequest.getSession().invalidate();
-            httpResponse.sendRedirect( httpRequest.getContextPath() + "/login?iplocked" );
-
+        else if ( blocks.isLocked( addr ) && !onPage( request, "iplocked" ) ) {
+            redirect( request, response, "/login?iplocked" );
         }
         else {
             chain.doFilter( request, response );
         }
 
     }
+
+    /**
+     * Whether the request is already for the login page explaining the block
+     *
+     * @param request
+     *            The request
+     * @param reason
+     *            Parameter the login page is given to explain the block
+     * @return true if the request is for that page
+     */
+    private static boolean onPage ( final ServletRequest request, final String reason ) {
+        final HttpServletRequest httpRequest = (HttpServletRequest) request;
+        final String relative = httpRequest.getRequestURI().substring( httpRequest.getContextPath().length() );
+        return relative.contains( "/login" ) && httpRequest.getParameterMap().containsKey( reason );
+    }
+
+    /**
+     * Ends the session and sends the client to the given page
+     *
+     * @param request
+     *            The request
+     * @param response
+     *            The response
+     * @param page
+     *            Page to send the client to, relative to the application
+     * @throws IOException
+     *             If the redirect cannot be sent
+     */
+    private static void redirect ( final ServletRequest request, final ServletResponse response, final String page )
+            throws IOException {
+        final HttpServletRequest httpRequest = (HttpServletRequest) request;
+        httpRequest.getSession().invalidate();
+        ( (HttpServletResponse) response ).sendRedirect( httpRequest.getContextPath() + page );
+    }
 }
@@ -11,11 +11,11 @@ import org.springframework.security.web.authentication.WebAuthenticationDetails;
 import org.springframework.stereotype.Component;
 
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
-import edu.ncsu.csc.itrust2.models.persistent.LoginBan;
-import edu.ncsu.csc.itrust2.models.persistent.LoginLockout;
 import edu.ncsu.csc.itrust2.models.persistent.LoginAttempt;
 import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.IPBlockList;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.PasswordHasher;
 
 /**
  * Listens for AuthenticationEvents to Log them and to clear FaieldAttempts on
@@ -41,18 +41,30 @@ public class LoginAuditingListener implements ApplicationListener<ApplicationEve
             // invalidates the credentials if they happen to be correct (and
             // bypassed the lockout page via a direct API call).
             final String addr = det.getRemoteAddress();
-            if ( !LoginLockout.isIPLocked( addr ) && !LoginBan.isIPBanned( addr ) ) {
+            if ( !IPBlockList.getInstance().isLocked( addr ) && !IPBlockList.getInstance().isBanned( addr ) ) {
                 LoginAttempt.clearIP( addr );
-                LoginAttempt.clearUser( User.getByName( details.getUsername() ) );
+                LoginAttempt.clearUser( details.getUsername() );
                 LoggerUtil.log( TransactionType.LOGIN_SUCCESS, details.getUsername() );
             }
 
+            // Store the password again if it was hashed at a lower cost than
+            // the one in use now
+            final String rehash = PasswordHasher.takeRehash();
+            if ( null != rehash ) {
+                final User user = User.getByName( details.getUsername() );
+                if ( null != user ) {
+                    user.setPassword( rehash );
+                    user.save();
+                }
+            }
+
         }
 
         if ( event instanceof AbstractAuthenticationFailureEvent ) {
             final AbstractAuthenticationFailureEvent authEvent = (AbstractAuthenticationFailureEvent) event;
             final Authentication authentication = authEvent.getAuthentication();
             LoggerUtil.log( TransactionType.LOGIN_FAILURE, authentication.getPrincipal().toString() );
+            PasswordHasher.discardRehash();
         }
     }
 }
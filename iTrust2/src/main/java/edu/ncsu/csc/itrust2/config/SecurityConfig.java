@@ -7,18 +7,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.DefaultAuthenticationEventPublisher;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.config.annotation.ObjectPostProcessor;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.authentication.configurers.provisioning.JdbcUserDetailsManagerConfigurer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.builders.WebSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.access.channel.ChannelProcessingFilter;
 import org.springframework.security.web.authentication.SimpleUrlAuthenticationFailureHandler;
 import org.springframework.security.web.csrf.CookieCsrfTokenRepository;
 
+import edu.ncsu.csc.itrust2.utils.PasswordHasher;
+import edu.ncsu.csc.itrust2.utils.UserDetailsCache;
+
 /**
  * Class that manages which users are allowed to access the system and which
  * role they have. Different users are allowed to have different roles which can
@@ -62,6 +66,17 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
                         + " LEFT JOIN LoginBans AS b ON u.username = b.user_id "
                         + "LEFT JOIN LoginLockouts AS c ON u.username = c.user_id AND TIMESTAMPDIFF(MINUTE, c.time, NOW()) < 60 WHERE username = ?;" )
                 .authoritiesByUsernameQuery( "select username,role from Users where username=?" );
+        // Remember the details read by the queries above, so that most
+        // authentications do not need them. The configurer's own userCache()
+        // only reaches the JdbcUserDetailsManager, not the provider that
+        // authenticates, so the cache is set on the provider as it is built.
+        dbManager.withObjectPostProcessor( new ObjectPostProcessor<DaoAuthenticationProvider>() {
+            @Override
+            public <O extends DaoAuthenticationProvider> O postProcess ( final O provider ) {
+                provider.setUserCache( UserDetailsCache.getInstance() );
+                return provider;
+            }
+        } );
         auth.authenticationEventPublisher( defaultAuthenticationEventPublisher() );
 
     }
@@ -118,13 +133,13 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 
     /**
      * Bean used to generate a PasswordEncoder to hash the user-provided
-     * password.
+     * password. Hashing runs on the encoder's own bounded pool of threads.
      *
      * @return The password encoder.
      */
     @Bean
     public PasswordEncoder passwordEncoder () {
-        return new BCryptPasswordEncoder();
+        return PasswordHasher.getInstance();
     }
 
     /**
@@ -0,0 +1,49 @@
+package edu.ncsu.csc.itrust2.config;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+
+/**
+ * Commits the request's {@link UnitOfWork} once its handler has finished but
+ * before the response is written: just before the body of a REST response is
+ * serialised, or before the view of a page is rendered. Committing any later
+ * (as {@link UnitOfWorkFilter} does for anything that gets past this) would
+ * mean that a commit failure could only be discovered after a success
+ * response had already been sent.
+ */
+@ControllerAdvice
+public class UnitOfWorkCommitter extends HandlerInterceptorAdapter implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports ( final MethodParameter returnType,
+            final Class< ? extends HttpMessageConverter< ? >> converterType ) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite ( final Object body, final MethodParameter returnType,
+            final MediaType selectedContentType, final Class< ? extends HttpMessageConverter< ? >> selectedConverterType,
+            final ServerHttpRequest request, final ServerHttpResponse response ) {
+        UnitOfWork.commit();
+        return body;
+    }
+
+    @Override
+    public void postHandle ( final HttpServletRequest request, final HttpServletResponse response,
+            final Object handler, final ModelAndView modelAndView ) {
+        UnitOfWork.commit();
+    }
+
+}
@@ -0,0 +1,38 @@
+package edu.ncsu.csc.itrust2.config;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+
+/**
+ * Servlet Filter that wraps each request in a {@link UnitOfWork}, so that all
+ * of the database work done while handling it shares one Hibernate session and
+ * is committed once. {@link UnitOfWorkCommitter} commits it before the
+ * response is written; anything still uncommitted when the request completes
+ * is committed here. If the request fails with an exception everything it
+ * wrote is rolled back instead.
+ */
+public class UnitOfWorkFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal ( final HttpServletRequest request, final HttpServletResponse response,
+            final FilterChain chain ) throws ServletException, IOException {
+        UnitOfWork.begin();
+        boolean completed = false;
+        try {
+            chain.doFilter( request, response );
+            completed = true;
+        }
+        finally {
+            UnitOfWork.end( completed );
+        }
+    }
+
+}
@@ -112,7 +112,7 @@ public class APIAppointmentRequestController extends APIController {
     public ResponseEntity createAppointmentRequest ( @RequestBody final AppointmentRequestForm requestForm ) {
         try {
             final AppointmentRequest request = new AppointmentRequest( requestForm );
-            if ( null != AppointmentRequest.getById( request.getId() ) ) {
+            if ( AppointmentRequest.existsById( request.getId() ) ) {
                 return new ResponseEntity(
                         errorResponse( "AppointmentRequest with the id " + request.getId() + " already exists" ),
                         HttpStatus.CONFLICT );
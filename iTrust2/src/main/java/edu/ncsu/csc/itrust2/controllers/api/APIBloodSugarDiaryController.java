@@ -2,7 +2,9 @@ package edu.ncsu.csc.itrust2.controllers.api;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -153,21 +155,32 @@ public class APIBloodSugarDiaryController extends APIController {
 
         final Patient patient = Patient.getByName( LoggerUtil.currentUser() );
 
-        for ( int i = 0; i < list.size(); i++ ) { // Save each of the entries in
-                                                  // the list now that we know
-                                                  // it is a valid file.
-            final BloodSugarDiaryEntry temp = BloodSugarDiaryEntry
-                    .getByDateAndPatient( list.get( i ).getDate().toString(), patient );
+        // Now that we know it is a valid file, work out which entries are new
+        // and which edit an existing day, then save them all together
+        final List<BloodSugarDiaryEntry> toSave = new ArrayList<BloodSugarDiaryEntry>( list.size() );
+        final List<TransactionType> logTypes = new ArrayList<TransactionType>( list.size() );
+        final Map<LocalDate, BloodSugarDiaryEntry> byDate = new HashMap<LocalDate, BloodSugarDiaryEntry>();
+        for ( final BloodSugarDiaryEntry entry : list ) {
+            BloodSugarDiaryEntry temp = byDate.get( entry.getDate() ); // repeated in this file
+            if ( temp == null ) {
+                temp = BloodSugarDiaryEntry.getByDateAndPatient( entry.getDate().toString(), patient );
+            }
             if ( temp == null ) { // No date found so make a new one
-                list.get( i ).save();
-                LoggerUtil.log( TransactionType.CREATE_BLOOD_SUGAR_DIARY, LoggerUtil.currentUser() );
+                byDate.put( entry.getDate(), entry );
+                toSave.add( entry );
+                logTypes.add( TransactionType.CREATE_BLOOD_SUGAR_DIARY );
             }
             else { // An entry with the given date exists so just edit it.
-                temp.copyFrom( list.get( i ), false );
-                temp.save();
-                LoggerUtil.log( TransactionType.EDIT_BLOOD_SUGAR_DIARY, LoggerUtil.currentUser() );
+                temp.copyFrom( entry, false );
+                if ( byDate.put( entry.getDate(), temp ) != temp ) {
+                    toSave.add( temp );
+                }
+                logTypes.add( TransactionType.EDIT_BLOOD_SUGAR_DIARY );
             }
-
+        }
+        BloodSugarDiaryEntry.saveAll( toSave );
+        for ( final TransactionType type : logTypes ) {
+            LoggerUtil.log( type, LoggerUtil.currentUser() );
         }
         return new ResponseEntity( HttpStatus.OK );
     }
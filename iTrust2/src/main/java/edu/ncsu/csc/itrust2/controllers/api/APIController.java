@@ -1,5 +1,10 @@
 package edu.ncsu.csc.itrust2.controllers.api;
 
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
 import com.google.gson.Gson;
 
 /**
@@ -99,6 +104,31 @@ public abstract class APIController {
         return responseMessage( "success", message );
     }
 
+    /**
+     * Parses a time passed to the API as an ISO date/time or an ISO date
+     *
+     * @param value
+     *            The time, or null or empty for none
+     * @param endOfDay
+     *            For a date, whether to give the end of the day rather than
+     *            the start
+     * @return The time, or null if none was given
+     * @throws DateTimeParseException
+     *             If the time is in neither form
+     */
+    static final protected ZonedDateTime parseTime ( final String value, final boolean endOfDay ) {
+        if ( null == value || value.isEmpty() ) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse( value );
+        }
+        catch ( final DateTimeParseException ex ) {
+            final LocalDate date = LocalDate.parse( value );
+            return ( endOfDay ? date.plusDays( 1 ) : date ).atStartOfDay( ZoneId.systemDefault() );
+        }
+    }
+
     /**
      * Small class used for creating simple success/error messages to return via
      * the REST API. Contains a status of the action and an message.
@@ -1,11 +1,14 @@
 package edu.ncsu.csc.itrust2.controllers.api;
 
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
@@ -53,30 +56,52 @@ public class APIDiagnosisController extends APIController {
     @GetMapping ( BASE_PATH + "/diagnosesforvisit/{id}" )
     public List<Diagnosis> getDiagnosesForVisit ( @PathVariable ( "id" ) final Long id ) {
         // Check if office visit exists
-        if ( GeneralCheckup.getById( id ) == null ) {
+        final GeneralCheckup visit = GeneralCheckup.getById( id );
+        if ( visit == null ) {
             return null;
         }
         LoggerUtil.log( TransactionType.DIAGNOSIS_VIEW_BY_OFFICE_VISIT, LoggerUtil.currentUser(),
-                GeneralCheckup.getById( id ).getPatient().getUsername(),
+                visit.getPatient().getUsername(),
                 "Retrieved diagnoses for office visit with id " + id );
         return Diagnosis.getByVisit( id );
     }
 
     /**
-     * Returns a list of diagnoses for the logged in patient
+     * Returns a list of diagnoses for the logged in patient, most recent first,
+     * optionally only those from visits in a range of dates or with ICD codes
+     * starting with the given characters
      *
+     * @param start
+     *            If given, only diagnoses from visits on or after this date or
+     *            time (ISO format)
+     * @param end
+     *            If given, only diagnoses from visits on or before this date or
+     *            time (ISO format)
+     * @param code
+     *            If given, only diagnoses whose ICD code starts with this
      * @return List of Diagnoses for the patient
      */
     @GetMapping ( BASE_PATH + "/diagnoses" )
-    public List<Diagnosis> getDiagnosis () {
+    public ResponseEntity getDiagnosis ( @RequestParam ( required = false ) final String start,
+            @RequestParam ( required = false ) final String end, @RequestParam ( required = false ) final String code ) {
         final User self = User.getByName( LoggerUtil.currentUser() );
         if ( self == null ) {
             return null;
         }
+        final ZonedDateTime from;
+        final ZonedDateTime to;
+        try {
+            from = parseTime( start, false );
+            to = parseTime( end, true );
+        }
+        catch ( final DateTimeParseException e ) {
+            return new ResponseEntity( errorResponse( "Invalid date: " + e.getParsedString() ),
+                    HttpStatus.BAD_REQUEST );
+        }
         LoggerUtil.log( TransactionType.DIAGNOSIS_PATIENT_VIEW_ALL, self.getUsername(),
                 self.getUsername() + " viewed their diagnoses" );
 
-        return Diagnosis.getForPatient( self );
+        return new ResponseEntity( Diagnosis.getHistory( self, from, to, code ), HttpStatus.OK );
     }
 
 }
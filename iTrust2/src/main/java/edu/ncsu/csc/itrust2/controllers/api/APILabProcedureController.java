@@ -232,7 +232,7 @@ public class APILabProcedureController extends APIController {
     public ResponseEntity createLabProcedure ( @RequestBody final LabProcedureForm procF ) {
         try {
             final LabProcedure proc = new LabProcedure( procF );
-            if ( LabProcedure.getById( proc.getId() ) != null ) {
+            if ( LabProcedure.existsById( proc.getId() ) ) {
                 return new ResponseEntity(
                         errorResponse( "LabProcedure with the id " + proc.getId() + " already exists" ),
                         HttpStatus.CONFLICT );
@@ -1,18 +1,30 @@
 package edu.ncsu.csc.itrust2.controllers.api;
 
+import java.io.IOException;
 import java.text.ParseException;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.itrust2.controllers.api.comm.LogEntryRequestBody;
@@ -21,6 +33,7 @@ import edu.ncsu.csc.itrust2.models.enums.Role;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
 import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.AuditExporter;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
 
 /**
@@ -36,6 +49,11 @@ import edu.ncsu.csc.itrust2.utils.LoggerUtil;
 @SuppressWarnings ( { "unchecked", "rawtypes" } )
 public class APILogEntryController extends APIController {
 
+    /** The types of event that patients may see in their own log */
+    private static final List<TransactionType> PATIENT_VIEWABLE = Collections.unmodifiableList(
+            Arrays.stream( TransactionType.values() ).filter( TransactionType::isPatientViewable )
+                    .collect( Collectors.toList() ) );
+
     /**
      * Handles GET requests for the current user's log entries when searching by
      * date and using a page system.
@@ -46,9 +64,14 @@ public class APILogEntryController extends APIController {
      */
     @PostMapping ( BASE_PATH + "/logentries/range" )
     public ResponseEntity getEntryByDateRange ( @RequestBody final LogEntryRequestBody body ) {
+        if ( body.getPageLength() < 1 ) {
+            return new ResponseEntity( errorResponse( "Page length must be at least 1" ), HttpStatus.BAD_REQUEST );
+        }
+
         // If no dates are specified, get all entries, otherwise use the date
         // range
-        List<LogEntry> entries = null;
+        ZonedDateTime start = null;
+        ZonedDateTime end = null;
         try {
             if ( body.getStartDate().equals( "" ) || body.getEndDate().equals( "" ) ) {
                 throw new ParseException( "Date", 1 );
@@ -56,14 +79,12 @@ public class APILogEntryController extends APIController {
 
             // Parse in start/end dates as ZonedDateTimes 
             // from ISO date/time or ISO date strings
-            ZonedDateTime start;
             try {
                 start = ZonedDateTime.parse( body.getStartDate() );
             } catch ( DateTimeParseException ex ) {
                 start = LocalDate.parse( body.getStartDate() ).atStartOfDay( ZoneId.systemDefault() );
             }
 
-            ZonedDateTime end;
             try {
                 end = ZonedDateTime.parse( body.getEndDate() ).plusDays( 1 );
             } catch ( DateTimeParseException ex ) {
@@ -73,47 +94,49 @@ public class APILogEntryController extends APIController {
             if ( start.isAfter( end ) ) {
                 return new ResponseEntity( errorResponse( "Start Date is after End Date" ), HttpStatus.NOT_ACCEPTABLE );
             }
-            entries = LogEntry.getByDateRange( start, end );
         }
         catch ( final ParseException ex ) {
-            entries = LogEntry.getAllForUser( LoggerUtil.currentUser() );
-        }
-
-        // If the entries array is null give an error response
-        if ( entries == null ) {
-            return new ResponseEntity( errorResponse( "Error retrieving Log Entries" ),
-                    HttpStatus.INTERNAL_SERVER_ERROR );
+            start = null;
+            end = null;
         }
 
         // Use only log entries that are viewable by the user
-        List<LogEntry> visible;
-        final User user = User.getByName( LoggerUtil.currentUser() );
-        if ( user.getRole() == Role.ROLE_PATIENT ) {
-            visible = new ArrayList<LogEntry>();
-
-            for ( int i = 0; i < entries.size(); i++ ) {
-                final LogEntry le = entries.get( i );
-                if ( le.getLogCode().isPatientViewable() ) {
-                    visible.add( entries.get( i ) );
-                }
+        final String username = LoggerUtil.currentUser();
+        final User user = User.getByName( username );
+        final List<TransactionType> types = user.getRole() == Role.ROLE_PATIENT ? PATIENT_VIEWABLE : null;
+
+        // Only the requested page is read from the database, newest first.
+        // Moving to the next page continues from the cursor of the last row on
+        // the previous one; otherwise the page is found by number.
+        final List<LogEntry> page;
+        final long total;
+        try {
+            total = LogEntry.countForUser( username, start, end, types );
+            if ( null != body.getCursor() && !body.getCursor().isEmpty() ) {
+                page = LogEntry.getPageForUser( username, start, end, types, body.getCursor(), body.getPageLength() );
+            }
+            else {
+                page = LogEntry.getPageForUser( username, start, end, types, body.getPage(), body.getPageLength() );
             }
         }
-        else {
-            visible = entries;
+        catch ( final IllegalArgumentException e ) {
+            return new ResponseEntity( errorResponse( e.getMessage() ), HttpStatus.BAD_REQUEST );
         }
 
-        final int numPages = 1 + visible.size() / body.getPageLength();
+        final int numPages = (int) Math.max( 1, ( total + body.getPageLength() - 1 ) / body.getPageLength() );
 
-        Collections.reverse( visible );
-
-        // Find only the entries that should show up on the page given the page
-        // and page length
-        final List<LogEntry> page = new ArrayList<LogEntry>();
-        for ( int i = 0; i < body.getPageLength(); i++ ) {
-            final int idx = ( body.getPage() - 1 ) * body.getPageLength() + i;
-            if ( idx >= 0 && visible.size() > idx ) {
-                page.add( visible.get( idx ) );
+        // Patients see the role of whoever else was involved in each event;
+        // look them all up at once rather than once per row
+        final Map<String, Role> roles;
+        if ( user.getRole() == Role.ROLE_PATIENT ) {
+            final Set<String> others = new HashSet<String>();
+            for ( final LogEntry le : page ) {
+                others.add( otherUser( le, username ) );
             }
+            roles = User.getRoles( others );
+        }
+        else {
+            roles = Collections.emptyMap();
         }
 
         // Turn these log entries into proper table rows for the application to
@@ -131,19 +154,14 @@ public class APILogEntryController extends APIController {
             row.setDateTime( le.getTime().toOffsetDateTime().toString() );
             row.setTransactionType( le.getLogCode().getDescription() );
             row.setNumPages( numPages );
+            row.setCursor( le.getCursor() );
 
             if ( user.getRole() == Role.ROLE_PATIENT ) {
                 row.setPatient( true );
 
-                if ( le.getPrimaryUser().equals( LoggerUtil.currentUser() ) ) {
-                    final User secondary = User.getByName( le.getSecondaryUser() );
-                    if ( secondary != null ) {
-                        row.setRole( secondary.getRole().toString() );
-                    }
-                }
-                else {
-                    final User primary = User.getByName( le.getPrimaryUser() );
-                    row.setRole( primary.getRole().toString() );
+                final Role other = roles.get( otherUser( le, username ) );
+                if ( other != null ) {
+                    row.setRole( other.toString() );
                 }
             }
 
@@ -157,4 +175,75 @@ public class APILogEntryController extends APIController {
         return new ResponseEntity( table, HttpStatus.OK );
     }
 
+    /**
+     * Streams the full audit trail of a user, a time window, or both, as CSV
+     * or newline delimited JSON. The response is written as the entries are
+     * read, in chunks, so exports of any size use the same amount of memory.
+     *
+     * @param user
+     *            Only export entries where this user is the primary or
+     *            secondary user; all users if not given
+     * @param start
+     *            Only export entries from this time or date on
+     * @param end
+     *            Only export entries up to this time or date; a date includes
+     *            the whole day
+     * @param format
+     *            `csv` (the default) or `ndjson`
+     * @param response
+     *            The response to write the export to
+     * @return An error response if the request is invalid; otherwise null,
+     *         the export having been written to the response
+     * @throws IOException
+     *             If the export cannot be written, for instance because the
+     *             client has gone away
+     */
+    @GetMapping ( BASE_PATH + "/logentries/export" )
+    @PreAuthorize ( "hasRole('ROLE_ADMIN')" )
+    public ResponseEntity exportEntries ( @RequestParam ( required = false ) final String user,
+            @RequestParam ( required = false ) final String start, @RequestParam ( required = false ) final String end,
+            @RequestParam ( defaultValue = "csv" ) final String format, final HttpServletResponse response )
+            throws IOException {
+        final AuditExporter.Format exportFormat;
+        final ZonedDateTime from;
+        final ZonedDateTime to;
+        try {
+            exportFormat = AuditExporter.Format.valueOf( format.toUpperCase( Locale.ROOT ) );
+            from = parseTime( start, false );
+            to = parseTime( end, true );
+        }
+        catch ( final IllegalArgumentException | DateTimeParseException e ) {
+            return new ResponseEntity( errorResponse( "Invalid export request: " + e.getMessage() ),
+                    HttpStatus.BAD_REQUEST );
+        }
+        if ( null != from && null != to && from.isAfter( to ) ) {
+            return new ResponseEntity( errorResponse( "Start Date is after End Date" ), HttpStatus.NOT_ACCEPTABLE );
+        }
+
+        LoggerUtil.log( TransactionType.VIEW_USER_LOG, LoggerUtil.currentUser(), user,
+                "Audit log exported as " + exportFormat.getExtension() );
+
+        response.setStatus( HttpServletResponse.SC_OK );
+        response.setContentType( exportFormat.getContentType() );
+        response.setCharacterEncoding( "UTF-8" );
+        response.setHeader( "Content-Disposition",
+                "attachment; filename=\"audit-log." + exportFormat.getExtension() + "\"" );
+        AuditExporter.getInstance().export( null == user || user.isEmpty() ? null : user, from, to, exportFormat,
+                response.getOutputStream() );
+        return null;
+    }
+
+    /**
+     * The user involved in a log entry other than the one viewing it
+     *
+     * @param le
+     *            The log entry
+     * @param viewer
+     *            The user viewing the log
+     * @return The other user, or null if there was none
+     */
+    private static String otherUser ( final LogEntry le, final String viewer ) {
+        return le.getPrimaryUser().equals( viewer ) ? le.getSecondaryUser() : le.getPrimaryUser();
+    }
+
 }
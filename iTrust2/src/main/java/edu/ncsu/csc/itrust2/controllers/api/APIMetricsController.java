@@ -0,0 +1,50 @@
+package edu.ncsu.csc.itrust2.controllers.api;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import edu.ncsu.csc.itrust2.utils.AuditExporter;
+import edu.ncsu.csc.itrust2.utils.AuditLogWriter;
+import edu.ncsu.csc.itrust2.utils.ChartLoader;
+import edu.ncsu.csc.itrust2.utils.ConnectionPoolMetrics;
+import edu.ncsu.csc.itrust2.utils.HibernateUtil;
+import edu.ncsu.csc.itrust2.utils.IPBlockList;
+import edu.ncsu.csc.itrust2.utils.PasswordHasher;
+import edu.ncsu.csc.itrust2.utils.UserDetailsCache;
+
+/**
+ * Provides a REST API endpoint reporting how the system's pools, caches and
+ * background workers are doing, so that an administrator can see whether they
+ * are sized correctly for the load they are under without attaching a
+ * profiler.
+ */
+@RestController
+public class APIMetricsController extends APIController {
+
+    /**
+     * Reports the statistics gathered so far by each component, as the
+     * component summarises them itself
+     *
+     * @return Summary of each component's statistics, by component
+     */
+    @GetMapping ( BASE_PATH + "/metrics" )
+    @PreAuthorize ( "hasRole('ROLE_ADMIN')" )
+    public Map<String, Object> getMetrics () {
+        final Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put( "connectionPool", ConnectionPoolMetrics.getInstance().toString() );
+        metrics.put( "caches", Arrays.asList( HibernateUtil.getCacheStatistics().split( "\\R" ) ) );
+        metrics.put( "auditLogWriter", AuditLogWriter.getInstance().toString() );
+        metrics.put( "auditExporter", AuditExporter.getInstance().toString() );
+        metrics.put( "ipBlockList", IPBlockList.getInstance().toString() );
+        metrics.put( "userDetailsCache", UserDetailsCache.getInstance().toString() );
+        metrics.put( "passwordHasher", PasswordHasher.getInstance().toString() );
+        metrics.put( "chartLoader", ChartLoader.getInstance().toString() );
+        return metrics;
+    }
+
+}
@@ -41,7 +41,7 @@ public class APIPassengerController extends APIController {
     @PreAuthorize ( "hasRole('ROLE_VIROLOGIST')" )
     public ResponseEntity getStatistics () {
         // First check if there is any passenger data in the system
-        if ( Passenger.getPassengers().size() == 0 ) {
+        if ( Passenger.countPassengers() == 0 ) {
             return new ResponseEntity( errorResponse( "No passengers in database." ), HttpStatus.BAD_REQUEST );
         }
         final PassengerStatistics stats = new PassengerStatistics();
@@ -57,7 +57,7 @@ public class APIPassengerController extends APIController {
     @GetMapping ( BASE_PATH + "/diseasecontrol/rnaught" )
     @PreAuthorize ( "hasRole('ROLE_VIROLOGIST')" )
     public ResponseEntity viewRNaught () {
-        if ( Passenger.getPassengers().size() == 0 ) {
+        if ( Passenger.countPassengers() == 0 ) {
             return new ResponseEntity( errorResponse( "No passengers in database." ), HttpStatus.BAD_REQUEST );
         }
         final double rnaught = PassengerStatistics.calculateRNaught();
@@ -133,11 +133,11 @@ public class APIPassengerController extends APIController {
     @PreAuthorize ( "hasRole('ROLE_VIROLOGIST')" )
     public ResponseEntity getContactsByDepth ( @RequestBody final ContactsByDepthForm form ) {
         final String passengerId = form.getPassengerId();
-        if ( passengerId.trim().equals( "" ) || Passenger.getById( passengerId ) == null ) {
+        if ( passengerId.trim().equals( "" ) || !Passenger.existsById( passengerId ) ) {
             return new ResponseEntity( errorResponse( "Invalid passenger Id." ), HttpStatus.BAD_REQUEST );
         }
         final int depth = form.getDepth();
-        if ( depth <= 0 || depth > Passenger.getPassengers().size() ) {
+        if ( depth <= 0 || depth > Passenger.countPassengers() ) {
             return new ResponseEntity( errorResponse( "Invalid depth" ), HttpStatus.BAD_REQUEST );
         }
 
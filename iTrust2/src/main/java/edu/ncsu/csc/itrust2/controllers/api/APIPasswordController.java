@@ -8,7 +8,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -23,6 +22,7 @@ import edu.ncsu.csc.itrust2.models.persistent.Personnel;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.utils.EmailUtil;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.PasswordHasher;
 
 /**
  * REST Controller that provides the endpoints for password changing and
@@ -37,7 +37,7 @@ import edu.ncsu.csc.itrust2.utils.LoggerUtil;
 public class APIPasswordController extends APIController {
 
     /** Password encoder instance */
-    static PasswordEncoder pe = new BCryptPasswordEncoder();
+    static PasswordEncoder pe = PasswordHasher.getInstance();
 
     @Autowired
     Environment            environment;
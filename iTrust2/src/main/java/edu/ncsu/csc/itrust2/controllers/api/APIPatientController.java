@@ -1,8 +1,13 @@
 package edu.ncsu.csc.itrust2.controllers.api;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -15,15 +20,25 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import edu.ncsu.csc.itrust2.forms.hcp.PatientChartForm;
+import edu.ncsu.csc.itrust2.forms.hcp.PrescriptionForm;
 import edu.ncsu.csc.itrust2.forms.hcp_patient.PatientForm;
 import edu.ncsu.csc.itrust2.models.enums.Role;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.models.persistent.BloodSugarDiaryEntry;
 import edu.ncsu.csc.itrust2.models.persistent.BloodSugarLimit;
+import edu.ncsu.csc.itrust2.models.persistent.Diagnosis;
+import edu.ncsu.csc.itrust2.models.persistent.FoodDiaryEntry;
+import edu.ncsu.csc.itrust2.models.persistent.LabProcedure;
+import edu.ncsu.csc.itrust2.models.persistent.OfficeVisit;
 import edu.ncsu.csc.itrust2.models.persistent.Patient;
 import edu.ncsu.csc.itrust2.models.persistent.Pharmacy;
+import edu.ncsu.csc.itrust2.models.persistent.Prescription;
 import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.ChartLoader;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
 
 /**
@@ -92,6 +107,66 @@ public class APIPatientController extends APIController {
         }
     }
 
+    /**
+     * Retrieves everything an HCP sees on a patient's chart in one request:
+     * office visits, prescriptions, diagnoses, lab procedures, and the blood
+     * sugar and food diaries. The sections are loaded at the same time, and
+     * the time each took is included. A section that fails or runs out of
+     * time is left out and listed as missing, unless partial is false, in
+     * which case the whole request fails.
+     *
+     * @param username
+     *            The username of the patient
+     * @param partial
+     *            Whether to return the chart if some sections are missing
+     *            (default true)
+     * @return response
+     */
+    @GetMapping ( BASE_PATH + "/patients/{username}/chart" )
+    @PreAuthorize ( "hasAnyRole('ROLE_HCP', 'ROLE_OD', 'ROLE_OPH')" )
+    public ResponseEntity getChart ( @PathVariable ( "username" ) final String username,
+            @RequestParam ( required = false, defaultValue = "true" ) final boolean partial ) {
+        final long start = System.nanoTime();
+        final Patient patient = Patient.getByName( username );
+        if ( patient == null ) {
+            return new ResponseEntity( errorResponse( "No Patient found for username " + username ),
+                    HttpStatus.NOT_FOUND );
+        }
+        final User self = patient.getSelf();
+
+        final Map<String, Callable<?>> loaders = new LinkedHashMap<String, Callable<?>>();
+        loaders.put( "officeVisits", () -> OfficeVisit.getForPatient( self ) );
+        loaders.put( "prescriptions", () -> {
+            final List<PrescriptionForm> forms = new ArrayList<PrescriptionForm>();
+            for ( final Prescription p : Prescription.getForPatient( self ) ) {
+                forms.add( new PrescriptionForm( p ) );
+            }
+            return forms;
+        } );
+        loaders.put( "diagnoses", () -> Diagnosis.getForPatient( self ) );
+        loaders.put( "labProcedures", () -> {
+            final List<LabProcedure> procs = LabProcedure.getForPatient( self );
+            for ( final LabProcedure proc : procs ) {
+                User.unlinkCircularReferences( proc.getPatient() );
+                proc.getVisit().setLabProcedures( null );
+            }
+            return procs;
+        } );
+        loaders.put( "bloodSugarDiary", () -> BloodSugarDiaryEntry.getByPatient( patient ) );
+        loaders.put( "foodDiary", () -> FoodDiaryEntry.getByPatient( username ) );
+
+        final Map<String, ChartLoader.Section> loaded = ChartLoader.getInstance().load( loaders );
+        final PatientChartForm chart = new PatientChartForm( username, loaded,
+                TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+        if ( !partial && !chart.isComplete() ) {
+            return new ResponseEntity( errorResponse( "Could not load " + chart.getMissing() ),
+                    HttpStatus.SERVICE_UNAVAILABLE );
+        }
+        LoggerUtil.log( TransactionType.HCP_VIEW_PATIENT_CHART, LoggerUtil.currentUser(), username,
+                "HCP retrieved the chart for patient with username " + username );
+        return new ResponseEntity( chart, HttpStatus.OK );
+    }
+
     /**
      * Creates a new Patient record for a User from the RequestBody provided.
      *
@@ -19,6 +19,11 @@ public class LogEntryRequestBody {
     public int    page;
     /** Number of items per page */
     public int    pageLength;
+    /**
+     * Cursor of the last entry on the previous page, if moving to the next
+     * page; null to look the page up by number
+     */
+    public String cursor;
 
     /**
      * Empty Constructor required for spring to use this as a RequestBody
@@ -103,4 +108,23 @@ public class LogEntryRequestBody {
         this.pageLength = pageLength;
     }
 
+    /**
+     * Gets the cursor of the last entry on the previous page.
+     *
+     * @return cursor, or null if there is none
+     */
+    public String getCursor () {
+        return cursor;
+    }
+
+    /**
+     * Sets the cursor of the last entry on the previous page.
+     *
+     * @param cursor
+     *            cursor from a table row
+     */
+    public void setCursor ( final String cursor ) {
+        this.cursor = cursor;
+    }
+
 }
@@ -22,6 +22,8 @@ public class LogEntryTableRow {
     private boolean isPatient = false;
     /** total number of pages in the table */
     private int     numPages  = 1;
+    /** Cursor for fetching the page after this row */
+    private String  cursor;
 
     /**
      * Empty constructor so that Spring is able to use this class for
@@ -165,4 +167,23 @@ public class LogEntryTableRow {
         this.transactionType = transactionType;
     }
 
+    /**
+     * Gets the cursor to send back to fetch the page after this row.
+     *
+     * @return cursor of this row's log entry
+     */
+    public String getCursor () {
+        return cursor;
+    }
+
+    /**
+     * Sets the cursor to send back to fetch the page after this row.
+     *
+     * @param cursor
+     *            cursor of this row's log entry
+     */
+    public void setCursor ( final String cursor ) {
+        this.cursor = cursor;
+    }
+
 }
@@ -18,10 +18,12 @@ import edu.ncsu.csc.itrust2.forms.hcp.GeneralCheckupForm;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.GeneralCheckup;
 import edu.ncsu.csc.itrust2.models.persistent.LabProcedure;
+import edu.ncsu.csc.itrust2.models.persistent.OfficeVisit;
 import edu.ncsu.csc.itrust2.models.persistent.Pharmacy;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.utils.EmailUtil;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
 
 /**
  * Class that provides REST API endpoints for the GeneralCheckup model. In all
@@ -95,44 +97,46 @@ public class APIGeneralCheckupController extends APIController {
     public ResponseEntity createGeneralCheckupWithPharmacy ( @RequestBody final GeneralCheckupForm visitForm,
             @PathVariable final String pharmacy ) {
         try {
-            if ( visitForm.getPrescriptions() != null ) {
-                visitForm.getPrescriptions().get( 0 ).setPharmacy( pharmacy );
-            }
+            return UnitOfWork.atomically( () -> {
+                if ( visitForm.getPrescriptions() != null ) {
+                    visitForm.getPrescriptions().get( 0 ).setPharmacy( pharmacy );
+                }
 
-            final GeneralCheckup visit = new GeneralCheckup( visitForm );
+                final GeneralCheckup visit = new GeneralCheckup( visitForm );
 
-            if ( null != GeneralCheckup.getById( visit.getId() ) ) {
-                return new ResponseEntity(
-                        errorResponse( "Office visit with the id " + visit.getId() + " already exists" ),
-                        HttpStatus.CONFLICT );
-            }
-            visit.save();
-            LoggerUtil.log( TransactionType.GENERAL_CHECKUP_CREATE, LoggerUtil.currentUser(),
-                    visit.getPatient().getUsername() );
-            LoggerUtil.log( TransactionType.PRESCRIPTION_SENT_HCP_PHARMACY, LoggerUtil.currentUser(),
-                    visit.getPatient().getUsername() );
+                if ( OfficeVisit.existsById( visit.getId() ) ) {
+                    return new ResponseEntity(
+                            errorResponse( "Office visit with the id " + visit.getId() + " already exists" ),
+                            HttpStatus.CONFLICT );
+                }
+                visit.save();
+                LoggerUtil.log( TransactionType.GENERAL_CHECKUP_CREATE, LoggerUtil.currentUser(),
+                        visit.getPatient().getUsername() );
+                LoggerUtil.log( TransactionType.PRESCRIPTION_SENT_HCP_PHARMACY, LoggerUtil.currentUser(),
+                        visit.getPatient().getUsername() );
 
-            final String email = EmailUtil.getEmailByUsername( visit.getPatient().getUsername() );
+                final String email = EmailUtil.getEmailByUsername( visit.getPatient().getUsername() );
 
-            if ( email != null && !visit.getPrescriptions().isEmpty() ) {
-                try {
-                    EmailUtil.sendEmail( email, "iTrust2: Prescription Created",
-                            "Your prescription is created and sent to the pharmacy that hcp chose, which is "
-                                    + Pharmacy.getByName( pharmacy ).getName() + "." );
-                    LoggerUtil.log( TransactionType.PRESCRIPTION_EMAIL_SENT, LoggerUtil.currentUser(),
-                            visit.getPatient().getUsername() );
+                if ( email != null && !visit.getPrescriptions().isEmpty() ) {
+                    try {
+                        EmailUtil.sendEmail( email, "iTrust2: Prescription Created",
+                                "Your prescription is created and sent to the pharmacy that hcp chose, which is "
+                                        + Pharmacy.getByName( pharmacy ).getName() + "." );
+                        LoggerUtil.log( TransactionType.PRESCRIPTION_EMAIL_SENT, LoggerUtil.currentUser(),
+                                visit.getPatient().getUsername() );
+                    }
+                    catch ( final MessagingException e ) {
+                        e.printStackTrace();
+                    }
                 }
-                catch ( final MessagingException e ) {
-                    e.printStackTrace();
+                else {
+                    LoggerUtil.log( TransactionType.PRESCRIPTION_EMAIL_NOT_SENT, LoggerUtil.currentUser() );
                 }
-            }
-            else {
-                LoggerUtil.log( TransactionType.PRESCRIPTION_EMAIL_NOT_SENT, LoggerUtil.currentUser() );
-            }
 
-            visit.unlinkCircularReferences();
-            return new ResponseEntity( visit, HttpStatus.OK );
+                visit.unlinkCircularReferences();
+                return new ResponseEntity( visit, HttpStatus.OK );
 
+            } );
         }
         catch ( final Exception e ) {
             e.printStackTrace();
@@ -143,7 +147,10 @@ public class APIGeneralCheckupController extends APIController {
     }
 
     /**
-     * Creates and saves a new GeneralCheckup from the RequestBody provided.
+     * Creates and saves a new GeneralCheckup from the RequestBody provided. The
+     * visit and everything recorded at it are saved in one transaction, and the
+     * audit log entries and email to the patient only go out once it has been
+     * committed.
      *
      * @param visitForm
      *            The office visit to be validated and saved
@@ -154,48 +161,50 @@ public class APIGeneralCheckupController extends APIController {
     @PreAuthorize ( "hasAnyRole('ROLE_HCP', 'ROLE_OD', 'ROLE_OPH', 'ROLE_VIROLOGIST')" )
     public ResponseEntity createGeneralCheckup ( @RequestBody final GeneralCheckupForm visitForm ) {
         try {
-            // if ( visitForm.getPrescriptions() != null ) {
-            // visitForm.getPrescriptions().get( 0 )
-            // .setPharmacy( Patient.getByName( visitForm.getPatient()
-            // ).getDefaultPharmacy().getName() );
-            // }
-            final GeneralCheckup visit = new GeneralCheckup( visitForm );
+            return UnitOfWork.atomically( () -> {
+                // if ( visitForm.getPrescriptions() != null ) {
+                // visitForm.getPrescriptions().get( 0 )
+                // .setPharmacy( Patient.getByName( visitForm.getPatient()
+                // ).getDefaultPharmacy().getName() );
+                // }
+                final GeneralCheckup visit = new GeneralCheckup( visitForm );
 
-            if ( null != GeneralCheckup.getById( visit.getId() ) ) {
-                return new ResponseEntity(
-                        errorResponse( "Office visit with the id " + visit.getId() + " already exists" ),
-                        HttpStatus.CONFLICT );
-            }
-            for ( final LabProcedure lp : visit.getLabProcedures() ) {
-                lp.setPatient( visit.getPatient() );
-            }
+                if ( OfficeVisit.existsById( visit.getId() ) ) {
+                    return new ResponseEntity(
+                            errorResponse( "Office visit with the id " + visit.getId() + " already exists" ),
+                            HttpStatus.CONFLICT );
+                }
+                for ( final LabProcedure lp : visit.getLabProcedures() ) {
+                    lp.setPatient( visit.getPatient() );
+                }
 
-            visit.save();
-            LoggerUtil.log( TransactionType.GENERAL_CHECKUP_CREATE, LoggerUtil.currentUser(),
-                    visit.getPatient().getUsername() );
-            LoggerUtil.log( TransactionType.PRESCRIPTION_SENT_DEFAULT_PHARMACY, LoggerUtil.currentUser(),
-                    visit.getPatient().getUsername() );
+                visit.save();
+                LoggerUtil.log( TransactionType.GENERAL_CHECKUP_CREATE, LoggerUtil.currentUser(),
+                        visit.getPatient().getUsername() );
+                LoggerUtil.log( TransactionType.PRESCRIPTION_SENT_DEFAULT_PHARMACY, LoggerUtil.currentUser(),
+                        visit.getPatient().getUsername() );
 
-            final String email = EmailUtil.getEmailByUsername( visit.getPatient().getUsername() );
+                final String email = EmailUtil.getEmailByUsername( visit.getPatient().getUsername() );
 
-            if ( email != null && !visit.getPrescriptions().isEmpty() ) {
-                try {
-                    EmailUtil.sendEmail( email, "iTrust2: Prescription Created",
-                            "Your prescription is created and sent to your pharmacy" );
-                    LoggerUtil.log( TransactionType.PRESCRIPTION_EMAIL_SENT, LoggerUtil.currentUser(),
-                            visit.getPatient().getUsername() );
+                if ( email != null && !visit.getPrescriptions().isEmpty() ) {
+                    try {
+                        EmailUtil.sendEmail( email, "iTrust2: Prescription Created",
+                                "Your prescription is created and sent to your pharmacy" );
+                        LoggerUtil.log( TransactionType.PRESCRIPTION_EMAIL_SENT, LoggerUtil.currentUser(),
+                                visit.getPatient().getUsername() );
+                    }
+                    catch ( final MessagingException e ) {
+                        e.printStackTrace();
+                    }
                 }
-                catch ( final MessagingException e ) {
-                    e.printStackTrace();
+                else {
+                    LoggerUtil.log( TransactionType.PRESCRIPTION_EMAIL_NOT_SENT, LoggerUtil.currentUser() );
                 }
-            }
-            else {
-                LoggerUtil.log( TransactionType.PRESCRIPTION_EMAIL_NOT_SENT, LoggerUtil.currentUser() );
-            }
 
-            final GeneralCheckupForm response = new GeneralCheckupForm( visit );
-            response.getLabProcedures().forEach( lp -> lp.setVisit( null ) );
-            return new ResponseEntity( response, HttpStatus.OK );
+                final GeneralCheckupForm response = new GeneralCheckupForm( visit );
+                response.getLabProcedures().forEach( lp -> lp.setVisit( null ) );
+                return new ResponseEntity( response, HttpStatus.OK );
+            } );
         }
         catch ( final Exception e ) {
             e.printStackTrace();
@@ -263,8 +272,7 @@ public class APIGeneralCheckupController extends APIController {
     @PreAuthorize ( "hasAnyRole('ROLE_HCP', 'ROLE_OD', 'ROLE_OPH', 'ROLE_VIROLOGIST')" )
     public ResponseEntity viewGeneralCheckup ( @PathVariable final Long id,
             @RequestBody final GeneralCheckupForm form ) {
-        final GeneralCheckup dbVisit = GeneralCheckup.getById( id );
-        if ( null == dbVisit ) {
+        if ( !OfficeVisit.existsById( GeneralCheckup.class, id ) ) {
             return new ResponseEntity( errorResponse( "No visit found for name " + id ), HttpStatus.NOT_FOUND );
         }
         LoggerUtil.log( TransactionType.GENERAL_CHECKUP_HCP_VIEW, form.getHcp(), form.getPatient(),
@@ -286,8 +294,7 @@ public class APIGeneralCheckupController extends APIController {
     @PreAuthorize ( "hasRole('ROLE_PATIENT')" )
     public ResponseEntity viewGeneralCheckupPatient ( @PathVariable final Long id,
             @RequestBody final GeneralCheckupForm form ) {
-        final GeneralCheckup dbVisit = GeneralCheckup.getById( id );
-        if ( null == dbVisit ) {
+        if ( !OfficeVisit.existsById( GeneralCheckup.class, id ) ) {
             return new ResponseEntity( errorResponse( "No visit found for name " + id ), HttpStatus.NOT_FOUND );
         }
         LoggerUtil.log( TransactionType.GENERAL_CHECKUP_PATIENT_VIEW, form.getHcp(), form.getPatient(),
@@ -15,6 +15,7 @@ import edu.ncsu.csc.itrust2.controllers.api.APIController;
 import edu.ncsu.csc.itrust2.forms.hcp.GeneralOphthalmologyForm;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.GeneralOphthalmology;
+import edu.ncsu.csc.itrust2.models.persistent.OfficeVisit;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
 
@@ -99,7 +100,7 @@ public class APIGeneralOphthalmologyController extends APIController {
         try {
             final GeneralOphthalmology visit = new GeneralOphthalmology( visitF );
 
-            if ( null != GeneralOphthalmology.getById( visit.getId() ) ) {
+            if ( OfficeVisit.existsById( visit.getId() ) ) {
                 return new ResponseEntity(
                         errorResponse( "Office visit with the id " + visit.getId() + " already exists" ),
                         HttpStatus.CONFLICT );
@@ -177,8 +178,7 @@ public class APIGeneralOphthalmologyController extends APIController {
     @PreAuthorize ( "hasAnyRole('ROLE_HCP', 'ROLE_OD', 'ROLE_VIROLOGIST', 'ROLE_OPH')" )
     public ResponseEntity viewGeneralOphthalmology ( @PathVariable final Long id,
             @RequestBody final GeneralOphthalmologyForm form ) {
-        final GeneralOphthalmology dbVisit = GeneralOphthalmology.getById( id );
-        if ( null == dbVisit ) {
+        if ( !OfficeVisit.existsById( GeneralOphthalmology.class, id ) ) {
             return new ResponseEntity( errorResponse( "No visit found for name " + id ), HttpStatus.NOT_FOUND );
         }
         LoggerUtil.log( TransactionType.GENERAL_OPHTHALMOLOGY_HCP_VIEW, form.getHcp(), form.getPatient(),
@@ -200,8 +200,7 @@ public class APIGeneralOphthalmologyController extends APIController {
     @PreAuthorize ( "hasRole('ROLE_PATIENT')" )
     public ResponseEntity viewGeneralOphthalmologyPatient ( @PathVariable final Long id,
             @RequestBody final GeneralOphthalmologyForm form ) {
-        final GeneralOphthalmology dbVisit = GeneralOphthalmology.getById( id );
-        if ( null == dbVisit ) {
+        if ( !OfficeVisit.existsById( GeneralOphthalmology.class, id ) ) {
             return new ResponseEntity( errorResponse( "No visit found for name " + id ), HttpStatus.NOT_FOUND );
         }
         LoggerUtil.log( TransactionType.GENERAL_OPHTHALMOLOGY_PATIENT_VIEW, form.getHcp(), form.getPatient(),
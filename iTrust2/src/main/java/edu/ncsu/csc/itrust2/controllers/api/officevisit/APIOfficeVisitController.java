@@ -1,5 +1,6 @@
 package edu.ncsu.csc.itrust2.controllers.api.officevisit;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -54,14 +55,16 @@ public class APIOfficeVisitController extends APIController {
     @GetMapping ( BASE_PATH + "/officevisits/HCP" )
     public List<OfficeVisit> getOfficeVisitsForHCP () {
         final User self = User.getByName( LoggerUtil.currentUser() );
-        final List<OfficeVisit> visits = OfficeVisit.getForType( AppointmentType.GENERAL_CHECKUP );
+        final List<AppointmentType> types = new ArrayList<AppointmentType>();
+        types.add( AppointmentType.GENERAL_CHECKUP );
         if ( self.getRole() == Role.ROLE_OPH ) {
-            visits.addAll( OfficeVisit.getForType( AppointmentType.GENERAL_OPHTHALMOLOGY ) );
-            visits.addAll( OfficeVisit.getForType( AppointmentType.OPHTHALMOLOGY_SURGERY ) );
+            types.add( AppointmentType.GENERAL_OPHTHALMOLOGY );
+            types.add( AppointmentType.OPHTHALMOLOGY_SURGERY );
         }
         else if ( self.getRole() == Role.ROLE_OD ) {
-            visits.addAll( OfficeVisit.getForType( AppointmentType.GENERAL_OPHTHALMOLOGY ) );
+            types.add( AppointmentType.GENERAL_OPHTHALMOLOGY );
         }
+        final List<OfficeVisit> visits = OfficeVisit.getForTypes( types );
         for ( final OfficeVisit v : visits ) {
             v.unlinkCircularReferences();
         }
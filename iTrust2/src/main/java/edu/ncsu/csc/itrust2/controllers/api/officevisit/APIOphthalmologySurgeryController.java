@@ -14,6 +14,7 @@ import org.springframework.web.bind.annotation.RestController;
 import edu.ncsu.csc.itrust2.controllers.api.APIController;
 import edu.ncsu.csc.itrust2.forms.hcp.OphthalmologySurgeryForm;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.models.persistent.OfficeVisit;
 import edu.ncsu.csc.itrust2.models.persistent.OphthalmologySurgery;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
@@ -99,7 +100,7 @@ public class APIOphthalmologySurgeryController extends APIController {
         try {
             final OphthalmologySurgery visit = new OphthalmologySurgery( visitF );
 
-            if ( null != OphthalmologySurgery.getById( visit.getId() ) ) {
+            if ( OfficeVisit.existsById( visit.getId() ) ) {
                 return new ResponseEntity(
                         errorResponse( "Office visit with the id " + visit.getId() + " already exists" ),
                         HttpStatus.CONFLICT );
@@ -177,8 +178,7 @@ public class APIOphthalmologySurgeryController extends APIController {
     @PreAuthorize ( "hasRole('ROLE_OPH')" )
     public ResponseEntity viewOphthalmologySurgery ( @PathVariable final Long id,
             @RequestBody final OphthalmologySurgeryForm form ) {
-        final OphthalmologySurgery dbVisit = OphthalmologySurgery.getById( id );
-        if ( null == dbVisit ) {
+        if ( !OfficeVisit.existsById( OphthalmologySurgery.class, id ) ) {
             return new ResponseEntity( errorResponse( "No visit found for name " + id ), HttpStatus.NOT_FOUND );
         }
         LoggerUtil.log( TransactionType.OPHTHALMOLOGY_SURGERY_HCP_VIEW, form.getHcp(), form.getPatient(),
@@ -200,8 +200,7 @@ public class APIOphthalmologySurgeryController extends APIController {
     @PreAuthorize ( "hasRole('ROLE_PATIENT')" )
     public ResponseEntity viewOphthalmologySurgeryPatient ( @PathVariable final Long id,
             @RequestBody final OphthalmologySurgeryForm form ) {
-        final OphthalmologySurgery dbVisit = OphthalmologySurgery.getById( id );
-        if ( null == dbVisit ) {
+        if ( !OfficeVisit.existsById( OphthalmologySurgery.class, id ) ) {
             return new ResponseEntity( errorResponse( "No visit found for name " + id ), HttpStatus.NOT_FOUND );
         }
         LoggerUtil.log( TransactionType.OPHTHALMOLOGY_SURGERY_PATIENT_VIEW, form.getHcp(), form.getPatient(),
@@ -0,0 +1,120 @@
+package edu.ncsu.csc.itrust2.forms.hcp;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.ncsu.csc.itrust2.utils.ChartLoader;
+
+/**
+ * A patient's chart, as returned by the REST API: everything an HCP looks at
+ * for a patient, gathered into one response. Each section is loaded
+ * separately (see {@link ChartLoader}); a section that could not be loaded in
+ * time is left out of the sections and listed in missing instead.
+ */
+public class PatientChartForm implements Serializable {
+
+    private static final long         serialVersionUID = 1L;
+
+    /** Username of the patient */
+    private String                    patient;
+
+    /** What each section loaded, by section name */
+    private final Map<String, Object> sections         = new LinkedHashMap<String, Object>();
+
+    /** Time spent loading each section, in milliseconds */
+    private final Map<String, Long>   timings          = new LinkedHashMap<String, Long>();
+
+    /** Why each missing section is missing */
+    private final Map<String, String> missing          = new LinkedHashMap<String, String>();
+
+    /** Time spent loading the whole chart, in milliseconds */
+    private long                      totalMillis;
+
+    /**
+     * Empty constructor for Gson
+     */
+    public PatientChartForm () {
+    }
+
+    /**
+     * Constructs a chart from the loaded sections
+     *
+     * @param patient
+     *            Username of the patient
+     * @param loaded
+     *            What happened to each section, by name
+     * @param totalMillis
+     *            Time spent loading the whole chart
+     */
+    public PatientChartForm ( final String patient, final Map<String, ChartLoader.Section> loaded,
+            final long totalMillis ) {
+        this.patient = patient;
+        this.totalMillis = totalMillis;
+        for ( final Map.Entry<String, ChartLoader.Section> e : loaded.entrySet() ) {
+            final ChartLoader.Section section = e.getValue();
+            timings.put( e.getKey(), section.getMillis() );
+            if ( ChartLoader.Section.Status.OK == section.getStatus() ) {
+                sections.put( e.getKey(), section.getData() );
+            }
+            else {
+                missing.put( e.getKey(), section.getStatus() + ": " + section.getError() );
+            }
+        }
+    }
+
+    /**
+     * Username of the patient
+     *
+     * @return The username
+     */
+    public String getPatient () {
+        return patient;
+    }
+
+    /**
+     * What each section loaded
+     *
+     * @return The sections, by name
+     */
+    public Map<String, Object> getSections () {
+        return sections;
+    }
+
+    /**
+     * Time spent loading each section
+     *
+     * @return Milliseconds, by section name
+     */
+    public Map<String, Long> getTimings () {
+        return timings;
+    }
+
+    /**
+     * Sections that could not be loaded, and why
+     *
+     * @return Reasons, by section name
+     */
+    public Map<String, String> getMissing () {
+        return missing;
+    }
+
+    /**
+     * Whether every section was loaded
+     *
+     * @return True if nothing is missing
+     */
+    public boolean isComplete () {
+        return missing.isEmpty();
+    }
+
+    /**
+     * Time spent loading the whole chart
+     *
+     * @return Time in milliseconds
+     */
+    public long getTotalMillis () {
+        return totalMillis;
+    }
+
+}
@@ -268,21 +268,8 @@ public class EmergencyRecordForm implements Serializable {
      */
     public void setDiagnoses () {
         try {
-            final List<Diagnosis> allDiagnoses = Diagnosis
-                    .getForPatient( User.getByName( this.patient.getSelf().getUsername() ) );
-            final List<Diagnosis> recentDiagnoses = new ArrayList<Diagnosis>();
-
-            final Date date = new Date();
-            final LocalDate now = date.toInstant().atZone( ZoneId.systemDefault() ).toLocalDate();
-            for ( final Diagnosis diag : allDiagnoses ) {
-                final ZonedDateTime officeVisitDate = diag.getVisit().getDate();
-                final LocalDate diagnosisDate = officeVisitDate.toInstant().atZone( ZoneId.systemDefault() )
-                        .toLocalDate();
-                if ( Period.between( diagnosisDate, now ).getDays() <= 60 ) {
-                    recentDiagnoses.add( diag );
-                }
-            }
-            this.diagnoses = recentDiagnoses;
+            final ZonedDateTime since = LocalDate.now().minusDays( 60 ).atStartOfDay( ZoneId.systemDefault() );
+            this.diagnoses = Diagnosis.getHistory( this.patient.getSelf(), since, null, null );
         }
         catch ( final NullPointerException e ) {
             this.diagnoses = new ArrayList<Diagnosis>();
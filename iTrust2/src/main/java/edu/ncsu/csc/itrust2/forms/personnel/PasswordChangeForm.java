@@ -1,10 +1,10 @@
 package edu.ncsu.csc.itrust2.forms.personnel;
 
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 import edu.ncsu.csc.itrust2.models.persistent.PasswordResetToken;
 import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.PasswordHasher;
 
 /**
  * Form used to change or reset a password. The same form is used for both by
@@ -16,7 +16,7 @@ import edu.ncsu.csc.itrust2.models.persistent.User;
  */
 public class PasswordChangeForm {
 
-    static PasswordEncoder pe = new BCryptPasswordEncoder();
+    static PasswordEncoder pe = PasswordHasher.getInstance();
     private String         currentPassword;
     private String         newPassword;
     private String         newPassword2;
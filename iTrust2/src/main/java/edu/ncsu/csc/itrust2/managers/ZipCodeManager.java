@@ -93,7 +93,7 @@ public class ZipCodeManager {
      * @return database
      */
     public boolean checkDatabase () {
-        return ZipCodeEntry.getAll().size() > 0;
+        return ZipCodeEntry.hasEntries();
     }
 
     /**
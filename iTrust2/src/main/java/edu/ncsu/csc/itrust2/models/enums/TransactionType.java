@@ -579,7 +579,11 @@ public enum TransactionType {
     /**
      * Prescription can be sent by email
      */
-    PRESCRIPTION_EMAIL_SENT ( 3504, "Email has been sent to the patient", true );
+    PRESCRIPTION_EMAIL_SENT ( 3504, "Email has been sent to the patient", true ),
+    /**
+     * HCP views a patient's whole chart at once
+     */
+    HCP_VIEW_PATIENT_CHART ( 3601, "HCP viewed a patient's chart", true );
 
     /**
      * Creates a TransactionType for logging events
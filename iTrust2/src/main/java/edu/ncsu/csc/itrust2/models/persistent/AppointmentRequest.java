@@ -57,6 +57,18 @@ public class AppointmentRequest extends DomainObject<AppointmentRequest> {
         }
     }
 
+    /**
+     * Checks whether an AppointmentRequest with the given ID exists, without
+     * loading it
+     *
+     * @param id
+     *            The ID (as assigned by the DB) of the AppointmentRequest
+     * @return true if there is a AppointmentRequest with this ID
+     */
+    public static boolean existsById ( final Long id ) {
+        return null != id && exists( AppointmentRequest.class, eqList( ID, id ) );
+    }
+
     /**
      * Retrieve a List of all AppointmentRequests from the database. Can be
      * filtered further once retrieved. Will return the AppointmentRequests
@@ -13,13 +13,14 @@ import javax.persistence.Basic;
 import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.validation.constraints.Min;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.hibernate.criterion.Criterion;
 import org.springframework.data.jpa.convert.threeten.Jsr310JpaConverters.LocalDateConverter;
 
@@ -54,10 +55,16 @@ public class BloodSugarDiaryEntry extends DomainObject<BloodSugarDiaryEntry> imp
     private LocalDate         date;
 
     /**
-     * The id of this DiaryEntry
+     * The id of this DiaryEntry. Allocated in blocks so that uploaded entries
+     * can be inserted in batches.
      */
     @Id
-    @GeneratedValue ( strategy = GenerationType.AUTO )
+    @GeneratedValue ( generator = "bloodSugarDiaryEntryIds" )
+    @GenericGenerator ( name = "bloodSugarDiaryEntryIds", strategy = "org.hibernate.id.enhanced.TableGenerator",
+            parameters = { @Parameter ( name = "table_name", value = "IdGenerators" ),
+                    @Parameter ( name = "segment_value", value = "BloodSugarDiaryEntries" ),
+                    @Parameter ( name = "increment_size", value = "50" ),
+                    @Parameter ( name = "optimizer", value = "pooled-lo" ) } )
     private Long              id;
 
     /**
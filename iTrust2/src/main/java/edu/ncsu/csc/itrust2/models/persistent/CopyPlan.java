@@ -0,0 +1,118 @@
+package edu.ncsu.csc.itrust2.models.persistent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.Id;
+
+/**
+ * The fields that {@link DomainObject#copyFrom(DomainObject, Boolean)} copies
+ * for one class, worked out once and then reused for every copy. Each field is
+ * copied by a MethodHandle that reads it from one object and writes it to the
+ * other, so a copy is a straight run through an array with no reflection
+ * lookups, access checks or annotation scanning.
+ */
+final class CopyPlan {
+
+    /** The plan for each class, built the first time that class is copied */
+    private static final ClassValue<CopyPlan> PLANS       = new ClassValue<CopyPlan>() {
+        @Override
+        protected CopyPlan computeValue ( final Class< ? > type ) {
+            return new CopyPlan( type );
+        }
+    };
+
+    /** Type every copier is adapted to: (target, source) -> void */
+    private static final MethodType           COPIER_TYPE = MethodType.methodType( void.class, Object.class,
+            Object.class );
+
+    /** Copiers for the fields annotated with @Id */
+    private final MethodHandle[]              idCopiers;
+
+    /** Copiers for every other field */
+    private final MethodHandle[]              fieldCopiers;
+
+    /**
+     * Builds the plan for a class from its declared fields. As with the
+     * original reflective copy, final fields are left alone; static fields are
+     * shared between the two objects anyway, so they are skipped too.
+     *
+     * @param type
+     *            The class to build a plan for
+     */
+    private CopyPlan ( final Class< ? > type ) {
+        final List<MethodHandle> ids = new ArrayList<MethodHandle>();
+        final List<MethodHandle> others = new ArrayList<MethodHandle>();
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for ( final Field f : type.getDeclaredFields() ) {
+            final int modifiers = f.getModifiers();
+            if ( Modifier.isFinal( modifiers ) || Modifier.isStatic( modifiers ) ) {
+                continue;
+            }
+            f.setAccessible( true );
+            final MethodHandle copier;
+            try {
+                // setter( target, getter( source ) )
+                copier = MethodHandles.filterArguments( lookup.unreflectSetter( f ), 1, lookup.unreflectGetter( f ) )
+                        .asType( COPIER_TYPE );
+            }
+            catch ( final IllegalAccessException e ) {
+                throw new IllegalArgumentException( e );
+            }
+            if ( f.isAnnotationPresent( Id.class ) ) {
+                ids.add( copier );
+            }
+            else {
+                others.add( copier );
+            }
+        }
+        this.idCopiers = ids.toArray( new MethodHandle[ids.size()] );
+        this.fieldCopiers = others.toArray( new MethodHandle[others.size()] );
+    }
+
+    /**
+     * Retrieves the copy plan for a class
+     *
+     * @param type
+     *            The class being copied
+     * @return The plan for that class
+     */
+    static CopyPlan forClass ( final Class< ? > type ) {
+        return PLANS.get( type );
+    }
+
+    /**
+     * Copies the planned fields from one object to another of the same class
+     *
+     * @param target
+     *            Object to copy into
+     * @param source
+     *            Object to copy from
+     * @param includeId
+     *            Whether to copy the ID as well
+     */
+    void copy ( final Object target, final Object source, final boolean includeId ) {
+        try {
+            if ( includeId ) {
+                for ( final MethodHandle copier : idCopiers ) {
+                    copier.invokeExact( target, source );
+                }
+            }
+            for ( final MethodHandle copier : fieldCopiers ) {
+                copier.invokeExact( target, source );
+            }
+        }
+        catch ( final Error e ) {
+            throw e;
+        }
+        catch ( final Throwable e ) {
+            throw new IllegalArgumentException( e );
+        }
+    }
+
+}
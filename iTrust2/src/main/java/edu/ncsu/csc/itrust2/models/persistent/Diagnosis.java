@@ -1,5 +1,6 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
+import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Vector;
 
@@ -12,7 +13,12 @@ import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.validation.constraints.NotNull;
 
+import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.MatchMode;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
 
 /**
  * Class to represent a Diagnosis made by an HCP as part of an Office Visit
@@ -149,7 +155,11 @@ public class Diagnosis extends DomainObject<Diagnosis> {
      * @return The list of Diagnoses
      */
     public static List<Diagnosis> getByVisit ( final Long id ) {
-        return getWhere( eqList( "visit", OfficeVisit.getById( id ) ) );
+        if ( null == id ) {
+            return new Vector<Diagnosis>();
+        }
+        // By the visit's ID, so the visit need not be loaded first
+        return getWhere( eqList( "visit.id", id ) );
     }
 
     /**
@@ -160,10 +170,48 @@ public class Diagnosis extends DomainObject<Diagnosis> {
      * @return The list of diagnoses
      */
     public static List<Diagnosis> getForPatient ( final User user ) {
-        final List<Diagnosis> diagnoses = new Vector<Diagnosis>();
-        OfficeVisit.getForPatient( user.getId() ).stream().map( OfficeVisit::getId )
-                .forEach( e -> diagnoses.addAll( getByVisit( e ) ) );
-        return diagnoses;
+        return getHistory( user, null, null, null );
+    }
 
+    /**
+     * Returns the diagnoses made for a patient, most recent visit first, each
+     * with its office visit. Everything is read in one query, joining the
+     * diagnoses to their visits, however many visits the patient has had.
+     *
+     * @param user
+     *            The patient to get diagnoses for
+     * @param from
+     *            If not null, only diagnoses from visits at or after this time
+     * @param to
+     *            If not null, only diagnoses from visits before this time
+     * @param codePrefix
+     *            If not null or empty, only diagnoses whose ICD code starts
+     *            with this
+     * @return The list of diagnoses
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<Diagnosis> getHistory ( final User user, final ZonedDateTime from, final ZonedDateTime to,
+            final String codePrefix ) {
+        if ( null == user ) {
+            return new Vector<Diagnosis>();
+        }
+        return inReadSession( session -> {
+            final Criteria c = session.createCriteria( Diagnosis.class ).createAlias( "visit", "v" )
+                    .createAlias( "code", "c" ).add( Restrictions.eq( "v.patient", user ) );
+            if ( null != from ) {
+                c.add( Restrictions.ge( "v.date", from ) );
+            }
+            if ( null != to ) {
+                c.add( Restrictions.lt( "v.date", to ) );
+            }
+            if ( null != codePrefix && !codePrefix.isEmpty() ) {
+                c.add( Restrictions.like( "c.code", codePrefix, MatchMode.START ) );
+            }
+            // The visits' prescriptions come in the same query, rather than
+            // in a second one once the visits are loaded
+            c.setFetchMode( "v.prescriptions", FetchMode.JOIN )
+                    .setResultTransformer( Criteria.DISTINCT_ROOT_ENTITY );
+            return (List<Diagnosis>) c.addOrder( Order.desc( "v.date" ) ).addOrder( Order.asc( ID ) ).list();
+        } );
     }
 }
@@ -1,21 +1,46 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.io.Serializable;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.hibernate.Criteria;
-import org.hibernate.ObjectNotFoundException;
+import org.hibernate.FetchMode;
+import org.hibernate.NonUniqueObjectException;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.annotations.Cache;
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.collection.AbstractCollectionPersister;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.resource.transaction.spi.TransactionStatus;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.Type;
 import org.springframework.transaction.annotation.Transactional;
 
 import edu.ncsu.csc.itrust2.utils.HibernateUtil;
+import edu.ncsu.csc.itrust2.utils.ReplicaRouter;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
 
 /**
  * The common super-class for all database entities. This is done to centralize
@@ -32,6 +57,21 @@ import edu.ncsu.csc.itrust2.utils.HibernateUtil;
  * performance out of the underlying database system. It is not _required_ but
  * is better to have it than not.
  *
+ * When a {@link UnitOfWork} is active on the current thread (as it is for every
+ * web request) all of these methods share its session and transaction, so one
+ * request means one session, one first-level cache and one commit. Otherwise
+ * each call opens and commits its own session.
+ *
+ * Reference data that is read far more often than it is written (types
+ * annotated with @Cache) is kept in Hibernate's second-level cache, and
+ * queries for it in the query cache. Saves and deletes through this class
+ * update or invalidate the cached copies as part of the same transaction, so
+ * callers never need to manage the cache themselves.
+ *
+ * The retrieval methods only read, so when read replicas are configured they
+ * are run against a replica (see {@link ReplicaRouter}) unless the current
+ * request has already written something; everything else goes to the primary.
+ *
  * @author Kai Presler-Marshall
  *
  * @param <D>
@@ -46,7 +86,12 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      * Lots of DomainObjects are retrieved by ID. This way we get compile-time
      * errors of typos
      */
-    static final protected String ID = "id";
+    static final protected String ID         = "id";
+
+    /**
+     * Number of rows read from the database at a time when streaming results
+     */
+    static final protected int    FETCH_SIZE = 500;
 
     /**
      * Performs a getAll on the subtype of DomainObject in question. The
@@ -59,31 +104,171 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      */
     @Transactional ( readOnly = true )
     protected static List< ? extends DomainObject> getAll ( final Class cls ) {
-        List< ? extends DomainObject> results = null;
+        return inReadSession( session -> session.createCriteria( cls ).setCacheable( isCached( cls ) ).list() );
+    }
+
+    /**
+     * Whether a subclass of DomainObject is held in the second-level cache
+     * (it is annotated with @Cache). Queries for these types also use the
+     * query cache, so repeating a lookup does not go to the database until a
+     * record of that type is saved or deleted.
+     *
+     * @param cls
+     *            Subclass of DomainObject to check
+     * @return True if the type is cached
+     */
+    private static boolean isCached ( final Class cls ) {
+        return cls.isAnnotationPresent( Cache.class );
+    }
+
+    /**
+     * Runs a piece of database work against the primary database. If a
+     * UnitOfWork is active its session is used and nothing is committed here;
+     * otherwise a session and transaction are opened just for this piece of
+     * work and committed afterwards.
+     *
+     * @param work
+     *            The work to perform with the session
+     * @return Whatever the work returns
+     */
+    protected static <T> T inSession ( final Function<Session, T> work ) {
+        final Session shared = UnitOfWork.currentSession();
+        if ( null != shared ) {
+            try {
+                final T result = work.apply( shared );
+                // The work has been flushed; until the replicas have it, reads
+                // on this thread go to the primary
+                ReplicaRouter.markWrite();
+                return result;
+            }
+            catch ( final RuntimeException e ) {
+                UnitOfWork.fail();
+                throw e;
+            }
+        }
+
         final Session session = HibernateUtil.openSession();
         try {
             session.beginTransaction();
-            results = session.createCriteria( cls ).list();
+            final T result = work.apply( session );
+            session.getTransaction().commit();
+            ReplicaRouter.markWrite();
+            return result;
+        }
+        catch ( final RuntimeException e ) {
+            if ( TransactionStatus.ACTIVE == session.getTransaction().getStatus() ) {
+                session.getTransaction().rollback();
+            }
+            throw e;
         }
         finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Runs a piece of database work that only reads. This is the same as
+     * {@link #inSession(Function)} except that the session may be on a read
+     * replica rather than the primary (see
+     * {@link UnitOfWork#currentReadSession()} and
+     * {@link HibernateUtil#openReadSession()}), so the work must not write.
+     *
+     * @param work
+     *            The work to perform with the session
+     * @return Whatever the work returns
+     */
+    protected static <T> T inReadSession ( final Function<Session, T> work ) {
+        final Session shared = UnitOfWork.currentReadSession();
+        if ( null != shared ) {
             try {
-                session.getTransaction().commit();
-                session.close();
+                return work.apply( shared );
             }
-            catch ( final Exception e ) {
-                e.printStackTrace( System.out );
-                // Continue
+            catch ( final RuntimeException e ) {
+                UnitOfWork.fail();
+                throw e;
             }
+        }
+
+        final Session session = HibernateUtil.openReadSession();
+        try {
+            final T result = work.apply( session );
+            session.getTransaction().commit();
+            return result;
+        }
+        catch ( final RuntimeException e ) {
+            if ( TransactionStatus.ACTIVE == session.getTransaction().getStatus() ) {
+                session.getTransaction().rollback();
+            }
+            throw e;
+        }
+        finally {
+            session.close();
+        }
+    }
 
+    /**
+     * Runs a piece of database work that only reads, against the primary
+     * database, for reads that must not see a replica that is behind (such as
+     * values about to be cached). The work always gets a read-only session of
+     * its own, so it neither sees nor changes the routing of any UnitOfWork
+     * on this thread.
+     *
+     * @param work
+     *            The work to perform with the session
+     * @return Whatever the work returns
+     */
+    protected static <T> T inPrimaryReadSession ( final Function<Session, T> work ) {
+        final Session session = HibernateUtil.openSession();
+        try {
+            session.setDefaultReadOnly( true );
+            session.beginTransaction();
+            final T result = work.apply( session );
+            session.getTransaction().commit();
+            return result;
+        }
+        catch ( final RuntimeException e ) {
+            if ( TransactionStatus.ACTIVE == session.getTransaction().getStatus() ) {
+                session.getTransaction().rollback();
+            }
+            throw e;
         }
+        finally {
+            session.close();
+        }
+    }
 
-        return results;
+    /**
+     * Makes the given object persistent in the session provided. If the
+     * session already holds a different instance with the same ID (because it
+     * was retrieved earlier in the same UnitOfWork), that instance is replaced
+     * by the one being saved, so that every field is written just as it would
+     * be from a fresh session.
+     *
+     * @param session
+     *            Session to save in
+     * @param obj
+     *            Object to save
+     */
+    private static void saveOrUpdate ( final Session session, final DomainObject obj ) {
+        UnitOfWork.release( obj );
+        if ( session.contains( obj ) && session.isReadOnly( obj ) ) {
+            // Loaded read-only by this UnitOfWork; reattach it as modifiable
+            session.evict( obj );
+        }
+        try {
+            session.saveOrUpdate( obj );
+        }
+        catch ( final NonUniqueObjectException e ) {
+            session.evict( session.get( e.getEntityName(), e.getIdentifier() ) );
+            session.saveOrUpdate( obj );
+        }
     }
 
     /**
      * When we want to perform an update, rather than deleting and re-creating,
      * we can perform a copyFrom instead. This is advantageous because it's
-     * faster and won't break references.
+     * faster and won't break references. Which fields to copy is worked out
+     * once per class (see {@link CopyPlan}), not on every call.
      *
      * @param other
      *            Object to copy from
@@ -94,33 +279,7 @@ public abstract class DomainObject <D extends DomainObject<D>> {
         if ( !this.getClass().equals( other.getClass() ) ) {
             throw new IllegalArgumentException( "Cannot copy between different types!" );
         }
-        final List<Field> fields = Arrays.asList( this.getClass().getDeclaredFields() );
-        try {
-            for ( final Field f : fields ) {
-                final Integer modifiers = f.getModifiers();
-                if ( Modifier.isFinal( modifiers ) ) {
-                    continue;
-                }
-
-                f.setAccessible( true );
-                boolean id = false;
-                final List<Annotation> annotations = Arrays.asList( f.getAnnotations() );
-                for ( final Annotation annotation : annotations ) {
-                    if ( annotation.annotationType().equals( javax.persistence.Id.class ) ) {
-                        id = true;
-                    }
-                }
-                if ( ( id && includeId ) || !id ) {
-                    f.set( this, f.get( other ) );
-                }
-
-            }
-
-        }
-        catch ( final Exception e ) {
-            throw new IllegalArgumentException( e );
-        }
-
+        CopyPlan.forClass( this.getClass() ).copy( this, other, Boolean.TRUE.equals( includeId ) );
     }
 
     /**
@@ -140,29 +299,257 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      */
     @Transactional ( readOnly = true )
     protected static List< ? extends DomainObject> getWhere ( final Class cls, final List<Criterion> criteriaList ) {
-        final Session session = HibernateUtil.openSession();
+        return inReadSession( session -> {
+            final Criteria c = session.createCriteria( cls ).setCacheable( isCached( cls ) );
+            for ( final Criterion criterion : criteriaList ) {
+                c.add( criterion );
+            }
+            return c.list();
+        } );
+    }
+
+    /**
+     * Retrieves one page of the instances of a subclass of DomainObject
+     * matching the criteria provided (AND'ed together, as in getWhere), in the
+     * order given. The sorting and the page boundaries are handled by the
+     * database, so only the records on the page are read.
+     *
+     * @param cls
+     *            Subclass of DomainObject to retrieve
+     * @param criteriaList
+     *            List of Criterion to AND together and search by
+     * @param orders
+     *            Orderings to sort by, most significant first
+     * @param firstResult
+     *            Number of matching records to skip
+     * @param maxResults
+     *            Most records to return
+     * @return The records on the page
+     */
+    @Transactional ( readOnly = true )
+    protected static List< ? extends DomainObject> getWhere ( final Class cls, final List<Criterion> criteriaList,
+            final List<Order> orders, final int firstResult, final int maxResults ) {
+        return inReadSession( session -> {
+            final Criteria c = session.createCriteria( cls ).setCacheable( isCached( cls ) );
+            for ( final Criterion criterion : criteriaList ) {
+                c.add( criterion );
+            }
+            for ( final Order order : orders ) {
+                c.addOrder( order );
+            }
+            return c.setFirstResult( firstResult ).setMaxResults( maxResults ).list();
+        } );
+    }
 
-        List< ? extends DomainObject> results = null;
+    /**
+     * Checks whether any instance of a subclass of DomainObject matches the
+     * criteria provided (AND'ed together, as in getWhere). Only the ID of at
+     * most one record is read, so this is much cheaper than retrieving the
+     * records and checking whether the list is empty.
+     *
+     * @param cls
+     *            Subclass of DomainObject to check for
+     * @param criteriaList
+     *            List of Criterion to AND together and search by
+     * @return True if at least one record matches
+     */
+    @Transactional ( readOnly = true )
+    protected static boolean exists ( final Class cls, final List<Criterion> criteriaList ) {
+        return inReadSession( session -> {
+            final Criteria c = session.createCriteria( cls ).setCacheable( isCached( cls ) );
+            for ( final Criterion criterion : criteriaList ) {
+                c.add( criterion );
+            }
+            return !c.setProjection( Projections.id() ).setMaxResults( 1 ).list().isEmpty();
+        } );
+    }
+
+    /**
+     * Counts the instances of a subclass of DomainObject matching the criteria
+     * provided (AND'ed together, as in getWhere). The counting is done by the
+     * database; no records are retrieved.
+     *
+     * @param cls
+     *            Subclass of DomainObject to count
+     * @param criteriaList
+     *            List of Criterion to AND together and search by
+     * @return The number of matching records
+     */
+    @Transactional ( readOnly = true )
+    protected static long count ( final Class cls, final List<Criterion> criteriaList ) {
+        return inReadSession( session -> {
+            final Criteria c = session.createCriteria( cls ).setCacheable( isCached( cls ) );
+            for ( final Criterion criterion : criteriaList ) {
+                c.add( criterion );
+            }
+            return (Long) c.setProjection( Projections.rowCount() ).uniqueResult();
+        } );
+    }
+
+    /**
+     * Streams every instance of a subclass of DomainObject from the database.
+     * See {@link #stream(Class, List, int)}.
+     *
+     * @param cls
+     *            Subclass of DomainObject to retrieve
+     * @return A Stream over the matching records, which must be closed
+     */
+    protected static <T extends DomainObject> Stream<T> stream ( final Class<T> cls ) {
+        return stream( cls, Collections.emptyList(), FETCH_SIZE );
+    }
+
+    /**
+     * Streams the instances of a subclass of DomainObject matching the
+     * criteria provided (AND'ed together, as in
+     * {@link #getWhere(Class, List)}). Unlike getAll and getWhere the results
+     * are not read into a List; rows are pulled from the database fetchSize at
+     * a time as the Stream is consumed, and each object is evicted from the
+     * session once it has been handed on, so memory use stays flat no matter
+     * how large the table is.
+     *
+     * Single-valued associations are fetched as the mapping says (joined, for
+     * a plain ManyToOne), and stay in the session so that rows pointing at the
+     * same object share it. Collections are loaded with separate selects
+     * rather than joins so that each row of the result is exactly one object,
+     * which makes types with eager collections expensive to stream; callers
+     * that want every object anyway should use getAll instead. Objects are
+     * detached by the time the next one is read, so anything that needs to be
+     * kept must be used or copied inside the Stream pipeline.
+     *
+     * The Stream holds a database cursor open until it is closed, so it must
+     * always be used in a try-with-resources block.
+     *
+     * @param cls
+     *            Subclass of DomainObject to retrieve
+     * @param criteriaList
+     *            List of Criterion to AND together and search by
+     * @param fetchSize
+     *            Number of rows to fetch from the database at a time
+     * @return A Stream over the matching records, which must be closed
+     */
+    protected static <T extends DomainObject> Stream<T> stream ( final Class<T> cls,
+            final List<Criterion> criteriaList, final int fetchSize ) {
+        return stream( cls, criteriaList, Collections.emptyList(), fetchSize );
+    }
+
+    /**
+     * Streams the instances of a subclass of DomainObject matching the
+     * criteria provided, in the order given. See
+     * {@link #stream(Class, List, int)}; ordering a stream is only cheap when
+     * an index matches the order.
+     *
+     * @param cls
+     *            Subclass of DomainObject to retrieve
+     * @param criteriaList
+     *            List of Criterion to AND together and search by
+     * @param orders
+     *            Order to return the records in
+     * @param fetchSize
+     *            Number of rows to fetch from the database at a time
+     * @return A Stream over the matching records, which must be closed
+     */
+    protected static <T extends DomainObject> Stream<T> stream ( final Class<T> cls,
+            final List<Criterion> criteriaList, final List<Order> orders, final int fetchSize ) {
+        final Session shared = UnitOfWork.currentReadSession();
+        final Session session = null != shared ? shared : HibernateUtil.openReadSession();
         try {
-            session.beginTransaction();
+            // Anything the UnitOfWork had already loaded must stay in it
+            final Set<Object> alreadyLoaded = Collections.newSetFromMap( new IdentityHashMap<Object, Boolean>() );
+            if ( null != shared ) {
+                for ( final Map.Entry<Object, EntityEntry> entry : ( (SessionImplementor) session )
+                        .getPersistenceContext().reentrantSafeEntityEntries() ) {
+                    alreadyLoaded.add( entry.getKey() );
+                }
+            }
+
             final Criteria c = session.createCriteria( cls );
             for ( final Criterion criterion : criteriaList ) {
                 c.add( criterion );
             }
-            results = c.list();
+            for ( final Order order : orders ) {
+                c.addOrder( order );
+            }
+            final ClassMetadata metadata = session.getSessionFactory().getClassMetadata( cls );
+            for ( int i = 0; i < metadata.getPropertyNames().length; i++ ) {
+                if ( metadata.getPropertyTypes()[i].isCollectionType() ) {
+                    c.setFetchMode( metadata.getPropertyNames()[i], FetchMode.SELECT );
+                }
+            }
+            c.setFetchSize( fetchSize );
+            c.setReadOnly( true );
+            final ScrollableResults results = c.scroll( ScrollMode.FORWARD_ONLY );
+
+            final Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>( Long.MAX_VALUE,
+                    Spliterator.ORDERED | Spliterator.NONNULL ) {
+                @Override
+                public boolean tryAdvance ( final Consumer< ? super T> action ) {
+                    final T obj;
+                    try {
+                        if ( !results.next() ) {
+                            return false;
+                        }
+                        obj = (T) results.get( 0 );
+                    }
+                    catch ( final RuntimeException e ) {
+                        if ( null != shared ) {
+                            UnitOfWork.fail();
+                        }
+                        throw e;
+                    }
+                    action.accept( obj );
+                    if ( !alreadyLoaded.contains( obj ) && session.contains( obj ) ) {
+                        session.evict( obj );
+                    }
+                    return true;
+                }
+            };
+
+            return StreamSupport.stream( rows, false ).onClose( () -> {
+                try {
+                    results.close();
+                }
+                finally {
+                    if ( null == shared ) {
+                        try {
+                            if ( TransactionStatus.ACTIVE == session.getTransaction().getStatus() ) {
+                                session.getTransaction().commit();
+                            }
+                        }
+                        finally {
+                            session.close();
+                        }
+                    }
+                }
+            } );
         }
-        finally {
-            try {
-                session.getTransaction().commit();
-                session.close();
+        catch ( final RuntimeException e ) {
+            if ( null != shared ) {
+                UnitOfWork.fail();
             }
-            catch ( final Exception e ) {
-                e.printStackTrace( System.out );
-                // Continue
+            else {
+                session.close();
             }
+            throw e;
         }
+    }
 
-        return results;
+    /**
+     * Performs an action on every instance of a subclass of DomainObject
+     * matching the criteria provided, without reading them all into memory at
+     * once. See {@link #stream(Class, List, int)}.
+     *
+     * @param cls
+     *            Subclass of DomainObject to retrieve
+     * @param criteriaList
+     *            List of Criterion to AND together and search by
+     * @param action
+     *            The action to perform on each object
+     */
+    protected static <T extends DomainObject> void forEach ( final Class<T> cls, final List<Criterion> criteriaList,
+            final Consumer< ? super T> action ) {
+        try ( Stream<T> objects = stream( cls, criteriaList, FETCH_SIZE ) ) {
+            objects.forEach( action );
+        }
     }
 
     /**
@@ -175,14 +562,218 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      *            class to delete instances of
      */
     public static void deleteAll ( final Class cls ) {
-        final Session session = HibernateUtil.openSession();
-        session.beginTransaction();
-        final List<DomainObject> instances = session.createCriteria( cls ).list();
-        for ( final DomainObject d : instances ) {
-            session.delete( d );
+        deleteWhere( cls, Collections.emptyMap() );
+    }
+
+    /**
+     * Deletes every instance of a subclass of DomainObject whose fields match
+     * the values provided, as a single DELETE statement rather than loading
+     * and deleting the records one at a time. Think of this as SQL similar to:
+     * `DELETE ... WHERE field1=value1 AND field2=value2`; a null value matches
+     * a field that is null. Rows in element collection and join tables that
+     * belong to the deleted records are removed first, records that the
+     * deleted ones held in a one-to-many collection of their own (with the
+     * foreign key on the other record's table) are unlinked from them just as
+     * Session.delete would, and any cached copies of the records are
+     * invalidated.
+     *
+     * Types that cascade deletes to other records or that have subtypes are
+     * still deleted one record at a time so that the cascades happen.
+     *
+     * @param cls
+     *            Subclass of DomainObject to delete instances of
+     * @param where
+     *            Map of field names to the values they must have
+     * @return The number of records deleted
+     */
+    protected static int deleteWhere ( final Class cls, final Map<String, Object> where ) {
+        return inSession( session -> {
+            final SessionFactoryImplementor factory = (SessionFactoryImplementor) session.getSessionFactory();
+            final AbstractEntityPersister persister = (AbstractEntityPersister) factory
+                    .getEntityPersister( cls.getName() );
+
+            if ( persister.hasCascades() || persister.getEntityMetamodel().hasSubclasses() ) {
+                final Criteria c = session.createCriteria( cls );
+                for ( final Map.Entry<String, Object> entry : where.entrySet() ) {
+                    c.add( null == entry.getValue() ? Restrictions.isNull( entry.getKey() )
+                            : Restrictions.eq( entry.getKey(), entry.getValue() ) );
+                }
+                final List<DomainObject> instances = c.list();
+                for ( final DomainObject d : instances ) {
+                    session.delete( d );
+                }
+                UnitOfWork.flush( session );
+                return instances.size();
+            }
+
+            final List<Map.Entry<String, Object>> conditions = new ArrayList<Map.Entry<String, Object>>(
+                    where.entrySet() );
+            final String whereClause = whereClause( conditions );
+
+            // Hibernate clears many-to-many join tables itself, but not the
+            // tables holding collections of plain values, nor the foreign keys
+            // of one-to-many collections that are not mapped on the other side
+            final List<AbstractCollectionPersister> elementCollections = new ArrayList<AbstractCollectionPersister>();
+            final List<AbstractCollectionPersister> ownedOneToMany = new ArrayList<AbstractCollectionPersister>();
+            for ( final Type type : persister.getPropertyTypes() ) {
+                if ( type.isCollectionType() ) {
+                    final AbstractCollectionPersister collection = (AbstractCollectionPersister) factory
+                            .getCollectionPersister( ( (CollectionType) type ).getRole() );
+                    if ( collection.isOneToMany() ) {
+                        if ( !collection.isInverse() ) {
+                            ownedOneToMany.add( collection );
+                        }
+                    }
+                    else if ( !collection.isManyToMany() ) {
+                        elementCollections.add( collection );
+                    }
+                }
+            }
+            if ( !elementCollections.isEmpty() || !ownedOneToMany.isEmpty() ) {
+                final Query ids = session.createQuery(
+                        "select e.id from " + persister.getEntityName() + " e" + whereClause );
+                bindWhere( ids, conditions );
+                final List<Serializable> idList = ids.list();
+                final int chunk = 1000;
+                for ( int start = 0; start < idList.size(); start += chunk ) {
+                    final List<Serializable> part = idList.subList( start, Math.min( start + chunk, idList.size() ) );
+                    for ( final AbstractCollectionPersister collection : elementCollections ) {
+                        session.createSQLQuery( "delete from " + collection.getTableName() + " where "
+                                + collection.getKeyColumnNames()[0] + " in (:ids)" )
+                                .addSynchronizedQuerySpace( collection.getTableName() )
+                                .setParameterList( "ids", part ).executeUpdate();
+                    }
+                    for ( final AbstractCollectionPersister collection : ownedOneToMany ) {
+                        final String key = collection.getKeyColumnNames()[0];
+                        final StringBuilder unlink = new StringBuilder( "update " + collection.getTableName() + " set "
+                                + key + " = null" );
+                        if ( collection.hasIndex() ) {
+                            for ( final String index : collection.getIndexColumnNames() ) {
+                                unlink.append( ", " ).append( index ).append( " = null" );
+                            }
+                        }
+                        unlink.append( " where " ).append( key ).append( " in (:ids)" );
+                        session.createSQLQuery( unlink.toString() )
+                                .addSynchronizedQuerySpace( collection.getTableName() )
+                                .setParameterList( "ids", part ).executeUpdate();
+                    }
+                }
+                for ( final AbstractCollectionPersister collection : ownedOneToMany ) {
+                    evictAll( session, collection.getElementType().getReturnedClass() );
+                }
+            }
+
+            final Query delete = session
+                    .createQuery( "delete from " + persister.getEntityName() + " e" + whereClause );
+            bindWhere( delete, conditions );
+            final int count = delete.executeUpdate();
+            evictAll( session, cls );
+            return count;
+        } );
+    }
+
+    /**
+     * Sets fields on every instance of a subclass of DomainObject whose fields
+     * match the values provided, as a single UPDATE statement rather than
+     * loading and saving the records one at a time. The records to update are
+     * chosen just as {@link #deleteWhere(Class, Map)} chooses the ones to
+     * delete. Only plain fields and references to single objects can be set
+     * this way, not collections.
+     *
+     * Any copies of the records held by the session are dropped, and once the
+     * update has been committed the class's second-level cache region and the
+     * query cache are emptied, so that nothing reads the old values.
+     *
+     * @param cls
+     *            Subclass of DomainObject to update instances of
+     * @param values
+     *            Map of field names to the values to set them to
+     * @param where
+     *            Map of field names to the values they must have to be
+     *            updated; a null value matches a field that is null
+     * @return The number of records updated
+     */
+    protected static int updateWhere ( final Class cls, final Map<String, Object> values,
+            final Map<String, Object> where ) {
+        if ( values.isEmpty() ) {
+            return 0;
+        }
+        final int count = inSession( session -> {
+            final List<Map.Entry<String, Object>> conditions = new ArrayList<Map.Entry<String, Object>>(
+                    where.entrySet() );
+            final List<Map.Entry<String, Object>> assignments = new ArrayList<Map.Entry<String, Object>>(
+                    values.entrySet() );
+
+            final StringBuilder hql = new StringBuilder( "update " + cls.getName() + " e set " );
+            for ( int i = 0; i < assignments.size(); i++ ) {
+                hql.append( i > 0 ? ", " : "" ).append( "e." ).append( assignments.get( i ).getKey() )
+                        .append( " = :v" ).append( i );
+            }
+            hql.append( whereClause( conditions ) );
+
+            final Query update = session.createQuery( hql.toString() );
+            for ( int i = 0; i < assignments.size(); i++ ) {
+                update.setParameter( "v" + i, assignments.get( i ).getValue() );
+            }
+            bindWhere( update, conditions );
+            final int updated = update.executeUpdate();
+            evictAll( session, cls );
+            return updated;
+        } );
+        UnitOfWork.afterCommit( () -> HibernateUtil.evictCaches( cls ) );
+        return count;
+    }
+
+    /**
+     * Builds the HQL WHERE clause for a bulk operation on the alias `e`. See
+     * {@link #bindWhere(Query, List)}.
+     *
+     * @param conditions
+     *            Field names and the values they must have
+     * @return The WHERE clause, or an empty string if there are no conditions
+     */
+    private static String whereClause ( final List<Map.Entry<String, Object>> conditions ) {
+        final StringBuilder clause = new StringBuilder();
+        for ( int i = 0; i < conditions.size(); i++ ) {
+            clause.append( i > 0 ? " and " : " where " ).append( "e." ).append( conditions.get( i ).getKey() );
+            clause.append( null == conditions.get( i ).getValue() ? " is null" : " = :w" + i );
+        }
+        return clause.toString();
+    }
+
+    /**
+     * Binds the values for a WHERE clause built by
+     * {@link #whereClause(List)}.
+     *
+     * @param query
+     *            The query to bind the values on
+     * @param conditions
+     *            The same conditions the WHERE clause was built from
+     */
+    private static void bindWhere ( final Query query, final List<Map.Entry<String, Object>> conditions ) {
+        for ( int i = 0; i < conditions.size(); i++ ) {
+            if ( null != conditions.get( i ).getValue() ) {
+                query.setParameter( "w" + i, conditions.get( i ).getValue() );
+            }
+        }
+    }
+
+    /**
+     * After a bulk operation, drops any instances of the class that the
+     * session was holding, as they no longer match the database.
+     *
+     * @param session
+     *            The session the bulk operation ran in
+     * @param cls
+     *            The class that was deleted or updated
+     */
+    private static void evictAll ( final Session session, final Class cls ) {
+        for ( final Map.Entry<Object, EntityEntry> entry : ( (SessionImplementor) session ).getPersistenceContext()
+                .reentrantSafeEntityEntries() ) {
+            if ( cls.isInstance( entry.getKey() ) ) {
+                session.evict( entry.getKey() );
+            }
         }
-        session.getTransaction().commit();
-        session.close();
     }
 
     /**
@@ -191,12 +782,11 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      * exists in the DB, then the existing record will be updated.
      */
     public void save () {
-        final Session session = HibernateUtil.openSession();
-        session.beginTransaction();
-        session.saveOrUpdate( this );
-        session.getTransaction().commit();
-        session.close();
-
+        inSession( session -> {
+            saveOrUpdate( session, this );
+            UnitOfWork.flush( session );
+            return null;
+        } );
     }
 
     /**
@@ -204,19 +794,38 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      * will be created in the database while existing object instances will be
      * updated.
      *
+     * The objects are flushed a batch at a time (see
+     * {@link HibernateUtil#getBatchSize()}) so that the inserts and updates go
+     * to the database as JDBC batches, and each batch is then dropped from the
+     * session so that saving a large list does not grow the session without
+     * bound.
+     *
      * @param objects
      *            List of DomainObjects
      */
     public static void saveAll ( final List< ? extends DomainObject> objects ) {
-        final Session session = HibernateUtil.openSession();
-        session.beginTransaction();
-
-        for ( final DomainObject obj : objects ) {
-            session.saveOrUpdate( obj );
-        }
-
-        session.getTransaction().commit();
-        session.close();
+        final int batchSize = HibernateUtil.getBatchSize();
+        inSession( session -> {
+            final boolean shared = UnitOfWork.isActive();
+            for ( int start = 0; start < objects.size(); start += batchSize ) {
+                final List< ? extends DomainObject> batch = objects.subList( start,
+                        Math.min( start + batchSize, objects.size() ) );
+                for ( final DomainObject obj : batch ) {
+                    saveOrUpdate( session, obj );
+                }
+                UnitOfWork.flush( session );
+                if ( shared ) {
+                    // Other objects in a shared session may still be in use
+                    for ( final DomainObject obj : batch ) {
+                        session.evict( obj );
+                    }
+                }
+                else {
+                    session.clear();
+                }
+            }
+            return null;
+        } );
     }
 
     /**
@@ -224,11 +833,18 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      * cannot be reversed.
      */
     public void delete () {
-        final Session session = HibernateUtil.openSession();
-        session.beginTransaction();
-        session.delete( this );
-        session.getTransaction().commit();
-        session.close();
+        inSession( session -> {
+            UnitOfWork.release( this );
+            try {
+                session.delete( this );
+            }
+            catch ( final NonUniqueObjectException e ) {
+                // Another instance of this record was loaded in this session
+                session.delete( session.get( e.getEntityName(), e.getIdentifier() ) );
+            }
+            UnitOfWork.flush( session );
+            return null;
+        } );
     }
 
     /**
@@ -243,26 +859,10 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      */
     @Transactional ( readOnly = true )
     public static DomainObject getById ( final Class cls, final Object id ) {
-        DomainObject obj;
-        try {
-            obj = (DomainObject) cls.newInstance();
-        }
-        catch ( final Exception e ) {
-            return null;
-        }
-
-        final Session session = HibernateUtil.openSession();
-        session.beginTransaction();
-        try {
-            session.load( obj, (Serializable) id );
-            session.getTransaction().commit();
-        }
-        catch ( final ObjectNotFoundException e ) {
-            session.close();
+        if ( null == id || Modifier.isAbstract( cls.getModifiers() ) ) {
             return null;
         }
-        session.close();
-        return obj;
+        return inReadSession( session -> (DomainObject) session.get( cls, (Serializable) id ) );
     }
 
     /**
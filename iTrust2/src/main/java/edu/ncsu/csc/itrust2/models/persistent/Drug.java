@@ -15,6 +15,8 @@ import javax.persistence.Table;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.validator.constraints.Length;
 import org.hibernate.validator.constraints.NotEmpty;
@@ -30,6 +32,7 @@ import edu.ncsu.csc.itrust2.models.enums.DrugType;
  */
 @Entity
 @Table ( name = "Drugs" )
+@Cache ( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class Drug extends DomainObject<Drug> {
 
     /** For Hibernate/Thymeleaf _must_ be an empty constructor */
@@ -13,10 +13,14 @@ import javax.persistence.JoinColumn;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+
 import edu.ncsu.csc.itrust2.forms.hcp.GeneralCheckupForm;
 import edu.ncsu.csc.itrust2.forms.hcp.PrescriptionForm;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
 
 /**
  * Model class for a general checkup.
@@ -83,14 +87,17 @@ public class GeneralCheckup extends OfficeVisit {
     }
 
     /**
-     * Get a specific office visit by the database ID
+     * Get a specific office visit by the database ID. Only this type of visit
+     * is searched, by primary key, so this is the cheapest way to load a visit
+     * for display.
      *
      * @param id
      *            the database ID
-     * @return the specific office visit with the desired ID
+     * @return the specific office visit with the desired ID, or null if there
+     *         is no visit of this type with that ID
      */
     public static GeneralCheckup getById ( final Long id ) {
-        return (GeneralCheckup) OfficeVisit.getById( id );
+        return (GeneralCheckup) getById( GeneralCheckup.class, id );
     }
 
     /**
@@ -173,12 +180,29 @@ public class GeneralCheckup extends OfficeVisit {
     @OneToMany ( mappedBy = "visit" )
     private transient List<LabProcedure> labProcedures;
 
+    /**
+     * The prescriptions written at this visit. When a list of visits is loaded
+     * the prescriptions for all of them are read in one further query, rather
+     * than one query per visit.
+     */
     @OneToMany ( fetch = FetchType.EAGER )
+    @Fetch ( FetchMode.SUBSELECT )
     @JoinColumn ( name = "prescriptions_id" )
     private List<Prescription>           prescriptions = Collections.emptyList();
 
+    /**
+     * Saves the visit along with its basic health metrics, prescriptions,
+     * diagnoses and lab procedures. A new visit is saved as described in
+     * {@link #saveNew()}; for an existing one, the children are compared with
+     * what was saved before, and the ones that have been removed are deleted.
+     */
     @Override
     public void save () {
+        if ( null == getId() ) {
+            saveNew();
+            return;
+        }
+
         //// SAVE PRESCRIPTIONS ////
 
         // Get saved visit
@@ -340,6 +364,57 @@ public class GeneralCheckup extends OfficeVisit {
         }
     }
 
+    /**
+     * Saves a visit that is not in the database yet, with everything that goes
+     * with it, in one transaction: either all of it is saved or none of it is.
+     * There is nothing saved before to compare with, so the rows are simply
+     * written, a batch at a time, and the visit is logged once they have been
+     * committed.
+     */
+    private void saveNew () {
+        UnitOfWork.atomically( () -> {
+            // Written in this order so that each row's references are in
+            // the database before it is
+            final List<DomainObject> rows = new ArrayList<DomainObject>();
+            rows.add( getBasicHealthMetrics() );
+            rows.addAll( getPrescriptions() );
+            rows.add( this );
+            if ( null != diagnoses ) {
+                diagnoses.stream().filter( d -> null != d ).forEach( rows::add );
+            }
+            if ( null != labProcedures ) {
+                for ( final LabProcedure lp : labProcedures ) {
+                    if ( null != lp ) {
+                        if ( null == lp.getPatient() ) {
+                            lp.setPatient( getPatient() );
+                        }
+                        rows.add( lp );
+                    }
+                }
+            }
+            saveAll( rows );
+
+            final String hcp = getHcp().getUsername();
+            final String patient = getPatient().getUsername();
+            for ( final Prescription p : getPrescriptions() ) {
+                LoggerUtil.log( TransactionType.PRESCRIPTION_CREATE, LoggerUtil.currentUser(), patient,
+                        "Creating prescription with id " + p.getId() );
+            }
+            for ( final DomainObject row : rows ) {
+                if ( row instanceof Diagnosis ) {
+                    LoggerUtil.log( TransactionType.DIAGNOSIS_CREATE, hcp, patient,
+                            getHcp() + " created a diagnosis for " + getPatient() );
+                }
+                else if ( row instanceof LabProcedure ) {
+                    LoggerUtil.log( TransactionType.HCP_CREATE_PROC, hcp,
+                            ( (LabProcedure) row ).getAssignedTech().getUsername(),
+                            getHcp() + " created a Lab Procedure for " + getPatient() );
+                }
+            }
+            return null;
+        } );
+    }
+
     /**
      * Deletes any diagnoses associated with this office visit, then deletes the
      * visit entry
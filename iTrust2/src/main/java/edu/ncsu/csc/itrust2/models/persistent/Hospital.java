@@ -1,6 +1,7 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
 
 import javax.persistence.Entity;
@@ -9,6 +10,8 @@ import javax.persistence.Enumerated;
 import javax.persistence.Id;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.validator.constraints.Length;
 import org.hibernate.validator.constraints.NotEmpty;
@@ -25,6 +28,7 @@ import edu.ncsu.csc.itrust2.models.enums.State;
 
 @Entity
 @Table ( name = "Hospitals" )
+@Cache ( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class Hospital extends DomainObject<Hospital> implements Serializable {
     /**
      * Used for serializing the object.
@@ -220,6 +224,17 @@ public class Hospital extends DomainObject<Hospital> implements Serializable {
         return getName();
     }
 
+    /**
+     * Deletes the Hospital, and takes it off the records of the personnel who
+     * worked there with a single update rather than saving each one
+     */
+    @Override
+    public void delete () {
+        super.delete();
+        updateWhere( Personnel.class, Collections.singletonMap( "hospitalId", null ),
+                Collections.singletonMap( "hospitalId", getName() ) );
+    }
+
     @Override
     public String toString () {
         final String s = this.name + "  " + this.address;
@@ -8,6 +8,8 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.criterion.Criterion;
 
 import edu.ncsu.csc.itrust2.forms.admin.ICDCodeForm;
@@ -22,6 +24,7 @@ import edu.ncsu.csc.itrust2.forms.admin.ICDCodeForm;
  */
 @Entity
 @Table ( name = "ICDCodes" )
+@Cache ( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class ICDCode extends DomainObject<Diagnosis> {
 
     @Id
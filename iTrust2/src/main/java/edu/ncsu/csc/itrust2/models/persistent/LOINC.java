@@ -13,6 +13,8 @@ import javax.persistence.OneToOne;
 import javax.persistence.Table;
 import javax.validation.constraints.NotNull;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.criterion.Criterion;
 
 import edu.ncsu.csc.itrust2.forms.admin.LOINCForm;
@@ -28,6 +30,7 @@ import edu.ncsu.csc.itrust2.models.enums.LabResultScale;
  */
 @Entity
 @Table ( name = "LOINCCodes" )
+@Cache ( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class LOINC extends DomainObject<LOINC> {
 
     @Id
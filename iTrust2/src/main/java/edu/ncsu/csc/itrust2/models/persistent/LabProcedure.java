@@ -119,6 +119,18 @@ public class LabProcedure extends DomainObject<LabProcedure> {
         }
     }
 
+    /**
+     * Checks whether a LabProcedure with the given ID exists, without
+     * loading it
+     *
+     * @param id
+     *            The ID (as assigned by the DB) of the LabProcedure
+     * @return true if there is a LabProcedure with this ID
+     */
+    public static boolean existsById ( final Long id ) {
+        return null != id && exists( LabProcedure.class, eqList( ID, id ) );
+    }
+
     /**
      * Get a specific lab procedure by the office visit ID
      *
@@ -143,7 +155,18 @@ public class LabProcedure extends DomainObject<LabProcedure> {
      * @return the lab procedures associated with the queried patient
      */
     public static List<LabProcedure> getForPatient ( final String patientName ) {
-        return getWhere( eqList( "patient", User.getByNameAndRole( patientName, Role.ROLE_PATIENT ) ) );
+        return getForPatient( User.getByNameAndRole( patientName, Role.ROLE_PATIENT ) );
+    }
+
+    /**
+     * Get all lab procedures for a patient who has already been looked up
+     *
+     * @param patient
+     *            the patient
+     * @return the lab procedures associated with the patient
+     */
+    public static List<LabProcedure> getForPatient ( final User patient ) {
+        return getWhere( eqList( "patient", patient ) );
     }
 
     /**
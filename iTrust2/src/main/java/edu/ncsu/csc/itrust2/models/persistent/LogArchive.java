@@ -0,0 +1,978 @@
+package edu.ncsu.csc.itrust2.models.persistent;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+
+/**
+ * The archive tier of the audit log: LogEntries that have been moved out of
+ * the LogEntries table by {@link LogEntry#archiveBefore(java.time.ZonedDateTime)}.
+ * LogEntry reads from here as well as from the table, so callers do not need
+ * to know which tier an entry is in.
+ *
+ * The archive is a directory of segment files, each holding entries from one
+ * calendar month. A segment is written once, under a temporary name, and
+ * renamed into place when complete; it is never changed after that. Moving
+ * more entries for a month that already has a segment adds another segment,
+ * so the directory only ever grows by new files and can be backed up
+ * incrementally.
+ *
+ * A segment is a run of blocks followed by a footer:
+ *
+ * - Each block holds up to {@link #BLOCK_SIZE} entries, DEFLATE-compressed.
+ * Usernames and transaction types are stored as numbers into the segment's
+ * dictionaries.
+ *
+ * - The footer holds the dictionaries, the position, time range and ID range
+ * of every block, and for every user the blocks that mention them.
+ *
+ * - The file ends with the position of the footer and a magic number.
+ *
+ * Queries only read the footers, which are kept in memory, and the blocks
+ * that can contain a match.
+ *
+ * The archive is kept in `logs/archive` unless the `itrust2.audit.archiveDir`
+ * system property says otherwise. Servers sharing a database should share
+ * the directory too.
+ */
+final class LogArchive {
+
+    /** Most entries in one block */
+    static final int                          BLOCK_SIZE  = 4096;
+
+    /** Marks the end of a complete segment file ("ITA1") */
+    private static final int                  MAGIC       = 0x49544131;
+
+    /** Start of every segment file name */
+    private static final String               PREFIX      = "audit-";
+
+    /** End of every segment file name */
+    private static final String               SUFFIX      = ".seg";
+
+    /** Month part of segment file names */
+    private static final DateTimeFormatter    MONTH       = DateTimeFormatter.ofPattern( "yyyyMM" );
+
+    /** Oldest first, by time and then ID */
+    private static final Comparator<LogEntry> OLDEST      = Comparator
+            .comparingLong( ( final LogEntry le ) -> le.getTime().toInstant().toEpochMilli() )
+            .thenComparingLong( LogEntry::getId );
+
+    /** Directory the archive is kept in unless told otherwise */
+    private static final File                 DEFAULT_DIR = new File(
+            System.getProperty( "itrust2.audit.archiveDir", "logs/archive" ) );
+
+    /** The archive LogEntry reads and writes */
+    private static volatile LogArchive        instance    = new LogArchive( DEFAULT_DIR );
+
+    /** Directory holding the segment files */
+    private final File                        dir;
+
+    /** Footers of the segments read so far, by file name */
+    private final Map<String, Segment>        segments    = new ConcurrentHashMap<String, Segment>();
+
+    /**
+     * Creates an archive. Use {@link #getInstance()}.
+     *
+     * @param dir
+     *            Directory holding the segment files
+     */
+    LogArchive ( final File dir ) {
+        this.dir = dir;
+    }
+
+    /**
+     * Retrieves the archive that LogEntry uses
+     *
+     * @return The archive
+     */
+    static LogArchive getInstance () {
+        return instance;
+    }
+
+    /**
+     * Points LogEntry at the archive in another directory
+     *
+     * @param dir
+     *            Directory holding the segment files, or null to go back to
+     *            the default one
+     */
+    static void setDirectory ( final File dir ) {
+        instance = new LogArchive( null == dir ? DEFAULT_DIR : dir );
+    }
+
+    /**
+     * Finds the archived entries matching a search, in no particular order
+     *
+     * @param user
+     *            User who must be the primary or secondary user, or null for
+     *            any
+     * @param start
+     *            Earliest time to include, in epoch milliseconds
+     * @param end
+     *            Time to stop before, in epoch milliseconds
+     * @param types
+     *            The types of event to include, or null for all of them
+     * @return The matching entries
+     */
+    List<LogEntry> find ( final String user, final long start, final long end,
+            final Collection<TransactionType> types ) {
+        final List<LogEntry> found = new ArrayList<LogEntry>();
+        forEach( user, start, end, types, found::add );
+        return found;
+    }
+
+    /**
+     * Performs an action on each archived entry matching a search, a segment
+     * at a time, oldest segment first. Only one block is held in memory at
+     * once, however many entries match.
+     *
+     * @param user
+     *            User who must be the primary or secondary user, or null for
+     *            any
+     * @param start
+     *            Earliest time to include, in epoch milliseconds
+     * @param end
+     *            Time to stop before, in epoch milliseconds
+     * @param types
+     *            The types of event to include, or null for all of them
+     * @param action
+     *            The action to perform on each entry
+     */
+    void forEach ( final String user, final long start, final long end, final Collection<TransactionType> types,
+            final Consumer<LogEntry> action ) {
+        for ( final Segment segment : segments() ) {
+            segment.find( user, start, end, types, null, action );
+        }
+    }
+
+    /**
+     * Finds the newest archived entries matching a search. Segments are read
+     * newest first, and once enough entries have been found, segments and
+     * blocks that are all older than them are skipped. Only the entries being
+     * kept are held in memory.
+     *
+     * @param user
+     *            User who must be the primary or secondary user, or null for
+     *            any
+     * @param start
+     *            Earliest time to include, in epoch milliseconds
+     * @param end
+     *            Time to stop before, in epoch milliseconds
+     * @param types
+     *            The types of event to include, or null for all of them
+     * @param filter
+     *            Further test an entry must pass, or null for none
+     * @param limit
+     *            Most entries to return
+     * @return Up to `limit` of the newest matching entries, in no particular
+     *         order, in a list that can be added to
+     */
+    List<LogEntry> findNewest ( final String user, final long start, final long end,
+            final Collection<TransactionType> types, final Predicate<LogEntry> filter, final int limit ) {
+        if ( limit <= 0 ) {
+            return new ArrayList<LogEntry>();
+        }
+        // Oldest of those kept at the head, to be dropped for anything newer
+        final PriorityQueue<LogEntry> newest = new PriorityQueue<LogEntry>( OLDEST );
+        final List<Segment> all = segments();
+        for ( int i = all.size() - 1; i >= 0; i-- ) {
+            long from = start;
+            if ( newest.size() == limit ) {
+                from = Math.max( start, newest.peek().getTime().toInstant().toEpochMilli() );
+            }
+            all.get( i ).find( user, from, end, types, null, le -> {
+                if ( null != filter && !filter.test( le ) ) {
+                    return;
+                }
+                newest.add( le );
+                if ( newest.size() > limit ) {
+                    newest.poll();
+                }
+            } );
+        }
+        return new ArrayList<LogEntry>( newest );
+    }
+
+    /**
+     * Finds the oldest archived entries matching a search; the reverse of
+     * {@link #findNewest}. Segments are read oldest first, and once enough
+     * entries have been found, segments and blocks that are all newer than
+     * them are skipped. Only the entries being kept are held in memory.
+     *
+     * @param user
+     *            User who must be the primary or secondary user, or null for
+     *            any
+     * @param start
+     *            Earliest time to include, in epoch milliseconds
+     * @param end
+     *            Time to stop before, in epoch milliseconds
+     * @param types
+     *            The types of event to include, or null for all of them
+     * @param limit
+     *            Most entries to return
+     * @return Up to `limit` of the oldest matching entries, in no particular
+     *         order, in a list that can be added to
+     */
+    List<LogEntry> findOldest ( final String user, final long start, final long end,
+            final Collection<TransactionType> types, final int limit ) {
+        if ( limit <= 0 ) {
+            return new ArrayList<LogEntry>();
+        }
+        // Newest of those kept at the head, to be dropped for anything older
+        final PriorityQueue<LogEntry> oldest = new PriorityQueue<LogEntry>( OLDEST.reversed() );
+        for ( final Segment segment : segments() ) {
+            long to = end;
+            if ( oldest.size() == limit ) {
+                // Entries from the same millisecond may still sort earlier
+                to = Math.min( end, oldest.peek().getTime().toInstant().toEpochMilli() + 1 );
+            }
+            segment.find( user, start, to, types, null, le -> {
+                oldest.add( le );
+                if ( oldest.size() > limit ) {
+                    oldest.poll();
+                }
+            } );
+        }
+        return new ArrayList<LogEntry>( oldest );
+    }
+
+    /**
+     * Counts the archived entries matching a search. Entries are decoded only
+     * as far as needed to test them, and blocks that match as a whole are
+     * counted from their footer without being read at all.
+     *
+     * @param user
+     *            User who must be the primary or secondary user, or null for
+     *            any
+     * @param start
+     *            Earliest time to include, in epoch milliseconds
+     * @param end
+     *            Time to stop before, in epoch milliseconds
+     * @param types
+     *            The types of event to include, or null for all of them
+     * @return The number of matching entries
+     */
+    long count ( final String user, final long start, final long end, final Collection<TransactionType> types ) {
+        long count = 0;
+        for ( final Segment segment : segments() ) {
+            count += segment.count( user, start, end, types );
+        }
+        return count;
+    }
+
+    /**
+     * Finds an archived entry by its ID
+     *
+     * @param id
+     *            ID of the entry
+     * @return The entry, or null if it is not in the archive
+     */
+    LogEntry findById ( final long id ) {
+        final List<LogEntry> found = new ArrayList<LogEntry>();
+        for ( final Segment segment : segments() ) {
+            segment.find( null, Long.MIN_VALUE, Long.MAX_VALUE, null, id, found::add );
+            if ( !found.isEmpty() ) {
+                return found.get( 0 );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks, from the footers alone, whether the archive might have entries
+     * matching a search. Lets queries skip the archive entirely for users and
+     * times it has nothing for.
+     *
+     * @param user
+     *            User who must be the primary or secondary user, or null for
+     *            any
+     * @param start
+     *            Earliest time to include, in epoch milliseconds
+     * @param end
+     *            Time to stop before, in epoch milliseconds
+     * @return False if there can be no matching entries
+     */
+    boolean mayContain ( final String user, final long start, final long end ) {
+        for ( final Segment segment : segments() ) {
+            if ( !segment.blocksFor( user, start, end ).isEmpty() ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The IDs of every entry archived for a month. Used to avoid archiving an
+     * entry twice if the application stopped after writing a segment but
+     * before removing its entries from the table.
+     *
+     * @param month
+     *            The month
+     * @return IDs of the entries in that month's segments
+     */
+    Set<Long> idsFor ( final YearMonth month ) {
+        final Set<Long> ids = new HashSet<Long>();
+        final String prefix = PREFIX + MONTH.format( month ) + "-";
+        for ( final Segment segment : segments() ) {
+            if ( segment.file.getName().startsWith( prefix ) ) {
+                segment.find( null, Long.MIN_VALUE, Long.MAX_VALUE, null, null, le -> ids.add( le.getId() ) );
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Starts a new segment for a month. Nothing is visible to queries until
+     * {@link SegmentWriter#finish()} is called.
+     *
+     * @param month
+     *            The month the entries are from
+     * @return The writer for the new segment
+     * @throws IOException
+     *             If the segment cannot be created
+     */
+    SegmentWriter create ( final YearMonth month ) throws IOException {
+        if ( !dir.isDirectory() && !dir.mkdirs() ) {
+            throw new IOException( "Could not create audit archive directory " + dir );
+        }
+        final String prefix = PREFIX + MONTH.format( month ) + "-";
+        for ( int n = 1;; n++ ) {
+            final File file = new File( dir, prefix + String.format( "%04d", n ) + SUFFIX );
+            final File tmp = new File( dir, file.getName() + ".tmp" );
+            if ( !file.exists() ) {
+                // Anything left under the temporary name is from an attempt
+                // that never finished
+                Files.deleteIfExists( tmp.toPath() );
+                return new SegmentWriter( file, tmp );
+            }
+        }
+    }
+
+    /**
+     * Every complete segment in the archive, oldest first. Footers are read
+     * the first time a segment is seen and kept from then on, since segments
+     * never change.
+     *
+     * @return The segments
+     */
+    private List<Segment> segments () {
+        final String[] names = dir.list( ( d, name ) -> name.startsWith( PREFIX ) && name.endsWith( SUFFIX ) );
+        if ( null == names ) {
+            return Collections.emptyList();
+        }
+        Arrays.sort( names );
+        final List<Segment> list = new ArrayList<Segment>( names.length );
+        for ( final String name : names ) {
+            Segment segment = segments.get( name );
+            if ( null == segment ) {
+                try {
+                    segment = new Segment( new File( dir, name ) );
+                }
+                catch ( final IOException e ) {
+                    throw new IllegalStateException( "Could not read audit archive segment " + name, e );
+                }
+                segments.put( name, segment );
+            }
+            list.add( segment );
+        }
+        return list;
+    }
+
+    /**
+     * Where a block is in its segment, and what it holds
+     */
+    private static final class Block {
+
+        /** Position of the compressed block in the file */
+        private long offset;
+
+        /** Length of the compressed block */
+        private int  length;
+
+        /** Number of entries in the block */
+        private int  count;
+
+        /** Earliest time in the block, in epoch milliseconds */
+        private long minTime = Long.MAX_VALUE;
+
+        /** Latest time in the block, in epoch milliseconds */
+        private long maxTime = Long.MIN_VALUE;
+
+        /** Lowest ID in the block */
+        private long minId   = Long.MAX_VALUE;
+
+        /** Highest ID in the block */
+        private long maxId   = Long.MIN_VALUE;
+
+        /**
+         * Writes this block's place in the footer
+         *
+         * @param out
+         *            The footer
+         * @throws IOException
+         *             If it cannot be written
+         */
+        private void write ( final DataOutputStream out ) throws IOException {
+            out.writeLong( offset );
+            out.writeInt( length );
+            out.writeInt( count );
+            out.writeLong( minTime );
+            out.writeLong( maxTime );
+            out.writeLong( minId );
+            out.writeLong( maxId );
+        }
+
+        /**
+         * Reads a block's place from a footer
+         *
+         * @param in
+         *            The footer
+         * @return The block
+         * @throws IOException
+         *             If it cannot be read
+         */
+        private static Block read ( final DataInputStream in ) throws IOException {
+            final Block b = new Block();
+            b.offset = in.readLong();
+            b.length = in.readInt();
+            b.count = in.readInt();
+            b.minTime = in.readLong();
+            b.maxTime = in.readLong();
+            b.minId = in.readLong();
+            b.maxId = in.readLong();
+            return b;
+        }
+    }
+
+    /**
+     * A complete segment file, as described by its footer
+     */
+    private static final class Segment {
+
+        /** The segment file */
+        private final File                 file;
+
+        /** Usernames, by dictionary number */
+        private final String[]             users;
+
+        /** Dictionary number of each username */
+        private final Map<String, Integer> userNumbers = new HashMap<String, Integer>();
+
+        /**
+         * Transaction types, by dictionary number; null for any that no longer
+         * exist
+         */
+        private final TransactionType[]    types;
+
+        /** The blocks, in file order */
+        private final Block[]              blocks;
+
+        /** For each user, the blocks that mention them */
+        private final int[][]              userBlocks;
+
+        /**
+         * Reads a segment's footer
+         *
+         * @param file
+         *            The segment file
+         * @throws IOException
+         *             If the file cannot be read or is not a segment
+         */
+        private Segment ( final File file ) throws IOException {
+            this.file = file;
+            final byte[] footer;
+            try ( RandomAccessFile raf = new RandomAccessFile( file, "r" ) ) {
+                final long length = raf.length();
+                if ( length < 12 ) {
+                    throw new IOException( "Truncated segment" );
+                }
+                raf.seek( length - 12 );
+                final long footerOffset = raf.readLong();
+                if ( MAGIC != raf.readInt() || footerOffset < 4 || footerOffset > length - 12 ) {
+                    throw new IOException( "Not a complete segment" );
+                }
+                footer = new byte[(int) ( length - 12 - footerOffset )];
+                raf.seek( footerOffset );
+                raf.readFully( footer );
+            }
+
+            final DataInputStream in = new DataInputStream( new ByteArrayInputStream( footer ) );
+            users = new String[in.readInt()];
+            for ( int i = 0; i < users.length; i++ ) {
+                users[i] = in.readUTF();
+                userNumbers.put( users[i], i );
+            }
+            types = new TransactionType[in.readInt()];
+            for ( int i = 0; i < types.length; i++ ) {
+                final String name = in.readUTF();
+                try {
+                    types[i] = TransactionType.valueOf( name );
+                }
+                catch ( final IllegalArgumentException e ) {
+                    types[i] = null;
+                }
+            }
+            blocks = new Block[in.readInt()];
+            for ( int i = 0; i < blocks.length; i++ ) {
+                blocks[i] = Block.read( in );
+            }
+            userBlocks = new int[users.length][];
+            for ( int u = 0; u < users.length; u++ ) {
+                userBlocks[u] = new int[in.readInt()];
+                for ( int i = 0; i < userBlocks[u].length; i++ ) {
+                    userBlocks[u][i] = in.readInt();
+                }
+            }
+        }
+
+        /**
+         * The blocks that might hold entries for a user within a time range
+         *
+         * @param user
+         *            The user, or null for any
+         * @param start
+         *            Earliest time, in epoch milliseconds
+         * @param end
+         *            Time to stop before, in epoch milliseconds
+         * @return The blocks
+         */
+        private List<Block> blocksFor ( final String user, final long start, final long end ) {
+            final List<Block> found = new ArrayList<Block>();
+            if ( null == user ) {
+                for ( final Block b : blocks ) {
+                    if ( b.maxTime >= start && b.minTime < end ) {
+                        found.add( b );
+                    }
+                }
+                return found;
+            }
+            final Integer u = userNumbers.get( user );
+            if ( null != u ) {
+                for ( final int i : userBlocks[u] ) {
+                    if ( blocks[i].maxTime >= start && blocks[i].minTime < end ) {
+                        found.add( blocks[i] );
+                    }
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Performs an action on each entry in this segment that matches a
+         * search
+         *
+         * @param user
+         *            User who must be the primary or secondary user, or null
+         *            for any
+         * @param start
+         *            Earliest time to include, in epoch milliseconds
+         * @param end
+         *            Time to stop before, in epoch milliseconds
+         * @param wanted
+         *            Types of event to include, or null for all of them
+         * @param id
+         *            The only ID to include, or null for any
+         * @param action
+         *            The action to perform on each matching entry
+         */
+        private void find ( final String user, final long start, final long end,
+                final Collection<TransactionType> wanted, final Long id, final Consumer<LogEntry> action ) {
+            final List<Block> candidates = blocksFor( user, start, end );
+            if ( null != id ) {
+                candidates.removeIf( b -> id < b.minId || id > b.maxId );
+            }
+            scan( candidates, user, start, end, wanted, true, ( entryId, time, type, primary, secondary, message ) -> {
+                if ( null != id && id != entryId ) {
+                    return;
+                }
+                final LogEntry le = new LogEntry();
+                le.setId( entryId );
+                le.setTime( Instant.ofEpochMilli( time ).atZone( ZoneId.systemDefault() ) );
+                le.setLogCode( types[type] );
+                le.setPrimaryUser( users[primary] );
+                le.setSecondaryUser( -1 == secondary ? null : users[secondary] );
+                le.setMessage( message );
+                action.accept( le );
+            } );
+        }
+
+        /**
+         * Counts the entries in this segment that match a search
+         *
+         * @param user
+         *            User who must be the primary or secondary user, or null
+         *            for any
+         * @param start
+         *            Earliest time to include, in epoch milliseconds
+         * @param end
+         *            Time to stop before, in epoch milliseconds
+         * @param wanted
+         *            Types of event to include, or null for all of them
+         * @return The number of matching entries
+         */
+        private long count ( final String user, final long start, final long end,
+                final Collection<TransactionType> wanted ) {
+            final List<Block> candidates = blocksFor( user, start, end );
+            final long[] count = new long[1];
+            if ( null == user && null == wanted ) {
+                // Every entry in a block inside the time range matches
+                candidates.removeIf( b -> {
+                    if ( b.minTime >= start && b.maxTime < end ) {
+                        count[0] += b.count;
+                        return true;
+                    }
+                    return false;
+                } );
+            }
+            scan( candidates, user, start, end, wanted, false,
+                    ( entryId, time, type, primary, secondary, message ) -> count[0]++ );
+            return count[0];
+        }
+
+        /**
+         * Reads blocks of this segment and passes on the entries that match a
+         * search
+         *
+         * @param candidates
+         *            The blocks to read
+         * @param user
+         *            User who must be the primary or secondary user, or null
+         *            for any
+         * @param start
+         *            Earliest time to include, in epoch milliseconds
+         * @param end
+         *            Time to stop before, in epoch milliseconds
+         * @param wanted
+         *            Types of event to include, or null for all of them
+         * @param messages
+         *            False to skip over messages rather than decode them
+         * @param row
+         *            Receives each matching entry
+         */
+        private void scan ( final List<Block> candidates, final String user, final long start, final long end,
+                final Collection<TransactionType> wanted, final boolean messages, final Row row ) {
+            if ( candidates.isEmpty() ) {
+                return;
+            }
+            final int u = null == user ? -1 : userNumbers.get( user );
+            final boolean[] typeWanted = new boolean[types.length];
+            for ( int i = 0; i < types.length; i++ ) {
+                typeWanted[i] = null != types[i] && ( null == wanted || wanted.contains( types[i] ) );
+            }
+
+            try ( RandomAccessFile raf = new RandomAccessFile( file, "r" ) ) {
+                for ( final Block b : candidates ) {
+                    final byte[] data = new byte[b.length];
+                    raf.seek( b.offset );
+                    raf.readFully( data );
+                    try ( DataInputStream in = new DataInputStream(
+                            new InflaterInputStream( new ByteArrayInputStream( data ) ) ) ) {
+                        for ( int i = 0; i < b.count; i++ ) {
+                            final long entryId = in.readLong();
+                            final long time = in.readLong();
+                            final int type = in.readShort();
+                            final int primary = in.readInt();
+                            final int secondary = in.readInt();
+                            final int messageLength = in.readInt();
+                            final boolean match = time >= start && time < end && typeWanted[type]
+                                    && ( -1 == u || u == primary || u == secondary );
+                            String message = null;
+                            if ( messageLength >= 0 ) {
+                                if ( match && messages ) {
+                                    final byte[] bytes = new byte[messageLength];
+                                    in.readFully( bytes );
+                                    message = new String( bytes, StandardCharsets.UTF_8 );
+                                }
+                                else {
+                                    in.skipBytes( messageLength );
+                                }
+                            }
+                            if ( match ) {
+                                row.accept( entryId, time, type, primary, secondary, message );
+                            }
+                        }
+                    }
+                }
+            }
+            catch ( final IOException e ) {
+                throw new IllegalStateException( "Could not read audit archive segment " + file.getName(), e );
+            }
+        }
+    }
+
+    /**
+     * Receives an entry read from a block, still in its encoded form
+     */
+    @FunctionalInterface
+    private interface Row {
+        /**
+         * Receives an entry
+         *
+         * @param id
+         *            ID of the entry
+         * @param time
+         *            Time of the entry, in epoch milliseconds
+         * @param type
+         *            Dictionary number of its transaction type
+         * @param primary
+         *            Dictionary number of its primary user
+         * @param secondary
+         *            Dictionary number of its secondary user, or -1 for none
+         * @param message
+         *            Its message; null if it has none or messages are being
+         *            skipped
+         */
+        void accept ( long id, long time, int type, int primary, int secondary, String message );
+    }
+
+    /**
+     * Writes a new segment, a block at a time
+     */
+    static final class SegmentWriter implements Closeable {
+
+        /** Name the segment gets once it is complete */
+        private final File                  file;
+
+        /** Name the segment is written under */
+        private final File                  tmp;
+
+        /** The open temporary file */
+        private final FileOutputStream      fos;
+
+        /** Buffered output to the temporary file */
+        private final DataOutputStream      out;
+
+        /** Bytes written so far */
+        private long                        position;
+
+        /** Blocks written so far */
+        private final List<Block>           blocks      = new ArrayList<Block>();
+
+        /** Usernames, in the order they were first seen */
+        private final List<String>          users       = new ArrayList<String>();
+
+        /** Dictionary number of each username */
+        private final Map<String, Integer>  userNumbers = new HashMap<String, Integer>();
+
+        /** For each user, the blocks that mention them */
+        private final List<List<Integer>>   userBlocks  = new ArrayList<List<Integer>>();
+
+        /** Transaction types, in the order they were first seen */
+        private final List<TransactionType> types       = new ArrayList<TransactionType>();
+
+        /** Number of entries written so far */
+        private int                         count;
+
+        /** Set once the segment has been finished or abandoned */
+        private boolean                     done;
+
+        /**
+         * Opens the temporary file and writes the header
+         *
+         * @param file
+         *            Name the segment gets once it is complete
+         * @param tmp
+         *            Name to write it under
+         * @throws IOException
+         *             If the file cannot be created
+         */
+        private SegmentWriter ( final File file, final File tmp ) throws IOException {
+            this.file = file;
+            this.tmp = tmp;
+            this.fos = new FileOutputStream( tmp );
+            this.out = new DataOutputStream( new BufferedOutputStream( fos ) );
+            out.writeInt( MAGIC );
+            position = 4;
+        }
+
+        /**
+         * Writes one block of entries. Callers keep blocks to at most
+         * {@link LogArchive#BLOCK_SIZE} entries.
+         *
+         * @param entries
+         *            The entries
+         * @throws IOException
+         *             If the block cannot be written
+         */
+        void add ( final List<LogEntry> entries ) throws IOException {
+            if ( entries.isEmpty() ) {
+                return;
+            }
+            final Block b = new Block();
+            final int blockNumber = blocks.size();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final Deflater deflater = new Deflater( Deflater.BEST_COMPRESSION );
+            try ( DataOutputStream block = new DataOutputStream( new DeflaterOutputStream( bytes, deflater ) ) ) {
+                for ( final LogEntry le : entries ) {
+                    final long time = le.getTime().toInstant().toEpochMilli();
+                    block.writeLong( le.getId() );
+                    block.writeLong( time );
+                    block.writeShort( typeNumber( le.getLogCode() ) );
+                    block.writeInt( userNumber( le.getPrimaryUser(), blockNumber ) );
+                    block.writeInt( null == le.getSecondaryUser() ? -1
+                            : userNumber( le.getSecondaryUser(), blockNumber ) );
+                    if ( null == le.getMessage() ) {
+                        block.writeInt( -1 );
+                    }
+                    else {
+                        final byte[] message = le.getMessage().getBytes( StandardCharsets.UTF_8 );
+                        block.writeInt( message.length );
+                        block.write( message );
+                    }
+                    b.minTime = Math.min( b.minTime, time );
+                    b.maxTime = Math.max( b.maxTime, time );
+                    b.minId = Math.min( b.minId, le.getId() );
+                    b.maxId = Math.max( b.maxId, le.getId() );
+                }
+            }
+            finally {
+                deflater.end();
+            }
+            b.offset = position;
+            b.length = bytes.size();
+            b.count = entries.size();
+            bytes.writeTo( out );
+            position += b.length;
+            blocks.add( b );
+            count += b.count;
+        }
+
+        /**
+         * Number of entries written so far
+         *
+         * @return Number of entries
+         */
+        int getCount () {
+            return count;
+        }
+
+        /**
+         * Writes the footer, makes sure everything is on disk, and moves the
+         * segment into place
+         *
+         * @throws IOException
+         *             If the segment cannot be completed
+         */
+        void finish () throws IOException {
+            final long footerOffset = position;
+            out.writeInt( users.size() );
+            for ( final String user : users ) {
+                out.writeUTF( user );
+            }
+            out.writeInt( types.size() );
+            for ( final TransactionType type : types ) {
+                out.writeUTF( type.name() );
+            }
+            out.writeInt( blocks.size() );
+            for ( final Block b : blocks ) {
+                b.write( out );
+            }
+            for ( final List<Integer> list : userBlocks ) {
+                out.writeInt( list.size() );
+                for ( final int i : list ) {
+                    out.writeInt( i );
+                }
+            }
+            out.writeLong( footerOffset );
+            out.writeInt( MAGIC );
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            try {
+                Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE );
+            }
+            catch ( final AtomicMoveNotSupportedException e ) {
+                Files.move( tmp.toPath(), file.toPath() );
+            }
+            done = true;
+        }
+
+        /**
+         * Abandons the segment if it was not finished
+         */
+        @Override
+        public void close () throws IOException {
+            if ( !done ) {
+                done = true;
+                out.close();
+                Files.deleteIfExists( tmp.toPath() );
+            }
+        }
+
+        /**
+         * Dictionary number of a username, adding it if it is new, and noting
+         * that the block being written mentions the user
+         *
+         * @param user
+         *            The username
+         * @param blockNumber
+         *            The block being written
+         * @return The dictionary number
+         */
+        private int userNumber ( final String user, final int blockNumber ) {
+            Integer n = userNumbers.get( user );
+            if ( null == n ) {
+                n = users.size();
+                users.add( user );
+                userNumbers.put( user, n );
+                userBlocks.add( new ArrayList<Integer>() );
+            }
+            final List<Integer> list = userBlocks.get( n );
+            if ( list.isEmpty() || blockNumber != list.get( list.size() - 1 ) ) {
+                list.add( blockNumber );
+            }
+            return n;
+        }
+
+        /**
+         * Dictionary number of a transaction type, adding it if it is new
+         *
+         * @param type
+         *            The type
+         * @return The dictionary number
+         */
+        private int typeNumber ( final TransactionType type ) {
+            int n = types.indexOf( type );
+            if ( -1 == n ) {
+                n = types.size();
+                types.add( type );
+            }
+            return n;
+        }
+    }
+
+}
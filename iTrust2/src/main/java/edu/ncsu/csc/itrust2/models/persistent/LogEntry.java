@@ -1,19 +1,34 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 import java.util.Vector;
 
 import javax.persistence.Basic;
 import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
 import javax.validation.constraints.NotNull;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 
 import com.google.gson.annotations.JsonAdapter;
@@ -70,20 +85,44 @@ public class LogEntry extends DomainObject<LogEntry> {
     private String          message;
 
     /**
-     * ID of the LogEntry
+     * ID of the LogEntry. IDs are handed out in blocks from a table rather
+     * than by MySQL auto-increment so that inserts can be batched.
      */
     @Id
-    @GeneratedValue ( strategy = GenerationType.AUTO )
+    @GeneratedValue ( generator = "logEntryIds" )
+    @GenericGenerator ( name = "logEntryIds", strategy = "org.hibernate.id.enhanced.TableGenerator",
+            parameters = { @Parameter ( name = "table_name", value = "IdGenerators" ),
+                    @Parameter ( name = "segment_value", value = "LogEntries" ),
+                    @Parameter ( name = "increment_size", value = "50" ),
+                    @Parameter ( name = "optimizer", value = "pooled-lo" ) } )
     private Long            id;
 
     /**
-     * Retrieve all LogEntries from the database.
+     * Order in which the log viewer pages through entries: newest first, with
+     * the ID breaking ties between entries logged in the same instant
+     */
+    private static final List<Order>          NEWEST_FIRST  = Arrays.asList( Order.desc( "time" ), Order.desc( ID ) );
+
+    /** Oldest first, by time and then ID; for merging entries from both tiers */
+    private static final Comparator<LogEntry> OLDEST        = Comparator
+            .comparingLong( ( final LogEntry le ) -> le.getTime().toInstant().toEpochMilli() )
+            .thenComparingLong( LogEntry::getId );
+
+    /** Most IDs to put in one IN list when removing archived entries */
+    private static final int                  DELETE_BATCH  = 1000;
+
+    /**
+     * Retrieve all LogEntries from the database, including any still waiting
+     * to be saved in the background.
      *
      * @return All LogEntries in the system
      */
     @SuppressWarnings ( "unchecked" )
     public static List<LogEntry> getLogEntries () {
-        return (List<LogEntry>) getAll( LogEntry.class );
+        LoggerUtil.flush();
+        final List<LogEntry> all = LogArchive.getInstance().find( null, Long.MIN_VALUE, Long.MAX_VALUE, null );
+        all.addAll( (List<LogEntry>) getAll( LogEntry.class ) );
+        return all;
     }
 
     /**
@@ -99,7 +138,7 @@ public class LogEntry extends DomainObject<LogEntry> {
             return getWhere( eqList( ID, id ) ).get( 0 );
         }
         catch ( final Exception e ) {
-            return null;
+            return null == id ? null : LogArchive.getInstance().findById( id );
         }
 
     }
@@ -125,11 +164,15 @@ public class LogEntry extends DomainObject<LogEntry> {
         search.add( bt( "time", startDate, endDate ) );
         search.add( Restrictions.or( eq( "primaryUser", user ), eq( "secondaryUser", user ) ) );
 
-        return getWhere( search );
+        final List<LogEntry> entries = findArchived( user, startDate, endDate.plusNanos( 1000000 ), null );
+        entries.addAll( getWhere( search ) );
+        return entries;
     }
 
     /**
-     * Retrieve all LogEntries based on the where clause provided.
+     * Retrieve all LogEntries based on the where clause provided. Entries
+     * still waiting to be saved in the background are saved first, so the
+     * results include everything logged so far.
      *
      * @param where
      *            List of Criterion to and together and search for records by
@@ -137,6 +180,7 @@ public class LogEntry extends DomainObject<LogEntry> {
      */
     @SuppressWarnings ( "unchecked" )
     private static List<LogEntry> getWhere ( final List<Criterion> where ) {
+        LoggerUtil.flush();
         return (List<LogEntry>) getWhere( LogEntry.class, where );
     }
 
@@ -149,8 +193,441 @@ public class LogEntry extends DomainObject<LogEntry> {
      * @return All matching LogEntries
      */
     public static List<LogEntry> getAllForUser ( final String user ) {
-        return getWhere(
-                createCriterionList( Restrictions.or( eq( "primaryUser", user ), eq( "secondaryUser", user ) ) ) );
+        final List<LogEntry> entries = findArchived( user, null, null, null );
+        entries.addAll( getWhere(
+                createCriterionList( Restrictions.or( eq( "primaryUser", user ), eq( "secondaryUser", user ) ) ) ) );
+        return entries;
+    }
+
+    /**
+     * Retrieves one page of a user's LogEntries, newest first, starting after
+     * the entry that the cursor was taken from (see {@link #getCursor()}).
+     * Paging by cursor rather than by page number means each page is found
+     * through the index on user and time, no matter how far back it is.
+     *
+     * @param user
+     *            The user who must be the primary or secondary user
+     * @param start
+     *            Earliest time to include, or null for no limit
+     * @param end
+     *            Time to stop before, or null for no limit
+     * @param types
+     *            The types of event to include, or null for all of them
+     * @param cursor
+     *            Cursor of the last entry on the previous page, or null for
+     *            the first page
+     * @param pageLength
+     *            Most entries to return
+     * @return The entries on the page
+     * @throws IllegalArgumentException
+     *             If the cursor is not one returned by getCursor()
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<LogEntry> getPageForUser ( final String user, final ZonedDateTime start,
+            final ZonedDateTime end, final Collection<TransactionType> types, final String cursor,
+            final int pageLength ) {
+        final List<Criterion> search = userCriteria( user, start, end, types );
+        ZonedDateTime before = end;
+        final LogEntry last = new LogEntry();
+        if ( null != cursor ) {
+            final String[] parts = cursor.split( ":" );
+            try {
+                if ( 2 != parts.length ) {
+                    throw new NumberFormatException( cursor );
+                }
+                last.setTime( Instant.ofEpochMilli( Long.parseLong( parts[0] ) ).atZone( ZoneId.systemDefault() ) );
+                last.setId( Long.parseLong( parts[1] ) );
+            }
+            catch ( final NumberFormatException e ) {
+                throw new IllegalArgumentException( "Invalid log cursor: " + cursor );
+            }
+            search.add( Restrictions.or( Restrictions.lt( "time", last.getTime() ),
+                    Restrictions.and( eq( "time", last.getTime() ), Restrictions.lt( ID, last.getId() ) ) ) );
+            final ZonedDateTime afterLast = last.getTime().plusNanos( 1000000 );
+            before = null == end || afterLast.isBefore( end ) ? afterLast : end;
+        }
+        LoggerUtil.flush();
+        final List<LogEntry> page = (List<LogEntry>) getWhere( LogEntry.class, search, NEWEST_FIRST, 0, pageLength );
+
+        // Archived entries are older than the ones in the table, so they are
+        // only needed once the table runs out
+        final List<LogEntry> archived = LogArchive.getInstance().findNewest( user,
+                millis( earliestNeeded( start, page, pageLength ), Long.MIN_VALUE ), millis( before, Long.MAX_VALUE ),
+                types, null == cursor ? null : le -> OLDEST.compare( le, last ) < 0, pageLength );
+        return merge( page, archived, OLDEST.reversed(), 0, pageLength );
+    }
+
+    /**
+     * Retrieves one page of a user's LogEntries, newest first, by page number.
+     * Prefer {@link #getPageForUser(String, ZonedDateTime, ZonedDateTime,
+     * Collection, String, int)} when moving from one page to the next.
+     *
+     * @param user
+     *            The user who must be the primary or secondary user
+     * @param start
+     *            Earliest time to include, or null for no limit
+     * @param end
+     *            Time to stop before, or null for no limit
+     * @param types
+     *            The types of event to include, or null for all of them
+     * @param page
+     *            The page to retrieve, starting from 1
+     * @param pageLength
+     *            Number of entries on each page
+     * @return The entries on the page
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<LogEntry> getPageForUser ( final String user, final ZonedDateTime start,
+            final ZonedDateTime end, final Collection<TransactionType> types, final int page, final int pageLength ) {
+        LoggerUtil.flush();
+        final int offset = Math.max( 0, page - 1 ) * pageLength;
+        if ( !mayHaveArchived( user, start, end ) ) {
+            return (List<LogEntry>) getWhere( LogEntry.class, userCriteria( user, start, end, types ), NEWEST_FIRST,
+                    offset, pageLength );
+        }
+        final List<LogEntry> newest = (List<LogEntry>) getWhere( LogEntry.class,
+                userCriteria( user, start, end, types ), NEWEST_FIRST, 0, offset + pageLength );
+        final List<LogEntry> archived = LogArchive.getInstance().findNewest( user,
+                millis( earliestNeeded( start, newest, offset + pageLength ), Long.MIN_VALUE ),
+                millis( end, Long.MAX_VALUE ), types, null, offset + pageLength );
+        return merge( newest, archived, OLDEST.reversed(), offset, pageLength );
+    }
+
+    /**
+     * Counts a user's LogEntries, without retrieving them
+     *
+     * @param user
+     *            The user who must be the primary or secondary user
+     * @param start
+     *            Earliest time to include, or null for no limit
+     * @param end
+     *            Time to stop before, or null for no limit
+     * @param types
+     *            The types of event to include, or null for all of them
+     * @return The number of matching entries
+     */
+    public static long countForUser ( final String user, final ZonedDateTime start, final ZonedDateTime end,
+            final Collection<TransactionType> types ) {
+        LoggerUtil.flush();
+        return count( LogEntry.class, userCriteria( user, start, end, types ) ) + LogArchive.getInstance()
+                .count( user, millis( start, Long.MIN_VALUE ), millis( end, Long.MAX_VALUE ), types );
+    }
+
+    /**
+     * Retrieves a user's oldest LogEntries. The archive holds everything from
+     * before the entries still in the table, so it is read first, stopping
+     * once it has found enough, and the table is only asked for however many
+     * are still missing.
+     *
+     * @param user
+     *            The user who must be the primary or secondary user
+     * @param top
+     *            Most entries to return
+     * @return Up to `top` entries, oldest first
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<LogEntry> getTopForUser ( final String user, final int top ) {
+        LoggerUtil.flush();
+        final List<LogEntry> oldest = LogArchive.getInstance().findOldest( user, Long.MIN_VALUE, Long.MAX_VALUE,
+                null, top );
+        if ( oldest.size() < top ) {
+            oldest.addAll( (List<LogEntry>) getWhere( LogEntry.class, userCriteria( user, null, null, null ),
+                    Arrays.asList( Order.asc( "time" ), Order.asc( ID ) ), 0, top - oldest.size() ) );
+        }
+        return merge( oldest, Collections.emptyList(), OLDEST, 0, top );
+    }
+
+    /**
+     * Performs an action on every LogEntry for a user or a time window,
+     * without reading them all into memory: archived entries are read a block
+     * at a time, and entries in the table through a database cursor (see
+     * {@link DomainObject#stream(Class, List, List, int)}). Archived entries
+     * come first, a month at a time, followed by the table's entries oldest
+     * first. Each entry is detached and should not be kept.
+     *
+     * @param user
+     *            The user who must be the primary or secondary user, or null
+     *            for every user
+     * @param start
+     *            Earliest time to include, or null for no limit
+     * @param end
+     *            Time to stop before, or null for no limit
+     * @param action
+     *            The action to perform on each entry
+     */
+    public static void export ( final String user, final ZonedDateTime start, final ZonedDateTime end,
+            final Consumer<LogEntry> action ) {
+        LoggerUtil.flush();
+        LogArchive.getInstance().forEach( user, millis( start, Long.MIN_VALUE ), millis( end, Long.MAX_VALUE ), null,
+                action );
+        try ( Stream<LogEntry> entries = stream( LogEntry.class, userCriteria( user, start, end, null ),
+                Arrays.asList( Order.asc( "time" ), Order.asc( ID ) ), FETCH_SIZE ) ) {
+            entries.forEach( action );
+        }
+    }
+
+    /**
+     * Moves every LogEntry from before a point in time out of the LogEntries
+     * table and into the archive, a month at a time. The entries can still be
+     * read through LogEntry as before; the table just stops growing with
+     * history. Run regularly by AuditArchiver.
+     *
+     * Each month's entries are written to a new archive segment, which is
+     * completed before any entries are removed from the table. If this stops
+     * part way through, running it again picks up where it left off without
+     * archiving anything twice.
+     *
+     * @param cutoff
+     *            Entries from before this time are moved
+     * @return The number of entries removed from the table
+     * @throws IllegalStateException
+     *             If the archive cannot be written
+     */
+    public static int archiveBefore ( final ZonedDateTime cutoff ) {
+        return archiveBefore( cutoff, null );
+    }
+
+    /**
+     * Moves one user's LogEntries from before a point in time into the
+     * archive, as {@link #archiveBefore(ZonedDateTime)} does for everyone's
+     *
+     * @param cutoff
+     *            Entries from before this time are moved
+     * @param user
+     *            The user who must be the primary or secondary user, or null
+     *            for every user
+     * @return The number of entries removed from the table
+     * @throws IllegalStateException
+     *             If the archive cannot be written
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static int archiveBefore ( final ZonedDateTime cutoff, final String user ) {
+        LoggerUtil.flush();
+        final LogArchive archive = LogArchive.getInstance();
+        int moved = 0;
+        for ( ;; ) {
+            final List<LogEntry> oldest = (List<LogEntry>) getWhere( LogEntry.class,
+                    userCriteria( user, null, cutoff, null ), Arrays.asList( Order.asc( "time" ) ), 0, 1 );
+            if ( oldest.isEmpty() ) {
+                return moved;
+            }
+            final YearMonth month = YearMonth.from( oldest.get( 0 ).getTime().withZoneSameInstant( cutoff.getZone() ) );
+            final ZonedDateTime monthStart = month.atDay( 1 ).atStartOfDay( cutoff.getZone() );
+            final ZonedDateTime nextMonth = month.plusMonths( 1 ).atDay( 1 ).atStartOfDay( cutoff.getZone() );
+            moved += archiveMonth( archive, month, user, monthStart,
+                    nextMonth.isAfter( cutoff ) ? cutoff : nextMonth );
+        }
+    }
+
+    /**
+     * Keeps the archive in another directory from now on, for instance to
+     * keep a test's archived entries apart from everyone else's
+     *
+     * @param dir
+     *            Directory to keep the archive in, or null to go back to the
+     *            one configured by the `itrust2.audit.archiveDir` property
+     */
+    public static void setArchiveDirectory ( final File dir ) {
+        LogArchive.setDirectory( dir );
+    }
+
+    /**
+     * Moves the entries from part of one month into a new archive segment
+     *
+     * @param archive
+     *            The archive
+     * @param month
+     *            The month
+     * @param user
+     *            The user whose entries to move, or null for everyone's
+     * @param start
+     *            Earliest time to move
+     * @param end
+     *            Time to stop before
+     * @return The number of entries removed from the table
+     */
+    @SuppressWarnings ( "unchecked" )
+    private static int archiveMonth ( final LogArchive archive, final YearMonth month, final String user,
+            final ZonedDateTime start, final ZonedDateTime end ) {
+        // Entries already in a segment for this month were archived by an
+        // earlier run that did not get as far as removing them
+        final Set<Long> alreadyArchived = archive.idsFor( month );
+        final List<Long> ids = new ArrayList<Long>();
+        try ( LogArchive.SegmentWriter writer = archive.create( month ) ) {
+            long lastId = Long.MIN_VALUE;
+            for ( ;; ) {
+                final List<Criterion> search = userCriteria( user, start, end, null );
+                search.add( Restrictions.gt( ID, lastId ) );
+                final List<LogEntry> block = (List<LogEntry>) getWhere( LogEntry.class, search,
+                        Collections.singletonList( Order.asc( ID ) ), 0, LogArchive.BLOCK_SIZE );
+                if ( block.isEmpty() ) {
+                    break;
+                }
+                lastId = block.get( block.size() - 1 ).getId();
+                final List<LogEntry> fresh = new ArrayList<LogEntry>( block.size() );
+                for ( final LogEntry le : block ) {
+                    ids.add( le.getId() );
+                    if ( !alreadyArchived.contains( le.getId() ) ) {
+                        fresh.add( le );
+                    }
+                }
+                writer.add( fresh );
+            }
+            if ( writer.getCount() > 0 ) {
+                writer.finish();
+            }
+        }
+        catch ( final IOException e ) {
+            throw new IllegalStateException( "Could not archive audit log entries from " + month, e );
+        }
+
+        for ( int i = 0; i < ids.size(); i += DELETE_BATCH ) {
+            final List<Long> batch = ids.subList( i, Math.min( i + DELETE_BATCH, ids.size() ) );
+            inSession( session -> session.createQuery( "delete from LogEntry where id in (:ids)" )
+                    .setParameterList( "ids", batch ).executeUpdate() );
+        }
+        return ids.size();
+    }
+
+    /**
+     * Whether the archive might hold entries for a user within a time range
+     *
+     * @param user
+     *            The user
+     * @param start
+     *            Earliest time, or null for no limit
+     * @param end
+     *            Time to stop before, or null for no limit
+     * @return False if it definitely does not
+     */
+    private static boolean mayHaveArchived ( final String user, final ZonedDateTime start,
+            final ZonedDateTime end ) {
+        return LogArchive.getInstance().mayContain( user, millis( start, Long.MIN_VALUE ),
+                millis( end, Long.MAX_VALUE ) );
+    }
+
+    /**
+     * Finds a user's archived entries
+     *
+     * @param user
+     *            The user who must be the primary or secondary user
+     * @param start
+     *            Earliest time to include, or null for no limit
+     * @param end
+     *            Time to stop before, or null for no limit
+     * @param types
+     *            The types of event to include, or null for all of them
+     * @return The entries, in no particular order, in a list that can be
+     *         added to
+     */
+    private static List<LogEntry> findArchived ( final String user, final ZonedDateTime start,
+            final ZonedDateTime end, final Collection<TransactionType> types ) {
+        return LogArchive.getInstance().find( user, millis( start, Long.MIN_VALUE ), millis( end, Long.MAX_VALUE ),
+                types );
+    }
+
+    /**
+     * Earliest time an archived entry could have and still belong on a page,
+     * given the newest-first entries found in the table for it. If the table
+     * filled the page, nothing older than its last entry is needed.
+     *
+     * @param start
+     *            Earliest time asked for, or null for no limit
+     * @param fromTable
+     *            Entries found in the table, newest first
+     * @param wanted
+     *            Number of entries the page needs
+     * @return The earliest time to search the archive from, or null for no
+     *         limit
+     */
+    private static ZonedDateTime earliestNeeded ( final ZonedDateTime start, final List<LogEntry> fromTable,
+            final int wanted ) {
+        if ( fromTable.size() < wanted ) {
+            return start;
+        }
+        final ZonedDateTime last = fromTable.get( fromTable.size() - 1 ).getTime();
+        return null == start || last.isAfter( start ) ? last : start;
+    }
+
+    /**
+     * Merges entries from both tiers into one page
+     *
+     * @param first
+     *            Entries from one tier
+     * @param second
+     *            Entries from the other
+     * @param order
+     *            Order of the page
+     * @param offset
+     *            Number of entries to skip
+     * @param limit
+     *            Most entries to return
+     * @return The page
+     */
+    private static List<LogEntry> merge ( final List<LogEntry> first, final List<LogEntry> second,
+            final Comparator<LogEntry> order, final int offset, final int limit ) {
+        final List<LogEntry> all = new ArrayList<LogEntry>( first.size() + second.size() );
+        all.addAll( first );
+        all.addAll( second );
+        all.sort( order );
+        final int from = Math.min( offset, all.size() );
+        return new ArrayList<LogEntry>( all.subList( from, Math.min( from + limit, all.size() ) ) );
+    }
+
+    /**
+     * A time in epoch milliseconds
+     *
+     * @param time
+     *            The time, or null
+     * @param ifNull
+     *            What to return for null
+     * @return The time in milliseconds
+     */
+    private static long millis ( final ZonedDateTime time, final long ifNull ) {
+        return null == time ? ifNull : time.toInstant().toEpochMilli();
+    }
+
+    /**
+     * Builds the criteria for a user's LogEntries
+     *
+     * @param user
+     *            The user who must be the primary or secondary user, or null
+     *            for every user
+     * @param start
+     *            Earliest time to include, or null for no limit
+     * @param end
+     *            Time to stop before, or null for no limit
+     * @param types
+     *            The types of event to include, or null for all of them
+     * @return The criteria, in a list that can be added to
+     */
+    private static List<Criterion> userCriteria ( final String user, final ZonedDateTime start,
+            final ZonedDateTime end, final Collection<TransactionType> types ) {
+        final List<Criterion> search = new ArrayList<Criterion>();
+        if ( null != user ) {
+            search.add( Restrictions.or( eq( "primaryUser", user ), eq( "secondaryUser", user ) ) );
+        }
+        if ( null != start ) {
+            search.add( Restrictions.ge( "time", start ) );
+        }
+        if ( null != end ) {
+            search.add( Restrictions.lt( "time", end ) );
+        }
+        if ( null != types ) {
+            search.add( Restrictions.in( "logCode", types ) );
+        }
+        return search;
+    }
+
+    /**
+     * A cursor marking this entry's place in a user's log, for fetching the
+     * page that follows it with {@link #getPageForUser(String, ZonedDateTime,
+     * ZonedDateTime, Collection, String, int)}
+     *
+     * @return The cursor
+     */
+    public String getCursor () {
+        return time.toInstant().toEpochMilli() + ":" + id;
     }
 
     /**
@@ -189,12 +666,12 @@ public class LogEntry extends DomainObject<LogEntry> {
     }
 
     /**
-     * Sets the ID on the LogEntry. Used by Hibernate.
+     * Sets the ID on the LogEntry. Used by Hibernate, and when reading entries
+     * back from the archive.
      *
      * @param id
      */
-    @SuppressWarnings ( "unused" )
-    private void setId ( final Long id ) {
+    void setId ( final Long id ) {
         this.id = id;
     }
 
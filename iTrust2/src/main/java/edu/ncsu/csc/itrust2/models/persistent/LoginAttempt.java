@@ -1,7 +1,6 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.time.ZonedDateTime;
-import java.util.List;
 
 import javax.persistence.Basic;
 import javax.persistence.Convert;
@@ -15,20 +14,24 @@ import javax.persistence.Table;
 
 import com.google.gson.annotations.JsonAdapter;
 
-import org.hibernate.criterion.Criterion;
-
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAdapter;
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
+import edu.ncsu.csc.itrust2.utils.LoginFailureTracker;
 
 /**
- * Class to hold failed login attempts. An entry is either for an IP address or
- * for a User, but not both. This way, IP lockouts and User lockouts are
+ * Class to hold failed login attempts. An attempt is either for an IP address
+ * or for a User, but not both. This way, IP lockouts and User lockouts are
  * independent, and clearing one will not affect the other. Once the number of
  * Attempts for a user or IP reaches a threshold, all Attempts are removed and a
- * LoginLockout is created. Attempts do not expire, but are cleared on successful
- * authentication. If an attempt is for a known username, two objects are
- * created, one for the IP and one for the user. If the username is unknown,
- * then only one is created for the IP.
+ * LoginLockout is created. Attempts are cleared on successful authentication,
+ * and expire on their own after an hour. If an attempt is for a known
+ * username, two are recorded, one for the IP and one for the user. If the
+ * username is unknown, then only one is recorded for the IP.
+ *
+ * Attempts are counted in memory by {@link LoginFailureTracker} rather than
+ * saved, so that a flood of failed logins costs no database writes; only the
+ * lockouts and bans they lead to are saved. The entity is kept so that the
+ * LoginAttempts table still maps.
  *
  * @author Thomas
  * @author Kai Presler-Marshall
@@ -133,47 +136,59 @@ public class LoginAttempt extends DomainObject<LoginAttempt> {
     }
 
     /**
-     * Retrieve a list of all LoginAttempts matching the criterion provided
+     * Records a failed attempt from the given IP.
      *
-     * @param where
-     *            List of Criterion to and together and search for records by
-     * @return
+     * @param addr
+     *            The IP the attempt came from
+     * @return the number of recent failures from the IP, including this one
      */
-    @SuppressWarnings ( "unchecked" )
-    private static List<LoginAttempt> getWhere ( final List<Criterion> where ) {
-        return (List<LoginAttempt>) getWhere( LoginAttempt.class, where );
+    public static int recordIPFailure ( final String addr ) {
+        return LoginFailureTracker.ips().recordFailure( addr );
     }
 
     /**
-     * Returns the number of failed attempts for the given IP.
+     * Returns the number of recent failed attempts for the given IP.
      *
      * @param addr
      *            The IP to check
      * @return the number of failures from the given IP
      */
     public static int getIPFailures ( final String addr ) {
-        return getWhere( eqList( "ip", addr ) ).size();
+        return LoginFailureTracker.ips().getFailures( addr );
     }
 
     /**
-     * Clears all entries for the given IP.
+     * Clears all attempts for the given IP.
      *
      * @param addr
      *            The IP to clear.
      */
     public static void clearIP ( final String addr ) {
-        getWhere( eqList( "ip", addr ) ).stream().forEach( e -> e.delete() );
+        if ( null != addr ) {
+            LoginFailureTracker.ips().clear( addr );
+        }
+    }
+
+    /**
+     * Records a failed attempt for the specified user.
+     *
+     * @param user
+     *            The user whose password was wrong
+     * @return the number of recent failures for the user, including this one
+     */
+    public static int recordUserFailure ( final User user ) {
+        return LoginFailureTracker.users().recordFailure( user.getUsername() );
     }
 
     /**
-     * Returns the number of failed attempts for the specified user.
+     * Returns the number of recent failed attempts for the specified user.
      *
      * @param user
      *            The user to check
      * @return The number of failed attempts for the User.
      */
     public static int getUserFailures ( final User user ) {
-        return getWhere( eqList( "user", user ) ).size();
+        return null == user ? 0 : LoginFailureTracker.users().getFailures( user.getUsername() );
     }
 
     /**
@@ -183,7 +198,22 @@ public class LoginAttempt extends DomainObject<LoginAttempt> {
      *            The user to clear.
      */
     public static void clearUser ( final User user ) {
-        getWhere( eqList( "user", user ) ).stream().forEach( e -> e.delete() );
+        if ( null != user ) {
+            clearUser( user.getUsername() );
+        }
+    }
+
+    /**
+     * Clears the attempts for the user with the given name, without looking
+     * the user up.
+     *
+     * @param username
+     *            Name of the user to clear.
+     */
+    public static void clearUser ( final String username ) {
+        if ( null != username ) {
+            LoginFailureTracker.users().clear( username );
+        }
     }
 
 }
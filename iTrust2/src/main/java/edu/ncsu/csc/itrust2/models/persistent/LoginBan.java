@@ -1,7 +1,9 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.time.ZonedDateTime;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import javax.persistence.Basic;
 import javax.persistence.Convert;
@@ -16,9 +18,13 @@ import javax.persistence.Table;
 import com.google.gson.annotations.JsonAdapter;
 
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Restrictions;
 
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAdapter;
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
+import edu.ncsu.csc.itrust2.utils.IPBlockList;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+import edu.ncsu.csc.itrust2.utils.UserDetailsCache;
 
 /**
  * Contains info about a LoginBan from the system. A ban does not expire, and
@@ -146,7 +152,17 @@ public class LoginBan extends DomainObject<LoginBan> {
      * @return true if banned, false otherwise
      */
     public static boolean isIPBanned ( final String addr ) {
-        return getWhere( eqList( "ip", addr ) ).size() > 0;
+        return exists( LoginBan.class, eqList( "ip", addr ) );
+    }
+
+    /**
+     * Retrieves every banned IP
+     *
+     * @return The banned IPs
+     */
+    public static List<String> getBannedIPs () {
+        return getWhere( Collections.singletonList( Restrictions.isNotNull( "ip" ) ) ).stream()
+                .map( LoginBan::getIp ).collect( Collectors.toList() );
     }
 
     /**
@@ -157,7 +173,7 @@ public class LoginBan extends DomainObject<LoginBan> {
      * @return true if banned, false otherwise.
      */
     public static boolean isUserBanned ( final User user ) {
-        return getWhere( eqList( "user", user ) ).size() > 0;
+        return exists( LoginBan.class, eqList( "user", user ) );
     }
 
     /**
@@ -167,7 +183,10 @@ public class LoginBan extends DomainObject<LoginBan> {
      *            The IP to clear.
      */
     public static void clearIP ( final String addr ) {
-        getWhere( eqList( "ip", addr ) ).stream().forEach( e -> e.delete() );
+        if ( null != addr ) {
+            deleteWhere( LoginBan.class, Collections.singletonMap( "ip", addr ) );
+            UnitOfWork.afterCommit( () -> IPBlockList.getInstance().unbanned( addr ) );
+        }
     }
 
     /**
@@ -177,6 +196,25 @@ public class LoginBan extends DomainObject<LoginBan> {
      *            The user to clear.
      */
     public static void clearUser ( final User user ) {
-        getWhere( eqList( "user", user ) ).stream().forEach( e -> e.delete() );
+        if ( null != user ) {
+            deleteWhere( LoginBan.class, Collections.singletonMap( "user", user ) );
+            final String name = user.getUsername();
+            UnitOfWork.afterCommit( () -> UserDetailsCache.getInstance().removeUserFromCache( name ) );
+        }
+    }
+
+    @Override
+    public void save () {
+        super.save();
+        // Only once the ban has been committed, so that one rolled back with
+        // the rest of its request never blocks anybody
+        if ( null != ip ) {
+            final String addr = ip;
+            UnitOfWork.afterCommit( () -> IPBlockList.getInstance().banned( addr ) );
+        }
+        if ( null != user ) {
+            final String name = user.getUsername();
+            UnitOfWork.afterCommit( () -> UserDetailsCache.getInstance().removeUserFromCache( name ) );
+        }
     }
 }
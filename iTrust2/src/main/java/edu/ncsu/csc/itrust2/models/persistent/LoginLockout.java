@@ -1,8 +1,9 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import javax.persistence.Basic;
 import javax.persistence.Convert;
@@ -17,9 +18,13 @@ import javax.persistence.Table;
 import com.google.gson.annotations.JsonAdapter;
 
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Restrictions;
 
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAdapter;
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
+import edu.ncsu.csc.itrust2.utils.IPBlockList;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+import edu.ncsu.csc.itrust2.utils.UserDetailsCache;
 
 /**
  * Class that holds a lockout for a user or ip. It contains a timestamp used to
@@ -35,6 +40,12 @@ import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
 @Table ( name = "LoginLockouts" )
 public class LoginLockout extends DomainObject<LoginLockout> {
 
+    /** How long a lockout lasts, in seconds */
+    private static final long LOCK_SECONDS       = 60 * 60;
+
+    /** How far back lockouts count towards a ban, in seconds */
+    private static final long BAN_WINDOW_SECONDS = 1440 * 60;
+
     @Id
     @GeneratedValue ( strategy = GenerationType.AUTO )
     private Long     id;
@@ -139,10 +150,7 @@ public class LoginLockout extends DomainObject<LoginLockout> {
      * @return The number of lockouts for the given IP
      */
     public static int getRecentIPLockouts ( final String addr ) {
-        final long now = ZonedDateTime.now().toEpochSecond();
-        return getWhere( eqList( "ip", addr ) ).stream()
-                .filter( e -> ( now - e.getTime().toEpochSecond() ) < 1440 * 60 * 1000 )
-                .collect( Collectors.toList() ).size(); // 1440 minutes
+        return (int) count( LoginLockout.class, since( eq( "ip", addr ), BAN_WINDOW_SECONDS ) );
     }
 
     /**
@@ -174,7 +182,21 @@ public class LoginLockout extends DomainObject<LoginLockout> {
      *            The IP to clear
      */
     public static void clearIP ( final String addr ) {
-        getWhere( eqList( "ip", addr ) ).stream().forEach( e -> e.delete() );
+        if ( null != addr ) {
+            deleteWhere( LoginLockout.class, Collections.singletonMap( "ip", addr ) );
+            UnitOfWork.afterCommit( () -> IPBlockList.getInstance().unlocked( addr ) );
+        }
+    }
+
+    /**
+     * Retrieves the IP lockouts that are still in effect
+     *
+     * @return The lockouts
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<LoginLockout> getIPLockouts () {
+        return (List<LoginLockout>) getWhere( LoginLockout.class,
+                since( Restrictions.isNotNull( "ip" ), LOCK_SECONDS ) );
     }
 
     /**
@@ -185,10 +207,7 @@ public class LoginLockout extends DomainObject<LoginLockout> {
      * @return true if IP is locked out, flase otherwise
      */
     public static boolean isIPLocked ( final String addr ) {
-        final long now = ZonedDateTime.now().toEpochSecond();
-        return getWhere( eqList( "ip", addr ) ).stream()
-                .filter( e -> ( now - e.getTime().toEpochSecond() ) < 60 * 60 * 1000 ).collect( Collectors.toList() )
-                .size() > 0; // locked if within 60 minutes
+        return exists( LoginLockout.class, since( eq( "ip", addr ), LOCK_SECONDS ) );
 
     }
 
@@ -201,10 +220,7 @@ public class LoginLockout extends DomainObject<LoginLockout> {
      * @return The number of lockouts for the user
      */
     public static int getRecentUserLockouts ( final User user ) {
-        final long now = ZonedDateTime.now().toEpochSecond();
-        return getWhere( eqList( "user", user ) ).stream()
-                .filter( e -> ( now - e.getTime().toEpochSecond() ) < 1440 * 60 * 1000 )
-                .collect( Collectors.toList() ).size(); // 1440 minutes
+        return (int) count( LoginLockout.class, since( eq( "user", user ), BAN_WINDOW_SECONDS ) );
     }
 
     /**
@@ -214,7 +230,11 @@ public class LoginLockout extends DomainObject<LoginLockout> {
      *            The User to clear.
      */
     public static void clearUser ( final User user ) {
-        getWhere( eqList( "user", user ) ).stream().forEach( e -> e.delete() );
+        if ( null != user ) {
+            deleteWhere( LoginLockout.class, Collections.singletonMap( "user", user ) );
+            final String name = user.getUsername();
+            UnitOfWork.afterCommit( () -> UserDetailsCache.getInstance().removeUserFromCache( name ) );
+        }
     }
 
     /**
@@ -225,10 +245,46 @@ public class LoginLockout extends DomainObject<LoginLockout> {
      * @return true if the user is locked out, false otherwise
      */
     public static boolean isUserLocked ( final User user ) {
-        final long now = ZonedDateTime.now().toEpochSecond();
-        return getWhere( eqList( "user", user ) ).stream()
-                .filter( e -> ( now - e.getTime().toEpochSecond() ) < 60 * 60 * 1000 ).collect( Collectors.toList() )
-                .size() > 0; // locked if within 60 minutes
+        return exists( LoginLockout.class, since( eq( "user", user ), LOCK_SECONDS ) );
+    }
+
+    /**
+     * Returns when the lockout ends
+     *
+     * @return the end of the lockout, in epoch millis
+     */
+    public long getLockedUntil () {
+        return time.plusSeconds( LOCK_SECONDS ).toInstant().toEpochMilli();
+    }
+
+    @Override
+    public void save () {
+        super.save();
+        // Only once the lockout has been committed, so that one rolled back
+        // with the rest of its request never blocks anybody
+        if ( null != ip ) {
+            final String addr = ip;
+            final long until = getLockedUntil();
+            UnitOfWork.afterCommit( () -> IPBlockList.getInstance().locked( addr, until ) );
+        }
+        if ( null != user ) {
+            final String name = user.getUsername();
+            UnitOfWork.afterCommit( () -> UserDetailsCache.getInstance().removeUserFromCache( name ) );
+        }
+    }
+
+    /**
+     * Criteria for the lockouts matching the given restriction that started
+     * less than the given number of seconds ago
+     *
+     * @param match
+     *            Which lockouts to consider
+     * @param seconds
+     *            How far back to look, in seconds
+     * @return The criteria to search by
+     */
+    private static List<Criterion> since ( final Criterion match, final long seconds ) {
+        return Arrays.asList( match, Restrictions.gt( "time", ZonedDateTime.now().minusSeconds( seconds ) ) );
     }
 
 }
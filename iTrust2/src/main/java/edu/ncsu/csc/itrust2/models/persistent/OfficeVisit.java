@@ -3,24 +3,30 @@ package edu.ncsu.csc.itrust2.models.persistent;
 import java.text.ParseException;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Vector;
 import java.util.stream.Collectors;
 
 import javax.persistence.Basic;
 import javax.persistence.Convert;
+import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Inheritance;
+import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.MappedSuperclass;
 import javax.persistence.OneToOne;
 import javax.validation.constraints.NotNull;
 
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
 
 import com.google.gson.annotations.JsonAdapter;
 
@@ -31,12 +37,24 @@ import edu.ncsu.csc.itrust2.models.enums.AppointmentType;
 import edu.ncsu.csc.itrust2.models.enums.Role;
 
 /**
- * This is the validated database-persisted office visit representation
+ * This is the validated database-persisted office visit representation.
+ * Each type of office visit keeps its own table; the tables are mapped as one
+ * hierarchy so that a query for OfficeVisit searches all of them in a single
+ * statement (a UNION of the tables).
+ *
+ * Visits are loaded in one of three shapes, each costing one or two queries:
+ * lists of visits (getForPatient, getForHCP and the like) read the visits in
+ * one query and the prescriptions of any general checkups among them in a
+ * second; a single visit for display (getById on the type of visit) is read
+ * by primary key from its own table, plus its prescriptions for a general
+ * checkup; and a check that a visit exists ({@link #existsById(Class, Long)})
+ * reads only its ID.
  *
  * @author Kai Presler-Marshall
  *
  */
-@MappedSuperclass
+@Entity
+@Inheritance ( strategy = InheritanceType.TABLE_PER_CLASS )
 public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
 
     /**
@@ -56,6 +74,35 @@ public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
 
     }
 
+    /**
+     * Checks whether an office visit of any type has the given database ID,
+     * without loading it
+     *
+     * @param id
+     *            the database ID
+     * @return true if there is an office visit with this ID
+     */
+    public static boolean existsById ( final Long id ) {
+        return existsById( OfficeVisit.class, id );
+    }
+
+    /**
+     * Checks whether an office visit of the given type has the given database
+     * ID, without loading it
+     *
+     * @param type
+     *            the type of office visit
+     * @param id
+     *            the database ID
+     * @return true if there is an office visit of this type with this ID
+     */
+    public static boolean existsById ( final Class< ? extends OfficeVisit> type, final Long id ) {
+        if ( null == id ) {
+            return false;
+        }
+        return exists( type, eqList( ID, id ) );
+    }
+
     /**
      * Get all office visits for a specific patient
      *
@@ -64,7 +111,38 @@ public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
      * @return the office visits of the queried patient
      */
     public static List<OfficeVisit> getForPatient ( final String patientName ) {
-        return getWhere( eqList( "patient", User.getByNameAndRole( patientName, Role.ROLE_PATIENT ) ) );
+        return getForPatient( User.getByNameAndRole( patientName, Role.ROLE_PATIENT ) );
+    }
+
+    /**
+     * Get all office visits for a patient who has already been looked up
+     *
+     * @param patient
+     *            the patient
+     * @return the office visits of the patient
+     */
+    public static List<OfficeVisit> getForPatient ( final User patient ) {
+        return getWhere( eqList( "patient", patient ) );
+    }
+
+    /**
+     * Get one page of the office visits for a specific patient, most recent
+     * first. Only the visits on the page are read from the database.
+     *
+     * @param patientName
+     *            the name of the patient
+     * @param firstResult
+     *            number of visits to skip
+     * @param maxResults
+     *            most visits to return
+     * @return the office visits on the page
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<OfficeVisit> getForPatient ( final String patientName, final int firstResult,
+            final int maxResults ) {
+        return (List<OfficeVisit>) getWhere( OfficeVisit.class,
+                eqList( "patient", User.getByNameAndRole( patientName, Role.ROLE_PATIENT ) ),
+                Arrays.asList( Order.desc( "date" ), Order.desc( ID ) ), firstResult, maxResults );
     }
 
     /**
@@ -89,6 +167,18 @@ public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
         return getWhere( eqList( "type", type ) );
     }
 
+    /**
+     * Gets all of the office visits of any of the specified types, in one
+     * query
+     *
+     * @param types
+     *            The AppointmentTypes
+     * @return all of the office visits of the specified types.
+     */
+    public static List<OfficeVisit> getForTypes ( final Collection<AppointmentType> types ) {
+        return getWhere( createCriterionList( Restrictions.in( "type", types ) ) );
+    }
+
     /**
      * Get all office visits done by a specific HCP for a specific patient
      *
@@ -111,19 +201,14 @@ public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
      *
      * @return all office visits in the database
      */
-    @SuppressWarnings ( "unchecked" )
     public static List<OfficeVisit> getOfficeVisits () {
-        final List<OfficeVisit> visits = (List<OfficeVisit>) getAll( GeneralCheckup.class );
-        // append new appointment types
-        visits.addAll( (List<OfficeVisit>) getAll( GeneralOphthalmology.class ) );
-        visits.addAll( (List<OfficeVisit>) getAll( OphthalmologySurgery.class ) );
-        visits.sort( ( x1, x2 ) -> x1.getDate().compareTo( x2.getDate() ) );
-        return visits;
+        return getWhere( new Vector<Criterion>() );
     }
 
     /**
      * Helper method to pass to the DomainObject class that performs a specific
-     * query on the database.
+     * query on the database. Every type of office visit is searched in one
+     * query, and the results are sorted by date by the database.
      *
      * @SuppressWarnings for Unchecked cast from List<capture#1-of ? extends
      *                   DomainObject> to List<OfficeVisit> Because get all just
@@ -135,10 +220,8 @@ public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
      */
     @SuppressWarnings ( "unchecked" )
     private static List<OfficeVisit> getWhere ( final List<Criterion> where ) {
-        final List<OfficeVisit> visits = (List<OfficeVisit>) getWhere( GeneralCheckup.class, where );
-        visits.addAll( (List<OfficeVisit>) getWhere( GeneralOphthalmology.class, where ) );
-        visits.addAll( (List<OfficeVisit>) getWhere( OphthalmologySurgery.class, where ) );
-        return visits;
+        return (List<OfficeVisit>) getWhere( OfficeVisit.class, where,
+                Arrays.asList( Order.asc( "date" ), Order.asc( ID ) ), 0, Integer.MAX_VALUE );
     }
 
     /** For Hibernate/Thymeleaf _must_ be an empty constructor */
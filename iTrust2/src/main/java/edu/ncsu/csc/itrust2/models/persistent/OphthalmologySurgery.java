@@ -59,14 +59,17 @@ public class OphthalmologySurgery extends OphthalmologyVisit {
     }
 
     /**
-     * Get a specific office visit by the database ID
+     * Get a specific office visit by the database ID. Only this type of visit
+     * is searched, by primary key, so this is the cheapest way to load a visit
+     * for display.
      *
      * @param id
      *            the database ID
-     * @return the specific office visit with the desired ID
+     * @return the specific office visit with the desired ID, or null if there
+     *         is no visit of this type with that ID
      */
     public static OphthalmologySurgery getById ( final Long id ) {
-        return (OphthalmologySurgery) OfficeVisit.getById( id );
+        return (OphthalmologySurgery) getById( OphthalmologySurgery.class, id );
     }
 
 }
@@ -0,0 +1,232 @@
+package edu.ncsu.csc.itrust2.models.persistent;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+
+/**
+ * An email waiting to be sent. Emails are saved here by EmailUtil.sendEmail,
+ * in the same transaction as whatever caused them, and sent in the background
+ * by EmailDispatcher, which deletes each one once the mail server has taken
+ * it. An email the mail server refuses is tried again later, waiting longer
+ * each time, and is kept and marked failed once it has been tried too many
+ * times.
+ */
+@Entity
+@Table ( name = "EmailOutbox" )
+public class OutboxEmail extends DomainObject<OutboxEmail> {
+
+    /** Longest error message kept */
+    private static final int ERROR_LENGTH = 255;
+
+    @Id
+    @GeneratedValue ( strategy = GenerationType.AUTO )
+    private Long             id;
+
+    /** Address to send to */
+    private String           recipient;
+
+    /** Subject of the email */
+    private String           subject;
+
+    /** Body of the email */
+    @Column ( columnDefinition = "TEXT" )
+    private String           body;
+
+    /** When the email was queued, in epoch millis */
+    private long             created;
+
+    /** Earliest time to try sending it (again), in epoch millis */
+    private long             nextAttempt;
+
+    /** Number of times sending it has failed */
+    private int              attempts;
+
+    /** Why the last attempt failed */
+    private String           lastError;
+
+    /** Whether it has been given up on */
+    private boolean          failed;
+
+    /**
+     * For Hibernate
+     */
+    public OutboxEmail () {
+    }
+
+    /**
+     * Creates an email, ready to be sent straight away
+     *
+     * @param recipient
+     *            Address to send to
+     * @param subject
+     *            Subject of the email
+     * @param body
+     *            Body of the email
+     */
+    public OutboxEmail ( final String recipient, final String subject, final String body ) {
+        this.recipient = recipient;
+        this.subject = subject;
+        this.body = body;
+        this.created = System.currentTimeMillis();
+        this.nextAttempt = created;
+    }
+
+    /**
+     * Retrieves the emails that are due to be sent, oldest first
+     *
+     * @param now
+     *            The current time, in epoch millis
+     * @param max
+     *            Most emails to retrieve
+     * @return The emails
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<OutboxEmail> getDue ( final long now, final int max ) {
+        return (List<OutboxEmail>) getWhere( OutboxEmail.class,
+                Arrays.asList( Restrictions.eq( "failed", false ), Restrictions.le( "nextAttempt", now ) ),
+                Arrays.asList( Order.asc( "nextAttempt" ), Order.asc( "id" ) ), 0, max );
+    }
+
+    /**
+     * Number of emails waiting to be sent, including ones waiting to be tried
+     * again
+     *
+     * @return Number of emails
+     */
+    public static long countPending () {
+        return count( OutboxEmail.class, eqList( "failed", false ) );
+    }
+
+    /**
+     * Deletes emails that have been sent, in one statement
+     *
+     * @param ids
+     *            IDs of the emails
+     */
+    public static void deleteSent ( final Collection<Long> ids ) {
+        if ( ids.isEmpty() ) {
+            return;
+        }
+        inSession( session -> session.createQuery( "delete from OutboxEmail where id in (:ids)" )
+                .setParameterList( "ids", ids ).executeUpdate() );
+    }
+
+    /**
+     * Records a failed attempt to send the email, and works out when to try
+     * again. Does not save it.
+     *
+     * @param error
+     *            Why it failed
+     * @param now
+     *            The current time, in epoch millis
+     * @param backoffMillis
+     *            How long to wait after the first failure; doubled for each
+     *            failure after that
+     * @param maxBackoffMillis
+     *            Longest to wait between attempts
+     * @param maxAttempts
+     *            Number of failures after which to give up
+     */
+    public void recordFailure ( final String error, final long now, final long backoffMillis,
+            final long maxBackoffMillis, final int maxAttempts ) {
+        attempts++;
+        lastError = null == error || error.length() <= ERROR_LENGTH ? error : error.substring( 0, ERROR_LENGTH );
+        failed = attempts >= maxAttempts;
+        final long backoff = backoffMillis << Math.min( attempts - 1, 20 );
+        nextAttempt = now + Math.min( backoff, maxBackoffMillis );
+    }
+
+    /**
+     * Returns the ID of the email for Hibernate
+     *
+     * @return the id
+     */
+    @Override
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * Address to send to
+     *
+     * @return The recipient
+     */
+    public String getRecipient () {
+        return recipient;
+    }
+
+    /**
+     * Subject of the email
+     *
+     * @return The subject
+     */
+    public String getSubject () {
+        return subject;
+    }
+
+    /**
+     * Body of the email
+     *
+     * @return The body
+     */
+    public String getBody () {
+        return body;
+    }
+
+    /**
+     * When the email was queued
+     *
+     * @return Time in epoch millis
+     */
+    public long getCreated () {
+        return created;
+    }
+
+    /**
+     * Earliest time to try sending the email
+     *
+     * @return Time in epoch millis
+     */
+    public long getNextAttempt () {
+        return nextAttempt;
+    }
+
+    /**
+     * Number of times sending the email has failed
+     *
+     * @return Number of failures
+     */
+    public int getAttempts () {
+        return attempts;
+    }
+
+    /**
+     * Why the last attempt failed
+     *
+     * @return The error, or null if no attempt has failed
+     */
+    public String getLastError () {
+        return lastError;
+    }
+
+    /**
+     * Whether the email has been given up on
+     *
+     * @return True if it will not be tried again
+     */
+    public boolean isFailed () {
+        return failed;
+    }
+
+}
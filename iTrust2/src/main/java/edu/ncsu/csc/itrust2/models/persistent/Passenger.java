@@ -3,6 +3,7 @@ package edu.ncsu.csc.itrust2.models.persistent;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -88,7 +89,7 @@ public class Passenger extends Patient {
 
         // check parameters are valid
         if ( passengerId == null || !passengerId.matches( "[a-zA-Z0-9]+" )
-                || Passenger.getById( passengerId ) != null ) {
+                || Passenger.existsById( passengerId ) ) {
             throw new IllegalArgumentException( "Invalid Id." );
         }
         if ( name == null ) {
@@ -156,6 +157,27 @@ public class Passenger extends Patient {
         return passengerIDs;
     }
 
+    /**
+     * Checks whether a Passenger with the given passenger ID exists, without
+     * loading it
+     *
+     * @param passengerId
+     *            passenger's ID
+     * @return true if there is a Passenger with this ID
+     */
+    public static boolean existsById ( final String passengerId ) {
+        return exists( Passenger.class, eqList( "passengerId", passengerId ) );
+    }
+
+    /**
+     * Counts the Passengers in the database without loading them
+     *
+     * @return number of Passengers
+     */
+    public static long countPassengers () {
+        return count( Passenger.class, Collections.emptyList() );
+    }
+
     /**
      * Fetches the Passenger corresponding to the given passenger ID
      *
@@ -200,7 +222,7 @@ public class Passenger extends Patient {
         final String[] lines = info.split( linesplit );
         final List<User> newUsers = new ArrayList<User>();
         final List<Passenger> newPassengers = new ArrayList<Passenger>();
-        final List<String> passengerids = new ArrayList<String>();
+        final Set<String> passengerids = new HashSet<String>();
         for ( int i = 0; i < lines.length; i++ ) {
             final String[] dataLine = lines[i].split( quotesplit );
             if ( dataLine.length != 3 ) {
@@ -219,7 +241,7 @@ public class Passenger extends Patient {
             final String id = dataLine[0].substring( 0, dataLine[0].length() - 1 );
 
             // Check for Duplicates
-            if ( passengerids.contains( id ) || Passenger.getById( id ) != null ) {
+            if ( passengerids.contains( id ) || Passenger.existsById( id ) ) {
                 status[1] += 1; // add to duplicate count
                 continue;
             }
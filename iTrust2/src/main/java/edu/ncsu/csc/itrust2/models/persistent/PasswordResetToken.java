@@ -9,9 +9,10 @@ import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.validation.constraints.NotNull;
 
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
+import edu.ncsu.csc.itrust2.utils.PasswordHasher;
+
 /**
  * Persistence class that holds a Password Reset Token that is used to verify
  * users who forgot their password. It contains the user who requested it, a
@@ -75,7 +76,7 @@ public class PasswordResetToken extends DomainObject<PasswordResetToken> {
             token += chars.charAt( rand.nextInt( chars.length() ) );
         }
         tempPasswordPlaintext = token;
-        final PasswordEncoder pe = new BCryptPasswordEncoder();
+        final PasswordEncoder pe = PasswordHasher.getInstance();
         setTempPassword( pe.encode( tempPasswordPlaintext ) );
         long id2 = rand.nextLong();
         while ( id2 <= 0 || getById( id2 ) != null ) {
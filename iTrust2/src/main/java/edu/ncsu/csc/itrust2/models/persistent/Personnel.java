@@ -12,6 +12,8 @@ import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.validator.constraints.Length;
 
@@ -28,6 +30,7 @@ import edu.ncsu.csc.itrust2.models.enums.State;
  */
 @Entity
 @Table ( name = "Personnel" )
+@Cache ( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class Personnel extends DomainObject<Personnel> {
 
     /**
@@ -16,6 +16,8 @@ import javax.persistence.ManyToMany;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.validator.constraints.Length;
 import org.hibernate.validator.constraints.NotEmpty;
@@ -33,6 +35,7 @@ import edu.ncsu.csc.itrust2.models.enums.State;
  */
 @Entity
 @Table ( name = "Pharmacies" )
+@Cache ( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class Pharmacy extends DomainObject<Pharmacy> implements Serializable {
     /**
      * Used for serializing the object.
@@ -165,6 +168,7 @@ public class Pharmacy extends DomainObject<Pharmacy> implements Serializable {
      * The list of drugs the Pharmacy stocks
      */
     @ManyToMany ( cascade = CascadeType.ALL, fetch = FetchType.EAGER )
+    @Cache ( usage = CacheConcurrencyStrategy.READ_WRITE )
     private Set<Drug>           drugs;
 
     /**
@@ -313,7 +313,18 @@ public class Prescription extends DomainObject<Prescription> {
      * @return The List of records that was found
      */
     public static List<Prescription> getForPatient ( final String patient ) {
-        return getWhere( eqList( "patient", User.getByNameAndRole( patient, Role.ROLE_PATIENT ) ) );
+        return getForPatient( User.getByNameAndRole( patient, Role.ROLE_PATIENT ) );
+    }
+
+    /**
+     * Retrieve all Prescriptions for a patient who has already been looked up
+     *
+     * @param patient
+     *            The patient to find Prescriptions for
+     * @return The List of records that was found
+     */
+    public static List<Prescription> getForPatient ( final User patient ) {
+        return getWhere( eqList( "patient", patient ) );
     }
 
     /**
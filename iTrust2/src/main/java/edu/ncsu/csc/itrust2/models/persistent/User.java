@@ -1,8 +1,17 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import javax.persistence.Entity;
@@ -16,12 +25,16 @@ import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
 import org.hibernate.validator.constraints.Length;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 import edu.ncsu.csc.itrust2.forms.admin.UserForm;
 import edu.ncsu.csc.itrust2.models.enums.Role;
+import edu.ncsu.csc.itrust2.utils.PasswordHasher;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+import edu.ncsu.csc.itrust2.utils.UserDetailsCache;
 
 /**
  * Basic class for a User in the system. This User class is a shared type that
@@ -41,7 +54,34 @@ public class User extends DomainObject<User> implements Serializable {
     /**
      * The UID of the user
      */
-    private static final long serialVersionUID = 1L;
+    private static final long                    serialVersionUID      = 1L;
+
+    /** Most user roles to keep in the cache */
+    private static final int                     ROLE_CACHE_SIZE       = 1000;
+
+    /**
+     * How long a cached role is trusted for. Changes made through this class
+     * are seen straight away; this bounds how long a change made by another
+     * server can go unnoticed.
+     */
+    private static final long                    ROLE_CACHE_TTL_MILLIS = TimeUnit.MINUTES.toMillis( 1 );
+
+    /** Most usernames to put in one IN list */
+    private static final int                     ROLE_QUERY_BATCH      = 500;
+
+    /** Recently looked up roles, least recently used first */
+    private static final Map<String, CachedRole> ROLE_CACHE            = new LinkedHashMap<String, CachedRole>( 16,
+            0.75f, true ) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry ( final Map.Entry<String, CachedRole> eldest ) {
+            return size() > ROLE_CACHE_SIZE;
+        }
+    };
+
+    /** Incremented whenever a cached role is forgotten; guarded by ROLE_CACHE */
+    private static long                          roleGeneration;
 
     /**
      * Get all users in the database
@@ -96,6 +136,112 @@ public class User extends DomainObject<User> implements Serializable {
 
     }
 
+    /**
+     * Looks up the roles of many users at once, for instance to label every
+     * row of a page of log entries. Roles that were looked up recently come
+     * from a small in-memory cache; the rest are read from the primary
+     * database with a single query, so that a replica that is behind cannot
+     * put an old role in the cache.
+     *
+     * @param names
+     *            Usernames to look up; nulls and duplicates are ignored
+     * @return Role of each user found. Usernames that do not exist are left
+     *         out.
+     */
+    public static Map<String, Role> getRoles ( final Collection<String> names ) {
+        final Map<String, Role> roles = new HashMap<String, Role>();
+        final Set<String> missing = new HashSet<String>();
+        final long now = System.currentTimeMillis();
+        final long generation;
+        synchronized ( ROLE_CACHE ) {
+            generation = roleGeneration;
+            for ( final String name : names ) {
+                if ( null == name ) {
+                    continue;
+                }
+                final CachedRole cached = ROLE_CACHE.get( name );
+                if ( null != cached && now - cached.loadedAt < ROLE_CACHE_TTL_MILLIS ) {
+                    roles.put( name, cached.role );
+                }
+                else {
+                    missing.add( name );
+                }
+            }
+        }
+        if ( missing.isEmpty() ) {
+            return roles;
+        }
+
+        final Map<String, Role> loaded = inPrimaryReadSession( session -> {
+            final Map<String, Role> found = new HashMap<String, Role>();
+            final List<String> remaining = new ArrayList<String>( missing );
+            for ( int i = 0; i < remaining.size(); i += ROLE_QUERY_BATCH ) {
+                final List< ? > rows = session.createCriteria( User.class )
+                        .add( Restrictions.in( "username",
+                                remaining.subList( i, Math.min( i + ROLE_QUERY_BATCH, remaining.size() ) ) ) )
+                        .setProjection( Projections.projectionList().add( Projections.property( "username" ) )
+                                .add( Projections.property( "role" ) ) )
+                        .list();
+                for ( final Object row : rows ) {
+                    final Object[] columns = (Object[]) row;
+                    found.put( (String) columns[0], (Role) columns[1] );
+                }
+            }
+            return found;
+        } );
+
+        synchronized ( ROLE_CACHE ) {
+            // Anything loaded while a user was being changed may be out of
+            // date, so only keep it if no user has changed since
+            if ( generation == roleGeneration ) {
+                for ( final Map.Entry<String, Role> e : loaded.entrySet() ) {
+                    ROLE_CACHE.put( e.getKey(), new CachedRole( e.getValue(), now ) );
+                }
+            }
+        }
+        roles.putAll( loaded );
+        return roles;
+    }
+
+    /**
+     * Looks up the role of a single user, through the same cache as
+     * {@link #getRoles(Collection)}
+     *
+     * @param name
+     *            The username
+     * @return The user's role, or null if there is no such user
+     */
+    public static Role getRole ( final String name ) {
+        return getRoles( Collections.singleton( name ) ).get( name );
+    }
+
+    /**
+     * Forgets the cached role of a user, so that the next lookup reads it from
+     * the database, and drops the user's cached login details. Called once a
+     * user has been saved or deleted and the change committed.
+     *
+     * @param name
+     *            The username
+     */
+    static void forgetRole ( final String name ) {
+        synchronized ( ROLE_CACHE ) {
+            ROLE_CACHE.remove( name );
+            roleGeneration++;
+        }
+        UserDetailsCache.getInstance().removeUserFromCache( name );
+    }
+
+    /**
+     * Forgets every cached role, for when users have been changed other than
+     * through this class (for instance, by clearing the database)
+     */
+    public static void clearRoleCache () {
+        synchronized ( ROLE_CACHE ) {
+            ROLE_CACHE.clear();
+            roleGeneration++;
+        }
+    }
+
     /**
      * Get all HCPs in the database
      *
@@ -191,7 +337,7 @@ public class User extends DomainObject<User> implements Serializable {
         if ( !form.getPassword().equals( form.getPassword2() ) ) {
             throw new IllegalArgumentException( "Passwords do not match!" );
         }
-        final PasswordEncoder pe = new BCryptPasswordEncoder();
+        final PasswordEncoder pe = PasswordHasher.getInstance();
         setPassword( pe.encode( form.getPassword() ) );
         setEnabled( null != form.getEnabled() ? 1 : 0 );
         setRole( Role.valueOf( form.getRole() ) );
@@ -392,6 +538,13 @@ public class User extends DomainObject<User> implements Serializable {
         return getUsername();
     }
 
+    @Override
+    public void save () {
+        super.save();
+        final String name = getUsername();
+        UnitOfWork.afterCommit( () -> forgetRole( name ) );
+    }
+
     @Override
     public void delete () {
         if ( Personnel.getByName( this.username ) != null ) {
@@ -415,6 +568,8 @@ public class User extends DomainObject<User> implements Serializable {
             // ignore to allow a second attempt at deleting this object
         }
         super.delete();
+        final String name = getUsername();
+        UnitOfWork.afterCommit( () -> forgetRole( name ) );
     }
 
     /**
@@ -465,4 +620,29 @@ public class User extends DomainObject<User> implements Serializable {
         return users;
     }
 
+    /**
+     * A role held in the role cache, and when it was read from the database
+     */
+    private static final class CachedRole {
+
+        /** The user's role */
+        private final Role role;
+
+        /** When the role was read, from currentTimeMillis() */
+        private final long loadedAt;
+
+        /**
+         * Creates the cache entry
+         *
+         * @param role
+         *            The user's role
+         * @param loadedAt
+         *            When the role was read
+         */
+        private CachedRole ( final Role role, final long loadedAt ) {
+            this.role = role;
+            this.loadedAt = loadedAt;
+        }
+    }
+
 }
@@ -1,12 +1,16 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
 
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 /**
  * Entry in the Zip Code Database
  *
@@ -15,6 +19,7 @@ import javax.persistence.Table;
  */
 @Entity
 @Table ( name = "ZipCodes" )
+@Cache ( usage = CacheConcurrencyStrategy.READ_WRITE )
 public class ZipCodeEntry extends DomainObject<ZipCodeEntry> {
 
     /**
@@ -169,4 +174,13 @@ public class ZipCodeEntry extends DomainObject<ZipCodeEntry> {
         return (List<ZipCodeEntry>) DomainObject.getAll( ZipCodeEntry.class );
     }
 
+    /**
+     * Checks whether any zip codes have been loaded, without loading them
+     *
+     * @return true if there is at least one zip code entry
+     */
+    public static boolean hasEntries () {
+        return exists( ZipCodeEntry.class, Collections.emptyList() );
+    }
+
 }
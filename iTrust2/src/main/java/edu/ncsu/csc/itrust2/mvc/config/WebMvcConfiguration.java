@@ -20,6 +20,7 @@ import org.springframework.format.support.FormattingConversionService;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.web.servlet.ViewResolver;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
@@ -29,6 +30,8 @@ import org.thymeleaf.spring4.templateresolver.SpringResourceTemplateResolver;
 import org.thymeleaf.spring4.view.ThymeleafViewResolver;
 import org.thymeleaf.templatemode.TemplateMode;
 
+import edu.ncsu.csc.itrust2.config.UnitOfWorkCommitter;
+
 /**
  * Maintains a variety of global configurations needed by the Spring web
  * application.
@@ -80,6 +83,14 @@ public class WebMvcConfiguration extends WebMvcConfigurerAdapter {
         registry.setOrder( Ordered.HIGHEST_PRECEDENCE );
     }
 
+    /**
+     * Commits each request's unit of work before its response is written
+     */
+    @Override
+    public void addInterceptors ( final InterceptorRegistry registry ) {
+        registry.addInterceptor( new UnitOfWorkCommitter() );
+    }
+
     /**
      * ViewResolver used for Thymeleaf's parsing
      *
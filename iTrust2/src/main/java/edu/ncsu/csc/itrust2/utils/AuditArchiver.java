@@ -0,0 +1,238 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+
+/**
+ * Keeps the LogEntries table down to recent months by regularly moving older
+ * audit log entries into the archive (see
+ * {@link LogEntry#archiveBefore(ZonedDateTime)}). Entries stay readable
+ * through LogEntry either way; this only decides which tier they live in.
+ *
+ * Entries from the current month and the `itrust2.audit.hotMonths` (default
+ * 6) months before it stay in the table. The job runs when the application
+ * starts and then every `itrust2.audit.archiveIntervalHours` (default 24)
+ * hours. Where several servers share a database, only one of them archives
+ * at a time; the others skip that run.
+ *
+ * Can also be run by hand, for instance to archive a large backlog before
+ * the first deployment that includes this job.
+ */
+public class AuditArchiver {
+
+    /** Lock held while archiving, so that only one server does it at once */
+    private static final String         LOCK_NAME      = "itrust2.audit.archive";
+
+    /** Months before the current one that stay in the table */
+    private static final int            HOT_MONTHS     = Integer.getInteger( "itrust2.audit.hotMonths", 6 );
+
+    /** Hours between runs */
+    private static final long           INTERVAL_HOURS = Long.getLong( "itrust2.audit.archiveIntervalHours", 24 );
+
+    /** The archiver started with the application */
+    private static final AuditArchiver  INSTANCE       = new AuditArchiver();
+
+    /** Runs the job; created by {@link #start()}, guarded by this */
+    private ScheduledExecutorService    scheduler;
+
+    /** Number of entries moved out of the table */
+    private final AtomicLong            archived       = new AtomicLong();
+
+    /** Number of runs that completed */
+    private final AtomicLong            runs           = new AtomicLong();
+
+    /** How long the last completed run took, in milliseconds */
+    private volatile long               lastRunMillis;
+
+    /**
+     * Creates the archiver. Use {@link #getInstance()}.
+     */
+    private AuditArchiver () {
+    }
+
+    /**
+     * Retrieves the archiver started with the application
+     *
+     * @return The archiver
+     */
+    public static AuditArchiver getInstance () {
+        return INSTANCE;
+    }
+
+    /**
+     * Archives everything older than the hot months once and exits
+     *
+     * @param args
+     *            Not used
+     * @throws SQLException
+     *             If the archive lock cannot be taken
+     */
+    public static void main ( final String[] args ) throws SQLException {
+        try {
+            final int moved = getInstance().runOnce();
+            System.out.println( moved < 0 ? "Another server is archiving the audit log"
+                    : "Archived " + moved + " audit log entries from before " + cutoff() );
+        }
+        finally {
+            AuditLogWriter.getInstance().close();
+            DBUtil.close();
+        }
+    }
+
+    /**
+     * Starts running the job in the background. Does nothing if it is already
+     * running.
+     */
+    public synchronized void start () {
+        if ( null != scheduler ) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "AuditArchiver" );
+            t.setDaemon( true );
+            t.setPriority( Thread.MIN_PRIORITY );
+            return t;
+        } );
+        scheduler.scheduleWithFixedDelay( () -> {
+            try {
+                runOnce();
+            }
+            catch ( final Exception e ) {
+                // Try again next time; nothing is removed from the table
+                // until it is safely in the archive
+                System.err.println( "Could not archive the audit log: " + e );
+            }
+        }, 0, INTERVAL_HOURS, TimeUnit.HOURS );
+    }
+
+    /**
+     * Stops the background job, waiting briefly for a run in progress
+     */
+    public synchronized void close () {
+        if ( null == scheduler ) {
+            return;
+        }
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination( 10, TimeUnit.SECONDS );
+        }
+        catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+    }
+
+    /**
+     * Moves everything older than the hot months into the archive, unless
+     * another server is already doing so
+     *
+     * @return Number of entries moved, or -1 if another server holds the lock
+     * @throws SQLException
+     *             If the lock cannot be taken or released
+     */
+    public int runOnce () throws SQLException {
+        try ( Connection conn = DBUtil.getConnection() ) {
+            if ( !lock( conn ) ) {
+                return -1;
+            }
+            try {
+                final long start = System.currentTimeMillis();
+                final int moved = LogEntry.archiveBefore( cutoff() );
+                lastRunMillis = System.currentTimeMillis() - start;
+                archived.addAndGet( moved );
+                runs.incrementAndGet();
+                return moved;
+            }
+            finally {
+                unlock( conn );
+            }
+        }
+    }
+
+    /**
+     * Number of entries moved out of the table since the application started
+     *
+     * @return Number of entries
+     */
+    public long getArchived () {
+        return archived.get();
+    }
+
+    /**
+     * Number of runs completed since the application started
+     *
+     * @return Number of runs
+     */
+    public long getRuns () {
+        return runs.get();
+    }
+
+    /**
+     * How long the last completed run took
+     *
+     * @return Duration in milliseconds
+     */
+    public long getLastRunMillis () {
+        return lastRunMillis;
+    }
+
+    @Override
+    public String toString () {
+        return String.format( "AuditArchiver[hotMonths=%d, runs=%d, archived=%d, lastRunMillis=%d]", HOT_MONTHS,
+                runs.get(), archived.get(), lastRunMillis );
+    }
+
+    /**
+     * Start of the oldest month kept in the table
+     *
+     * @return Entries from before this time are archived
+     */
+    private static ZonedDateTime cutoff () {
+        return LocalDate.now().withDayOfMonth( 1 ).minusMonths( HOT_MONTHS ).atStartOfDay( ZoneId.systemDefault() );
+    }
+
+    /**
+     * Takes the archive lock if no other server holds it
+     *
+     * @param conn
+     *            Connection to hold the lock on
+     * @return True if the lock was taken
+     * @throws SQLException
+     *             If the lock cannot be asked for
+     */
+    private static boolean lock ( final Connection conn ) throws SQLException {
+        try ( PreparedStatement ps = conn.prepareStatement( "SELECT GET_LOCK(?, 0)" ) ) {
+            ps.setString( 1, LOCK_NAME );
+            try ( ResultSet rs = ps.executeQuery() ) {
+                return rs.next() && 1 == rs.getInt( 1 );
+            }
+        }
+    }
+
+    /**
+     * Releases the archive lock
+     *
+     * @param conn
+     *            Connection holding the lock
+     * @throws SQLException
+     *             If the lock cannot be released
+     */
+    private static void unlock ( final Connection conn ) throws SQLException {
+        try ( PreparedStatement ps = conn.prepareStatement( "SELECT RELEASE_LOCK(?)" ) ) {
+            ps.setString( 1, LOCK_NAME );
+            ps.executeQuery().close();
+        }
+    }
+
+}
@@ -0,0 +1,395 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+
+/**
+ * Writes the audit trail of a user or a time window as CSV or newline
+ * delimited JSON, for compliance requests. Entries are written as they are
+ * read (see {@link LogEntry#export}), so memory use does not depend on the
+ * size of the export, and the output is flushed every {@link #FLUSH_ROWS}
+ * entries so that a client receiving it over HTTP sees it arrive in chunks
+ * instead of all at the end.
+ *
+ * Keeps throughput figures for the exports it has done.
+ */
+public class AuditExporter {
+
+    /**
+     * The formats an export can be written in
+     */
+    public enum Format {
+        /** Comma separated values, with a header row */
+        CSV ( "text/csv", "csv" ),
+        /** One JSON object per line */
+        NDJSON ( "application/x-ndjson", "ndjson" );
+
+        /** Content type of the format */
+        private final String contentType;
+
+        /** File extension for the format */
+        private final String extension;
+
+        /**
+         * Creates a format
+         *
+         * @param contentType
+         *            Content type of the format
+         * @param extension
+         *            File extension for the format
+         */
+        private Format ( final String contentType, final String extension ) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        /**
+         * Content type to send the export with
+         *
+         * @return The content type
+         */
+        public String getContentType () {
+            return contentType;
+        }
+
+        /**
+         * File extension to save the export with
+         *
+         * @return The extension, without a dot
+         */
+        public String getExtension () {
+            return extension;
+        }
+    }
+
+    /** Entries written between flushes of the output */
+    private static final int           FLUSH_ROWS         = 1000;
+
+    /** Size of the output buffer, in characters */
+    private static final int           BUFFER_SIZE        = 64 * 1024;
+
+    /** Columns of a CSV export */
+    private static final String        CSV_HEADER         = "id,time,code,type,primaryUser,secondaryUser,message";
+
+    /** The exporter used by the application */
+    private static final AuditExporter INSTANCE           = new AuditExporter();
+
+    /** Used for NDJSON lines */
+    private final Gson                 gson               = new Gson();
+
+    /** Number of exports completed */
+    private final AtomicLong           exports            = new AtomicLong();
+
+    /** Number of exports that stopped part way, for instance on disconnect */
+    private final AtomicLong           failures           = new AtomicLong();
+
+    /** Number of entries written */
+    private final AtomicLong           rows               = new AtomicLong();
+
+    /** Number of bytes written */
+    private final AtomicLong           bytes              = new AtomicLong();
+
+    /** Total time, in nanoseconds, spent exporting */
+    private final AtomicLong           nanos              = new AtomicLong();
+
+    /** Best throughput of a single export, in entries per second */
+    private final LongAccumulator      maxRowsPerSecond   = new LongAccumulator( Long::max, 0 );
+
+    /** Throughput of the last export, in entries per second */
+    private volatile long              lastRowsPerSecond;
+
+    /**
+     * Use {@link #getInstance()}
+     */
+    private AuditExporter () {
+    }
+
+    /**
+     * Retrieves the exporter used by the application
+     *
+     * @return The exporter
+     */
+    public static AuditExporter getInstance () {
+        return INSTANCE;
+    }
+
+    /**
+     * Writes every audit log entry for a user or a time window
+     *
+     * @param user
+     *            The user who must be the primary or secondary user, or null
+     *            for every user
+     * @param start
+     *            Earliest time to include, or null for no limit
+     * @param end
+     *            Time to stop before, or null for no limit
+     * @param format
+     *            Format to write the entries in
+     * @param out
+     *            Where to write them; flushed but not closed
+     * @return Number of entries written
+     * @throws IOException
+     *             If the output cannot be written, for instance because the
+     *             client has gone away
+     */
+    public long export ( final String user, final ZonedDateTime start, final ZonedDateTime end,
+            final Format format, final OutputStream out ) throws IOException {
+        final CountingOutputStream counted = new CountingOutputStream( out );
+        final Writer writer = new BufferedWriter( new OutputStreamWriter( counted, StandardCharsets.UTF_8 ),
+                BUFFER_SIZE );
+        final long startNanos = System.nanoTime();
+        final long[] written = { 0 };
+        try {
+            if ( Format.CSV == format ) {
+                writer.write( CSV_HEADER );
+                writer.write( "\r\n" );
+            }
+            LogEntry.export( user, start, end, le -> {
+                try {
+                    if ( Format.CSV == format ) {
+                        writeCsv( writer, le );
+                    }
+                    else {
+                        writeJson( writer, le );
+                    }
+                    if ( 0 == ++written[0] % FLUSH_ROWS ) {
+                        writer.flush();
+                    }
+                }
+                catch ( final IOException e ) {
+                    throw new UncheckedIOException( e );
+                }
+            } );
+            writer.flush();
+        }
+        catch ( final UncheckedIOException e ) {
+            failures.incrementAndGet();
+            throw e.getCause();
+        }
+        catch ( final IOException | RuntimeException e ) {
+            failures.incrementAndGet();
+            throw e;
+        }
+        finally {
+            record( written[0], counted.count, System.nanoTime() - startNanos );
+        }
+        exports.incrementAndGet();
+        return written[0];
+    }
+
+    /**
+     * Number of exports completed
+     *
+     * @return Number of exports
+     */
+    public long getExports () {
+        return exports.get();
+    }
+
+    /**
+     * Number of exports that stopped part way through
+     *
+     * @return Number of failed exports
+     */
+    public long getFailures () {
+        return failures.get();
+    }
+
+    /**
+     * Number of entries written by every export
+     *
+     * @return Number of entries
+     */
+    public long getRows () {
+        return rows.get();
+    }
+
+    /**
+     * Number of bytes written by every export
+     *
+     * @return Number of bytes
+     */
+    public long getBytes () {
+        return bytes.get();
+    }
+
+    /**
+     * Average throughput over every export
+     *
+     * @return Entries written per second spent exporting
+     */
+    public long getRowsPerSecond () {
+        final long spent = nanos.get();
+        return 0 == spent ? 0 : rows.get() * TimeUnit.SECONDS.toNanos( 1 ) / spent;
+    }
+
+    /**
+     * Throughput of the most recent export
+     *
+     * @return Entries written per second
+     */
+    public long getLastRowsPerSecond () {
+        return lastRowsPerSecond;
+    }
+
+    /**
+     * Best throughput of a single export
+     *
+     * @return Entries written per second
+     */
+    public long getMaxRowsPerSecond () {
+        return maxRowsPerSecond.get();
+    }
+
+    @Override
+    public String toString () {
+        return String.format(
+                "AuditExporter[exports=%d, failures=%d, rows=%d, bytes=%d, rowsPerSecond=%d, lastRowsPerSecond=%d, "
+                        + "maxRowsPerSecond=%d]",
+                exports.get(), failures.get(), rows.get(), bytes.get(), getRowsPerSecond(), lastRowsPerSecond,
+                getMaxRowsPerSecond() );
+    }
+
+    /**
+     * Adds one export to the throughput figures
+     *
+     * @param count
+     *            Entries written
+     * @param size
+     *            Bytes written
+     * @param elapsed
+     *            Time taken, in nanoseconds
+     */
+    private void record ( final long count, final long size, final long elapsed ) {
+        rows.addAndGet( count );
+        bytes.addAndGet( size );
+        nanos.addAndGet( elapsed );
+        final long rate = 0 == elapsed ? 0 : count * TimeUnit.SECONDS.toNanos( 1 ) / elapsed;
+        lastRowsPerSecond = rate;
+        maxRowsPerSecond.accumulate( rate );
+    }
+
+    /**
+     * Writes an entry as a CSV row
+     *
+     * @param writer
+     *            Where to write it
+     * @param le
+     *            The entry
+     * @throws IOException
+     *             If it cannot be written
+     */
+    private static void writeCsv ( final Writer writer, final LogEntry le ) throws IOException {
+        writer.write( String.valueOf( le.getId() ) );
+        writer.write( ',' );
+        writer.write( le.getTime().toOffsetDateTime().toString() );
+        writer.write( ',' );
+        writer.write( null == le.getLogCode() ? "" : String.valueOf( le.getLogCode().getCode() ) );
+        writer.write( ',' );
+        writeCsvField( writer, null == le.getLogCode() ? null : le.getLogCode().getDescription() );
+        writer.write( ',' );
+        writeCsvField( writer, le.getPrimaryUser() );
+        writer.write( ',' );
+        writeCsvField( writer, le.getSecondaryUser() );
+        writer.write( ',' );
+        writeCsvField( writer, le.getMessage() );
+        writer.write( "\r\n" );
+    }
+
+    /**
+     * Writes a CSV field, quoting it if it contains anything that would
+     * otherwise be misread
+     *
+     * @param writer
+     *            Where to write it
+     * @param value
+     *            The field, or null for an empty field
+     * @throws IOException
+     *             If it cannot be written
+     */
+    private static void writeCsvField ( final Writer writer, final String value ) throws IOException {
+        if ( null == value ) {
+            return;
+        }
+        if ( value.indexOf( ',' ) < 0 && value.indexOf( '"' ) < 0 && value.indexOf( '\n' ) < 0
+                && value.indexOf( '\r' ) < 0 ) {
+            writer.write( value );
+            return;
+        }
+        writer.write( '"' );
+        writer.write( value.replace( "\"", "\"\"" ) );
+        writer.write( '"' );
+    }
+
+    /**
+     * Writes an entry as a line of JSON
+     *
+     * @param writer
+     *            Where to write it
+     * @param le
+     *            The entry
+     * @throws IOException
+     *             If it cannot be written
+     */
+    private void writeJson ( final Writer writer, final LogEntry le ) throws IOException {
+        final JsonObject json = new JsonObject();
+        json.addProperty( "id", le.getId() );
+        json.addProperty( "time", le.getTime().toOffsetDateTime().toString() );
+        if ( null != le.getLogCode() ) {
+            json.addProperty( "code", le.getLogCode().getCode() );
+            json.addProperty( "type", le.getLogCode().getDescription() );
+        }
+        json.addProperty( "primaryUser", le.getPrimaryUser() );
+        json.addProperty( "secondaryUser", le.getSecondaryUser() );
+        json.addProperty( "message", le.getMessage() );
+        gson.toJson( json, writer );
+        writer.write( '\n' );
+    }
+
+    /**
+     * Counts the bytes written through it
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        /** Bytes written so far */
+        private long count;
+
+        /**
+         * Wraps a stream
+         *
+         * @param out
+         *            The stream to write to
+         */
+        private CountingOutputStream ( final OutputStream out ) {
+            super( out );
+        }
+
+        @Override
+        public void write ( final int b ) throws IOException {
+            out.write( b );
+            count++;
+        }
+
+        @Override
+        public void write ( final byte[] b, final int off, final int len ) throws IOException {
+            out.write( b, off, len );
+            count += len;
+        }
+    }
+
+}
@@ -0,0 +1,744 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Consumer;
+
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.models.persistent.DomainObject;
+import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+
+/**
+ * Writes audit log entries to the database in the background, so that logging
+ * an event costs a request no more than appending a line to a file. Entries
+ * are put on a queue and a single writer thread saves them in batches, each
+ * batch in one transaction.
+ *
+ * Every entry is appended to a local journal file before it is queued, and
+ * the journal records each batch once it has been committed. If the
+ * application stops before an entry reaches the database, it is written when
+ * the application next starts. The journal is written through to the
+ * operating system for every entry, so it survives the application crashing
+ * but not the machine.
+ *
+ * The queue is bounded. Once it is full, callers wait for the writer to make
+ * room, and if it cannot do so promptly (because the database is down, say)
+ * they save their entry themselves, just as they would without the writer.
+ *
+ * For tests, the writer can be made synchronous ({@link #setSynchronous}, or
+ * the `itrust2.audit.synchronous` system property). {@link #flush()} waits
+ * until everything the calling thread has logged is in the database, without
+ * waiting on entries logged by anyone else. Reading log entries through
+ * LogEntry flushes first, so callers always see their own events.
+ *
+ * The journal is kept in `logs/audit-journal.log` unless the
+ * `itrust2.audit.journal` system property says otherwise.
+ */
+public class AuditLogWriter {
+
+    /** Most entries that can wait in the queue before callers are held up */
+    private static final int               QUEUE_CAPACITY       = Integer.getInteger( "itrust2.audit.queueCapacity",
+            10000 );
+
+    /** Most entries saved in one transaction */
+    private static final int               MAX_BATCH            = 500;
+
+    /** How long a caller waits for room in a full queue, in milliseconds */
+    private static final long              OFFER_TIMEOUT_MILLIS = 1000;
+
+    /** How long {@link #flush()} and {@link #close()} wait, in milliseconds */
+    private static final long              FLUSH_TIMEOUT_MILLIS = 10000;
+
+    /** Longest pause between attempts to save a batch, in milliseconds */
+    private static final long              MAX_RETRY_MILLIS     = 30000;
+
+    /** Size at which the journal is emptied once everything in it is saved */
+    private static final long              JOURNAL_LIMIT_BYTES  = 10L * 1024 * 1024;
+
+    /** The writer used by LoggerUtil */
+    private static final AuditLogWriter    INSTANCE             = new AuditLogWriter(
+            new File( System.getProperty( "itrust2.audit.journal", "logs/audit-journal.log" ) ), QUEUE_CAPACITY,
+            DomainObject::saveAll );
+
+    /** Entries waiting to be saved, oldest first */
+    private final BlockingQueue<Record>    queue                = new LinkedBlockingQueue<Record>();
+
+    /** Journal of entries that may not have been saved yet */
+    private final File                     journalFile;
+
+    /** Most entries that can wait in the queue */
+    private final int                      capacity;
+
+    /** Saves entries to the database, all in one transaction */
+    private final Consumer<List<LogEntry>> saver;
+
+    /** Sequence number of the last entry each thread queued */
+    private final ThreadLocal<Long>        threadSeq            = ThreadLocal.withInitial( () -> 0L );
+
+    /** Open journal, or null if it could not be opened; guarded by this */
+    private Writer                         journal;
+
+    /** Sequence number of the last entry queued; guarded by this */
+    private long                           lastSeq;
+
+    /** Sequence number of the last entry saved; guarded by this */
+    private long                           savedSeq;
+
+    /** The background writer, once started; guarded by this */
+    private Thread                         thread;
+
+    /** Whether entries are saved by the caller rather than in the background */
+    private volatile boolean               synchronous          = Boolean.getBoolean( "itrust2.audit.synchronous" );
+
+    /** Set once the writer has been asked to stop */
+    private volatile boolean               closed;
+
+    /** Number of entries saved by the writer */
+    private final AtomicLong               written              = new AtomicLong();
+
+    /** Number of batches saved by the writer */
+    private final AtomicLong               batches              = new AtomicLong();
+
+    /** Total time, in nanoseconds, spent saving batches */
+    private final AtomicLong               flushNanos           = new AtomicLong();
+
+    /** Longest time, in nanoseconds, taken to save a batch */
+    private final LongAccumulator          maxFlushNanos        = new LongAccumulator( Long::max, 0 );
+
+    /** Most entries ever waiting in the queue at once */
+    private final LongAccumulator          maxQueueDepth        = new LongAccumulator( Long::max, 0 );
+
+    /** Number of entries saved by their caller because the queue was full */
+    private final AtomicLong               throttled            = new AtomicLong();
+
+    /** Number of failed attempts to save a batch */
+    private final AtomicLong               failures             = new AtomicLong();
+
+    /**
+     * Creates a writer. The application uses the one from
+     * {@link #getInstance()}; others are for tests.
+     *
+     * @param journalFile
+     *            Where to keep the journal
+     * @param capacity
+     *            Most entries that can wait in the queue before callers are
+     *            held up
+     * @param saver
+     *            Saves entries to the database, all in one transaction
+     */
+    public AuditLogWriter ( final File journalFile, final int capacity, final Consumer<List<LogEntry>> saver ) {
+        this.journalFile = journalFile;
+        this.capacity = capacity;
+        this.saver = saver;
+    }
+
+    /**
+     * Retrieves the writer shared by the application
+     *
+     * @return The writer
+     */
+    public static AuditLogWriter getInstance () {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets whether entries are saved by the caller as they are logged, rather
+     * than queued. Anything already queued is flushed first.
+     *
+     * @param synchronous
+     *            True to save entries as they are logged
+     */
+    public void setSynchronous ( final boolean synchronous ) {
+        if ( synchronous ) {
+            flushAll();
+        }
+        this.synchronous = synchronous;
+    }
+
+    /**
+     * Writes an entry to the audit log
+     *
+     * @param entry
+     *            The entry to write
+     * @return Sequence number to pass to {@link #flush(long)} to wait for the
+     *         entry to be saved, or 0 if it has been saved already
+     */
+    public long write ( final LogEntry entry ) {
+        if ( synchronous || closed ) {
+            saver.accept( Collections.singletonList( entry ) );
+            return 0;
+        }
+        start();
+        final Record record = new Record( entry );
+        if ( !enqueue( record ) ) {
+            // Backpressure: the writer is not keeping up, so do it ourselves
+            throttled.incrementAndGet();
+            saver.accept( Collections.singletonList( entry ) );
+            return 0;
+        }
+        threadSeq.set( record.seq );
+        return record.seq;
+    }
+
+    /**
+     * Waits until every entry the calling thread has logged has been saved
+     *
+     * @return True if they were saved, false if the writer did not catch up in
+     *         time
+     */
+    public boolean flush () {
+        return flush( threadSeq.get() );
+    }
+
+    /**
+     * Waits until every entry logged so far, by any thread, has been saved
+     *
+     * @return True if everything was saved, false if the writer did not catch
+     *         up in time
+     */
+    public boolean flushAll () {
+        final long target;
+        synchronized ( this ) {
+            target = lastSeq;
+        }
+        return flush( target );
+    }
+
+    /**
+     * Waits until an entry has been saved
+     *
+     * @param seq
+     *            Sequence number {@link #write(LogEntry)} returned for it
+     * @return True if it was saved, false if the writer did not catch up in
+     *         time
+     */
+    public synchronized boolean flush ( final long seq ) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( FLUSH_TIMEOUT_MILLIS );
+        while ( savedSeq < seq ) {
+            final long remaining = deadline - System.nanoTime();
+            if ( remaining <= 0 || Thread.currentThread() == thread ) {
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait( this, remaining );
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts the background writer, first saving anything left in the journal
+     * from the last time the application ran. Does nothing if it has already
+     * started.
+     */
+    public synchronized void start () {
+        if ( null != thread || closed ) {
+            return;
+        }
+        recover();
+        thread = new Thread( this::run, "AuditLogWriter" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    /**
+     * Stops the background writer once it has saved everything queued, or
+     * given up waiting for it to. Anything not saved stays in the journal.
+     * Entries logged afterwards are saved by their caller.
+     */
+    public void close () {
+        final Thread writer;
+        synchronized ( this ) {
+            closed = true;
+            writer = thread;
+        }
+        if ( null != writer ) {
+            try {
+                writer.join( FLUSH_TIMEOUT_MILLIS );
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized ( this ) {
+            closeJournal();
+        }
+    }
+
+    /**
+     * Journals an entry and adds it to the queue, waiting for room if the
+     * queue is full
+     *
+     * @param record
+     *            The entry to queue
+     * @return True if it was queued, false if there was no room in time
+     */
+    private synchronized boolean enqueue ( final Record record ) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( OFFER_TIMEOUT_MILLIS );
+        while ( queue.size() >= capacity ) {
+            final long remaining = deadline - System.nanoTime();
+            if ( remaining <= 0 ) {
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait( this, remaining );
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        record.seq = ++lastSeq;
+        appendToJournal( record.toLine() );
+        queue.add( record );
+        maxQueueDepth.accumulate( queue.size() );
+        return true;
+    }
+
+    /**
+     * Body of the background writer: saves queued entries a batch at a time
+     * until closed and the queue is empty
+     */
+    private void run () {
+        final List<Record> batch = new ArrayList<Record>();
+        while ( !closed || !queue.isEmpty() ) {
+            try {
+                final Record first = queue.poll( 1, TimeUnit.SECONDS );
+                if ( null == first ) {
+                    continue;
+                }
+                batch.add( first );
+                queue.drainTo( batch, MAX_BATCH - 1 );
+                synchronized ( this ) {
+                    // Wake callers waiting for room in the queue
+                    notifyAll();
+                }
+                if ( !save( batch ) ) {
+                    return;
+                }
+                saved( batch.get( batch.size() - 1 ).seq );
+                batch.clear();
+            }
+            catch ( final InterruptedException e ) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Saves a batch of entries, retrying with increasing pauses until it
+     * succeeds
+     *
+     * @param batch
+     *            The entries to save
+     * @return True once saved, false if the writer was closed first
+     * @throws InterruptedException
+     *             If interrupted while pausing
+     */
+    private boolean save ( final List<Record> batch ) throws InterruptedException {
+        long pause = 100;
+        for ( ;; ) {
+            // Fresh objects every attempt; a failed attempt may have given
+            // the old ones IDs that were never committed
+            final List<LogEntry> entries = new ArrayList<LogEntry>( batch.size() );
+            for ( final Record r : batch ) {
+                entries.add( r.toEntry() );
+            }
+            final long start = System.nanoTime();
+            try {
+                saver.accept( entries );
+                final long elapsed = System.nanoTime() - start;
+                flushNanos.addAndGet( elapsed );
+                maxFlushNanos.accumulate( elapsed );
+                batches.incrementAndGet();
+                written.addAndGet( entries.size() );
+                return true;
+            }
+            catch ( final RuntimeException e ) {
+                failures.incrementAndGet();
+                System.err.println( "Could not save audit log entries, will retry: " + e );
+                if ( closed ) {
+                    return false;
+                }
+                Thread.sleep( pause );
+                pause = Math.min( pause * 2, MAX_RETRY_MILLIS );
+            }
+        }
+    }
+
+    /**
+     * Records that every entry up to and including the one given has been
+     * saved, and empties the journal if it has grown large and holds nothing
+     * unsaved
+     *
+     * @param seq
+     *            Sequence number of the last entry saved
+     */
+    private synchronized void saved ( final long seq ) {
+        savedSeq = seq;
+        appendToJournal( "A\t" + seq );
+        if ( savedSeq == lastSeq && journalFile.length() > JOURNAL_LIMIT_BYTES ) {
+            closeJournal();
+            openJournal( false );
+        }
+        notifyAll();
+    }
+
+    /**
+     * Reads the journal left from the last run, and queues every entry in it
+     * that was never saved. The journal is then replaced by one holding just
+     * those entries, numbered on from the old journal so that, should the
+     * replacement fail, saving them still marks the old copies as saved.
+     */
+    private void recover () {
+        final TreeMap<Long, Record> unsaved = new TreeMap<Long, Record>();
+        if ( journalFile.exists() ) {
+            try ( BufferedReader reader = new BufferedReader(
+                    new InputStreamReader( new FileInputStream( journalFile ), StandardCharsets.UTF_8 ) ) ) {
+                String line;
+                while ( null != ( line = reader.readLine() ) ) {
+                    final String[] fields = line.split( "\t", -1 );
+                    if ( "A".equals( fields[0] ) && 2 == fields.length ) {
+                        final long seq = Long.parseLong( fields[1] );
+                        unsaved.headMap( seq, true ).clear();
+                        lastSeq = Math.max( lastSeq, seq );
+                    }
+                    else if ( "E".equals( fields[0] ) && 7 == fields.length ) {
+                        final Record r = Record.fromLine( fields );
+                        unsaved.put( r.seq, r );
+                        lastSeq = Math.max( lastSeq, r.seq );
+                    }
+                    // Anything else is a line cut short by a crash
+                }
+            }
+            catch ( final IOException | RuntimeException e ) {
+                System.err.println( "Could not read audit journal " + journalFile + ": " + e );
+            }
+        }
+
+        final File rewritten = new File( journalFile.getPath() + ".tmp" );
+        try {
+            if ( null != journalFile.getParentFile() ) {
+                journalFile.getParentFile().mkdirs();
+            }
+            try ( Writer w = new BufferedWriter(
+                    new OutputStreamWriter( new FileOutputStream( rewritten ), StandardCharsets.UTF_8 ) ) ) {
+                for ( final Record r : unsaved.values() ) {
+                    r.seq = ++lastSeq;
+                    w.write( r.toLine() );
+                    w.write( '\n' );
+                    queue.add( r );
+                }
+            }
+            Files.move( rewritten.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+        catch ( final IOException e ) {
+            System.err.println( "Could not rewrite audit journal " + journalFile + ": " + e );
+        }
+        if ( !unsaved.isEmpty() ) {
+            System.out.println( "Recovered " + unsaved.size() + " unsaved audit log entries" );
+        }
+        savedSeq = lastSeq - unsaved.size();
+        openJournal( true );
+    }
+
+    /**
+     * Opens the journal for writing
+     *
+     * @param append
+     *            False to empty it first
+     */
+    private void openJournal ( final boolean append ) {
+        try {
+            journal = new BufferedWriter(
+                    new OutputStreamWriter( new FileOutputStream( journalFile, append ), StandardCharsets.UTF_8 ) );
+        }
+        catch ( final IOException e ) {
+            System.err.println( "Could not open audit journal " + journalFile + ", continuing without it: " + e );
+            journal = null;
+        }
+    }
+
+    /**
+     * Closes the journal, if it is open
+     */
+    private void closeJournal () {
+        if ( null == journal ) {
+            return;
+        }
+        try {
+            journal.close();
+        }
+        catch ( final IOException e ) {
+            System.err.println( "Could not close audit journal " + journalFile + ": " + e );
+        }
+        journal = null;
+    }
+
+    /**
+     * Appends a line to the journal and hands it to the operating system
+     *
+     * @param line
+     *            The line to append
+     */
+    private void appendToJournal ( final String line ) {
+        if ( null == journal ) {
+            return;
+        }
+        try {
+            journal.write( line );
+            journal.write( '\n' );
+            journal.flush();
+        }
+        catch ( final IOException e ) {
+            System.err.println( "Could not write to audit journal " + journalFile + ", continuing without it: " + e );
+            closeJournal();
+        }
+    }
+
+    /**
+     * Number of entries waiting to be saved
+     *
+     * @return Current queue depth
+     */
+    public int getQueueDepth () {
+        return queue.size();
+    }
+
+    /**
+     * Most entries that have ever been waiting to be saved at once
+     *
+     * @return Maximum queue depth
+     */
+    public long getMaxQueueDepth () {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Number of entries the background writer has saved
+     *
+     * @return Entries written
+     */
+    public long getWritten () {
+        return written.get();
+    }
+
+    /**
+     * Number of batches the background writer has saved
+     *
+     * @return Batches written
+     */
+    public long getBatches () {
+        return batches.get();
+    }
+
+    /**
+     * Average time taken to save a batch
+     *
+     * @return Average flush latency, in milliseconds
+     */
+    public double getAverageFlushMillis () {
+        final long count = batches.get();
+        return 0 == count ? 0 : (double) flushNanos.get() / count / TimeUnit.MILLISECONDS.toNanos( 1 );
+    }
+
+    /**
+     * Longest time taken to save a batch
+     *
+     * @return Maximum flush latency, in milliseconds
+     */
+    public double getMaxFlushMillis () {
+        return (double) maxFlushNanos.get() / TimeUnit.MILLISECONDS.toNanos( 1 );
+    }
+
+    /**
+     * Number of entries saved by their caller because the queue was full
+     *
+     * @return Entries throttled
+     */
+    public long getThrottled () {
+        return throttled.get();
+    }
+
+    /**
+     * Number of attempts to save a batch that failed and had to be retried
+     *
+     * @return Failed attempts
+     */
+    public long getFailures () {
+        return failures.get();
+    }
+
+    @Override
+    public String toString () {
+        return String.format(
+                "queued=%d, maxQueued=%d, written=%d, batches=%d, avgFlushMs=%.3f, maxFlushMs=%.3f, throttled=%d, "
+                        + "failures=%d",
+                getQueueDepth(), getMaxQueueDepth(), getWritten(), getBatches(), getAverageFlushMillis(),
+                getMaxFlushMillis(), getThrottled(), getFailures() );
+    }
+
+    /**
+     * The contents of a log entry, as queued and journaled. Entries are
+     * re-created from these each time a batch is saved.
+     */
+    private static final class Record {
+
+        /** Marks a null field in the journal */
+        private static final String   NULL = "\\N";
+
+        /** Position of the entry in the journal */
+        private long                  seq;
+
+        /** Type of event */
+        private final TransactionType code;
+
+        /** Primary user involved */
+        private final String          primaryUser;
+
+        /** Secondary user involved, if any */
+        private final String          secondaryUser;
+
+        /** Further details, if any */
+        private final String          message;
+
+        /** When the event happened */
+        private final ZonedDateTime   time;
+
+        /**
+         * Captures the contents of a log entry
+         *
+         * @param entry
+         *            The entry
+         */
+        private Record ( final LogEntry entry ) {
+            this( entry.getLogCode(), entry.getPrimaryUser(), entry.getSecondaryUser(), entry.getMessage(),
+                    entry.getTime() );
+        }
+
+        /**
+         * Creates a record
+         *
+         * @param code
+         *            Type of event
+         * @param primaryUser
+         *            Primary user involved
+         * @param secondaryUser
+         *            Secondary user involved, if any
+         * @param message
+         *            Further details, if any
+         * @param time
+         *            When the event happened
+         */
+        private Record ( final TransactionType code, final String primaryUser, final String secondaryUser,
+                final String message, final ZonedDateTime time ) {
+            this.code = code;
+            this.primaryUser = primaryUser;
+            this.secondaryUser = secondaryUser;
+            this.message = message;
+            this.time = time;
+        }
+
+        /**
+         * Creates a new LogEntry with the contents of this record
+         *
+         * @return The entry
+         */
+        private LogEntry toEntry () {
+            final LogEntry entry = new LogEntry( code, primaryUser, secondaryUser, message );
+            entry.setTime( time );
+            return entry;
+        }
+
+        /**
+         * Formats the record as a line of the journal
+         *
+         * @return The line, without a line break
+         */
+        private String toLine () {
+            return String.join( "\t", "E", Long.toString( seq ), escape( null == code ? null : code.name() ),
+                    escape( null == time ? null : time.toString() ), escape( primaryUser ), escape( secondaryUser ),
+                    escape( message ) );
+        }
+
+        /**
+         * Reads a record back from a line of the journal
+         *
+         * @param fields
+         *            The tab-separated fields of the line
+         * @return The record
+         */
+        private static Record fromLine ( final String[] fields ) {
+            final String code = unescape( fields[2] );
+            final String time = unescape( fields[3] );
+            final Record r = new Record( null == code ? null : TransactionType.valueOf( code ), unescape( fields[4] ),
+                    unescape( fields[5] ), unescape( fields[6] ), null == time ? null : ZonedDateTime.parse( time ) );
+            r.seq = Long.parseLong( fields[1] );
+            return r;
+        }
+
+        /**
+         * Escapes a field so that it fits on one line of the journal
+         *
+         * @param value
+         *            The field
+         * @return The escaped field
+         */
+        private static String escape ( final String value ) {
+            if ( null == value ) {
+                return NULL;
+            }
+            return value.replace( "\\", "\\\\" ).replace( "\t", "\\t" ).replace( "\n", "\\n" ).replace( "\r",
+                    "\\r" );
+        }
+
+        /**
+         * Reverses {@link #escape(String)}
+         *
+         * @param value
+         *            The escaped field
+         * @return The original field
+         */
+        private static String unescape ( final String value ) {
+            if ( NULL.equals( value ) ) {
+                return null;
+            }
+            final StringBuilder sb = new StringBuilder( value.length() );
+            for ( int i = 0; i < value.length(); i++ ) {
+                final char c = value.charAt( i );
+                if ( '\\' != c || i + 1 == value.length() ) {
+                    sb.append( c );
+                    continue;
+                }
+                final char next = value.charAt( ++i );
+                sb.append( 't' == next ? '\t' : 'n' == next ? '\n' : 'r' == next ? '\r' : next );
+            }
+            return sb.toString();
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads the sections of a patient's chart (office visits, prescriptions,
+ * diagnoses and so on) at the same time, each on a thread from a small pool of
+ * its own, so that a chart takes about as long as its slowest section rather
+ * than the sum of them all.
+ *
+ * The pool has `itrust2.chart.threads` (default 8) threads and a queue of
+ * `itrust2.chart.queueSize` (default 64) waiting sections; a section that
+ * finds the queue full is not loaded. Each section is given
+ * `itrust2.chart.<section>.timeoutMillis` milliseconds, falling back to
+ * `itrust2.chart.timeoutMillis` (default 2000), counted from when the chart
+ * was asked for. A section that takes longer is cancelled and left out, and
+ * the rest of the chart is returned without it.
+ *
+ * The sections run outside the request, with no unit of work or logged in
+ * user, so anything that needs either (checking who may see the chart,
+ * logging that it was seen) has to be done by the caller.
+ */
+public class ChartLoader {
+
+    /** Number of threads loading sections */
+    private static final int         THREADS        = Integer.getInteger( "itrust2.chart.threads", 8 );
+
+    /** Number of sections that can wait for a thread */
+    private static final int         QUEUE_SIZE     = Integer.getInteger( "itrust2.chart.queueSize", 64 );
+
+    /** Time allowed for a section with no timeout of its own */
+    private static final long        TIMEOUT_MILLIS = Long.getLong( "itrust2.chart.timeoutMillis", 2000 );
+
+    /** The loader used by the application */
+    private static final ChartLoader INSTANCE       = new ChartLoader();
+
+    /** Runs the sections */
+    private final ThreadPoolExecutor executor;
+
+    /** Number of charts loaded */
+    private final LongAdder          charts         = new LongAdder();
+
+    /** Number of sections loaded */
+    private final LongAdder          sections       = new LongAdder();
+
+    /** Number of sections that ran out of time */
+    private final LongAdder          timeouts       = new LongAdder();
+
+    /** Number of sections that failed */
+    private final LongAdder          errors         = new LongAdder();
+
+    /** Number of sections not started because the pool was too busy */
+    private final LongAdder          rejected       = new LongAdder();
+
+    /**
+     * Sets up the pool. Use {@link #getInstance()}.
+     */
+    private ChartLoader () {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor( THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( QUEUE_SIZE ), r -> {
+                    final Thread t = new Thread( r, "ChartLoader-" + threadCount.incrementAndGet() );
+                    t.setDaemon( true );
+                    return t;
+                } );
+    }
+
+    /**
+     * Retrieves the loader used by the application
+     *
+     * @return The loader
+     */
+    public static ChartLoader getInstance () {
+        return INSTANCE;
+    }
+
+    /**
+     * Loads the sections of a chart at the same time and waits for them,
+     * giving up on each one once its time is up
+     *
+     * @param loaders
+     *            What to run for each section, by name
+     * @return What happened to each section, by name, in the order given
+     */
+    public Map<String, Section> load ( final Map<String, Callable<?>> loaders ) {
+        final long start = System.nanoTime();
+        final Map<String, Future<Object>> futures = new LinkedHashMap<String, Future<Object>>();
+        final Map<String, long[]> ran = new LinkedHashMap<String, long[]>();
+        final Map<String, Section> result = new LinkedHashMap<String, Section>();
+        for ( final Map.Entry<String, Callable<?>> e : loaders.entrySet() ) {
+            final Callable<?> loader = e.getValue();
+            final long[] elapsed = { -1 };
+            try {
+                futures.put( e.getKey(), executor.submit( () -> {
+                    // Each section is a request of its own as far as the
+                    // replicas are concerned
+                    ReplicaRouter.forgetWrites();
+                    final long begun = System.nanoTime();
+                    try {
+                        return loader.call();
+                    }
+                    finally {
+                        elapsed[0] = System.nanoTime() - begun;
+                    }
+                } ) );
+                ran.put( e.getKey(), elapsed );
+            }
+            catch ( final RejectedExecutionException ex ) {
+                rejected.increment();
+                result.put( e.getKey(), new Section( Section.Status.BUSY, null, 0, "Too many charts are being loaded" ) );
+            }
+        }
+
+        for ( final Map.Entry<String, Future<Object>> e : futures.entrySet() ) {
+            final String name = e.getKey();
+            final Future<Object> future = e.getValue();
+            final long deadline = start + TimeUnit.MILLISECONDS.toNanos( timeoutMillis( name ) );
+            Section section;
+            try {
+                final Object data = future.get( Math.max( 0, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+                section = new Section( Section.Status.OK, data, millis( ran.get( name )[0] ), null );
+                sections.increment();
+            }
+            catch ( final TimeoutException ex ) {
+                future.cancel( true );
+                timeouts.increment();
+                section = new Section( Section.Status.TIMEOUT, null, millis( System.nanoTime() - start ),
+                        "Took longer than " + timeoutMillis( name ) + "ms" );
+            }
+            catch ( final ExecutionException ex ) {
+                errors.increment();
+                section = new Section( Section.Status.ERROR, null, millis( ran.get( name )[0] ),
+                        String.valueOf( ex.getCause() ) );
+            }
+            catch ( final InterruptedException ex ) {
+                future.cancel( true );
+                Thread.currentThread().interrupt();
+                section = new Section( Section.Status.ERROR, null, millis( System.nanoTime() - start ),
+                        "Interrupted" );
+            }
+            result.put( name, section );
+        }
+        charts.increment();
+
+        // Put the sections back in the order they were asked for
+        final Map<String, Section> ordered = new LinkedHashMap<String, Section>();
+        for ( final String name : loaders.keySet() ) {
+            ordered.put( name, result.get( name ) );
+        }
+        return ordered;
+    }
+
+    /**
+     * Stops the loading threads
+     */
+    public void close () {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Number of charts loaded
+     *
+     * @return Number of charts
+     */
+    public long getCharts () {
+        return charts.sum();
+    }
+
+    /**
+     * Number of sections that ran out of time
+     *
+     * @return Number of sections
+     */
+    public long getTimeouts () {
+        return timeouts.sum();
+    }
+
+    /**
+     * Number of sections that failed
+     *
+     * @return Number of sections
+     */
+    public long getErrors () {
+        return errors.sum();
+    }
+
+    /**
+     * Number of sections not started because the pool was too busy
+     *
+     * @return Number of sections
+     */
+    public long getRejected () {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString () {
+        return String.format( "ChartLoader[threads=%d, charts=%d, sections=%d, timeouts=%d, errors=%d, rejected=%d]",
+                THREADS, getCharts(), sections.sum(), getTimeouts(), getErrors(), getRejected() );
+    }
+
+    /**
+     * Time allowed for a section
+     *
+     * @param name
+     *            Name of the section
+     * @return Time in milliseconds
+     */
+    private static long timeoutMillis ( final String name ) {
+        return Long.getLong( "itrust2.chart." + name + ".timeoutMillis", TIMEOUT_MILLIS );
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds
+     *
+     * @param nanos
+     *            Time in nanoseconds, or negative if unknown
+     * @return Time in milliseconds, or -1 if unknown
+     */
+    private static long millis ( final long nanos ) {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis( nanos );
+    }
+
+    /**
+     * What happened to one section of a chart
+     */
+    public static final class Section {
+
+        /**
+         * How loading a section ended
+         */
+        public enum Status {
+            /** Loaded */
+            OK,
+            /** Ran out of time and was cancelled */
+            TIMEOUT,
+            /** Failed */
+            ERROR,
+            /** Not started, because the pool was too busy */
+            BUSY
+        }
+
+        /** How loading the section ended */
+        private final Status status;
+
+        /** What the section loaded, if it succeeded */
+        private final Object data;
+
+        /** Time spent on the section, in milliseconds */
+        private final long   millis;
+
+        /** Why the section is missing, if it is */
+        private final String error;
+
+        /**
+         * Records what happened to a section
+         *
+         * @param status
+         *            How loading it ended
+         * @param data
+         *            What it loaded
+         * @param millis
+         *            Time spent on it
+         * @param error
+         *            Why it is missing
+         */
+        private Section ( final Status status, final Object data, final long millis, final String error ) {
+            this.status = status;
+            this.data = data;
+            this.millis = millis;
+            this.error = error;
+        }
+
+        /**
+         * How loading the section ended
+         *
+         * @return The status
+         */
+        public Status getStatus () {
+            return status;
+        }
+
+        /**
+         * What the section loaded
+         *
+         * @return The data, or null if it did not load
+         */
+        public Object getData () {
+            return data;
+        }
+
+        /**
+         * Time spent loading the section; for a section that ran out of time,
+         * how long it was waited for
+         *
+         * @return Time in milliseconds
+         */
+        public long getMillis () {
+            return millis;
+        }
+
+        /**
+         * Why the section is missing
+         *
+         * @return The reason, or null if it loaded
+         */
+        public String getError () {
+            return error;
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Collects statistics about the database connection pool: how long callers
+ * wait to get a connection, how long they hold on to it, and how often they
+ * give up waiting. Combined with the live pool counts this is enough to tell
+ * whether the pool is sized correctly for the load it is under.
+ */
+public class ConnectionPoolMetrics implements MetricsTrackerFactory {
+
+    /** Singleton instance shared by every pool */
+    private static final ConnectionPoolMetrics INSTANCE       = new ConnectionPoolMetrics();
+
+    /** Number of connections that have been handed out */
+    private final AtomicLong                   acquired       = new AtomicLong();
+
+    /** Total time, in nanoseconds, spent waiting for a connection */
+    private final AtomicLong                   waitNanos      = new AtomicLong();
+
+    /** Longest time, in nanoseconds, anyone has waited for a connection */
+    private final LongAccumulator              maxWaitNanos   = new LongAccumulator( Long::max, 0 );
+
+    /** Total time, in milliseconds, connections have been held */
+    private final AtomicLong                   usageMillis    = new AtomicLong();
+
+    /** Number of physical connections opened to the database */
+    private final AtomicLong                   created        = new AtomicLong();
+
+    /** Number of requests that timed out waiting for a connection */
+    private final AtomicLong                   timeouts       = new AtomicLong();
+
+    /** Live statistics of the pool, provided by the pool once it starts */
+    private volatile PoolStats                 poolStats;
+
+    /**
+     * Use {@link #getInstance()}
+     */
+    private ConnectionPoolMetrics () {
+    }
+
+    /**
+     * Retrieves the metrics collector shared by the application
+     *
+     * @return The metrics collector
+     */
+    public static ConnectionPoolMetrics getInstance () {
+        return INSTANCE;
+    }
+
+    @Override
+    public IMetricsTracker create ( final String poolName, final PoolStats stats ) {
+        this.poolStats = stats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis ( final long connectionCreatedMillis ) {
+                created.incrementAndGet();
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos ( final long elapsedAcquiredNanos ) {
+                acquired.incrementAndGet();
+                waitNanos.addAndGet( elapsedAcquiredNanos );
+                maxWaitNanos.accumulate( elapsedAcquiredNanos );
+            }
+
+            @Override
+            public void recordConnectionUsageMillis ( final long elapsedBorrowedMillis ) {
+                usageMillis.addAndGet( elapsedBorrowedMillis );
+            }
+
+            @Override
+            public void recordConnectionTimeout () {
+                timeouts.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Number of connections that have been handed out by the pool
+     *
+     * @return Number of connections acquired
+     */
+    public long getAcquired () {
+        return acquired.get();
+    }
+
+    /**
+     * Average time spent waiting for a connection
+     *
+     * @return Average wait, in milliseconds
+     */
+    public double getAverageWaitMillis () {
+        final long count = acquired.get();
+        return 0 == count ? 0 : (double) waitNanos.get() / count / TimeUnit.MILLISECONDS.toNanos( 1 );
+    }
+
+    /**
+     * Longest time anyone has waited for a connection
+     *
+     * @return Maximum wait, in milliseconds
+     */
+    public double getMaxWaitMillis () {
+        return (double) maxWaitNanos.get() / TimeUnit.MILLISECONDS.toNanos( 1 );
+    }
+
+    /**
+     * Average time a connection is held before it is returned to the pool
+     *
+     * @return Average usage, in milliseconds
+     */
+    public double getAverageUsageMillis () {
+        final long count = acquired.get();
+        return 0 == count ? 0 : (double) usageMillis.get() / count;
+    }
+
+    /**
+     * Number of physical connections that have been opened to the database
+     *
+     * @return Number of connections created
+     */
+    public long getCreated () {
+        return created.get();
+    }
+
+    /**
+     * Number of requests that gave up waiting for a connection
+     *
+     * @return Number of timeouts
+     */
+    public long getTimeouts () {
+        return timeouts.get();
+    }
+
+    /**
+     * Number of connections currently checked out of the pool
+     *
+     * @return Active connections, or 0 if the pool has not started
+     */
+    public int getActiveConnections () {
+        return null == poolStats ? 0 : poolStats.getActiveConnections();
+    }
+
+    /**
+     * Number of connections sitting idle in the pool
+     *
+     * @return Idle connections, or 0 if the pool has not started
+     */
+    public int getIdleConnections () {
+        return null == poolStats ? 0 : poolStats.getIdleConnections();
+    }
+
+    /**
+     * Number of threads currently waiting for a connection
+     *
+     * @return Waiting threads, or 0 if the pool has not started
+     */
+    public int getPendingThreads () {
+        return null == poolStats ? 0 : poolStats.getPendingThreads();
+    }
+
+    @Override
+    public String toString () {
+        return String.format(
+                "acquired=%d, avgWaitMs=%.3f, maxWaitMs=%.3f, avgUsageMs=%.1f, created=%d, timeouts=%d, active=%d, idle=%d, pending=%d",
+                getAcquired(), getAverageWaitMillis(), getMaxWaitMillis(), getAverageUsageMillis(), getCreated(),
+                getTimeouts(), getActiveConnections(), getIdleConnections(), getPendingThreads() );
+    }
+
+}
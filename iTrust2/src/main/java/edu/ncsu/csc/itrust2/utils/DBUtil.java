@@ -5,15 +5,21 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import javax.sql.DataSource;
 
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 
 /**
  * A bit of helper logic for interfacing with the DB manually rather than just
  * using Hibernate. This is necessary for the Spring security login process.
+ * Owns the single connection pool that both Spring Security and Hibernate
+ * draw their connections from, and the pools for any read replicas that
+ * Hibernate may send read-only work to (see {@link ReplicaRouter}).
  *
  * @author Kai Presler-Marshall
  * @author Andrew Hayes
@@ -26,6 +32,30 @@ public class DBUtil {
     static private String username = null;
     static private String password = null;
 
+    /**
+     * Pool settings read from db.properties. Any setting that is missing falls
+     * back to the default given here.
+     */
+    static private final Properties       poolProperties    = new Properties();
+
+    /**
+     * The shared connection pool. Created lazily on first use so that simply
+     * loading this class (for instance, to read the URL) never connects.
+     */
+    static private HikariDataSource       pool              = null;
+
+    /**
+     * Read replica settings read from db.properties, all prefixed with
+     * `replica.`
+     */
+    static private final Properties       replicaProperties = new Properties();
+
+    /**
+     * Connection pools for the read replicas listed in `replica.urls`, in
+     * that order. Created lazily, like the main pool.
+     */
+    static private List<HikariDataSource> replicaPools      = null;
+
     static {
         InputStream input = null;
         final Properties properties = new Properties();
@@ -38,6 +68,14 @@ public class DBUtil {
             url = properties.getProperty( "url" );
             username = properties.getProperty( "username" );
             password = properties.getProperty( "password" );
+            for ( final String key : properties.stringPropertyNames() ) {
+                if ( key.startsWith( "pool." ) ) {
+                    poolProperties.setProperty( key, properties.getProperty( key ) );
+                }
+                else if ( key.startsWith( "replica." ) ) {
+                    replicaProperties.setProperty( key, properties.getProperty( key ) );
+                }
+            }
 
         }
         catch ( final Exception e ) {
@@ -59,7 +97,7 @@ public class DBUtil {
             }
         }
         
-        url = String.format(url, null == System.getProperty( "dbVersion" ) ? "test" : System.getProperty("dbVersion"));
+        url = String.format(url, getDbVersion());
     }
 
     /**
@@ -68,15 +106,165 @@ public class DBUtil {
      * in production and this should not be emulated, but it makes it easier to
      * share among teammates and Jenkins.
      *
+     * The same pooled DataSource is handed out on every call, so the Spring
+     * Security login queries and Hibernate share one bounded set of
+     * connections.
+     *
      * @return data source
      */
-    static public DataSource dataSource () {
-        final DriverManagerDataSource driverManagerDataSource = new DriverManagerDataSource();
-        driverManagerDataSource.setDriverClassName( "com.mysql.jdbc.Driver" );
-        driverManagerDataSource.setUrl( url );
-        driverManagerDataSource.setUsername( username );
-        driverManagerDataSource.setPassword( password );
-        return driverManagerDataSource;
+    static synchronized public DataSource dataSource () {
+        if ( null == pool || pool.isClosed() ) {
+            pool = new HikariDataSource( poolConfig( "iTrust2", url, username, password ) );
+        }
+        return pool;
+    }
+
+    /**
+     * DataSources for the read replicas listed, comma separated, in
+     * `replica.urls` in db.properties. Like `url`, each may contain `%s` for
+     * the database version. Replicas use the same pool settings as the main
+     * pool, and `replica.username` and `replica.password` if they are set or
+     * the main credentials if not, except that waiting for a connection times
+     * out after `replica.connectionTimeout` milliseconds (default 1000). Every
+     * connection is marked read-only.
+     *
+     * @return One DataSource per replica; empty if none are configured
+     */
+    static synchronized public List<DataSource> replicaDataSources () {
+        if ( null == replicaPools ) {
+            replicaPools = new ArrayList<HikariDataSource>();
+            final String user = replicaProperties.getProperty( "replica.username", username );
+            final String pass = replicaProperties.getProperty( "replica.password", password );
+            for ( final String replicaUrl : replicaProperties.getProperty( "replica.urls", "" ).split( "," ) ) {
+                if ( replicaUrl.trim().isEmpty() ) {
+                    continue;
+                }
+                final HikariConfig config = poolConfig( "iTrust2-replica-" + ( replicaPools.size() + 1 ),
+                        String.format( replicaUrl.trim(), getDbVersion() ), user, pass );
+                config.setReadOnly( true );
+                // A replica that cannot be reached is skipped, so give up on
+                // it quickly rather than holding up the request
+                final int timeout = Integer.parseInt( getReplicaSetting( "connectionTimeout", "1000" ) );
+                config.setConnectionTimeout( timeout );
+                config.setValidationTimeout( Math.min( config.getValidationTimeout(), timeout ) );
+                replicaPools.add( new HikariDataSource( config ) );
+            }
+        }
+        return new ArrayList<DataSource>( replicaPools );
+    }
+
+    /**
+     * Reads a single read replica setting from db.properties
+     *
+     * @param name
+     *            Name of the setting, without the `replica.` prefix
+     * @param defaultValue
+     *            Value to use if the setting is missing
+     * @return The value of the setting
+     */
+    static public String getReplicaSetting ( final String name, final String defaultValue ) {
+        final String value = replicaProperties.getProperty( "replica." + name );
+        return null == value || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * The version of the database to connect to, substituted into the URLs
+     * from db.properties
+     *
+     * @return The `dbVersion` system property, or `test` if it is not set
+     */
+    static private String getDbVersion () {
+        return null == System.getProperty( "dbVersion" ) ? "test" : System.getProperty( "dbVersion" );
+    }
+
+    /**
+     * Builds the configuration for the connection pool. Connections are
+     * validated with the JDBC4 isValid() check before being handed out, are
+     * retired after `pool.maxLifetime` so that MySQL's wait_timeout never
+     * closes one out from under us, and are reported as leaked if they are
+     * held longer than `pool.leakDetectionThreshold`.
+     *
+     * @param poolName
+     *            Name of the pool, as it appears in logs
+     * @param jdbcUrl
+     *            Database to connect to
+     * @param user
+     *            User to connect as
+     * @param pass
+     *            Password for that user
+     * @return The configuration to build the pool from
+     */
+    static private HikariConfig poolConfig ( final String poolName, final String jdbcUrl, final String user,
+            final String pass ) {
+        final HikariConfig config = new HikariConfig();
+        config.setPoolName( poolName );
+        config.setDriverClassName( "com.mysql.cj.jdbc.Driver" );
+        config.setJdbcUrl( jdbcUrl );
+        config.setUsername( user );
+        config.setPassword( pass );
+
+        config.setMaximumPoolSize( getPoolSetting( "maxSize", 20 ) );
+        config.setMinimumIdle( getPoolSetting( "minIdle", 5 ) );
+        config.setConnectionTimeout( getPoolSetting( "connectionTimeout", 30000 ) );
+        config.setValidationTimeout( getPoolSetting( "validationTimeout", 5000 ) );
+        config.setIdleTimeout( getPoolSetting( "idleTimeout", 600000 ) );
+        config.setMaxLifetime( getPoolSetting( "maxLifetime", 1800000 ) );
+        config.setLeakDetectionThreshold( getPoolSetting( "leakDetectionThreshold", 60000 ) );
+
+        // Let Connector/J cache prepared statements on each pooled connection
+        config.addDataSourceProperty( "cachePrepStmts", "true" );
+        config.addDataSourceProperty( "prepStmtCacheSize", "250" );
+        config.addDataSourceProperty( "prepStmtCacheSqlLimit", "2048" );
+        config.addDataSourceProperty( "useServerPrepStmts", "true" );
+        // Turn JDBC batches of inserts into multi-row INSERT statements
+        config.addDataSourceProperty( "rewriteBatchedStatements", "true" );
+        // Honour the fetch size on queries that set one (DomainObject.stream)
+        // by reading through a server-side cursor instead of buffering the
+        // whole result in memory. Queries without a fetch size are unaffected
+        config.addDataSourceProperty( "useCursorFetch", "true" );
+
+        config.setMetricsTrackerFactory( ConnectionPoolMetrics.getInstance() );
+        return config;
+    }
+
+    /**
+     * Reads a single numeric pool setting from db.properties
+     *
+     * @param name
+     *            Name of the setting, without the `pool.` prefix
+     * @param defaultValue
+     *            Value to use if the setting is missing or invalid
+     * @return The value of the setting
+     */
+    static private int getPoolSetting ( final String name, final int defaultValue ) {
+        final String value = poolProperties.getProperty( "pool." + name );
+        if ( null == value || value.trim().isEmpty() ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt( value.trim() );
+        }
+        catch ( final NumberFormatException e ) {
+            System.err.println( "Ignoring invalid value for pool." + name + ": " + value );
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Closes the connection pools, releasing every connection they hold.
+     * Should only be called when the application is shutting down.
+     */
+    static synchronized public void close () {
+        if ( null != pool ) {
+            pool.close();
+            pool = null;
+        }
+        if ( null != replicaPools ) {
+            for ( final HikariDataSource replica : replicaPools ) {
+                replica.close();
+            }
+            replicaPools = null;
+        }
     }
 
     /**
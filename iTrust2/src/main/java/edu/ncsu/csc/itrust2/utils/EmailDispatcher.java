@@ -0,0 +1,388 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import edu.ncsu.csc.itrust2.models.persistent.DomainObject;
+import edu.ncsu.csc.itrust2.models.persistent.OutboxEmail;
+
+/**
+ * Sends the emails waiting in the outbox (see {@link OutboxEmail}) in the
+ * background, so that requests which send email do not wait for the mail
+ * server. Emails are sent in batches over one SMTP connection, which is kept
+ * open between batches while there is mail to send and closed once the
+ * outbox has been quiet for a while.
+ *
+ * The outbox is checked every `itrust2.email.pollSeconds` (default 5)
+ * seconds, and straight away when an email is queued. An email the mail
+ * server refuses is tried again after 30 seconds, then after twice as long
+ * each time up to an hour, and is given up on after
+ * `itrust2.email.maxAttempts` (default 10) failures. If the mail server
+ * cannot be reached at all, the rest of the batch waits for the next check.
+ *
+ * Where several servers share a database, only one of them sends at a time,
+ * so an email is not sent twice.
+ */
+public class EmailDispatcher {
+
+    /** Lock held while sending, so that only one server does it at once */
+    private static final String          LOCK_NAME          = "itrust2.email.outbox";
+
+    /** Seconds between checks of the outbox */
+    private static final long            POLL_SECONDS       = Long.getLong( "itrust2.email.pollSeconds", 5 );
+
+    /** Failures after which an email is given up on */
+    private static final int             MAX_ATTEMPTS       = Integer.getInteger( "itrust2.email.maxAttempts", 10 );
+
+    /** Wait after the first failure */
+    private static final long            BACKOFF_MILLIS     = TimeUnit.SECONDS.toMillis( 30 );
+
+    /** Longest wait between attempts */
+    private static final long            MAX_BACKOFF_MILLIS = TimeUnit.HOURS.toMillis( 1 );
+
+    /** Emails read from the outbox at a time */
+    private static final int             BATCH_SIZE         = 50;
+
+    /** How long the connection is kept open with nothing to send */
+    private static final long            IDLE_MILLIS        = TimeUnit.SECONDS.toMillis( 30 );
+
+    /** The dispatcher started with the application */
+    private static final EmailDispatcher INSTANCE           = new EmailDispatcher();
+
+    /** Runs the sending; created by {@link #start()}, guarded by this */
+    private ScheduledExecutorService     scheduler;
+
+    /** Whether a send has been asked for and not yet started */
+    private final AtomicBoolean          woken              = new AtomicBoolean();
+
+    /** Connection to the mail server; only used while sending, under sendLock */
+    private Transport                    transport;
+
+    /** Mail session the connection was made with */
+    private Session                      session;
+
+    /** When the connection was last used, in epoch millis */
+    private long                         lastUsed;
+
+    /** Held while sending, so that only one thread sends at once */
+    private final Object                 sendLock           = new Object();
+
+    /** Number of emails sent */
+    private final AtomicLong             sent               = new AtomicLong();
+
+    /** Number of failed attempts to send an email */
+    private final AtomicLong             failures           = new AtomicLong();
+
+    /** Number of emails given up on */
+    private final AtomicLong             abandoned          = new AtomicLong();
+
+    /** Number of connections made to the mail server */
+    private final AtomicLong             connections        = new AtomicLong();
+
+    /** Number of batches sent */
+    private final AtomicLong             batches            = new AtomicLong();
+
+    /**
+     * Creates the dispatcher. Use {@link #getInstance()}.
+     */
+    private EmailDispatcher () {
+    }
+
+    /**
+     * Retrieves the dispatcher started with the application
+     *
+     * @return The dispatcher
+     */
+    public static EmailDispatcher getInstance () {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts checking the outbox in the background. Does nothing if it is
+     * already running.
+     */
+    public synchronized void start () {
+        if ( null != scheduler ) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "EmailDispatcher" );
+            t.setDaemon( true );
+            return t;
+        } );
+        scheduler.scheduleWithFixedDelay( this::runQuietly, 0, POLL_SECONDS, TimeUnit.SECONDS );
+    }
+
+    /**
+     * Stops checking the outbox, waiting briefly for a batch in progress.
+     * Emails not yet sent stay in the outbox for next time.
+     */
+    public synchronized void close () {
+        if ( null == scheduler ) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination( 10, TimeUnit.SECONDS );
+        }
+        catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+        synchronized ( sendLock ) {
+            disconnect();
+        }
+    }
+
+    /**
+     * Asks for the outbox to be checked now rather than at the next regular
+     * check, because an email has been queued. Does not wait for it to be
+     * sent. Does nothing if the dispatcher has not been started.
+     */
+    public synchronized void wake () {
+        if ( null != scheduler && woken.compareAndSet( false, true ) ) {
+            scheduler.execute( this::runQuietly );
+        }
+    }
+
+    /**
+     * Sends every email that is due, unless another server is already doing
+     * so
+     *
+     * @return Number of emails sent, or -1 if another server holds the lock
+     * @throws SQLException
+     *             If the lock cannot be taken or released
+     */
+    public int runOnce () throws SQLException {
+        synchronized ( sendLock ) {
+            woken.set( false );
+            try ( Connection conn = DBUtil.getConnection() ) {
+                if ( !lock( conn ) ) {
+                    return -1;
+                }
+                try {
+                    return sendDue();
+                }
+                finally {
+                    unlock( conn );
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of emails sent
+     *
+     * @return Number of emails
+     */
+    public long getSent () {
+        return sent.get();
+    }
+
+    /**
+     * Number of failed attempts to send an email
+     *
+     * @return Number of failures
+     */
+    public long getFailures () {
+        return failures.get();
+    }
+
+    /**
+     * Number of emails given up on
+     *
+     * @return Number of emails
+     */
+    public long getAbandoned () {
+        return abandoned.get();
+    }
+
+    /**
+     * Number of connections made to the mail server
+     *
+     * @return Number of connections
+     */
+    public long getConnections () {
+        return connections.get();
+    }
+
+    @Override
+    public String toString () {
+        return String.format( "EmailDispatcher[sent=%d, failures=%d, abandoned=%d, connections=%d, batches=%d]",
+                sent.get(), failures.get(), abandoned.get(), connections.get(), batches.get() );
+    }
+
+    /**
+     * Runs {@link #runOnce()} from the background thread, where there is
+     * nobody to report errors to
+     */
+    private void runQuietly () {
+        try {
+            runOnce();
+        }
+        catch ( final Exception e ) {
+            // The emails stay in the outbox; try again next time
+            System.err.println( "Could not send queued emails: " + e );
+        }
+    }
+
+    /**
+     * Sends every email that is due, a batch at a time. Called holding
+     * sendLock.
+     *
+     * @return Number of emails sent
+     */
+    private int sendDue () {
+        int total = 0;
+        for ( ;; ) {
+            final long now = System.currentTimeMillis();
+            final List<OutboxEmail> due = OutboxEmail.getDue( now, BATCH_SIZE );
+            if ( due.isEmpty() ) {
+                if ( null != transport && now - lastUsed > IDLE_MILLIS ) {
+                    disconnect();
+                }
+                return total;
+            }
+            final List<Long> done = new ArrayList<Long>();
+            final List<OutboxEmail> retry = new ArrayList<OutboxEmail>();
+            boolean reachable = true;
+            for ( final OutboxEmail email : due ) {
+                if ( !reachable ) {
+                    break;
+                }
+                try {
+                    final MimeMessage message = EmailUtil.createMessage( email.getRecipient(), email.getSubject(),
+                            email.getBody() );
+                    final Transport connected = connect();
+                    if ( null == connected ) {
+                        reachable = false;
+                        email.recordFailure( "Could not connect to the mail server", now, BACKOFF_MILLIS,
+                                MAX_BACKOFF_MILLIS, MAX_ATTEMPTS );
+                        retry.add( email );
+                        continue;
+                    }
+                    message.saveChanges();
+                    connected.sendMessage( message, message.getAllRecipients() );
+                    lastUsed = System.currentTimeMillis();
+                    done.add( email.getId() );
+                }
+                catch ( final MessagingException | RuntimeException e ) {
+                    // The connection may be left in a bad state; start afresh
+                    disconnect();
+                    email.recordFailure( e.toString(), now, BACKOFF_MILLIS, MAX_BACKOFF_MILLIS, MAX_ATTEMPTS );
+                    retry.add( email );
+                }
+            }
+            OutboxEmail.deleteSent( done );
+            for ( final OutboxEmail email : retry ) {
+                failures.incrementAndGet();
+                if ( email.isFailed() ) {
+                    abandoned.incrementAndGet();
+                    System.err.println( "Giving up on email " + email.getId() + " to " + email.getRecipient() + ": "
+                            + email.getLastError() );
+                }
+            }
+            DomainObject.saveAll( retry );
+            sent.addAndGet( done.size() );
+            batches.incrementAndGet();
+            total += done.size();
+            if ( !reachable || due.size() < BATCH_SIZE ) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * Returns the connection to the mail server, connecting if there is none
+     * or it has dropped. Called holding sendLock.
+     *
+     * @return The connection, or null if the mail server cannot be reached
+     */
+    private Transport connect () {
+        final Session current = EmailUtil.getSession();
+        // Reconnect if it has dropped, or if the settings have changed since
+        if ( null != transport && ( !transport.isConnected() || session != current ) ) {
+            disconnect();
+        }
+        if ( null == transport ) {
+            try {
+                final Transport t = current.getTransport( "smtp" );
+                t.connect();
+                transport = t;
+                session = current;
+                connections.incrementAndGet();
+            }
+            catch ( final MessagingException e ) {
+                System.err.println( "Could not connect to the mail server: " + e );
+                return null;
+            }
+        }
+        return transport;
+    }
+
+    /**
+     * Closes the connection to the mail server, if there is one. Called
+     * holding sendLock.
+     */
+    private void disconnect () {
+        if ( null == transport ) {
+            return;
+        }
+        try {
+            transport.close();
+        }
+        catch ( final MessagingException e ) {
+            // Closing anyway
+        }
+        transport = null;
+    }
+
+    /**
+     * Takes the outbox lock if no other server holds it
+     *
+     * @param conn
+     *            Connection to hold the lock on
+     * @return True if the lock was taken
+     * @throws SQLException
+     *             If the lock cannot be asked for
+     */
+    private static boolean lock ( final Connection conn ) throws SQLException {
+        try ( PreparedStatement ps = conn.prepareStatement( "SELECT GET_LOCK(?, 0)" ) ) {
+            ps.setString( 1, LOCK_NAME );
+            try ( ResultSet rs = ps.executeQuery() ) {
+                return rs.next() && 1 == rs.getInt( 1 );
+            }
+        }
+    }
+
+    /**
+     * Releases the outbox lock
+     *
+     * @param conn
+     *            Connection holding the lock
+     * @throws SQLException
+     *             If the lock cannot be released
+     */
+    private static void unlock ( final Connection conn ) throws SQLException {
+        try ( PreparedStatement ps = conn.prepareStatement( "SELECT RELEASE_LOCK(?)" ) ) {
+            ps.setString( 1, LOCK_NAME );
+            ps.executeQuery().close();
+        }
+    }
+
+}
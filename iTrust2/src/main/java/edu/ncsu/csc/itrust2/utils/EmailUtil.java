@@ -11,17 +11,19 @@ import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 
 import edu.ncsu.csc.itrust2.models.enums.Role;
+import edu.ncsu.csc.itrust2.models.persistent.OutboxEmail;
 import edu.ncsu.csc.itrust2.models.persistent.Patient;
 import edu.ncsu.csc.itrust2.models.persistent.Personnel;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 
 /**
- * Class for sending email. Used for the Password Reset emails.
+ * Class for sending email. Used for the Password Reset emails. Emails go
+ * through an outbox table and are sent in the background (see
+ * {@link EmailDispatcher}); the settings are read once and kept.
  *
  * @author Kai Presler-Marshall
  *
@@ -57,7 +59,36 @@ public class EmailUtil {
         return null == email || email.equals( "" ) || email.equals( " " ) ? null : email;
     }
 
+    /**
+     * Settings from `email.properties`, read once and then kept; null until
+     * they are first needed
+     */
+    private static volatile Properties emailProperties;
+
+    /** Mail session built from the settings; null until first needed */
+    private static volatile Session    session;
+
+    /**
+     * Returns the settings from the system's `email.properties` file, reading
+     * it the first time they are needed
+     *
+     * @return The settings
+     */
     private static Properties getEmailProperties () {
+        Properties properties = emailProperties;
+        if ( null == properties ) {
+            properties = readEmailProperties();
+            emailProperties = properties;
+        }
+        return properties;
+    }
+
+    /**
+     * Reads the system's `email.properties` file
+     *
+     * @return The settings in it
+     */
+    private static Properties readEmailProperties () {
         InputStream input = null;
         final Properties properties = new Properties();
 
@@ -83,6 +114,14 @@ public class EmailUtil {
             catch ( final IOException e ) {
                 e.printStackTrace();
             }
+            finally {
+                try {
+                    input.close();
+                }
+                catch ( final IOException e ) {
+                    // nothing more to read from it anyway
+                }
+            }
         }
         else {
             throw new NullPointerException( "Cannot read input file" );
@@ -90,6 +129,29 @@ public class EmailUtil {
         return properties;
     }
 
+    /**
+     * Uses the given settings instead of those in `email.properties`, for
+     * instance to send through a local mail server in testing. The keys are
+     * the same as in the file: `from`, `username`, `password` and `host`, and
+     * optionally `port` (default 587) and `starttls` (default true).
+     *
+     * @param properties
+     *            The settings to use
+     */
+    public static synchronized void setEmailProperties ( final Properties properties ) {
+        emailProperties = properties;
+        session = null;
+    }
+
+    /**
+     * Forgets the settings, so that `email.properties` is read again the next
+     * time they are needed
+     */
+    public static synchronized void reloadEmailProperties () {
+        emailProperties = null;
+        session = null;
+    }
+
     /**
      * Retrieves the System Email address. This can be used as a known-valid
      * address to send to rather than hardcoding one. This address is pulled
@@ -104,7 +166,9 @@ public class EmailUtil {
 
     /**
      * Send an email from the email account in the system's `email.properties`
-     * file
+     * file. The email is saved to the outbox and sent in the background by
+     * {@link EmailDispatcher}, so this does not wait for the mail server, and
+     * the email is only sent if the transaction it was queued in commits.
      *
      * @param addr
      *            Address to send to
@@ -113,23 +177,71 @@ public class EmailUtil {
      * @param body
      *            Body of the message to send
      * @throws MessagingException
-     *             Results from JavaX Mail functionality
+     *             If the address is not a valid email address
      */
     public static void sendEmail ( final String addr, final String subject, final String body )
             throws MessagingException {
+        // Refuse bad addresses now, while the caller can still say so
+        InternetAddress.parse( addr );
+        new OutboxEmail( addr, subject, body ).save();
+        // The dispatcher cannot see the email until it has been committed
+        UnitOfWork.afterCommit( EmailDispatcher.getInstance()::wake );
+    }
 
-        final Properties properties = getEmailProperties();
+    /**
+     * Returns the mail session for the system's email account, building it
+     * the first time it is needed
+     *
+     * @return The session
+     */
+    static Session getSession () {
+        Session current = session;
+        if ( null == current ) {
+            synchronized ( EmailUtil.class ) {
+                current = session;
+                if ( null == current ) {
+                    current = buildSession( getEmailProperties() );
+                    session = current;
+                }
+            }
+        }
+        return current;
+    }
 
-        final String to = addr;
-        final String from;
-        final String username;
-        final String password;
-        final String host;
+    /**
+     * Builds an email ready to send from the system's email account
+     *
+     * @param addr
+     *            Address to send to
+     * @param subject
+     *            Subject of the email
+     * @param body
+     *            Body of the message to send
+     * @return The message
+     * @throws MessagingException
+     *             If the message cannot be built, for instance because an
+     *             address is invalid
+     */
+    static MimeMessage createMessage ( final String addr, final String subject, final String body )
+            throws MessagingException {
+        final MimeMessage message = new MimeMessage( getSession() );
+        message.setFrom( new InternetAddress( getEmailProperties().getProperty( "from" ) ) );
+        message.setRecipients( Message.RecipientType.TO, InternetAddress.parse( addr ) );
+        message.setSubject( subject );
+        message.setText( body );
+        return message;
+    }
 
-        from = properties.getProperty( "from" );
-        username = properties.getProperty( "username" );
-        password = properties.getProperty( "password" );
-        host = properties.getProperty( "host" );
+    /**
+     * Builds a mail session from the email settings
+     *
+     * @param properties
+     *            The settings
+     * @return The session
+     */
+    private static Session buildSession ( final Properties properties ) {
+        final String username = properties.getProperty( "username" );
+        final String password = properties.getProperty( "password" );
 
         /*
          * Source for java mail code:
@@ -139,29 +251,20 @@ public class EmailUtil {
 
         final Properties props = new Properties();
         props.put( "mail.smtp.auth", "true" );
-        props.put( "mail.smtp.starttls.enable", "true" );
-        props.put( "mail.smtp.host", host );
-        props.put( "mail.smtp.port", "587" );
+        props.put( "mail.smtp.starttls.enable", properties.getProperty( "starttls", "true" ) );
+        props.put( "mail.smtp.host", properties.getProperty( "host" ) );
+        props.put( "mail.smtp.port", properties.getProperty( "port", "587" ) );
+        // Don't let a slow mail server hold up the dispatcher indefinitely
+        props.put( "mail.smtp.connectiontimeout", "10000" );
+        props.put( "mail.smtp.timeout", "30000" );
+        props.put( "mail.smtp.writetimeout", "30000" );
 
-        final Session session = Session.getInstance( props, new Authenticator() {
+        return Session.getInstance( props, new Authenticator() {
             @Override
             protected PasswordAuthentication getPasswordAuthentication () {
                 return new PasswordAuthentication( username, password );
             }
         } );
-
-        try {
-            final Message message = new MimeMessage( session );
-            message.setFrom( new InternetAddress( from ) );
-            message.setRecipients( Message.RecipientType.TO, InternetAddress.parse( to ) );
-            message.setSubject( subject );
-            message.setText( body );
-            Transport.send( message );
-        }
-        catch ( final MessagingException e ) {
-            e.printStackTrace();
-            throw e;
-        }
     }
 
 }
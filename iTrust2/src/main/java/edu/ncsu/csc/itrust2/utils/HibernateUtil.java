@@ -1,9 +1,25 @@
 package edu.ncsu.csc.itrust2.utils;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.hibernate.Cache;
+import org.hibernate.CacheMode;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
 
 /**
  * A utility class for setting up the Hibernate SessionFactory
@@ -13,6 +29,13 @@ import org.hibernate.cfg.Configuration;
  */
 public class HibernateUtil {
 
+    /**
+     * Number of statements sent to the database in one JDBC batch, and the
+     * number of entities to save between flushes in bulk saves. Read from
+     * `hibernate.jdbc.batch_size` in hibernate.cfg.xml.
+     */
+    private static int            batchSize      = 50;
+
     /**
      * SeesionFactory used
      */
@@ -29,11 +52,22 @@ public class HibernateUtil {
             final Configuration c = new Configuration();
             c.configure();
 
-            c.setProperty( "hibernate.connection.url", DBUtil.getUrl() );
-            c.setProperty( "hibernate.connection.username", DBUtil.getUsername() );
-            c.setProperty( "hibernate.connection.password", DBUtil.getPassword() );
+            // Draw connections from the same pool that Spring Security uses
+            // rather than from Hibernate's built-in pool, or from a read
+            // replica for sessions opened with openReplicaSession()
+            c.getProperties().put( AvailableSettings.DATASOURCE, ReplicaRouter.dataSource() );
+
+            final String configuredBatchSize = c.getProperty( AvailableSettings.STATEMENT_BATCH_SIZE );
+            if ( null != configuredBatchSize ) {
+                batchSize = Integer.parseInt( configuredBatchSize.trim() );
+            }
+
+            // Bring the schema up to date; Hibernate only validates it
+            SchemaMigrator.migrate();
 
-            return c.buildSessionFactory();
+            final SessionFactory factory = c.buildSessionFactory();
+            seedIdGenerators( factory );
+            return factory;
             // return new Configuration().configure().buildSessionFactory();
         }
         catch ( final HibernateException ex ) {
@@ -43,6 +77,54 @@ public class HibernateUtil {
         }
     }
 
+    /**
+     * Entities whose IDs come from a table-based generator get them in blocks,
+     * which lets Hibernate batch their inserts. Before that generator is first
+     * used against an existing database, its row must start after the highest
+     * ID already in use, or it would hand out IDs that are already taken. This
+     * creates any missing generator rows from the current maximum ID.
+     *
+     * @param factory
+     *            The SessionFactory whose entities should be checked
+     */
+    private static void seedIdGenerators ( final SessionFactory factory ) {
+        final SessionFactoryImplementor sfi = (SessionFactoryImplementor) factory;
+        try ( Connection conn = DBUtil.getConnection() ) {
+            for ( final ClassMetadata metadata : factory.getAllClassMetadata().values() ) {
+                final IdentifierGenerator generator = sfi.getIdentifierGenerator( metadata.getEntityName() );
+                if ( ! ( generator instanceof TableGenerator ) || ! ( metadata instanceof AbstractEntityPersister ) ) {
+                    continue;
+                }
+                final TableGenerator tg = (TableGenerator) generator;
+                final AbstractEntityPersister persister = (AbstractEntityPersister) metadata;
+                final String sql = "INSERT INTO " + tg.getTableName() + " (" + tg.getSegmentColumnName() + ", "
+                        + tg.getValueColumnName() + ") SELECT ?, next_id FROM (SELECT COALESCE(MAX("
+                        + persister.getIdentifierColumnNames()[0] + "), 0) + 1 AS next_id FROM "
+                        + persister.getTableName() + ") m WHERE NOT EXISTS (SELECT 1 FROM " + tg.getTableName()
+                        + " WHERE " + tg.getSegmentColumnName() + " = ?)";
+                try ( PreparedStatement ps = conn.prepareStatement( sql ) ) {
+                    ps.setString( 1, tg.getSegmentValue() );
+                    ps.setString( 2, tg.getSegmentValue() );
+                    ps.executeUpdate();
+                }
+            }
+        }
+        catch ( final SQLException e ) {
+            // Not fatal: the generator will still work on an empty database
+            System.err.println( "Could not seed ID generators: " + e );
+        }
+    }
+
+    /**
+     * Number of entities that bulk saves should write between flushes. This
+     * matches the JDBC batch size so that each flush sends full batches.
+     *
+     * @return The configured batch size
+     */
+    public static int getBatchSize () {
+        return batchSize;
+    }
+
     /**
      * Retrieves the SessionFactory generated
      *
@@ -63,6 +145,109 @@ public class HibernateUtil {
         return getSessionFactory().openSession();
     }
 
+    /**
+     * Opens a read-only session on a read replica, if there is one that can be
+     * used (see {@link ReplicaRouter#chooseReplica()}). The session's
+     * transaction has already been begun, which ties it to a connection to the
+     * replica for as long as it lasts. Anything written through it would be
+     * lost or rejected, so it must only be used for reads.
+     *
+     * Data read from a replica may be slightly behind the primary, so it is
+     * read from the second-level and query caches but never put into them.
+     *
+     * @return A session on a replica, or null if reads should go to the
+     *         primary
+     * @throws HibernateException
+     *             If a session cannot be opened
+     */
+    public static Session openReplicaSession () throws HibernateException {
+        final ReplicaRouter router = ReplicaRouter.getInstance();
+        final DataSource replica = router.chooseReplica();
+        if ( null == replica ) {
+            return null;
+        }
+        final Session session = openSession();
+        session.setDefaultReadOnly( true );
+        session.setCacheMode( CacheMode.GET );
+        try {
+            ReplicaRouter.withConnectionsFrom( replica, session::beginTransaction );
+            return session;
+        }
+        catch ( final HibernateException e ) {
+            // Most likely the replica is down; fall back to the primary
+            System.err.println( "Could not open a session on a read replica: " + e );
+            router.markFailed( replica );
+            session.close();
+            return null;
+        }
+    }
+
+    /**
+     * Opens a read-only session for work that only reads, with its
+     * transaction already begun. The session is on a read replica if one can
+     * be used (see {@link #openReplicaSession()}) and on the primary
+     * otherwise.
+     *
+     * @return The session
+     * @throws HibernateException
+     *             If a session cannot be opened
+     */
+    public static Session openReadSession () throws HibernateException {
+        final Session replica = openReplicaSession();
+        if ( null != replica ) {
+            return replica;
+        }
+        final Session session = openSession();
+        session.setDefaultReadOnly( true );
+        session.beginTransaction();
+        return session;
+    }
+
+    /**
+     * Summarises how well the second-level and query caches are working: for
+     * each cache region, how many lookups were answered from the cache (hits),
+     * how many had to go to the database (misses), and how many entries it
+     * holds.
+     *
+     * @return Cache statistics, one region per line
+     */
+    public static String getCacheStatistics () {
+        final Statistics stats = getSessionFactory().getStatistics();
+        final StringBuilder sb = new StringBuilder();
+        for ( final String region : stats.getSecondLevelCacheRegionNames() ) {
+            final SecondLevelCacheStatistics regionStats = stats.getSecondLevelCacheStatistics( region );
+            sb.append( String.format( "%s: hits=%d, misses=%d, puts=%d, size=%d%n", region,
+                    regionStats.getHitCount(), regionStats.getMissCount(), regionStats.getPutCount(),
+                    regionStats.getElementCountInMemory() ) );
+        }
+        sb.append( String.format( "query cache: hits=%d, misses=%d, puts=%d", stats.getQueryCacheHitCount(),
+                stats.getQueryCacheMissCount(), stats.getQueryCachePutCount() ) );
+        return sb.toString();
+    }
+
+    /**
+     * Empties the second-level and query caches. Only needed when the
+     * database has been changed behind Hibernate's back, such as when the
+     * schema is dropped and recreated.
+     */
+    public static void evictCaches () {
+        getSessionFactory().getCache().evictAllRegions();
+    }
+
+    /**
+     * Drops one class's entities from the second-level cache, along with
+     * every cached query result, after a bulk update or delete has changed
+     * them without going through the session.
+     *
+     * @param cls
+     *            The class that was changed
+     */
+    public static void evictCaches ( final Class< ? > cls ) {
+        final Cache cache = getSessionFactory().getCache();
+        cache.evictEntityRegion( cls );
+        cache.evictQueryRegions();
+    }
+
     /**
      * Close the SessionFactory
      */
@@ -71,5 +256,6 @@ public class HibernateUtil {
         if ( null != sessionFactory ) {
             sessionFactory.close();
         }
+        DBUtil.close();
     }
 }
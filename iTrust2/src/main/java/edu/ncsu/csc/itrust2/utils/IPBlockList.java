@@ -0,0 +1,317 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.ncsu.csc.itrust2.models.persistent.LoginBan;
+import edu.ncsu.csc.itrust2.models.persistent.LoginLockout;
+
+/**
+ * Keeps the banned and locked out IP addresses in memory, so that IPFilter can
+ * check every request against them without going to the database. Checking
+ * an address is a hash lookup and allocates nothing.
+ *
+ * LoginBan and LoginLockout report their changes here as they are saved or
+ * cleared, so this server sees its own bans and lockouts straight away. The
+ * whole list is also reloaded from the database every
+ * `itrust2.login.blockRefreshSeconds` (default 60) seconds, which picks up
+ * bans and lockouts made by other servers or by hand, and drops lockouts that
+ * have run out. A lockout that runs out between reloads stops counting as
+ * soon as it does, since each one is kept with the time it ends.
+ *
+ * The list is loaded the first time it is checked, so it works without
+ * {@link #start()} having been called, for instance in tests.
+ */
+public class IPBlockList {
+
+    /** Seconds between reloads from the database */
+    private static final long        REFRESH_SECONDS = Long.getLong( "itrust2.login.blockRefreshSeconds", 60 );
+
+    /** The list used by the application */
+    private static final IPBlockList INSTANCE        = new IPBlockList();
+
+    /** Banned addresses */
+    private final Set<String>        bans            = ConcurrentHashMap.newKeySet();
+
+    /** Locked out addresses, and when each lockout ends in epoch millis */
+    private final Map<String, Long>  locks           = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Addresses changed since the last reload began, and the change number of
+     * the latest change to each, so that a reload does not undo a change it
+     * did not see. Guarded by this.
+     */
+    private final Map<String, Long>  changed         = new HashMap<String, Long>();
+
+    /** Numbers the changes reported; guarded by this */
+    private long                     changes;
+
+    /** Whether the list has been loaded from the database */
+    private volatile boolean         loaded;
+
+    /** Runs the reloads; created by {@link #start()}, guarded by this */
+    private ScheduledExecutorService scheduler;
+
+    /** Number of addresses checked */
+    private final LongAdder          checks          = new LongAdder();
+
+    /** Number of checks that found the address blocked */
+    private final LongAdder          blocked         = new LongAdder();
+
+    /** Number of reloads from the database */
+    private final AtomicLong         reloads         = new AtomicLong();
+
+    /**
+     * Use {@link #getInstance()}
+     */
+    private IPBlockList () {
+    }
+
+    /**
+     * Retrieves the list used by the application
+     *
+     * @return The list
+     */
+    public static IPBlockList getInstance () {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts reloading the list in the background. Does nothing if it is
+     * already running.
+     */
+    public synchronized void start () {
+        if ( null != scheduler ) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "IPBlockList" );
+            t.setDaemon( true );
+            return t;
+        } );
+        scheduler.scheduleWithFixedDelay( () -> {
+            try {
+                reload();
+            }
+            catch ( final Exception e ) {
+                // Keep what we have and try again next time
+                System.err.println( "Could not reload the IP block list: " + e );
+            }
+        }, 0, REFRESH_SECONDS, TimeUnit.SECONDS );
+    }
+
+    /**
+     * Stops reloading the list
+     */
+    public synchronized void close () {
+        if ( null == scheduler ) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    /**
+     * Returns true if the given IP is banned
+     *
+     * @param addr
+     *            The IP to check
+     * @return true if banned, false otherwise
+     */
+    public boolean isBanned ( final String addr ) {
+        ensureLoaded();
+        checks.increment();
+        final boolean banned = bans.contains( addr );
+        if ( banned ) {
+            blocked.increment();
+        }
+        return banned;
+    }
+
+    /**
+     * Returns true if the given IP is locked out now
+     *
+     * @param addr
+     *            The IP to check
+     * @return true if locked out, false otherwise
+     */
+    public boolean isLocked ( final String addr ) {
+        ensureLoaded();
+        checks.increment();
+        final Long until = locks.get( addr );
+        final boolean locked = null != until && until > System.currentTimeMillis();
+        if ( locked ) {
+            blocked.increment();
+        }
+        return locked;
+    }
+
+    /**
+     * Records that an IP has been banned
+     *
+     * @param addr
+     *            The IP
+     */
+    public synchronized void banned ( final String addr ) {
+        bans.add( addr );
+        changed.put( addr, ++changes );
+    }
+
+    /**
+     * Records that the bans for an IP have been cleared
+     *
+     * @param addr
+     *            The IP
+     */
+    public synchronized void unbanned ( final String addr ) {
+        bans.remove( addr );
+        changed.put( addr, ++changes );
+    }
+
+    /**
+     * Records that an IP has been locked out
+     *
+     * @param addr
+     *            The IP
+     * @param until
+     *            When the lockout ends, in epoch millis
+     */
+    public synchronized void locked ( final String addr, final long until ) {
+        locks.merge( addr, until, Math::max );
+        changed.put( addr, ++changes );
+    }
+
+    /**
+     * Records that the lockouts for an IP have been cleared
+     *
+     * @param addr
+     *            The IP
+     */
+    public synchronized void unlocked ( final String addr ) {
+        locks.remove( addr );
+        changed.put( addr, ++changes );
+    }
+
+    /**
+     * Replaces the list with what is in the database, apart from addresses
+     * that have changed on this server while the database was being read
+     */
+    public void reload () {
+        final long since;
+        synchronized ( this ) {
+            since = changes;
+        }
+        final Set<String> dbBans = new HashSet<String>( LoginBan.getBannedIPs() );
+        final Map<String, Long> dbLocks = new HashMap<String, Long>();
+        for ( final LoginLockout lockout : LoginLockout.getIPLockouts() ) {
+            dbLocks.merge( lockout.getIp(), lockout.getLockedUntil(), Math::max );
+        }
+        final long now = System.currentTimeMillis();
+        synchronized ( this ) {
+            bans.removeIf( addr -> !dbBans.contains( addr ) && !changedSince( addr, since ) );
+            for ( final String addr : dbBans ) {
+                if ( !changedSince( addr, since ) ) {
+                    bans.add( addr );
+                }
+            }
+            locks.entrySet().removeIf( e -> e.getValue() <= now
+                    || !dbLocks.containsKey( e.getKey() ) && !changedSince( e.getKey(), since ) );
+            for ( final Map.Entry<String, Long> e : dbLocks.entrySet() ) {
+                if ( e.getValue() > now && !changedSince( e.getKey(), since ) ) {
+                    locks.put( e.getKey(), e.getValue() );
+                }
+            }
+            changed.values().removeIf( change -> change <= since );
+        }
+        loaded = true;
+        reloads.incrementAndGet();
+    }
+
+    /**
+     * Number of banned addresses
+     *
+     * @return Number of addresses
+     */
+    public int getBannedCount () {
+        return bans.size();
+    }
+
+    /**
+     * Number of addresses with a lockout that has not been dropped yet
+     *
+     * @return Number of addresses
+     */
+    public int getLockedCount () {
+        return locks.size();
+    }
+
+    /**
+     * Number of addresses checked
+     *
+     * @return Number of checks
+     */
+    public long getChecks () {
+        return checks.sum();
+    }
+
+    /**
+     * Number of checks that found the address banned or locked out
+     *
+     * @return Number of checks
+     */
+    public long getBlocked () {
+        return blocked.sum();
+    }
+
+    /**
+     * Number of times the list has been reloaded from the database
+     *
+     * @return Number of reloads
+     */
+    public long getReloads () {
+        return reloads.get();
+    }
+
+    @Override
+    public String toString () {
+        return String.format( "IPBlockList[banned=%d, locked=%d, checks=%d, blocked=%d, reloads=%d]", bans.size(),
+                locks.size(), checks.sum(), blocked.sum(), reloads.get() );
+    }
+
+    /**
+     * Loads the list if it has not been loaded yet
+     */
+    private void ensureLoaded () {
+        if ( !loaded ) {
+            synchronized ( this ) {
+                if ( !loaded ) {
+                    reload();
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether an address has changed on this server since a reload began.
+     * Called holding the lock on this.
+     *
+     * @param addr
+     *            The address
+     * @param since
+     *            Number of the last change before the reload began
+     * @return True if the reload must leave the address alone
+     */
+    private boolean changedSince ( final String addr, final long since ) {
+        final Long change = changed.get( addr );
+        return null != change && change > since;
+    }
+
+}
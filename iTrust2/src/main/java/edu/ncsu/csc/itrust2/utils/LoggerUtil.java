@@ -21,7 +21,12 @@ public class LoggerUtil {
     /**
      * Most complete logger utility. Usually won't need all of this information,
      * but if you do, it has it all. The time of the event is added
-     * automatically and is assumed to be the current time.
+     * automatically and is assumed to be the current time. The entry is saved
+     * in the background by the {@link AuditLogWriter}; if the event is part of
+     * work being done with {@link UnitOfWork#atomically}, only once that work
+     * has been committed. Anywhere else it is written straight away, so that
+     * a request that fails part way through still leaves a record of what was
+     * attempted.
      *
      * @param code
      *            The TransactionType of the event that occurred
@@ -35,7 +40,25 @@ public class LoggerUtil {
     static public void log ( final TransactionType code, final String primaryUser, final String secondaryUser,
             final String message ) {
         final LogEntry le = new LogEntry( code, primaryUser, secondaryUser, message );
-        le.save();
+        if ( UnitOfWork.isAtomic() ) {
+            UnitOfWork.afterCommit( () -> AuditLogWriter.getInstance().write( le ) );
+        }
+        else {
+            AuditLogWriter.getInstance().write( le );
+        }
+    }
+
+    /**
+     * Waits until every event this thread has logged has been saved to the
+     * database. Log entries are saved in the background, so anything that
+     * reads them back should call this first. Events logged in atomic work
+     * that has not been committed yet are not waited for.
+     *
+     * @return True if they were saved, false if the writer did not catch up in
+     *         time
+     */
+    static public boolean flush () {
+        return AuditLogWriter.getInstance().flush();
     }
 
     /**
@@ -109,18 +132,7 @@ public class LoggerUtil {
      *         Entries is less than `top`, returns all
      */
     static public List<LogEntry> getTopForUser ( final String user, final Integer top ) {
-        final List<LogEntry> all = getAllForUser( user );
-        all.sort( ( x1, x2 ) -> x1.getTime().compareTo( x2.getTime() ) );
-        try {
-            return all.subList( 0, top );
-        }
-        catch ( final IndexOutOfBoundsException e ) { /*
-                                                       * If num < top (ie, fewer
-                                                       * records exist than were
-                                                       * requested) return all
-                                                       */
-            return all;
-        }
+        return LogEntry.getTopForUser( user, top );
     }
 
     /**
@@ -0,0 +1,295 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts recent failed logins in memory, per IP address or per username, so
+ * that a burst of failures (credential stuffing, say) does not turn into a
+ * burst of database writes. Only failures within a sliding window count; older
+ * ones are forgotten on their own. The database remains the record of the
+ * lockouts and bans that the counts lead to (see LoginLockout and LoginBan).
+ *
+ * Each key has a small ring buffer of the times of its most recent failures,
+ * locked on its own; the map of keys is only locked long enough to find the
+ * buffer. Keys whose failures have all expired are swept away regularly, and
+ * at most `itrust2.login.failureKeys` (default 10000) keys are kept at all,
+ * the least recently used forgotten first, so a flood of failures from
+ * addresses that never repeat cannot grow the map without limit. Forgetting a
+ * key early only lets it start counting again.
+ *
+ * Counts are kept per server. With several servers behind a load balancer an
+ * attacker gets the threshold on each of them before being locked out, which
+ * is still bounded.
+ *
+ * The window is an hour unless the `itrust2.login.failureWindowMinutes`
+ * system property says otherwise.
+ */
+public class LoginFailureTracker {
+
+    /** How far back failures count, in minutes */
+    private static final long                WINDOW_MINUTES = Long.getLong( "itrust2.login.failureWindowMinutes",
+            60 );
+
+    /** Most failures remembered per key; above any lockout threshold */
+    private static final int                 CAPACITY       = 16;
+
+    /** Number of failures recorded between sweeps for expired keys */
+    private static final int                 SWEEP_EVERY    = 1024;
+
+    /** Most keys remembered by each tracker */
+    private static final int                 MAX_KEYS       = Integer.getInteger( "itrust2.login.failureKeys",
+            10000 );
+
+    /** Failures per IP address */
+    private static final LoginFailureTracker IPS            = new LoginFailureTracker(
+            TimeUnit.MINUTES.toMillis( WINDOW_MINUTES ), CAPACITY, System::currentTimeMillis );
+
+    /** Failures per username */
+    private static final LoginFailureTracker USERS          = new LoginFailureTracker(
+            TimeUnit.MINUTES.toMillis( WINDOW_MINUTES ), CAPACITY, System::currentTimeMillis );
+
+    /** Recent failures for each key, least recently used first */
+    private final Map<String, Window>        windows;
+
+    /** How far back failures count, in milliseconds */
+    private final long                       windowMillis;
+
+    /** Most failures remembered per key */
+    private final int                        capacity;
+
+    /** Source of the current time, in milliseconds */
+    private final LongSupplier               clock;
+
+    /** Failures recorded since the last sweep */
+    private final AtomicLong                 sinceSweep     = new AtomicLong();
+
+    /**
+     * Creates a tracker. The application's trackers are {@link #ips()} and
+     * {@link #users()}; this constructor exists so that a tracker can be given
+     * its own clock, for testing.
+     *
+     * @param windowMillis
+     *            How far back failures count, in milliseconds
+     * @param capacity
+     *            Most failures remembered per key; counts never exceed this
+     * @param clock
+     *            Source of the current time, in milliseconds
+     */
+    public LoginFailureTracker ( final long windowMillis, final int capacity, final LongSupplier clock ) {
+        this( windowMillis, capacity, MAX_KEYS, clock );
+    }
+
+    /**
+     * Creates a tracker that remembers a limited number of keys
+     *
+     * @param windowMillis
+     *            How far back failures count, in milliseconds
+     * @param capacity
+     *            Most failures remembered per key; counts never exceed this
+     * @param maxKeys
+     *            Most keys remembered; the least recently used are forgotten
+     *            first
+     * @param clock
+     *            Source of the current time, in milliseconds
+     */
+    public LoginFailureTracker ( final long windowMillis, final int capacity, final int maxKeys,
+            final LongSupplier clock ) {
+        this.windowMillis = windowMillis;
+        this.capacity = capacity;
+        this.clock = clock;
+        this.windows = new LinkedHashMap<String, Window>( 16, 0.75f, true ) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry ( final Map.Entry<String, Window> eldest ) {
+                if ( size() <= maxKeys ) {
+                    return false;
+                }
+                synchronized ( eldest.getValue() ) {
+                    eldest.getValue().removed = true;
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * The tracker for failures per IP address
+     *
+     * @return The tracker
+     */
+    public static LoginFailureTracker ips () {
+        return IPS;
+    }
+
+    /**
+     * The tracker for failures per username
+     *
+     * @return The tracker
+     */
+    public static LoginFailureTracker users () {
+        return USERS;
+    }
+
+    /**
+     * Records a failed login
+     *
+     * @param key
+     *            The IP address or username that failed
+     * @return Number of failures for the key within the window, including
+     *         this one
+     */
+    public int recordFailure ( final String key ) {
+        if ( 0 == sinceSweep.incrementAndGet() % SWEEP_EVERY ) {
+            sweep();
+        }
+        final long now = clock.getAsLong();
+        for ( ;; ) {
+            final Window window;
+            synchronized ( windows ) {
+                window = windows.computeIfAbsent( key, k -> new Window( capacity ) );
+            }
+            synchronized ( window ) {
+                // A sweep, clear or eviction may have removed the window after
+                // we found it
+                if ( window.removed ) {
+                    continue;
+                }
+                window.add( now );
+                return window.count( now - windowMillis );
+            }
+        }
+    }
+
+    /**
+     * Number of failures for a key within the window
+     *
+     * @param key
+     *            The IP address or username
+     * @return Number of recent failures
+     */
+    public int getFailures ( final String key ) {
+        final Window window;
+        synchronized ( windows ) {
+            window = windows.get( key );
+        }
+        if ( null == window ) {
+            return 0;
+        }
+        synchronized ( window ) {
+            return window.count( clock.getAsLong() - windowMillis );
+        }
+    }
+
+    /**
+     * Forgets every failure for a key, after a successful login or once the
+     * failures have led to a lockout
+     *
+     * @param key
+     *            The IP address or username
+     */
+    public void clear ( final String key ) {
+        final Window window;
+        synchronized ( windows ) {
+            window = windows.remove( key );
+        }
+        if ( null != window ) {
+            synchronized ( window ) {
+                window.removed = true;
+            }
+        }
+    }
+
+    /**
+     * Number of keys with failures being remembered
+     *
+     * @return Number of keys
+     */
+    public int size () {
+        synchronized ( windows ) {
+            return windows.size();
+        }
+    }
+
+    /**
+     * Forgets keys whose failures have all fallen out of the window
+     */
+    public void sweep () {
+        final long cutoff = clock.getAsLong() - windowMillis;
+        synchronized ( windows ) {
+            for ( final Iterator<Window> it = windows.values().iterator(); it.hasNext(); ) {
+                final Window window = it.next();
+                synchronized ( window ) {
+                    if ( 0 == window.count( cutoff ) ) {
+                        window.removed = true;
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The most recent failure times for one key, in a ring buffer. Guarded by
+     * its own lock.
+     */
+    private static final class Window {
+
+        /** Failure times, in milliseconds; the oldest is overwritten first */
+        private final long[] times;
+
+        /** Where the next failure goes */
+        private int          next;
+
+        /** Number of slots in use */
+        private int          size;
+
+        /** Set once the window has been taken out of the map */
+        private boolean      removed;
+
+        /**
+         * Creates an empty window
+         *
+         * @param capacity
+         *            Most failures remembered
+         */
+        private Window ( final int capacity ) {
+            times = new long[capacity];
+        }
+
+        /**
+         * Remembers a failure, forgetting the oldest if full
+         *
+         * @param time
+         *            When it happened
+         */
+        private void add ( final long time ) {
+            times[next] = time;
+            next = ( next + 1 ) % times.length;
+            size = Math.min( size + 1, times.length );
+        }
+
+        /**
+         * Number of failures after a point in time
+         *
+         * @param after
+         *            Failures at or before this time do not count
+         * @return Number of failures
+         */
+        private int count ( final long after ) {
+            int count = 0;
+            for ( int i = 0; i < size; i++ ) {
+                if ( times[i] > after ) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+}
@@ -0,0 +1,388 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * Hashes and checks passwords with BCrypt on a small pool of threads of its
+ * own, so that a burst of logins cannot tie up every request thread with
+ * hashing while other requests wait. Used for every password in the
+ * application in place of a plain BCryptPasswordEncoder.
+ *
+ * The pool has one thread per processor (`itrust2.bcrypt.threads`) and a
+ * queue of `itrust2.bcrypt.queueSize` (default 64) waiting hashes. A hash that
+ * finds the queue full, or that has waited in it longer than
+ * `itrust2.bcrypt.maxQueueMillis` (default 2000), is refused with an
+ * AuthenticationServiceException rather than run late; a login refused this
+ * way is shown the login error and is not counted as a failed attempt.
+ *
+ * The BCrypt cost is `itrust2.bcrypt.cost` if set. Otherwise it is worked out
+ * when the application starts, as the highest cost (not below 10) that hashes
+ * within `itrust2.bcrypt.targetMillis` (default 250) milliseconds on this
+ * machine. A password stored at a lower cost than that is hashed again at the
+ * current cost when its user next logs in (see {@link #takeRehash()}).
+ */
+public class PasswordHasher implements PasswordEncoder {
+
+    /** Lowest cost that will be used, whatever the calibration says */
+    private static final int                 MIN_COST         = 10;
+
+    /** Highest cost that calibration will choose */
+    private static final int                 MAX_COST         = 16;
+
+    /** Number of hashing threads */
+    private static final int                 THREADS          = Integer.getInteger( "itrust2.bcrypt.threads",
+            Runtime.getRuntime().availableProcessors() );
+
+    /** Number of hashes that can wait for a thread */
+    private static final int                 QUEUE_SIZE       = Integer.getInteger( "itrust2.bcrypt.queueSize", 64 );
+
+    /** Longest a hash may wait for a thread before it is refused */
+    private static final long                MAX_QUEUE_MILLIS = Long.getLong( "itrust2.bcrypt.maxQueueMillis", 2000 );
+
+    /** How long a hash should take, for calibrating the cost */
+    private static final long                TARGET_MILLIS    = Long.getLong( "itrust2.bcrypt.targetMillis", 250 );
+
+    /** The hasher used by the application */
+    private static final PasswordHasher      INSTANCE         = new PasswordHasher();
+
+    /**
+     * New hash for the password checked on this thread, if it was stored at a
+     * lower cost and matched
+     */
+    private static final ThreadLocal<String> REHASH           = new ThreadLocal<String>();
+
+    /** Runs the hashing */
+    private final ThreadPoolExecutor         executor;
+
+    /** BCrypt cost that new hashes are made with */
+    private final int                        cost;
+
+    /** Makes new hashes */
+    private final BCryptPasswordEncoder      encoder;
+
+    /** Figures for encoding */
+    private final Timings                    encodeTimings    = new Timings();
+
+    /** Figures for checking */
+    private final Timings                    matchTimings     = new Timings();
+
+    /** Number of hashes refused because the pool was too busy */
+    private final LongAdder                  rejected         = new LongAdder();
+
+    /**
+     * Sets up the pool and works out the cost. Use {@link #getInstance()}.
+     */
+    private PasswordHasher () {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor( THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( QUEUE_SIZE ), r -> {
+                    final Thread t = new Thread( r, "PasswordHasher-" + threadCount.incrementAndGet() );
+                    t.setDaemon( true );
+                    return t;
+                } );
+        final Integer configured = Integer.getInteger( "itrust2.bcrypt.cost" );
+        cost = null != configured ? configured : calibrate();
+        encoder = new BCryptPasswordEncoder( cost );
+        System.out.println( "Hashing passwords with BCrypt cost " + cost + " on " + THREADS + " threads" );
+    }
+
+    /**
+     * Retrieves the hasher used by the application
+     *
+     * @return The hasher
+     */
+    public static PasswordHasher getInstance () {
+        return INSTANCE;
+    }
+
+    @Override
+    public String encode ( final CharSequence rawPassword ) {
+        return run( encodeTimings, () -> encoder.encode( rawPassword ) );
+    }
+
+    /**
+     * Checks a password against its stored hash. If it matches and the hash
+     * was made at a lower cost than the current one, a new hash is made and
+     * kept for this thread to pick up with {@link #takeRehash()}.
+     */
+    @Override
+    public boolean matches ( final CharSequence rawPassword, final String encodedPassword ) {
+        REHASH.remove();
+        final String rehash = run( matchTimings, () -> {
+            if ( !encoder.matches( rawPassword, encodedPassword ) ) {
+                return null;
+            }
+            return costOf( encodedPassword ) < cost ? encoder.encode( rawPassword ) : "";
+        } );
+        if ( null == rehash ) {
+            return false;
+        }
+        if ( !rehash.isEmpty() ) {
+            REHASH.set( rehash );
+        }
+        return true;
+    }
+
+    /**
+     * Takes the new hash made by the last successful {@link #matches} on this
+     * thread, if the stored hash needed upgrading. Called once a login has
+     * succeeded, to save the new hash for the user.
+     *
+     * @return The new hash, or null if there is none
+     */
+    public static String takeRehash () {
+        final String rehash = REHASH.get();
+        REHASH.remove();
+        return rehash;
+    }
+
+    /**
+     * Forgets any new hash waiting on this thread, for when a login goes on to
+     * fail
+     */
+    public static void discardRehash () {
+        REHASH.remove();
+    }
+
+    /**
+     * BCrypt cost that new hashes are made with
+     *
+     * @return The cost
+     */
+    public int getCost () {
+        return cost;
+    }
+
+    /**
+     * Stops the hashing threads
+     */
+    public void close () {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Number of passwords encoded
+     *
+     * @return Number of encodes
+     */
+    public long getEncodes () {
+        return encodeTimings.count.sum();
+    }
+
+    /**
+     * Average time to encode a password, including waiting for a thread
+     *
+     * @return Average latency in milliseconds
+     */
+    public double getAverageEncodeMillis () {
+        return encodeTimings.averageMillis();
+    }
+
+    /**
+     * Longest time taken to encode a password, including waiting for a thread
+     *
+     * @return Longest latency in milliseconds
+     */
+    public long getMaxEncodeMillis () {
+        return TimeUnit.NANOSECONDS.toMillis( encodeTimings.max.get() );
+    }
+
+    /**
+     * Number of passwords checked
+     *
+     * @return Number of checks
+     */
+    public long getMatches () {
+        return matchTimings.count.sum();
+    }
+
+    /**
+     * Average time to check a password, including waiting for a thread
+     *
+     * @return Average latency in milliseconds
+     */
+    public double getAverageMatchMillis () {
+        return matchTimings.averageMillis();
+    }
+
+    /**
+     * Longest time taken to check a password, including waiting for a thread
+     *
+     * @return Longest latency in milliseconds
+     */
+    public long getMaxMatchMillis () {
+        return TimeUnit.NANOSECONDS.toMillis( matchTimings.max.get() );
+    }
+
+    /**
+     * Average time a hash waited for a thread
+     *
+     * @return Average wait in milliseconds
+     */
+    public double getAverageQueueMillis () {
+        final long n = encodeTimings.count.sum() + matchTimings.count.sum();
+        return 0 == n ? 0 : ( encodeTimings.queued.sum() + matchTimings.queued.sum() ) / 1e6 / n;
+    }
+
+    /**
+     * Number of hashes refused because the pool was too busy
+     *
+     * @return Number refused
+     */
+    public long getRejected () {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString () {
+        return String.format(
+                "PasswordHasher[cost=%d, threads=%d, encodes=%d, encodeMillis=%.1f, maxEncodeMillis=%d, matches=%d, "
+                        + "matchMillis=%.1f, maxMatchMillis=%d, queueMillis=%.1f, rejected=%d]",
+                cost, THREADS, getEncodes(), getAverageEncodeMillis(), getMaxEncodeMillis(), getMatches(),
+                getAverageMatchMillis(), getMaxMatchMillis(), getAverageQueueMillis(), getRejected() );
+    }
+
+    /**
+     * Runs a hash on the pool and waits for it, refusing it if the pool is too
+     * busy to start it in time
+     *
+     * @param timings
+     *            Figures to add the hash to
+     * @param hash
+     *            The hashing to do
+     * @return What the hashing returned
+     */
+    private <T> T run ( final Timings timings, final Callable<T> hash ) {
+        final long submitted = System.nanoTime();
+        final long[] started = { 0 };
+        final Future<T> future;
+        try {
+            future = executor.submit( () -> {
+                started[0] = System.nanoTime();
+                if ( started[0] - submitted > TimeUnit.MILLISECONDS.toNanos( MAX_QUEUE_MILLIS ) ) {
+                    throw new RejectedExecutionException( "Waited too long for a hashing thread" );
+                }
+                return hash.call();
+            } );
+        }
+        catch ( final RejectedExecutionException e ) {
+            rejected.increment();
+            throw new AuthenticationServiceException( "Too many passwords are being checked; try again shortly", e );
+        }
+        try {
+            final T result = future.get();
+            timings.add( started[0] - submitted, System.nanoTime() - submitted );
+            return result;
+        }
+        catch ( final ExecutionException e ) {
+            if ( e.getCause() instanceof RejectedExecutionException ) {
+                rejected.increment();
+                throw new AuthenticationServiceException( "Too many passwords are being checked; try again shortly",
+                        e.getCause() );
+            }
+            if ( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException( e.getCause() );
+        }
+        catch ( final InterruptedException e ) {
+            future.cancel( true );
+            Thread.currentThread().interrupt();
+            throw new AuthenticationServiceException( "Interrupted while checking a password", e );
+        }
+    }
+
+    /**
+     * Works out the highest cost that hashes within the target time on this
+     * machine. Each step up in cost doubles the time a hash takes.
+     *
+     * @return The cost to use
+     */
+    private static int calibrate () {
+        final BCryptPasswordEncoder probe = new BCryptPasswordEncoder( MIN_COST );
+        // The first hashes are slower while the JIT warms up
+        probe.encode( "calibration" );
+        final long start = System.nanoTime();
+        probe.encode( "calibration" );
+        final long millis = Math.max( 1, TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+        int cost = MIN_COST;
+        for ( long estimate = millis * 2; estimate <= TARGET_MILLIS && cost < MAX_COST; estimate *= 2 ) {
+            cost++;
+        }
+        return cost;
+    }
+
+    /**
+     * Reads the cost a BCrypt hash was made with
+     *
+     * @param hash
+     *            The hash, as `$2a$NN$...`
+     * @return The cost, or the current cost if it cannot be read, so that an
+     *         unrecognised hash is left alone
+     */
+    private int costOf ( final String hash ) {
+        try {
+            return Integer.parseInt( hash.substring( 4, 6 ) );
+        }
+        catch ( final RuntimeException e ) {
+            return cost;
+        }
+    }
+
+    /**
+     * Latency figures for one kind of hashing
+     */
+    private static final class Timings {
+
+        /** Number of hashes done */
+        private final LongAdder       count  = new LongAdder();
+
+        /** Total time spent, including waiting for a thread, in nanoseconds */
+        private final LongAdder       total  = new LongAdder();
+
+        /** Total time spent waiting for a thread, in nanoseconds */
+        private final LongAdder       queued = new LongAdder();
+
+        /** Longest time taken, in nanoseconds */
+        private final LongAccumulator max    = new LongAccumulator( Long::max, 0 );
+
+        /**
+         * Adds a hash to the figures
+         *
+         * @param wait
+         *            Time waiting for a thread, in nanoseconds
+         * @param elapsed
+         *            Total time taken, in nanoseconds
+         */
+        private void add ( final long wait, final long elapsed ) {
+            count.increment();
+            total.add( elapsed );
+            queued.add( wait );
+            max.accumulate( elapsed );
+        }
+
+        /**
+         * Average time taken
+         *
+         * @return Average in milliseconds
+         */
+        private double averageMillis () {
+            final long n = count.sum();
+            return 0 == n ? 0 : total.sum() / 1e6 / n;
+        }
+    }
+
+}
@@ -0,0 +1,424 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Decides whether read-only database work can be sent to a read replica
+ * instead of the primary database, and which replica it should go to.
+ *
+ * Hibernate is given {@link #dataSource()}, which hands out connections to the
+ * primary unless the caller has asked for a replica with
+ * {@link #withConnectionsFrom(DataSource, Supplier)}. HibernateUtil does this
+ * when opening sessions for reads; everything else, including every write,
+ * always goes to the primary.
+ *
+ * A replica is only used if it is fresh enough. The staleness policy is set in
+ * db.properties:
+ *
+ * - `replica.maxLagSeconds` (default 5) is how far behind the primary a
+ * replica may be and still be read from.
+ *
+ * - `replica.lagQuery`, if set, is a query run against each replica that
+ * returns how many seconds it is behind the primary (NULL if it is not
+ * replicating). Without it, a replica is assumed to be within the limit as
+ * long as it can be reached.
+ *
+ * - `replica.checkIntervalMillis` (default 5000) is how often each replica's
+ * lag is measured. Lag is measured in the background, so a slow or
+ * unreachable replica never holds up a request that is choosing where to
+ * read from.
+ *
+ * To make sure that a thread always sees its own writes, once it has written
+ * to the primary its reads go to the primary until the replicas must have
+ * caught up (maxLagSeconds later) or until the next request begins.
+ */
+public class ReplicaRouter {
+
+    /** The router used by the application */
+    private static volatile ReplicaRouter instance;
+
+    /** Replica that connections for the current thread should come from */
+    private static final ThreadLocal<DataSource>  TARGET     = new ThreadLocal<DataSource>();
+
+    /** When the current thread last wrote to the primary, from nanoTime() */
+    private static final ThreadLocal<Long>        LAST_WRITE = new ThreadLocal<Long>();
+
+    /** DataSource handed to Hibernate; routes to the primary or a replica */
+    private static final DataSource               ROUTING    = new RoutingDataSource();
+
+    /** Measures the lag of every router's replicas in the background */
+    private static final ScheduledExecutorService CHECKER    = Executors.newSingleThreadScheduledExecutor( r -> {
+        final Thread t = new Thread( r, "iTrust2-replica-check" );
+        t.setDaemon( true );
+        return t;
+    } );
+
+    /** The primary database */
+    private final DataSource                      primary;
+
+    /** The replicas, in the order they were configured */
+    private final List<Replica>                   replicas;
+
+    /** How far behind the primary a replica may be, in milliseconds */
+    private final long                            maxLagMillis;
+
+    /** Query that measures replica lag in seconds, or null */
+    private final String                          lagQuery;
+
+    /** Replica to try first next time, so that reads are spread evenly */
+    private final AtomicInteger                   next       = new AtomicInteger();
+
+    /** The periodic lag check, or null if there is nothing to check */
+    private final ScheduledFuture< ? >            checks;
+
+    /**
+     * Creates a router. The application's router is configured from
+     * db.properties (see {@link #getInstance()}); this constructor exists so
+     * that a router can be pointed at other databases, for testing.
+     *
+     * @param primary
+     *            The primary database, which receives all writes
+     * @param replicas
+     *            Replicas of the primary; may be empty
+     * @param maxLagMillis
+     *            How far behind the primary a replica may be and still be read
+     *            from, in milliseconds
+     * @param lagQuery
+     *            Query returning how many seconds a replica is behind, or null
+     *            to assume every reachable replica is within the limit
+     * @param checkIntervalMillis
+     *            How often to measure each replica's lag, in milliseconds.
+     *            Each replica is measured once when the router is created and
+     *            then in the background at this interval.
+     */
+    public ReplicaRouter ( final DataSource primary, final List<DataSource> replicas, final long maxLagMillis,
+            final String lagQuery, final long checkIntervalMillis ) {
+        this.primary = primary;
+        final List<Replica> list = new ArrayList<Replica>();
+        for ( final DataSource ds : replicas ) {
+            list.add( new Replica( ds ) );
+        }
+        this.replicas = Collections.unmodifiableList( list );
+        this.maxLagMillis = maxLagMillis;
+        this.lagQuery = lagQuery;
+        checkAll();
+        this.checks = this.replicas.isEmpty() || checkIntervalMillis <= 0 ? null
+                : CHECKER.scheduleWithFixedDelay( this::checkAll, checkIntervalMillis, checkIntervalMillis,
+                        TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Retrieves the application's router, creating it from the settings in
+     * db.properties the first time it is needed
+     *
+     * @return The router
+     */
+    public static ReplicaRouter getInstance () {
+        if ( null == instance ) {
+            synchronized ( ReplicaRouter.class ) {
+                if ( null == instance ) {
+                    final long maxLagSeconds = Long.parseLong( DBUtil.getReplicaSetting( "maxLagSeconds", "5" ) );
+                    instance = new ReplicaRouter( DBUtil.dataSource(), DBUtil.replicaDataSources(),
+                            TimeUnit.SECONDS.toMillis( maxLagSeconds ), DBUtil.getReplicaSetting( "lagQuery", null ),
+                            Long.parseLong( DBUtil.getReplicaSetting( "checkIntervalMillis", "5000" ) ) );
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Replaces the application's router, for instance to point it at a pair
+     * of test databases. Takes effect for sessions opened from then on.
+     *
+     * @param router
+     *            The router to use, or null to go back to the one configured
+     *            in db.properties
+     */
+    public static void setInstance ( final ReplicaRouter router ) {
+        final ReplicaRouter previous = instance;
+        instance = router;
+        if ( null != previous && previous != router ) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Stops measuring this router's replicas. The router can still be used,
+     * but goes on using whatever it last found out about them.
+     */
+    public void close () {
+        if ( null != checks ) {
+            checks.cancel( false );
+        }
+    }
+
+    /**
+     * The DataSource Hibernate should get its connections from. Connections
+     * come from the primary of the current router, or from the replica chosen
+     * by {@link #withConnectionsFrom(DataSource, Supplier)}.
+     *
+     * @return The routing DataSource
+     */
+    public static DataSource dataSource () {
+        return ROUTING;
+    }
+
+    /**
+     * Records that the current thread has just written to the primary, so
+     * that its reads go to the primary until the replicas have caught up
+     */
+    public static void markWrite () {
+        LAST_WRITE.set( System.nanoTime() );
+    }
+
+    /**
+     * Forgets any writes made by the current thread. Called at the start of
+     * each request, since a thread's writes during one request say nothing
+     * about what the next request (possibly for another user) needs to see.
+     */
+    public static void forgetWrites () {
+        LAST_WRITE.remove();
+    }
+
+    /**
+     * Chooses a replica for a piece of read-only work. Replicas are tried in
+     * turn, skipping any that are too far behind the primary.
+     *
+     * @return The replica to read from, or null if the work should go to the
+     *         primary: because there are no replicas, none are fresh enough,
+     *         or the current thread has written something they may not have
+     *         yet
+     */
+    public DataSource chooseReplica () {
+        if ( replicas.isEmpty() || hasRecentWrite() ) {
+            return null;
+        }
+        final int start = Math.floorMod( next.getAndIncrement(), replicas.size() );
+        for ( int i = 0; i < replicas.size(); i++ ) {
+            final Replica replica = replicas.get( ( start + i ) % replicas.size() );
+            if ( replica.isFresh() ) {
+                return replica.dataSource;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Measures the lag of every replica. Runs in the background every
+     * checkIntervalMillis.
+     */
+    private void checkAll () {
+        for ( final Replica replica : replicas ) {
+            replica.check();
+        }
+    }
+
+    /**
+     * Stops using a replica until its lag is next checked, for instance
+     * because a connection to it could not be opened
+     *
+     * @param dataSource
+     *            The replica to stop using
+     */
+    public void markFailed ( final DataSource dataSource ) {
+        for ( final Replica replica : replicas ) {
+            if ( replica.dataSource == dataSource ) {
+                replica.markFailed();
+            }
+        }
+    }
+
+    /**
+     * Runs a piece of work with every connection the current thread opens
+     * through {@link #dataSource()} coming from the replica given. Used to
+     * open the connection behind a read-only session.
+     *
+     * @param replica
+     *            The replica to connect to
+     * @param work
+     *            The work to run
+     * @return Whatever the work returns
+     */
+    public static <T> T withConnectionsFrom ( final DataSource replica, final Supplier<T> work ) {
+        final DataSource previous = TARGET.get();
+        TARGET.set( replica );
+        try {
+            return work.get();
+        }
+        finally {
+            if ( null == previous ) {
+                TARGET.remove();
+            }
+            else {
+                TARGET.set( previous );
+            }
+        }
+    }
+
+    /**
+     * Whether the current thread wrote to the primary recently enough that a
+     * replica might not have the write yet
+     *
+     * @return True if reads should go to the primary
+     */
+    private boolean hasRecentWrite () {
+        final Long lastWrite = LAST_WRITE.get();
+        return null != lastWrite && System.nanoTime() - lastWrite < TimeUnit.MILLISECONDS.toNanos( maxLagMillis );
+    }
+
+    /**
+     * A replica, and what was last found out about how far behind it is
+     */
+    private final class Replica {
+
+        /** Where to get connections to the replica */
+        private final DataSource dataSource;
+
+        /** Whether the replica was within the lag limit when last checked */
+        private volatile boolean fresh;
+
+        /**
+         * Creates the replica
+         *
+         * @param dataSource
+         *            Where to get connections to the replica
+         */
+        private Replica ( final DataSource dataSource ) {
+            this.dataSource = dataSource;
+        }
+
+        /**
+         * Whether this replica was close enough to the primary to read from
+         * when its lag was last measured
+         *
+         * @return True if the replica can be read from
+         */
+        private boolean isFresh () {
+            return fresh;
+        }
+
+        /**
+         * Measures the lag of this replica now
+         */
+        private void check () {
+            fresh = measure();
+        }
+
+        /**
+         * Stops using this replica until the lag is next measured
+         */
+        private void markFailed () {
+            fresh = false;
+        }
+
+        /**
+         * Connects to the replica and, if there is a lag query, checks that
+         * it is within the limit
+         *
+         * @return True if the replica can be read from
+         */
+        private boolean measure () {
+            try ( Connection conn = dataSource.getConnection() ) {
+                if ( null == lagQuery ) {
+                    return true;
+                }
+                try ( Statement st = conn.createStatement(); ResultSet rs = st.executeQuery( lagQuery ) ) {
+                    if ( !rs.next() ) {
+                        return false;
+                    }
+                    final Object lag = rs.getObject( 1 );
+                    return lag instanceof Number
+                            && TimeUnit.SECONDS.toMillis( ( (Number) lag ).longValue() ) <= maxLagMillis;
+                }
+            }
+            catch ( final SQLException e ) {
+                System.err.println( "Could not check read replica, reading from the primary instead: " + e );
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Hands out connections to whichever database the current thread has
+     * been routed to
+     */
+    private static final class RoutingDataSource implements DataSource {
+
+        /**
+         * The database connections should currently come from
+         *
+         * @return The chosen replica, or the primary
+         */
+        private DataSource target () {
+            final DataSource replica = TARGET.get();
+            return null != replica ? replica : getInstance().primary;
+        }
+
+        @Override
+        public Connection getConnection () throws SQLException {
+            return target().getConnection();
+        }
+
+        @Override
+        public Connection getConnection ( final String user, final String pass ) throws SQLException {
+            return target().getConnection( user, pass );
+        }
+
+        @Override
+        public PrintWriter getLogWriter () throws SQLException {
+            return target().getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter ( final PrintWriter out ) throws SQLException {
+            target().setLogWriter( out );
+        }
+
+        @Override
+        public void setLoginTimeout ( final int seconds ) throws SQLException {
+            target().setLoginTimeout( seconds );
+        }
+
+        @Override
+        public int getLoginTimeout () throws SQLException {
+            return target().getLoginTimeout();
+        }
+
+        @Override
+        public Logger getParentLogger () throws SQLFeatureNotSupportedException {
+            return target().getParentLogger();
+        }
+
+        @Override
+        public <T> T unwrap ( final Class<T> iface ) throws SQLException {
+            if ( iface.isInstance( this ) ) {
+                return iface.cast( this );
+            }
+            return target().unwrap( iface );
+        }
+
+        @Override
+        public boolean isWrapperFor ( final Class< ? > iface ) throws SQLException {
+            return iface.isInstance( this ) || target().isWrapperFor( iface );
+        }
+    }
+
+}
@@ -0,0 +1,455 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.boot.spi.MetadataImplementor;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+
+/**
+ * Keeps the database schema up to date by applying a fixed, ordered list of
+ * migrations. Each migration is applied once and recorded in the
+ * SchemaVersion table, so the schema a database ends up with depends only on
+ * which migrations it has had rather than on what Hibernate thinks of the
+ * entities at startup. Hibernate itself only validates the schema
+ * (`hibernate.hbm2ddl.auto` is `validate`), so a mapping that no longer
+ * matches the database stops the application from starting instead of being
+ * patched over.
+ *
+ * Migrations run automatically before the SessionFactory is built, and can be
+ * run by hand with {@link #main(String[])}. Changes to the persistent classes
+ * must come with a new migration at the end of the list below; existing
+ * migrations must never be edited once they have been released.
+ */
+public class SchemaMigrator {
+
+    /** Table recording which migrations have been applied */
+    private static final String          VERSION_TABLE = "SchemaVersion";
+
+    /** Name of the lock that stops two instances migrating at once */
+    private static final String          LOCK_NAME     = "itrust2.schema";
+
+    /** Seconds to wait for another instance to finish migrating */
+    private static final int             LOCK_TIMEOUT  = 60;
+
+    /** Fixed DDL for the baseline schema, see {@link #baseline(Connection)} */
+    private static final String          BASELINE      = "/migrations/V1.sql";
+
+    /** Every migration, in the order they are applied */
+    private static final List<Migration> MIGRATIONS    = new ArrayList<Migration>();
+
+    static {
+        MIGRATIONS.add( new Migration( 1, "Baseline schema", SchemaMigrator::baseline ) );
+        MIGRATIONS.add( new Migration( 2, "Indexes for the most common lookups", conn -> {
+            createIndex( conn, "LogEntries", "idx_logentries_primary_time", "primaryUser", "time" );
+            createIndex( conn, "LogEntries", "idx_logentries_secondary_time", "secondaryUser", "time" );
+            createIndex( conn, "LoginAttempts", "idx_loginattempts_ip", "ip" );
+            createIndex( conn, "LoginAttempts", "idx_loginattempts_user", "user_id" );
+            createIndex( conn, "AppointmentRequests", "idx_appointmentrequests_hcp_status", "hcp_id", "status" );
+            createIndex( conn, "BloodSugarDiaryEntries", "idx_bloodsugar_patient_date", "patient_id", "date" );
+            createIndex( conn, "Prescriptions", "idx_prescriptions_patient", "patient" );
+            createIndex( conn, "Passenger", "idx_passenger_passengerid", "passengerId" );
+        } ) );
+        MIGRATIONS.add( new Migration( 3, "Index on audit log time for exports and archiving",
+                conn -> createIndex( conn, "LogEntries", "idx_logentries_time", "time" ) ) );
+        MIGRATIONS.add( new Migration( 4, "Outbox for emails waiting to be sent", conn -> {
+            try ( Statement st = conn.createStatement() ) {
+                st.executeUpdate( "CREATE TABLE IF NOT EXISTS EmailOutbox (id BIGINT NOT NULL AUTO_INCREMENT, "
+                        + "recipient VARCHAR(255), subject VARCHAR(255), body TEXT, created BIGINT NOT NULL, "
+                        + "nextAttempt BIGINT NOT NULL, attempts INTEGER NOT NULL, lastError VARCHAR(255), "
+                        + "failed BIT NOT NULL, PRIMARY KEY (id))" );
+            }
+            createIndex( conn, "EmailOutbox", "idx_emailoutbox_due", "failed", "nextAttempt" );
+        } ) );
+    }
+
+    /** Whether the schema has been brought up to date since startup */
+    private static boolean               migrated      = false;
+
+    /**
+     * The work done by a migration
+     */
+    @FunctionalInterface
+    private interface Step {
+        /**
+         * Applies the migration
+         *
+         * @param conn
+         *            Connection to apply it with
+         * @throws SQLException
+         *             If the migration fails
+         */
+        void apply ( Connection conn ) throws SQLException;
+    }
+
+    /**
+     * A single versioned change to the schema
+     */
+    private static final class Migration {
+
+        /** Version the schema is at once this has been applied */
+        private final int    version;
+
+        /** What the migration does */
+        private final String description;
+
+        /** The migration itself */
+        private final Step   step;
+
+        /**
+         * Creates a migration
+         *
+         * @param version
+         *            Version the schema is at once this has been applied;
+         *            must be higher than every migration before it
+         * @param description
+         *            What the migration does
+         * @param step
+         *            The migration itself
+         */
+        private Migration ( final int version, final String description, final Step step ) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+    /**
+     * Runs the migrations from the command line, printing the state of the
+     * schema before and after.
+     *
+     * @param args
+     *            `status` to only print which migrations have been applied;
+     *            anything else applies the outstanding ones
+     * @throws SQLException
+     *             If the migrations cannot be applied
+     */
+    public static void main ( final String[] args ) throws SQLException {
+        try {
+            printStatus();
+            if ( 0 == args.length || !"status".equals( args[0] ) ) {
+                migrate();
+                printStatus();
+            }
+        }
+        finally {
+            DBUtil.close();
+        }
+    }
+
+    /**
+     * Applies any migrations that have not yet been applied to the database.
+     * Safe to call repeatedly, and from several instances at once: only the
+     * first caller does any work.
+     *
+     * @throws IllegalStateException
+     *             If a migration fails; the schema is left at the last
+     *             version that succeeded
+     */
+    public static synchronized void migrate () {
+        if ( migrated ) {
+            return;
+        }
+        try ( Connection conn = DBUtil.getConnection() ) {
+            lock( conn );
+            try {
+                ensureVersionTable( conn );
+                final int current = currentVersion( conn );
+                for ( final Migration m : MIGRATIONS ) {
+                    if ( m.version <= current ) {
+                        continue;
+                    }
+                    System.out.println( "Migrating schema to version " + m.version + ": " + m.description );
+                    final long start = System.currentTimeMillis();
+                    m.step.apply( conn );
+                    record( conn, m, System.currentTimeMillis() - start );
+                }
+            }
+            finally {
+                unlock( conn );
+            }
+        }
+        catch ( final SQLException e ) {
+            throw new IllegalStateException( "Could not migrate the database schema", e );
+        }
+        migrated = true;
+    }
+
+    /**
+     * Drops every table belonging to the persistent classes, forgets every
+     * migration, and then migrates the empty database back up to the current
+     * version. Used to start over with a clean database for testing.
+     */
+    public static synchronized void recreate () {
+        final StandardServiceRegistry registry = buildRegistry();
+        try {
+            new SchemaExport( (MetadataImplementor) new MetadataSources( registry ).buildMetadata() ).drop( true,
+                    true );
+        }
+        finally {
+            StandardServiceRegistryBuilder.destroy( registry );
+        }
+        try ( Connection conn = DBUtil.getConnection(); Statement st = conn.createStatement() ) {
+            st.executeUpdate( "DROP TABLE IF EXISTS " + VERSION_TABLE );
+        }
+        catch ( final SQLException e ) {
+            throw new IllegalStateException( "Could not reset the schema version", e );
+        }
+        migrated = false;
+        migrate();
+    }
+
+    /**
+     * Migration 1: creates the schema as it was when migrations were
+     * introduced, from the fixed DDL in {@link #BASELINE}. A database that
+     * already has tables was kept up to date by Hibernate before then, and is
+     * adopted as-is.
+     *
+     * @param conn
+     *            Connection to use
+     * @throws SQLException
+     *             If any of the DDL fails
+     */
+    private static void baseline ( final Connection conn ) throws SQLException {
+        try ( PreparedStatement ps = conn.prepareStatement( "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES "
+                + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'Users'" ); ResultSet rs = ps.executeQuery() ) {
+            rs.next();
+            if ( 0 < rs.getInt( 1 ) ) {
+                return;
+            }
+        }
+        runScript( conn, BASELINE );
+    }
+
+    /**
+     * Runs each statement in a SQL script on the classpath. Statements end with
+     * a semicolon at the end of a line; lines starting with -- are comments.
+     *
+     * @param conn
+     *            Connection to use
+     * @param resource
+     *            Classpath location of the script
+     * @throws SQLException
+     *             If the script cannot be read or any statement in it fails
+     */
+    private static void runScript ( final Connection conn, final String resource ) throws SQLException {
+        final InputStream in = SchemaMigrator.class.getResourceAsStream( resource );
+        if ( null == in ) {
+            throw new SQLException( "Migration script " + resource + " is missing" );
+        }
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( in, StandardCharsets.UTF_8 ) );
+                Statement st = conn.createStatement() ) {
+            final StringBuilder statement = new StringBuilder();
+            String line;
+            while ( null != ( line = reader.readLine() ) ) {
+                line = line.trim();
+                if ( line.isEmpty() || line.startsWith( "--" ) ) {
+                    continue;
+                }
+                statement.append( statement.length() > 0 ? " " : "" ).append( line );
+                if ( line.endsWith( ";" ) ) {
+                    statement.setLength( statement.length() - 1 );
+                    st.executeUpdate( statement.toString() );
+                    statement.setLength( 0 );
+                }
+            }
+        }
+        catch ( final IOException e ) {
+            throw new SQLException( "Migration script " + resource + " could not be read", e );
+        }
+    }
+
+    /**
+     * The version the schema is at once every migration has been applied
+     *
+     * @return The version of the last migration
+     */
+    public static int getLatestVersion () {
+        return MIGRATIONS.get( MIGRATIONS.size() - 1 ).version;
+    }
+
+    /**
+     * Builds a service registry from hibernate.cfg.xml that uses the
+     * application's connection pool
+     *
+     * @return The registry; destroy it when done
+     */
+    private static StandardServiceRegistry buildRegistry () {
+        final StandardServiceRegistryBuilder ssrb = new StandardServiceRegistryBuilder();
+        ssrb.configure( "/hibernate.cfg.xml" );
+        ssrb.applySetting( AvailableSettings.DATASOURCE, DBUtil.dataSource() );
+        return ssrb.build();
+    }
+
+    /**
+     * Creates an index, unless the table already has one covering the same
+     * leading columns (for instance one MySQL created for a foreign key). This
+     * lets the migration run against databases where some of the indexes were
+     * added by hand.
+     *
+     * @param conn
+     *            Connection to use
+     * @param table
+     *            Table to index
+     * @param name
+     *            Name of the new index
+     * @param columns
+     *            Columns to index, in order
+     * @throws SQLException
+     *             If the index cannot be created
+     */
+    private static void createIndex ( final Connection conn, final String table, final String name,
+            final String... columns ) throws SQLException {
+        final List<String> wanted = Arrays.asList( columns );
+        try ( PreparedStatement ps = conn.prepareStatement(
+                "SELECT INDEX_NAME, COLUMN_NAME FROM INFORMATION_SCHEMA.STATISTICS WHERE TABLE_SCHEMA = DATABASE() "
+                        + "AND TABLE_NAME = ? ORDER BY INDEX_NAME, SEQ_IN_INDEX" ) ) {
+            ps.setString( 1, table );
+            try ( ResultSet rs = ps.executeQuery() ) {
+                final Map<String, StringBuilder> existing = new LinkedHashMap<String, StringBuilder>();
+                while ( rs.next() ) {
+                    existing.computeIfAbsent( rs.getString( 1 ), k -> new StringBuilder() ).append( ',' )
+                            .append( rs.getString( 2 ).toLowerCase() );
+                }
+                final String prefix = ( "," + String.join( ",", wanted ) ).toLowerCase();
+                for ( final StringBuilder cols : existing.values() ) {
+                    if ( ( cols + "," ).startsWith( prefix + "," ) ) {
+                        return;
+                    }
+                }
+            }
+        }
+        try ( Statement st = conn.createStatement() ) {
+            st.executeUpdate( "CREATE INDEX " + name + " ON " + table + " (`" + String.join( "`, `", wanted ) + "`)" );
+        }
+    }
+
+    /**
+     * Creates the version table if this database has never been migrated
+     *
+     * @param conn
+     *            Connection to use
+     * @throws SQLException
+     *             If the table cannot be created
+     */
+    private static void ensureVersionTable ( final Connection conn ) throws SQLException {
+        try ( Statement st = conn.createStatement() ) {
+            st.executeUpdate( "CREATE TABLE IF NOT EXISTS " + VERSION_TABLE
+                    + " (version INT NOT NULL PRIMARY KEY, description VARCHAR(255) NOT NULL, "
+                    + "installed DATETIME NOT NULL, duration_ms BIGINT NOT NULL)" );
+        }
+    }
+
+    /**
+     * Finds the version the database schema is currently at
+     *
+     * @param conn
+     *            Connection to use
+     * @return The highest migration applied, or 0 if none have been
+     * @throws SQLException
+     *             If the version table cannot be read
+     */
+    private static int currentVersion ( final Connection conn ) throws SQLException {
+        try ( Statement st = conn.createStatement();
+                ResultSet rs = st.executeQuery( "SELECT COALESCE(MAX(version), 0) FROM " + VERSION_TABLE ) ) {
+            rs.next();
+            return rs.getInt( 1 );
+        }
+    }
+
+    /**
+     * Records that a migration has been applied
+     *
+     * @param conn
+     *            Connection to use
+     * @param migration
+     *            The migration that was applied
+     * @param durationMillis
+     *            How long it took
+     * @throws SQLException
+     *             If the record cannot be written
+     */
+    private static void record ( final Connection conn, final Migration migration, final long durationMillis )
+            throws SQLException {
+        try ( PreparedStatement ps = conn.prepareStatement( "INSERT INTO " + VERSION_TABLE
+                + " (version, description, installed, duration_ms) VALUES (?, ?, ?, ?)" ) ) {
+            ps.setInt( 1, migration.version );
+            ps.setString( 2, migration.description );
+            ps.setTimestamp( 3, new Timestamp( System.currentTimeMillis() ) );
+            ps.setLong( 4, durationMillis );
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Prints which migrations have been applied and which are outstanding
+     *
+     * @throws SQLException
+     *             If the version table cannot be read
+     */
+    private static void printStatus () throws SQLException {
+        try ( Connection conn = DBUtil.getConnection() ) {
+            ensureVersionTable( conn );
+            final int current = currentVersion( conn );
+            System.out.println( "Schema is at version " + current );
+            for ( final Migration m : MIGRATIONS ) {
+                System.out.println( String.format( "  %3d %-9s %s", m.version,
+                        m.version <= current ? "applied" : "pending", m.description ) );
+            }
+        }
+    }
+
+    /**
+     * Takes the migration lock, waiting for another instance to finish first
+     *
+     * @param conn
+     *            Connection to hold the lock on
+     * @throws SQLException
+     *             If the lock cannot be taken in time
+     */
+    private static void lock ( final Connection conn ) throws SQLException {
+        try ( PreparedStatement ps = conn.prepareStatement( "SELECT GET_LOCK(?, ?)" ) ) {
+            ps.setString( 1, LOCK_NAME );
+            ps.setInt( 2, LOCK_TIMEOUT );
+            try ( ResultSet rs = ps.executeQuery() ) {
+                if ( !rs.next() || 1 != rs.getInt( 1 ) ) {
+                    throw new SQLException( "Timed out waiting for another instance to migrate the schema" );
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the migration lock
+     *
+     * @param conn
+     *            Connection holding the lock
+     * @throws SQLException
+     *             If the lock cannot be released
+     */
+    private static void unlock ( final Connection conn ) throws SQLException {
+        try ( PreparedStatement ps = conn.prepareStatement( "SELECT RELEASE_LOCK(?)" ) ) {
+            ps.setString( 1, LOCK_NAME );
+            ps.executeQuery().close();
+        }
+    }
+
+}
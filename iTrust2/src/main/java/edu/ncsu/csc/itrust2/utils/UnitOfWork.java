@@ -0,0 +1,457 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.Status;
+import org.hibernate.resource.transaction.spi.TransactionStatus;
+
+/**
+ * A unit of work binds a single Hibernate Session and transaction to the
+ * current thread so that every DomainObject operation performed while it is
+ * active shares one first-level cache and is committed together. Outside of a
+ * unit of work, DomainObject falls back to opening a short-lived session for
+ * each call.
+ *
+ * The session is opened lazily, the first time a DomainObject actually touches
+ * the database, so beginning a unit of work for a request that never needs the
+ * database (static resources, for instance) costs nothing.
+ *
+ * Entities loaded through a unit of work are read-only until they are saved,
+ * and go back to being read-only once the save has been flushed. This keeps
+ * the behaviour that callers are used to from detached objects: changing a
+ * field on something that was retrieved or saved does nothing until save() is
+ * called on it.
+ *
+ * If read replicas are configured, reads are made through a second,
+ * read-only session on a replica until the unit of work first writes (or
+ * finds no replica it can use). From then on everything, reads included, goes
+ * through the session on the primary, so a request always reads its own
+ * writes.
+ *
+ * If any database operation fails the unit of work is rolled back and
+ * abandoned. Any further DomainObject calls on the same thread then throw
+ * rather than quietly writing outside of it, so a request can never commit
+ * half of its work.
+ *
+ * A web request's work is committed with {@link #commit()} once its handler
+ * has finished but before anything is sent back, so that a failed commit is
+ * reported to the client as an error rather than after a success response has
+ * already gone out.
+ *
+ * Work that must be all-or-nothing, such as creating an office visit with
+ * everything that goes with it, is run through {@link #atomically(Work)}.
+ * Side effects registered with {@link #afterCommit(Runnable)} while a unit of
+ * work is active (waking the email dispatcher, forgetting cached data) are
+ * held back until it has been committed, and dropped if it is rolled back, so
+ * that nothing is sent for changes that never happened. Audit log entries
+ * (see {@link LoggerUtil}) are only held back like this inside atomic work.
+ */
+public class UnitOfWork {
+
+    /** The unit of work bound to the current thread, if any */
+    private static final ThreadLocal<UnitOfWork> CURRENT     = new ThreadLocal<UnitOfWork>();
+
+    /** The session on the primary, opened on first use */
+    private Session                              session;
+
+    /** Session on a read replica, used for reads until the first write */
+    private Session                              readSession;
+
+    /** The transaction covering everything done in this unit of work */
+    private Transaction                          transaction;
+
+    /** Set once the unit of work has been rolled back due to an error */
+    private boolean                              failed;
+
+    /** Number of {@link #atomically(Work)} calls running on this unit */
+    private int                                  atomicDepth;
+
+    /** Side effects to run once the transaction has been committed */
+    private final List<Runnable>                 afterCommit = new ArrayList<Runnable>();
+
+    /**
+     * Work to run with {@link #atomically(Work)}
+     *
+     * @param <T>
+     *            What the work returns
+     * @param <E>
+     *            What the work may throw
+     */
+    @FunctionalInterface
+    public interface Work <T, E extends Exception> {
+        /**
+         * Does the work
+         *
+         * @return The result
+         * @throws E
+         *             If the work fails
+         */
+        T run () throws E;
+    }
+
+    /**
+     * Use {@link #begin()}
+     */
+    private UnitOfWork () {
+    }
+
+    /**
+     * Starts a unit of work on the current thread. Every call must be paired
+     * with a call to {@link #end(boolean)}, typically in a finally block.
+     *
+     * @throws IllegalStateException
+     *             If a unit of work is already active on this thread
+     */
+    public static void begin () {
+        if ( null != CURRENT.get() ) {
+            throw new IllegalStateException( "A unit of work is already active on this thread" );
+        }
+        CURRENT.set( new UnitOfWork() );
+        ReplicaRouter.forgetWrites();
+    }
+
+    /**
+     * Finishes the unit of work on the current thread, committing or rolling
+     * back anything done in it, and releases its session.
+     *
+     * @param commit
+     *            True to commit the work, false to roll it back
+     */
+    public static void end ( final boolean commit ) {
+        final UnitOfWork work = CURRENT.get();
+        CURRENT.remove();
+        if ( null == work ) {
+            return;
+        }
+        work.closeReadSession();
+        final boolean committed = commit && !work.failed;
+        if ( null != work.session ) {
+            try {
+                if ( committed ) {
+                    work.transaction.commit();
+                }
+                else if ( TransactionStatus.ACTIVE == work.transaction.getStatus() ) {
+                    work.transaction.rollback();
+                }
+            }
+            finally {
+                work.close();
+            }
+        }
+        if ( committed ) {
+            work.runAfterCommit();
+        }
+    }
+
+    /**
+     * Commits everything done so far in the unit of work on the current
+     * thread, without ending it. The session stays open (so that objects
+     * already loaded can still lazily load their associations) and a new
+     * transaction is started for anything done afterwards, which is committed
+     * or rolled back by {@link #end(boolean)} as usual. Does nothing if there
+     * is no unit of work or it has already been rolled back.
+     *
+     * If the commit fails the unit of work is rolled back as by
+     * {@link #fail()} and the error is rethrown.
+     */
+    public static void commit () {
+        final UnitOfWork work = CURRENT.get();
+        if ( null == work || work.failed ) {
+            return;
+        }
+        work.closeReadSession();
+        if ( null != work.session ) {
+            try {
+                work.transaction.commit();
+            }
+            catch ( final RuntimeException e ) {
+                fail();
+                throw e;
+            }
+            work.transaction = work.session.beginTransaction();
+        }
+        work.runAfterCommit();
+    }
+
+    /**
+     * Runs work as a single transaction: either everything it writes is
+     * committed or none of it is. If the current thread already has a unit of
+     * work (as every web request does), the work joins it and is committed
+     * with the rest of the request; otherwise a unit of work is started for
+     * it and committed as soon as it finishes.
+     *
+     * If the work throws, or a database operation in it fails, the unit of
+     * work is rolled back. Hibernate cannot roll back part of a transaction,
+     * so when the work has joined a request's unit of work, anything the
+     * request wrote before it is rolled back too.
+     *
+     * @param work
+     *            The work to do
+     * @return What the work returned
+     * @throws E
+     *             If the work throws
+     * @throws IllegalStateException
+     *             If a database operation failed but the work carried on, or
+     *             the unit of work it would join has already been rolled back
+     */
+    public static <T, E extends Exception> T atomically ( final Work<T, E> work ) throws E {
+        final boolean own = null == current();
+        if ( own ) {
+            begin();
+        }
+        final UnitOfWork unit = CURRENT.get();
+        unit.atomicDepth++;
+        boolean succeeded = false;
+        try {
+            final T result = work.run();
+            if ( unit.failed ) {
+                throw new IllegalStateException( "The work was rolled back after a database error" );
+            }
+            succeeded = true;
+            return result;
+        }
+        finally {
+            unit.atomicDepth--;
+            if ( !succeeded && CURRENT.get() == unit ) {
+                fail();
+            }
+            if ( own ) {
+                end( succeeded );
+            }
+        }
+    }
+
+    /**
+     * Runs a side effect of the current work once it has been committed. If a
+     * unit of work is active on this thread, the side effect waits for the
+     * next {@link #commit()} or {@link #end(boolean)} that commits it, and is
+     * dropped if the unit of work is rolled back instead. Otherwise each
+     * DomainObject call has already committed by the time it returns, and the
+     * side effect runs straight away.
+     *
+     * @param action
+     *            The side effect
+     */
+    public static void afterCommit ( final Runnable action ) {
+        final UnitOfWork work = CURRENT.get();
+        if ( null == work ) {
+            action.run();
+        }
+        else if ( !work.failed ) {
+            work.afterCommit.add( action );
+        }
+    }
+
+    /**
+     * Whether the current thread is running work through
+     * {@link #atomically(Work)}
+     *
+     * @return True if the work will be committed or rolled back as a whole
+     */
+    public static boolean isAtomic () {
+        final UnitOfWork work = CURRENT.get();
+        return null != work && 0 < work.atomicDepth;
+    }
+
+    /**
+     * Whether a usable unit of work is active on the current thread
+     *
+     * @return True if DomainObject calls will share a session
+     */
+    public static boolean isActive () {
+        final UnitOfWork work = CURRENT.get();
+        return null != work && !work.failed;
+    }
+
+    /**
+     * Retrieves the session for the unit of work on the current thread,
+     * opening it if this is the first time it is needed.
+     *
+     * @return The shared session, or null if there is no unit of work
+     * @throws IllegalStateException
+     *             If the unit of work has been rolled back
+     */
+    public static Session currentSession () {
+        final UnitOfWork work = current();
+        if ( null == work ) {
+            return null;
+        }
+        if ( null == work.session ) {
+            work.session = HibernateUtil.openSession();
+            work.session.setDefaultReadOnly( true );
+            work.transaction = work.session.beginTransaction();
+        }
+        return work.session;
+    }
+
+    /**
+     * Retrieves the session that reads for the unit of work on the current
+     * thread should use. This is a read-only session on a read replica, until
+     * the unit of work has opened its session on the primary (to write, or
+     * because no replica could be used); after that it is the session on the
+     * primary, so that later reads see what was written.
+     *
+     * @return The session to read with, or null if there is no unit of work
+     * @throws IllegalStateException
+     *             If the unit of work has been rolled back
+     */
+    public static Session currentReadSession () {
+        final UnitOfWork work = current();
+        if ( null == work ) {
+            return null;
+        }
+        if ( null == work.session && null == work.readSession ) {
+            work.readSession = HibernateUtil.openReplicaSession();
+        }
+        return null != work.session || null == work.readSession ? currentSession() : work.readSession;
+    }
+
+    /**
+     * Retrieves the unit of work on the current thread, making sure it can
+     * still be used
+     *
+     * @return The unit of work, or null if there is none
+     * @throws IllegalStateException
+     *             If the unit of work has been rolled back
+     */
+    private static UnitOfWork current () {
+        final UnitOfWork work = CURRENT.get();
+        if ( null != work && work.failed ) {
+            throw new IllegalStateException(
+                    "The unit of work on this thread was rolled back after a database error" );
+        }
+        return work;
+    }
+
+    /**
+     * Detaches an object from the unit of work's replica session, if it was
+     * read through it, so that it can be saved or deleted through the session
+     * on the primary.
+     *
+     * @param obj
+     *            The object about to be written
+     */
+    public static void release ( final Object obj ) {
+        final UnitOfWork work = CURRENT.get();
+        if ( null != work && null != work.readSession && work.readSession.contains( obj ) ) {
+            work.readSession.evict( obj );
+        }
+    }
+
+    /**
+     * Writes any pending changes in the session provided to the database. If
+     * the session belongs to a unit of work, everything in it is then made
+     * read-only again so that later changes to those objects are only written
+     * if they are explicitly saved.
+     *
+     * @param session
+     *            The session to flush
+     */
+    public static void flush ( final Session session ) {
+        session.flush();
+        final UnitOfWork work = CURRENT.get();
+        if ( null == work || session != work.session ) {
+            return;
+        }
+        for ( final Map.Entry<Object, EntityEntry> entry : ( (SessionImplementor) session ).getPersistenceContext()
+                .reentrantSafeEntityEntries() ) {
+            if ( Status.MANAGED == entry.getValue().getStatus() && !entry.getValue().isReadOnly() ) {
+                session.setReadOnly( entry.getKey(), true );
+            }
+        }
+    }
+
+    /**
+     * Rolls back the unit of work on the current thread after a database
+     * error. A Hibernate session cannot be used again once it has thrown, and
+     * the rest of the request must not write outside of the transaction that
+     * was rolled back, so any further database work on this thread throws
+     * until the unit of work is ended.
+     */
+    public static void fail () {
+        final UnitOfWork work = CURRENT.get();
+        if ( null == work || work.failed ) {
+            return;
+        }
+        work.failed = true;
+        work.afterCommit.clear();
+        work.closeReadSession();
+        if ( null != work.session ) {
+            try {
+                if ( TransactionStatus.ACTIVE == work.transaction.getStatus() ) {
+                    work.transaction.rollback();
+                }
+            }
+            catch ( final Exception e ) {
+                e.printStackTrace( System.out );
+            }
+            finally {
+                work.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the side effects held back until the transaction was committed. One
+     * that fails is reported and does not stop the rest.
+     */
+    private void runAfterCommit () {
+        for ( final Runnable action : afterCommit ) {
+            try {
+                action.run();
+            }
+            catch ( final RuntimeException e ) {
+                e.printStackTrace( System.out );
+            }
+        }
+        afterCommit.clear();
+    }
+
+    /**
+     * Ends the read-only transaction on the replica session, if one was
+     * opened, and closes it, ignoring any errors in doing so
+     */
+    private void closeReadSession () {
+        if ( null == readSession ) {
+            return;
+        }
+        try {
+            if ( TransactionStatus.ACTIVE == readSession.getTransaction().getStatus() ) {
+                readSession.getTransaction().rollback();
+            }
+        }
+        catch ( final Exception e ) {
+            e.printStackTrace( System.out );
+        }
+        finally {
+            try {
+                readSession.close();
+            }
+            catch ( final Exception e ) {
+                e.printStackTrace( System.out );
+            }
+            readSession = null;
+        }
+    }
+
+    /**
+     * Closes the session, ignoring any errors in doing so
+     */
+    private void close () {
+        try {
+            session.close();
+        }
+        catch ( final Exception e ) {
+            e.printStackTrace( System.out );
+        }
+        session = null;
+        transaction = null;
+    }
+
+}
@@ -0,0 +1,219 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * Remembers the account details read for recently authenticated users, so
+ * that logging in (and every request authenticated with HTTP basic) does not
+ * cost the users and authorities queries each time. Spring Security still
+ * checks the password against the cached hash, and reads the user again if
+ * it does not match.
+ *
+ * Only users who were allowed in are cached; Spring Security rejects a
+ * disabled, locked out or banned user before caching. Everything that changes
+ * what the queries would return drops the user from the cache: saving or
+ * deleting a User (password, role and enabled changes) and saving or clearing
+ * a LoginBan or LoginLockout for the user. An entry is trusted for at most
+ * `itrust2.auth.cacheTtlSeconds` (default 300) seconds, which bounds how long
+ * a change made by another server can go unnoticed. At most
+ * `itrust2.auth.cacheSize` (default 1000) users are kept, least recently used
+ * first out.
+ */
+public class UserDetailsCache implements UserCache {
+
+    /** Most users to keep */
+    private static final int              SIZE          = Integer.getInteger( "itrust2.auth.cacheSize", 1000 );
+
+    /** How long a cached user is trusted for */
+    private static final long             TTL_MILLIS    = TimeUnit.SECONDS
+            .toMillis( Long.getLong( "itrust2.auth.cacheTtlSeconds", 300 ) );
+
+    /**
+     * How long after a user is dropped to refuse to cache them again, so that
+     * details read just before a change do not go back in just after it
+     */
+    private static final long             QUIET_MILLIS  = TimeUnit.SECONDS.toMillis( 5 );
+
+    /** The cache used by the application */
+    private static final UserDetailsCache INSTANCE      = new UserDetailsCache();
+
+    /** Cached users by username, least recently used first */
+    private final Map<String, Entry>      entries       = new LinkedHashMap<String, Entry>( 16, 0.75f, true ) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry ( final Map.Entry<String, Entry> eldest ) {
+            return size() > SIZE;
+        }
+    };
+
+    /** Number of lookups that found the user */
+    private final LongAdder               hits          = new LongAdder();
+
+    /** Number of lookups that did not */
+    private final LongAdder               misses        = new LongAdder();
+
+    /** Number of users dropped because they changed */
+    private final LongAdder               invalidations = new LongAdder();
+
+    /**
+     * Use {@link #getInstance()}
+     */
+    private UserDetailsCache () {
+    }
+
+    /**
+     * Retrieves the cache used by the application
+     *
+     * @return The cache
+     */
+    public static UserDetailsCache getInstance () {
+        return INSTANCE;
+    }
+
+    @Override
+    public UserDetails getUserFromCache ( final String username ) {
+        final long now = System.currentTimeMillis();
+        final UserDetails user;
+        synchronized ( entries ) {
+            final Entry entry = entries.get( username );
+            user = null == entry || null == entry.user || now - entry.time >= TTL_MILLIS ? null : entry.user;
+        }
+        if ( null == user ) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        // A copy, as Spring Security erases the password of the user it
+        // returns once authentication is done
+        return copy( user );
+    }
+
+    @Override
+    public void putUserInCache ( final UserDetails user ) {
+        final long now = System.currentTimeMillis();
+        final UserDetails copy = copy( user );
+        synchronized ( entries ) {
+            final Entry entry = entries.get( user.getUsername() );
+            if ( null != entry && null == entry.user && now - entry.time < QUIET_MILLIS ) {
+                return;
+            }
+            entries.put( user.getUsername(), new Entry( copy, now ) );
+        }
+    }
+
+    @Override
+    public void removeUserFromCache ( final String username ) {
+        if ( null == username ) {
+            return;
+        }
+        synchronized ( entries ) {
+            entries.put( username, new Entry( null, System.currentTimeMillis() ) );
+        }
+        invalidations.increment();
+    }
+
+    /**
+     * Drops every cached user, for when users have been changed other than
+     * through the application (for instance, by clearing the database)
+     */
+    public void clear () {
+        synchronized ( entries ) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Number of lookups that found the user
+     *
+     * @return Number of hits
+     */
+    public long getHits () {
+        return hits.sum();
+    }
+
+    /**
+     * Number of lookups that had to go to the database
+     *
+     * @return Number of misses
+     */
+    public long getMisses () {
+        return misses.sum();
+    }
+
+    /**
+     * Fraction of lookups that found the user
+     *
+     * @return Hit rate between 0 and 1
+     */
+    public double getHitRate () {
+        final long h = hits.sum();
+        final long total = h + misses.sum();
+        return 0 == total ? 0 : (double) h / total;
+    }
+
+    /**
+     * Number of users dropped because they changed
+     *
+     * @return Number of invalidations
+     */
+    public long getInvalidations () {
+        return invalidations.sum();
+    }
+
+    @Override
+    public String toString () {
+        final int size;
+        synchronized ( entries ) {
+            size = entries.size();
+        }
+        return String.format( "UserDetailsCache[size=%d, hits=%d, misses=%d, hitRate=%.3f, invalidations=%d]", size,
+                hits.sum(), misses.sum(), getHitRate(), invalidations.sum() );
+    }
+
+    /**
+     * Copies a user, so that what is cached is not shared with an
+     * authentication
+     *
+     * @param user
+     *            The user to copy
+     * @return The copy
+     */
+    private static UserDetails copy ( final UserDetails user ) {
+        return new User( user.getUsername(), user.getPassword(), user.isEnabled(), user.isAccountNonExpired(),
+                user.isCredentialsNonExpired(), user.isAccountNonLocked(), user.getAuthorities() );
+    }
+
+    /**
+     * A cached user, or a marker that the user was recently dropped
+     */
+    private static final class Entry {
+
+        /** The user, or null if the user was dropped */
+        private final UserDetails user;
+
+        /** When the user was cached or dropped */
+        private final long        time;
+
+        /**
+         * Creates an entry
+         *
+         * @param user
+         *            The user, or null if the user was dropped
+         * @param time
+         *            When the user was cached or dropped
+         */
+        private Entry ( final UserDetails user, final long time ) {
+            this.user = user;
+            this.time = time;
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+-- Migration 1: the schema as the persistent classes defined it when
+-- SchemaMigrator was introduced. This file must never change; anything added
+-- to the persistent classes since then belongs in a later migration.
+create table AppointmentRequests (id bigint not null, comments varchar(255), date datetime, status varchar(255), type varchar(255), hcp_id varchar(100), patient_id varchar(100), primary key (id));
+create table BasicHealthMetrics (id bigint not null, diastolic integer, hdl integer, headCircumference float, height float, houseSmokingStatus integer, ldl integer, patientSmokingStatus integer, systolic integer, tri integer, weight float, hcp_id varchar(100), patient_id varchar(100), primary key (id));
+create table BloodSugarDiaryEntries (id bigint not null, date datetime, fastingLevel integer, firstLevel integer, secondLevel integer, thirdLevel integer, patient_id varchar(100), primary key (id));
+create table BloodSugarLimits (id bigint not null, fastingLimit integer not null, mealLimit integer not null, patient_id varchar(100), primary key (id));
+create table Diagnoses (id bigint not null, note varchar(255), code_id bigint, visit_id bigint not null, primary key (id));
+create table Drugs (id bigint not null, code varchar(255), description varchar(255), genericName varchar(255), name varchar(255), type varchar(255), primary key (id));
+create table FoodDiaryEntry (id bigint not null, calories integer, carbs integer, date datetime, fat integer, fiber integer, food varchar(255), mealType varchar(255), patient varchar(255), protein integer, servings integer, sodium integer, sugars integer, primary key (id));
+create table GeneralCheckups (id bigint not null, date datetime, notes varchar(255), type varchar(255), appointment_id bigint, basichealthmetrics_id bigint, hcp_id varchar(100), hospital_id varchar(100), patient_id varchar(100), primary key (id));
+create table GeneralOphthalmology (id bigint not null, date datetime, notes varchar(255), type varchar(255), axisOD integer, axisOS integer, cylinderOD double precision, cylinderOS double precision, sphereOD double precision, sphereOS double precision, visualAcuityOD integer, visualAcuityOS integer, diagnosis varchar(255), appointment_id bigint, basichealthmetrics_id bigint, hcp_id varchar(100), hospital_id varchar(100), patient_id varchar(100), primary key (id));
+create table hibernate_sequence (next_val bigint);
+insert into hibernate_sequence values ( 1 );
+create table Hospitals (name varchar(255) not null, address varchar(255), state varchar(255), zip varchar(255), primary key (name));
+create table ICDCodes (id bigint not null, code varchar(255), description varchar(255), primary key (id));
+create table IdGenerators (sequence_name varchar(255) not null, next_val bigint, primary key (sequence_name));
+create table LabProcedures (id bigint not null, comments varchar(255), priority varchar(255), result varchar(255), status varchar(255), labtech varchar(100), LOINC_code bigint, patient varchar(100), suggestedDiagnosis bigint, visit bigint not null, primary key (id));
+create table LogEntries (id bigint not null, logCode integer, message varchar(255), primaryUser varchar(255), secondaryUser varchar(255), time datetime, primary key (id));
+create table LoginAttempts (id bigint not null, ip varchar(255), time datetime, user_id varchar(100), primary key (id));
+create table LoginBans (id bigint not null, ip varchar(255), time datetime, user_id varchar(100), primary key (id));
+create table LoginLockouts (id bigint not null, ip varchar(255), time datetime, user_id varchar(100), primary key (id));
+create table LOINCCodes (id bigint not null, code varchar(255), commonName varchar(255), component varchar(255), property varchar(255), scale varchar(255), result_id bigint, primary key (id));
+create table LOINCResult (DTYPE varchar(31) not null, id bigint not null, primary key (id));
+create table OphthalmologySurgery (id bigint not null, date datetime, notes varchar(255), type varchar(255), axisOD integer, axisOS integer, cylinderOD double precision, cylinderOS double precision, sphereOD double precision, sphereOS double precision, visualAcuityOD integer, visualAcuityOS integer, surgeryType integer, appointment_id bigint, basichealthmetrics_id bigint, hcp_id varchar(100), hospital_id varchar(100), patient_id varchar(100), primary key (id));
+create table Passenger (address1 varchar(255), address2 varchar(255), bloodType varchar(255), causeOfDeath varchar(255), city varchar(255), dateOfBirth datetime, dateOfDeath datetime, email varchar(255), ethnicity varchar(255), firstName varchar(255), gender varchar(255), id bigint, lastName varchar(255), phone varchar(255), preferredName varchar(255), prescriptionPreference varchar(255), state varchar(255), zip varchar(255), self_id varchar(100) not null, pharmacy_id varchar(100), father_id varchar(100), mother_id varchar(100), initialSymptomArrival varchar(255), passengerId varchar(255), symptomSeverity varchar(255), primary key (self_id));
+create table Passenger_contacts (Passenger_self_id varchar(100) not null, contacts varchar(255));
+create table PasswordResetTokens (id bigint not null, creationTime bigint not null, tempPassword varchar(255), user_id varchar(100), primary key (id));
+create table Patients (address1 varchar(255), address2 varchar(255), bloodType varchar(255), causeOfDeath varchar(255), city varchar(255), dateOfBirth datetime, dateOfDeath datetime, email varchar(255), ethnicity varchar(255), firstName varchar(255), gender varchar(255), id bigint, lastName varchar(255), phone varchar(255), preferredName varchar(255), prescriptionPreference varchar(255), state varchar(255), zip varchar(255), self_id varchar(100) not null, pharmacy_id varchar(100), father_id varchar(100), mother_id varchar(100), primary key (self_id));
+create table PERSONAL_REPRESENTATIVES (patient_id varchar(100) not null, representative_id varchar(100) not null, primary key (patient_id, representative_id));
+create table Personnel (id bigint not null, address1 varchar(255), address2 varchar(255), city varchar(255), email varchar(255), enabled bit not null, firstName varchar(255), hospitalId varchar(255), lastName varchar(255), phone varchar(255), specialty varchar(255), state varchar(255), zip varchar(255), self_id varchar(100), primary key (id));
+create table Pharmacies (name varchar(255) not null, address varchar(255), state varchar(255), zip varchar(255), primary key (name));
+create table Pharmacies_Drugs (Pharmacy_name varchar(255) not null, drugs_id bigint not null, primary key (Pharmacy_name, drugs_id));
+create table Prescriptions (id bigint not null, dosage integer not null, endDate datetime, renewals integer not null, startDate datetime, status varchar(255), drug_id bigint, patient varchar(100), pharmacy_id varchar(100), prescriptions_id bigint, primary key (id));
+create table QualitativeLOINCResult_resultEntries (QualitativeLOINCResult_id bigint not null, icd_id bigint, name varchar(255));
+create table QuantitativeLOINCResult_resultRanges (QuantitativeLOINCResult_id bigint not null, icd_id bigint, max float, min float);
+create table Users (username varchar(255) not null, enabled integer, password varchar(255), role varchar(255), pharmacy_id varchar(100), primary key (username));
+create table ZipCodes (zip varchar(255) not null, latitude double precision not null, longitude double precision not null, primary key (zip));
+alter table AppointmentRequests add constraint FKlpa5tri2ufo8t7bt7nusa1pss foreign key (hcp_id) references Users (username);
+alter table AppointmentRequests add constraint FKo65c0ooyqou8d1x56y37u1nau foreign key (patient_id) references Users (username);
+alter table BasicHealthMetrics add constraint FKd9uamofafbqloq2v2j2o4f0pg foreign key (hcp_id) references Users (username);
+alter table BasicHealthMetrics add constraint FKj6od5nqw6nvjgmpuilsfj3ad foreign key (patient_id) references Users (username);
+alter table Diagnoses add constraint FKthsk14tdxoeeadlpvkot8fdhb foreign key (code_id) references ICDCodes (id);
+alter table Diagnoses add constraint FKjm5cnpdmv6x9iajrypt72lguy foreign key (visit_id) references GeneralCheckups (id);
+alter table GeneralCheckups add constraint FKtgti6uflcm2q9uvfx4obmpwv4 foreign key (appointment_id) references AppointmentRequests (id);
+alter table GeneralCheckups add constraint FKqtpf2nfiuf47019rc8gnaeb6v foreign key (basichealthmetrics_id) references BasicHealthMetrics (id);
+alter table GeneralCheckups add constraint FKplofss0lwup9mbnu0abrtalxx foreign key (hcp_id) references Users (username);
+alter table GeneralCheckups add constraint FK9tghbxo0xq6bba8p1rp7rbecg foreign key (hospital_id) references Hospitals (name);
+alter table GeneralCheckups add constraint FK5fa5nrrfo22p8q5xiptgh83x5 foreign key (patient_id) references Users (username);
+alter table GeneralOphthalmology add constraint FKtcx79uvv1o4wrp9xqdk3hcap2 foreign key (appointment_id) references AppointmentRequests (id);
+alter table GeneralOphthalmology add constraint FK6svu0my7r662s5sn2d7cgf1jq foreign key (basichealthmetrics_id) references BasicHealthMetrics (id);
+alter table GeneralOphthalmology add constraint FKfeh4gtxe0s4kr52i7u5i8tkum foreign key (hcp_id) references Users (username);
+alter table GeneralOphthalmology add constraint FKc5kn71vr8tbt5ty5cc7pfrbgf foreign key (hospital_id) references Hospitals (name);
+alter table GeneralOphthalmology add constraint FKr2whnupl6f7k12gx78f5lhdx9 foreign key (patient_id) references Users (username);
+alter table LabProcedures add constraint FKn8ctd2oj7knwaxxfakrmwybj6 foreign key (labtech) references Users (username);
+alter table LabProcedures add constraint FKq97sa9kb1vkse9jbn0s38drei foreign key (LOINC_code) references LOINCCodes (id);
+alter table LabProcedures add constraint FKd9netwr78cspphyqtctsdy9cl foreign key (patient) references Users (username);
+alter table LabProcedures add constraint FKev74nk6ig1t5h0i4h4tg5ar9q foreign key (suggestedDiagnosis) references ICDCodes (id);
+alter table LabProcedures add constraint FKf1qdex4yna7yac0e29xylgqt7 foreign key (visit) references GeneralCheckups (id);
+alter table LoginAttempts add constraint FK6me6sh9op6gntvqnqqqiev95q foreign key (user_id) references Users (username);
+alter table LoginBans add constraint FKpmi5daj2jt8w5gq9maxjpro1f foreign key (user_id) references Users (username);
+alter table LoginLockouts add constraint FKhndsii960xs59bv7a7x5669ii foreign key (user_id) references Users (username);
+alter table LOINCCodes add constraint FKg096u65wbjmwxny136tptntlr foreign key (result_id) references LOINCResult (id);
+alter table OphthalmologySurgery add constraint FK2ab5y8krlqw4407jo9je2rodh foreign key (appointment_id) references AppointmentRequests (id);
+alter table OphthalmologySurgery add constraint FK64ijwgpf2cbt4t6vcwyj0vy77 foreign key (basichealthmetrics_id) references BasicHealthMetrics (id);
+alter table OphthalmologySurgery add constraint FK43k7w4nn8hxf36s3xonve9l5v foreign key (hcp_id) references Users (username);
+alter table OphthalmologySurgery add constraint FKg3nwmi2eh9lxpys9gom75nsvx foreign key (hospital_id) references Hospitals (name);
+alter table OphthalmologySurgery add constraint FK526jd5m6bguykj27g8jbl2idt foreign key (patient_id) references Users (username);
+alter table Passenger add constraint FK_q7ep3euvp51i41ph373nqiif6 foreign key (self_id) references Users (username);
+alter table Passenger add constraint FK_2sp42rb4uvou7tv58ge9m8nyq foreign key (pharmacy_id) references Pharmacies (name);
+alter table Passenger add constraint FK_pu890vsdm6gq41o3uvuc96qq3 foreign key (father_id) references Users (username);
+alter table Passenger add constraint FK_aggr86y6ayg91n0f8cfu4eqq foreign key (mother_id) references Users (username);
+alter table Passenger_contacts add constraint FK27g9oq187saip206pd8elm868 foreign key (Passenger_self_id) references Passenger (self_id);
+alter table PasswordResetTokens add constraint FKdtqvlc6is6k5ibp1xc1nshrc8 foreign key (user_id) references Users (username);
+alter table Patients add constraint FKe0d1x2xac4nte49udxrwdiew5 foreign key (self_id) references Users (username);
+alter table Patients add constraint FK325v187ewlhx0x8d8qmjw9nuw foreign key (pharmacy_id) references Pharmacies (name);
+alter table Patients add constraint FK8s22h2pw102ce5ytcmqmhegp3 foreign key (father_id) references Users (username);
+alter table Patients add constraint FK3aemk5yjohgj9y6j4lq57g4o5 foreign key (mother_id) references Users (username);
+alter table Personnel add constraint FKa9l63705rm5c4tf50y9h9x8rp foreign key (self_id) references Users (username);
+alter table Pharmacies_Drugs add constraint FK4nj19m11y4k5ynqve6jle1c4u foreign key (drugs_id) references Drugs (id);
+alter table Pharmacies_Drugs add constraint FK4tlsibvare7m646r32cjxx1ds foreign key (Pharmacy_name) references Pharmacies (name);
+alter table Prescriptions add constraint FKrr7q2rw34mv2h8p24dwo2sw39 foreign key (drug_id) references Drugs (id);
+alter table Prescriptions add constraint FKi1h7to4b8vxx29dfwle02tog4 foreign key (patient) references Users (username);
+alter table Prescriptions add constraint FKrsxs0bi9ex3q6jl99hg38iyak foreign key (pharmacy_id) references Pharmacies (name);
+alter table Prescriptions add constraint FKkhctha3d1ti34dbaplmn8tsyk foreign key (prescriptions_id) references GeneralCheckups (id);
+alter table QualitativeLOINCResult_resultEntries add constraint FKj5v90k5cus9qwi7s21n9q77ct foreign key (icd_id) references ICDCodes (id);
+alter table QualitativeLOINCResult_resultEntries add constraint FKt20aq6o1nrhhtoimh35a912hj foreign key (QualitativeLOINCResult_id) references LOINCResult (id);
+alter table QuantitativeLOINCResult_resultRanges add constraint FKegy2iicpobqfn9fkwqbwhtvok foreign key (icd_id) references ICDCodes (id);
+alter table QuantitativeLOINCResult_resultRanges add constraint FK8bxt649q99k8cxq5jjxigo3ip foreign key (QuantitativeLOINCResult_id) references LOINCResult (id);
+alter table Users add constraint FK4iiwb5mm0vgw4kirofnojj87o foreign key (pharmacy_id) references Pharmacies (name);
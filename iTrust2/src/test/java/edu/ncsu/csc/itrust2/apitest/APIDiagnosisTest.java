@@ -1,5 +1,6 @@
 package edu.ncsu.csc.itrust2.apitest;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestBuilders.formLogin;
@@ -9,6 +10,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -42,6 +44,7 @@ import edu.ncsu.csc.itrust2.models.persistent.Hospital;
 import edu.ncsu.csc.itrust2.models.persistent.ICDCode;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.mvc.config.WebMvcConfiguration;
+import edu.ncsu.csc.itrust2.utils.StatementCounter;
 
 @RunWith ( SpringJUnit4ClassRunner.class )
 @ContextConfiguration ( classes = { RootConfiguration.class, WebMvcConfiguration.class } )
@@ -193,6 +196,17 @@ public class APIDiagnosisTest {
         }
         assertTrue( flag );
 
+        // the history is read in one query, and can be narrowed by date and
+        // code
+        final User self = User.getByName( "patient" );
+        final long before = StatementCounter.getCount();
+        assertEquals( forPatient.size(), Diagnosis.getHistory( self, null, null, null ).size() );
+        assertEquals( 1, StatementCounter.getCount() - before );
+        final ZonedDateTime visitDate = ZonedDateTime.parse( "2048-04-16T09:50:00.000-04:00" );
+        assertEquals( 2, Diagnosis.getHistory( self, visitDate, visitDate.plusDays( 1 ), "T1" ).size() );
+        assertTrue( Diagnosis.getHistory( self, visitDate.plusDays( 1 ), null, null ).isEmpty() );
+        assertTrue( Diagnosis.getHistory( self, null, null, "Z" ).isEmpty() );
+
         // edit a diagnosis within the editing of office visit and check they
         // work.
         form.setId( visit.getId() + "" );
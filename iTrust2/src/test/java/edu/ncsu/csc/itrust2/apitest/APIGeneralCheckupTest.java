@@ -48,6 +48,7 @@ import edu.ncsu.csc.itrust2.models.persistent.OfficeVisit;
 import edu.ncsu.csc.itrust2.models.persistent.Patient;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.mvc.config.WebMvcConfiguration;
+import edu.ncsu.csc.itrust2.utils.StatementCounter;
 
 /**
  * Test for the API functionality for interacting with office visits
@@ -443,4 +444,63 @@ public class APIGeneralCheckupTest {
 
     }
 
+    /**
+     * Checks how many queries the office visit endpoints make, so that
+     * loading a visit or a list of visits does not go back to making a query
+     * per related record. Audit log entries are written on another thread and
+     * are not counted.
+     *
+     * @throws Exception
+     */
+    @Test
+    @WithMockUser ( username = "hcp", roles = { "HCP" } )
+    public void testOfficeVisitQueryCounts () throws Exception {
+        final UserForm hcp = new UserForm( "hcp", "123456", Role.ROLE_HCP, 1 );
+        mvc.perform( post( "/api/v1/users" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( hcp ) ) );
+        final UserForm patient = new UserForm( "patient", "123456", Role.ROLE_PATIENT, 1 );
+        mvc.perform( post( "/api/v1/users" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( patient ) ) );
+        final Hospital hospital = new Hospital( "iTrust Test Hospital 2", "1 iTrust Test Street", "27607", "NC" );
+        mvc.perform( post( "/api/v1/hospitals" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( hospital ) ) );
+
+        mvc.perform( delete( "/api/v1/officevisits" ) );
+        final GeneralCheckupForm visit = new GeneralCheckupForm();
+        visit.setDate( "2048-04-16T09:50:00.000-04:00" );
+        visit.setHcp( "hcp" );
+        visit.setPatient( "patient" );
+        visit.setNotes( "Test office visit" );
+        visit.setType( AppointmentType.GENERAL_CHECKUP.toString() );
+        visit.setHospital( "iTrust Test Hospital 2" );
+        for ( int i = 0; i < 3; i++ ) {
+            mvc.perform( post( "/api/v1/generalcheckups" ).contentType( MediaType.APPLICATION_JSON )
+                    .content( TestUtils.asJsonString( visit ) ) ).andExpect( status().isOk() );
+        }
+        final Long id = OfficeVisit.getForPatient( "patient" ).get( 0 ).getId();
+
+        // The visits and then the prescriptions for all of them
+        long before = StatementCounter.getCount();
+        mvc.perform( get( "/api/v1/officevisits" ) ).andExpect( status().isOk() );
+        assertTrue( StatementCounter.getCount() - before <= 2 );
+
+        // The HCP, then as above
+        before = StatementCounter.getCount();
+        mvc.perform( get( "/api/v1/officevisits/HCP" ) ).andExpect( status().isOk() );
+        assertTrue( StatementCounter.getCount() - before <= 3 );
+
+        // The HCP, the visit and its prescriptions
+        before = StatementCounter.getCount();
+        mvc.perform( get( "/api/v1/generalcheckups/" + id ) ).andExpect( status().isOk() );
+        assertTrue( StatementCounter.getCount() - before <= 3 );
+
+        // Only whether the visit exists
+        before = StatementCounter.getCount();
+        mvc.perform( post( "/api/v1/generalcheckups/hcp/view/" + id ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( visit ) ) ).andExpect( status().isOk() );
+        assertEquals( 1, StatementCounter.getCount() - before );
+
+        mvc.perform( delete( "/api/v1/officevisits" ) );
+    }
+
 }
@@ -1,6 +1,10 @@
 package edu.ncsu.csc.itrust2.apitest;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.time.LocalDate;
@@ -22,6 +26,7 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 
 import edu.ncsu.csc.itrust2.config.RootConfiguration;
 import edu.ncsu.csc.itrust2.controllers.api.comm.LogEntryRequestBody;
@@ -30,6 +35,7 @@ import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.mvc.config.WebMvcConfiguration;
+import edu.ncsu.csc.itrust2.utils.LoggerUtil;
 
 /**
  * Test for API functionality for interacting with log entries.
@@ -103,4 +109,36 @@ public class APILogEntryTest {
                 .contentType( MediaType.APPLICATION_JSON ) ).andExpect( status().isOk() );
     }
 
+    /**
+     * Tests exporting a user's audit trail as CSV and NDJSON
+     */
+    @WithMockUser ( username = "admin", roles = { "USER", "ADMIN" } )
+    @Test
+    public void testExport () throws Exception {
+        for ( int i = 0; i < 3; i++ ) {
+            LoggerUtil.log( TransactionType.LOGIN_SUCCESS, "logExportUser", "export, \"quoted\" " + i );
+        }
+
+        final String csv = mvc.perform( get( "/api/v1/logentries/export" ).param( "user", "logExportUser" ) )
+                .andExpect( status().isOk() ).andExpect( content().contentTypeCompatibleWith( "text/csv" ) )
+                .andReturn().getResponse().getContentAsString();
+        final String[] rows = csv.split( "\r\n" );
+        assertEquals( "id,time,code,type,primaryUser,secondaryUser,message", rows[0] );
+        assertEquals( LogEntry.countForUser( "logExportUser", null, null, null ) + 1, rows.length );
+        assertTrue( rows[1].endsWith( ",logExportUser,,\"export, \"\"quoted\"\" 0\"" ) );
+
+        final String ndjson = mvc
+                .perform( get( "/api/v1/logentries/export" ).param( "user", "logExportUser" )
+                        .param( "format", "ndjson" ).param( "start", LocalDate.now().toString() ) )
+                .andExpect( status().isOk() ).andReturn().getResponse().getContentAsString();
+        final String[] lines = ndjson.split( "\n" );
+        assertTrue( lines.length >= 3 );
+        final JsonObject last = gson.fromJson( lines[lines.length - 1], JsonObject.class );
+        assertEquals( "logExportUser", last.get( "primaryUser" ).getAsString() );
+        assertEquals( "export, \"quoted\" 2", last.get( "message" ).getAsString() );
+
+        mvc.perform( get( "/api/v1/logentries/export" ).param( "format", "xml" ) )
+                .andExpect( status().isBadRequest() );
+    }
+
 }
@@ -0,0 +1,74 @@
+package edu.ncsu.csc.itrust2.apitest;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import edu.ncsu.csc.itrust2.config.RootConfiguration;
+import edu.ncsu.csc.itrust2.mvc.config.WebMvcConfiguration;
+
+/**
+ * Tests the endpoint reporting the system's metrics
+ */
+@RunWith ( SpringJUnit4ClassRunner.class )
+@ContextConfiguration ( classes = { RootConfiguration.class, WebMvcConfiguration.class } )
+@WebAppConfiguration
+public class APIMetricsTest {
+
+    private MockMvc               mvc;
+
+    @Autowired
+    private WebApplicationContext context;
+
+    /**
+     * Sets up test
+     */
+    @Before
+    public void setup () {
+        mvc = MockMvcBuilders.webAppContextSetup( context ).build();
+    }
+
+    /**
+     * An admin gets every component's statistics
+     *
+     * @throws Exception
+     */
+    @Test
+    @WithMockUser ( username = "admin", roles = { "USER", "ADMIN" } )
+    public void testMetrics () throws Exception {
+        mvc.perform( get( "/api/v1/metrics" ) ).andExpect( status().isOk() )
+                .andExpect( content().contentType( MediaType.APPLICATION_JSON_UTF8_VALUE ) )
+                .andExpect( jsonPath( "$.connectionPool" ).exists() ).andExpect( jsonPath( "$.caches" ).isArray() )
+                .andExpect( jsonPath( "$.auditLogWriter" ).exists() )
+                .andExpect( jsonPath( "$.auditExporter" ).exists() ).andExpect( jsonPath( "$.ipBlockList" ).exists() )
+                .andExpect( jsonPath( "$.userDetailsCache" ).exists() )
+                .andExpect( jsonPath( "$.passwordHasher" ).exists() )
+                .andExpect( jsonPath( "$.chartLoader" ).exists() );
+    }
+
+    /**
+     * Nobody else may see them
+     *
+     * @throws Exception
+     */
+    @Test
+    @WithMockUser ( username = "hcp", roles = { "USER", "HCP" } )
+    public void testMetricsForbidden () throws Exception {
+        mvc.perform( get( "/api/v1/metrics" ) ).andExpect( status().isForbidden() );
+    }
+
+}
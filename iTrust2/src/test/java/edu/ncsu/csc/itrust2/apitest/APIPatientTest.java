@@ -7,6 +7,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import org.junit.Before;
@@ -131,6 +132,19 @@ public class APIPatientTest {
         mvc.perform( put( "/api/v1/patients/badusername" ).contentType( MediaType.APPLICATION_JSON )
                 .content( TestUtils.asJsonString( patient ) ) ).andExpect( status().isConflict() );
 
+        // The chart has every section, even for a patient with no records
+        mvc.perform( get( "/api/v1/patients/antti/chart" ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.patient" ).value( "antti" ) )
+                .andExpect( jsonPath( "$.sections.officeVisits" ).isArray() )
+                .andExpect( jsonPath( "$.sections.prescriptions" ).isArray() )
+                .andExpect( jsonPath( "$.sections.diagnoses" ).isArray() )
+                .andExpect( jsonPath( "$.sections.labProcedures" ).isArray() )
+                .andExpect( jsonPath( "$.sections.bloodSugarDiary" ).isArray() )
+                .andExpect( jsonPath( "$.sections.foodDiary" ).isArray() )
+                .andExpect( jsonPath( "$.timings.diagnoses" ).exists() )
+                .andExpect( jsonPath( "$.missing" ).isEmpty() );
+        mvc.perform( get( "/api/v1/patients/badusername/chart" ) ).andExpect( status().isNotFound() );
+
         mvc.perform( delete( "/api/v1/patients" ) );
     }
 
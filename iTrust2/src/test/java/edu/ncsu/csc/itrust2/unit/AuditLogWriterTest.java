@@ -0,0 +1,207 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+import edu.ncsu.csc.itrust2.utils.AuditLogWriter;
+
+/**
+ * Tests the background audit log writer against a journal in a temporary
+ * directory. Entries are "saved" by recording their messages, so no database
+ * is needed.
+ */
+public class AuditLogWriterTest {
+
+    /** Directory holding the journal */
+    private File                       dir;
+
+    /** The journal */
+    private File                       journal;
+
+    /** Messages of the entries saved so far, in the order they were saved */
+    private final List<String>         saved   = Collections.synchronizedList( new ArrayList<String>() );
+
+    /** Writers to close after each test */
+    private final List<AuditLogWriter> writers = new ArrayList<AuditLogWriter>();
+
+    /** Counted down once the writer thread has started saving */
+    private final CountDownLatch       saving  = new CountDownLatch( 1 );
+
+    /** Held by the writer thread while saving, until counted down */
+    private CountDownLatch             release = new CountDownLatch( 0 );
+
+    @Before
+    public void setUp () throws IOException {
+        dir = Files.createTempDirectory( "audit-journal" ).toFile();
+        journal = new File( dir, "audit-journal.log" );
+    }
+
+    @After
+    public void tearDown () {
+        release.countDown();
+        for ( final AuditLogWriter writer : writers ) {
+            writer.close();
+        }
+        for ( final File f : dir.listFiles() ) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Entries journaled but never marked as saved are saved when the writer
+     * next starts, and only once
+     *
+     * @throws IOException
+     *             If the journal cannot be written
+     */
+    @Test
+    public void testReplay () throws IOException {
+        final String time = ZonedDateTime.now().toString();
+        Files.write( journal.toPath(), Arrays.asList( "E\t1\tLOGIN_SUCCESS\t" + time + "\treplayUser\t\\N\tsaved",
+                "E\t2\tLOGIN_SUCCESS\t" + time + "\treplayUser\t\\N\tunsaved\\ttab",
+                "A\t1",
+                "E\t3\tLOGIN_FAILURE\t" + time + "\treplayUser\tother\t\\N",
+                "E\t4\tLOGIN_SUC" ), StandardCharsets.UTF_8 );
+
+        final AuditLogWriter writer = writer( 10 );
+        writer.start();
+        assertTrue( writer.flushAll() );
+        assertEquals( Arrays.asList( "unsaved\ttab", null ), saved );
+        writer.close();
+
+        // Starting again finds nothing left to save
+        final AuditLogWriter again = writer( 10 );
+        again.start();
+        assertTrue( again.flushAll() );
+        assertEquals( 2, saved.size() );
+    }
+
+    /**
+     * A caller waits for room in a full queue, and each caller's flush waits
+     * only for its own entries
+     *
+     * @throws Exception
+     *             If the waiting caller fails
+     */
+    @Test
+    public void testBackpressure () throws Exception {
+        final AuditLogWriter writer = writer( 2 );
+        release = new CountDownLatch( 1 );
+
+        // The writer takes the first entry and is held saving it, so the
+        // next two fill the queue
+        final long first = writer.write( entry( "first" ) );
+        assertTrue( saving.await( 5, TimeUnit.SECONDS ) );
+        writer.write( entry( "second" ) );
+        writer.write( entry( "third" ) );
+        assertEquals( 2, writer.getQueueDepth() );
+
+        final ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Long> waiting = other.submit( () -> writer.write( entry( "fourth" ) ) );
+            Thread.sleep( 200 );
+            assertEquals( 2, writer.getQueueDepth() );
+            release.countDown();
+
+            final long fourth = waiting.get( 5, TimeUnit.SECONDS );
+            assertTrue( fourth > first );
+            assertTrue( writer.flush( fourth ) );
+        }
+        finally {
+            other.shutdown();
+        }
+        assertTrue( writer.flush() );
+        assertEquals( Arrays.asList( "first", "second", "third", "fourth" ), saved );
+        assertEquals( 0, writer.getThrottled() );
+        assertEquals( 2, writer.getMaxQueueDepth() );
+    }
+
+    /**
+     * A caller that cannot get room in the queue in time saves its entry
+     * itself, and has nothing left to wait for
+     *
+     * @throws InterruptedException
+     *             If interrupted while waiting for the writer
+     */
+    @Test
+    public void testThrottled () throws InterruptedException {
+        final AuditLogWriter writer = writer( 1 );
+        release = new CountDownLatch( 1 );
+
+        writer.write( entry( "held" ) );
+        assertTrue( saving.await( 5, TimeUnit.SECONDS ) );
+        writer.write( entry( "queued" ) );
+
+        assertEquals( 0, writer.write( entry( "throttled" ) ) );
+        assertEquals( 1, writer.getThrottled() );
+        assertEquals( Collections.singletonList( "throttled" ), saved );
+
+        release.countDown();
+        assertTrue( writer.flushAll() );
+        assertEquals( Arrays.asList( "throttled", "held", "queued" ), saved );
+        assertEquals( 2, writer.getWritten() );
+    }
+
+    /**
+     * Creates a writer over the journal that records what it saves, holding
+     * its background thread until {@link #release} is counted down
+     *
+     * @param capacity
+     *            Most entries that can wait in the queue
+     * @return The writer
+     */
+    private AuditLogWriter writer ( final int capacity ) {
+        final Consumer<List<LogEntry>> saver = entries -> {
+            if ( "AuditLogWriter".equals( Thread.currentThread().getName() ) ) {
+                saving.countDown();
+                try {
+                    release.await();
+                }
+                catch ( final InterruptedException e ) {
+                    throw new IllegalStateException( e );
+                }
+            }
+            for ( final LogEntry e : entries ) {
+                saved.add( e.getMessage() );
+            }
+        };
+        final AuditLogWriter writer = new AuditLogWriter( journal, capacity, saver );
+        writers.add( writer );
+        return writer;
+    }
+
+    /**
+     * Creates an entry to log
+     *
+     * @param message
+     *            Message of the entry
+     * @return The entry
+     */
+    private static LogEntry entry ( final String message ) {
+        return new LogEntry( TransactionType.LOGIN_SUCCESS, "auditWriterUser", null, message );
+    }
+
+}
@@ -1,19 +1,32 @@
 package edu.ncsu.csc.itrust2.unit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import org.hibernate.Session;
 import org.junit.Test;
 
+import edu.ncsu.csc.itrust2.models.enums.Role;
+import edu.ncsu.csc.itrust2.models.enums.Specialty;
 import edu.ncsu.csc.itrust2.models.enums.State;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.DomainObject;
 import edu.ncsu.csc.itrust2.models.persistent.Hospital;
 import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+import edu.ncsu.csc.itrust2.models.persistent.Personnel;
 import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.HibernateUtil;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
 
 public class DomainObjectTest {
 
@@ -93,4 +106,263 @@ public class DomainObjectTest {
         assertNotNull( DomainObject.getBy( User.class, "username", "hcp" ) );
     }
 
+    @Test
+    public void testUnitOfWork () {
+        final String name = "iTrust Test Hospital 3: Unit of Work";
+        final Hospital existing = Hospital.getByName( name );
+        if ( null != existing ) {
+            existing.delete();
+        }
+
+        // Rolled back work is never seen outside of the unit of work
+        UnitOfWork.begin();
+        try {
+            final Hospital h = new Hospital();
+            h.setAddress( "1 Rollback Road, Raleigh" );
+            h.setState( State.NC );
+            h.setZip( "27607" );
+            h.setName( name );
+            h.save();
+
+            // Same session, so the same instance comes back
+            assertSame( h, Hospital.getById( Hospital.class, name ) );
+        }
+        finally {
+            UnitOfWork.end( false );
+        }
+        assertNull( Hospital.getByName( name ) );
+
+        // Committed work is
+        UnitOfWork.begin();
+        try {
+            final Hospital h = new Hospital();
+            h.setAddress( "2 Commit Court, Raleigh" );
+            h.setState( State.NC );
+            h.setZip( "27607" );
+            h.setName( name );
+            h.save();
+
+            // Changing a retrieved object does nothing until it is saved
+            final Hospital retrieved = Hospital.getByName( name );
+            retrieved.setAddress( "3 Unsaved Street, Raleigh" );
+        }
+        finally {
+            UnitOfWork.end( true );
+        }
+        final Hospital retrieved = Hospital.getByName( name );
+        assertNotNull( retrieved );
+        assertEquals( "2 Commit Court, Raleigh", retrieved.getAddress() );
+        retrieved.delete();
+
+        // Work committed part way through stays committed
+        UnitOfWork.begin();
+        try {
+            new Hospital( name, "4 Early Exit, Raleigh", "27607", "NC" ).save();
+            UnitOfWork.commit();
+            assertNotNull( Hospital.getByName( name ) );
+        }
+        finally {
+            UnitOfWork.end( false );
+        }
+        final Hospital early = Hospital.getByName( name );
+        assertNotNull( early );
+        early.delete();
+
+        // Once rolled back, nothing more can be done on the unit of work
+        UnitOfWork.begin();
+        try {
+            UnitOfWork.fail();
+            Hospital.getByName( name );
+            fail( "Database work after a rollback should be refused" );
+        }
+        catch ( final IllegalStateException e ) {
+            // expected
+        }
+        finally {
+            UnitOfWork.end( true );
+        }
+    }
+
+    @Test
+    public void testSaveAll () {
+        final String prefix = "iTrust Test Hospital 5: Save All ";
+        for ( final Hospital h : Hospital.getHospitals() ) {
+            if ( h.getName().startsWith( prefix ) ) {
+                h.delete();
+            }
+        }
+
+        // More than two batches' worth, so that there is a partial batch too
+        final int count = 2 * HibernateUtil.getBatchSize() + 1;
+        final List<Hospital> inUnit = new ArrayList<Hospital>();
+        final List<Hospital> alone = new ArrayList<Hospital>();
+        for ( int i = 0; i < count; i++ ) {
+            inUnit.add( new Hospital( prefix + "A" + i, i + " Batch Boulevard, Raleigh", "27607", "NC" ) );
+            alone.add( new Hospital( prefix + "B" + i, i + " Batch Boulevard, Raleigh", "27607", "NC" ) );
+        }
+
+        // In a unit of work each batch is flushed and evicted, but nothing
+        // else the unit of work has loaded is dropped
+        UnitOfWork.begin();
+        try {
+            final Hospital keeper = new Hospital( prefix + "Keeper", "1 Batch Boulevard, Raleigh", "27607", "NC" );
+            keeper.save();
+            DomainObject.saveAll( inUnit );
+            final Session session = UnitOfWork.currentSession();
+            assertTrue( session.contains( keeper ) );
+            for ( final Hospital h : inUnit ) {
+                assertFalse( session.contains( h ) );
+            }
+        }
+        finally {
+            UnitOfWork.end( true );
+        }
+
+        // On its own, saveAll commits everything itself
+        DomainObject.saveAll( alone );
+
+        int saved = 0;
+        for ( final Hospital h : Hospital.getHospitals() ) {
+            if ( h.getName().startsWith( prefix ) ) {
+                saved++;
+                h.delete();
+            }
+        }
+        assertEquals( 2 * count + 1, saved );
+    }
+
+    @Test
+    public void testUpdateWhere () {
+        final String name = "iTrust Test Hospital 6: Update Where";
+        final Hospital existing = Hospital.getByName( name );
+        if ( null != existing ) {
+            existing.delete();
+        }
+
+        User user = User.getByName( "updateWhereHcp" );
+        if ( null == user ) {
+            user = new User( "updateWhereHcp", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
+                    Role.ROLE_HCP, 1 );
+            user.save();
+        }
+        Personnel staff = Personnel.getByName( user );
+        if ( null == staff ) {
+            staff = new Personnel();
+            staff.setSelf( user );
+            staff.setEnabled( true );
+            staff.setFirstName( "Bulk" );
+            staff.setLastName( "Update" );
+            staff.setAddress1( "1 Bulk Boulevard" );
+            staff.setCity( "Raleigh" );
+            staff.setState( State.NC );
+            staff.setZip( "27607" );
+            staff.setPhone( "111-111-1111" );
+            staff.setSpecialty( Specialty.DERMATOLOGIST );
+            staff.setEmail( "updateWhereHcp@itrust.com" );
+        }
+
+        for ( final boolean inUnit : new boolean[] { false, true } ) {
+            new Hospital( name, "1 Bulk Boulevard, Raleigh", "27607", "NC" ).save();
+            staff.setHospitalId( name );
+            staff.save();
+
+            if ( inUnit ) {
+                UnitOfWork.begin();
+            }
+            try {
+                // Read twice, so that it is in the second-level and query
+                // caches, or in the unit of work's session
+                assertEquals( name, Personnel.getByName( user ).getHospitalId() );
+                final Long id = Personnel.getByName( user ).getId();
+                assertEquals( name, ( (Personnel) DomainObject.getById( Personnel.class, id ) ).getHospitalId() );
+
+                // Deleting the hospital takes it off its staff with one bulk
+                // update, which must not leave a stale copy behind anywhere
+                Hospital.getByName( name ).delete();
+                assertNull( Personnel.getByName( user ).getHospitalId() );
+                assertNull( ( (Personnel) DomainObject.getById( Personnel.class, id ) ).getHospitalId() );
+            }
+            finally {
+                if ( inUnit ) {
+                    UnitOfWork.end( true );
+                }
+            }
+            assertNull( Personnel.getByName( user ).getHospitalId() );
+            staff = Personnel.getByName( user );
+        }
+    }
+
+    @Test
+    public void testAtomically () {
+        final String name = "iTrust Test Hospital 4: Atomically";
+        final Hospital existing = Hospital.getByName( name );
+        if ( null != existing ) {
+            existing.delete();
+        }
+        final List<String> effects = new ArrayList<String>();
+
+        // Work that throws is rolled back, and its side effects are dropped
+        try {
+            UnitOfWork.atomically( () -> {
+                final Hospital h = new Hospital( name, "1 Rollback Road, Raleigh", "27607", "NC" );
+                h.save();
+                UnitOfWork.afterCommit( () -> effects.add( "rolled back" ) );
+                throw new IllegalStateException( "Halfway through" );
+            } );
+            fail( "The exception should have been passed on" );
+        }
+        catch ( final IllegalStateException e ) {
+            assertEquals( "Halfway through", e.getMessage() );
+        }
+        assertNull( Hospital.getByName( name ) );
+        assertTrue( effects.isEmpty() );
+
+        // Side effects of work that succeeds wait until it is committed
+        final Hospital saved = UnitOfWork.atomically( () -> {
+            final Hospital h = new Hospital( name, "2 Commit Court, Raleigh", "27607", "NC" );
+            h.save();
+            UnitOfWork.afterCommit( () -> effects.add( "committed" ) );
+            assertTrue( effects.isEmpty() );
+            return h;
+        } );
+        assertEquals( Arrays.asList( "committed" ), effects );
+        assertNotNull( Hospital.getByName( name ) );
+        saved.delete();
+
+        // Outside of a unit of work, side effects run straight away
+        UnitOfWork.afterCommit( () -> effects.add( "now" ) );
+        assertEquals( Arrays.asList( "committed", "now" ), effects );
+        effects.clear();
+
+        // In a unit of work they wait for it to commit, even outside of
+        // atomically, and are dropped if it is rolled back
+        UnitOfWork.begin();
+        try {
+            UnitOfWork.afterCommit( () -> effects.add( "request" ) );
+            assertTrue( effects.isEmpty() );
+            UnitOfWork.commit();
+            assertEquals( Arrays.asList( "request" ), effects );
+            UnitOfWork.afterCommit( () -> effects.add( "dropped" ) );
+        }
+        finally {
+            UnitOfWork.end( false );
+        }
+        assertEquals( Arrays.asList( "request" ), effects );
+
+        // Work cannot join a unit of work that has already been rolled back
+        UnitOfWork.begin();
+        try {
+            UnitOfWork.fail();
+            UnitOfWork.atomically( () -> effects.add( "never" ) );
+            fail( "Work on a rolled back unit of work should be refused" );
+        }
+        catch ( final IllegalStateException e ) {
+            // expected
+        }
+        finally {
+            UnitOfWork.end( true );
+        }
+        assertEquals( Arrays.asList( "request" ), effects );
+    }
+
 }
@@ -1,13 +1,20 @@
 package edu.ncsu.csc.itrust2.unit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
 
 import javax.mail.MessagingException;
 
 import org.junit.Test;
 
+import edu.ncsu.csc.itrust2.models.persistent.OutboxEmail;
+import edu.ncsu.csc.itrust2.utils.EmailDispatcher;
 import edu.ncsu.csc.itrust2.utils.EmailUtil;
+import edu.ncsu.csc.itrust2.utils.SmtpStub;
 
 /**
  * Test the EmailUtil class
@@ -33,4 +40,35 @@ public class EmailUtilTest {
         assertNotNull( a );
     }
 
+    /**
+     * Emails are queued in the outbox and sent by the dispatcher, several over
+     * one connection to the mail server
+     */
+    @Test
+    public void testOutbox () throws Exception {
+        try ( SmtpStub smtp = new SmtpStub() ) {
+            final Properties props = new Properties();
+            props.setProperty( "host", "localhost" );
+            props.setProperty( "port", Integer.toString( smtp.getPort() ) );
+            props.setProperty( "starttls", "false" );
+            props.setProperty( "from", "itrust2@localhost" );
+            props.setProperty( "username", "itrust2" );
+            props.setProperty( "password", "itrust2" );
+            EmailUtil.setEmailProperties( props );
+
+            EmailUtil.sendEmail( "patient@localhost", "iTrust2: Outbox One", "First" );
+            EmailUtil.sendEmail( "patient@localhost", "iTrust2: Outbox Two", "Second" );
+            assertTrue( OutboxEmail.countPending() >= 2 );
+
+            assertTrue( EmailDispatcher.getInstance().runOnce() >= 2 );
+            assertEquals( 0, OutboxEmail.countPending() );
+            assertEquals( 1, smtp.getConnections() );
+            assertTrue( smtp.getMessages().stream().anyMatch( m -> m.contains( "Subject: iTrust2: Outbox One" ) ) );
+            assertTrue( smtp.getMessages().stream().anyMatch( m -> m.contains( "Subject: iTrust2: Outbox Two" ) ) );
+        }
+        finally {
+            EmailUtil.reloadEmailProperties();
+        }
+    }
+
 }
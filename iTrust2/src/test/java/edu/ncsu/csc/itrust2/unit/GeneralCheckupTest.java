@@ -1,6 +1,8 @@
 package edu.ncsu.csc.itrust2.unit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.text.ParseException;
 import java.time.LocalDate;
@@ -194,6 +196,59 @@ public class GeneralCheckupTest {
         visit.delete();
     }
 
+    @Test
+    public void testDeleteAllUnlinksPrescriptions () {
+        GeneralCheckup.deleteAll();
+
+        final Hospital hosp = new Hospital( "Dr. Jenkins' Insane Asylum", "123 Main St", "12345", "NC" );
+        hosp.save();
+
+        final BasicHealthMetrics bhm = new BasicHealthMetrics();
+        bhm.setHcp( User.getByName( "hcp" ) );
+        bhm.setPatient( User.getByName( "AliceThirteen" ) );
+        bhm.setHeight( 75f );
+        bhm.setWeight( 130f );
+        bhm.setHouseSmokingStatus( HouseholdSmokingStatus.NONSMOKING );
+        bhm.setPatientSmokingStatus( PatientSmokingStatus.NEVER );
+        bhm.save();
+
+        Drug drug = Drug.getByCode( "1234-4321-90" );
+        if ( null == drug ) {
+            drug = new Drug();
+            drug.setCode( "1234-4321-90" );
+            drug.setDescription( "Lithium Compounds" );
+            drug.setName( "Li2O9" );
+            drug.setGenericName( "Li209" );
+            drug.save();
+        }
+
+        final Prescription pres = new Prescription();
+        pres.setDosage( 3 );
+        pres.setDrug( drug );
+        pres.setEndDate( LocalDate.now().plusDays( 10 ) );
+        pres.setPatient( User.getByName( "AliceThirteen" ) );
+        pres.setStartDate( LocalDate.now() );
+        pres.setRenewals( 5 );
+        pres.save();
+
+        final GeneralCheckup visit = new GeneralCheckup();
+        visit.setBasicHealthMetrics( bhm );
+        visit.setType( AppointmentType.GENERAL_CHECKUP );
+        visit.setHospital( hosp );
+        visit.setPatient( User.getByName( "AliceThirteen" ) );
+        visit.setHcp( User.getByName( "hcp" ) );
+        visit.setDate( ZonedDateTime.now() );
+        visit.setPrescriptions( Collections.singletonList( pres ) );
+        visit.save();
+
+        // The prescription's link to the visit is cleared, not left dangling
+        GeneralCheckup.deleteAll();
+        assertNull( GeneralCheckup.getById( visit.getId() ) );
+        assertNotNull( Prescription.getById( pres.getId() ) );
+
+        pres.delete();
+    }
+
     @Test
     public void testGeneralCheckupForm () throws NumberFormatException, ParseException {
         final GeneralCheckupForm visit = new GeneralCheckupForm();
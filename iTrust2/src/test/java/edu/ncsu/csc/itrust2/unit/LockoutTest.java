@@ -8,6 +8,7 @@ import static org.junit.Assert.assertTrue;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
 
@@ -16,6 +17,9 @@ import edu.ncsu.csc.itrust2.models.persistent.LoginAttempt;
 import edu.ncsu.csc.itrust2.models.persistent.LoginBan;
 import edu.ncsu.csc.itrust2.models.persistent.LoginLockout;
 import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.IPBlockList;
+import edu.ncsu.csc.itrust2.utils.LoginFailureTracker;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
 
 public class LockoutTest {
 
@@ -41,19 +45,15 @@ public class LockoutTest {
         assertFalse( LoginLockout.isUserLocked( user ) );
         assertFalse( LoginBan.isUserBanned( user ) );
 
-        LoginAttempt attempt = new LoginAttempt();
-        attempt.setTime( ZonedDateTime.now() );
-        attempt.setUser( user );
-        attempt.save();
+        assertEquals( 1, LoginAttempt.recordUserFailure( user ) );
         assertEquals( 1, LoginAttempt.getUserFailures( user ) );
         assertFalse( LoginLockout.isUserLocked( user ) );
-        attempt = new LoginAttempt();
-        attempt.setTime( ZonedDateTime.now() );
-        attempt.setUser( user );
-        attempt.save();
+        assertEquals( 2, LoginAttempt.recordUserFailure( user ) );
         assertEquals( 2, LoginAttempt.getUserFailures( user ) );
         LoginAttempt.clearUser( user );
 
+        final LoginAttempt attempt = new LoginAttempt();
+        attempt.setUser( user );
         assertNull( attempt.getIp() );
 
         LoginLockout lockout = new LoginLockout();
@@ -98,19 +98,15 @@ public class LockoutTest {
         assertFalse( LoginLockout.isIPLocked( ip ) );
         assertFalse( LoginBan.isIPBanned( ip ) );
 
-        LoginAttempt attempt = new LoginAttempt();
-        attempt.setTime( ZonedDateTime.now() );
-        attempt.setIp( ip );
-        attempt.save();
+        assertEquals( 1, LoginAttempt.recordIPFailure( ip ) );
         assertEquals( 1, LoginAttempt.getIPFailures( ip ) );
         assertFalse( LoginLockout.isIPLocked( ip ) );
-        attempt = new LoginAttempt();
-        attempt.setTime( ZonedDateTime.now() );
-        attempt.setIp( ip );
-        attempt.save();
+        assertEquals( 2, LoginAttempt.recordIPFailure( ip ) );
         assertEquals( 2, LoginAttempt.getIPFailures( ip ) );
         LoginAttempt.clearIP( ip );
 
+        final LoginAttempt attempt = new LoginAttempt();
+        attempt.setIp( ip );
         assertNull( attempt.getUser() );
 
         LoginLockout lockout = new LoginLockout();
@@ -120,12 +116,17 @@ public class LockoutTest {
         lockout.setTime( ZonedDateTime.now().minusMinutes( 61 ) );
         lockout.save();
         assertEquals( 0, LoginAttempt.getIPFailures( ip ) );
+        assertFalse( LoginLockout.isIPLocked( ip ) );
+        assertFalse( IPBlockList.getInstance().isLocked( ip ) );
         lockout = new LoginLockout();
         lockout.setTime( ZonedDateTime.now() );
         lockout.setIp( ip );
         lockout.save();
+        assertTrue( LoginLockout.isIPLocked( ip ) );
+        assertTrue( IPBlockList.getInstance().isLocked( ip ) );
         LoginLockout.clearIP( ip );
         assertFalse( LoginLockout.isIPLocked( ip ) );
+        assertFalse( IPBlockList.getInstance().isLocked( ip ) );
 
         assertNull( lockout.getUser() );
 
@@ -135,9 +136,111 @@ public class LockoutTest {
         ban.setTime( ZonedDateTime.ofInstant( Instant.ofEpochMilli( 0 ), ZoneOffset.UTC ) );
         ban.save();
         assertTrue( LoginBan.isIPBanned( ip ) );
+        assertTrue( IPBlockList.getInstance().isBanned( ip ) );
+        // Reloading keeps what is in the database
+        IPBlockList.getInstance().reload();
+        assertTrue( IPBlockList.getInstance().isBanned( ip ) );
         LoginBan.clearIP( ip );
         assertFalse( LoginBan.isIPBanned( ip ) );
+        assertFalse( IPBlockList.getInstance().isBanned( ip ) );
 
         assertNull( ban.getUser() );
+
+        // A ban rolled back with the rest of its request blocks nobody
+        UnitOfWork.begin();
+        try {
+            final LoginBan rolledBack = new LoginBan();
+            rolledBack.setIp( ip );
+            rolledBack.setTime( ZonedDateTime.now() );
+            rolledBack.save();
+        }
+        finally {
+            UnitOfWork.end( false );
+        }
+        assertFalse( LoginBan.isIPBanned( ip ) );
+        assertFalse( IPBlockList.getInstance().isBanned( ip ) );
+    }
+
+    @Test
+    public void testClearOnlyMatching () {
+        final String ip = "111.111.111.112";
+        final String otherIp = "111.111.111.113";
+        LoginBan.clearIP( ip );
+        LoginBan.clearIP( otherIp );
+
+        for ( final String addr : new String[] { ip, ip, otherIp } ) {
+            final LoginBan ban = new LoginBan();
+            ban.setIp( addr );
+            ban.setTime( ZonedDateTime.now() );
+            ban.save();
+        }
+
+        // Clearing one IP removes all of its bans and nothing else
+        LoginBan.clearIP( ip );
+        assertFalse( LoginBan.isIPBanned( ip ) );
+        assertTrue( LoginBan.isIPBanned( otherIp ) );
+
+        LoginBan.clearIP( otherIp );
+        assertFalse( LoginBan.isIPBanned( otherIp ) );
+    }
+
+    @Test
+    public void testFailureWindow () {
+        final AtomicLong now = new AtomicLong( 1000000 );
+        final LoginFailureTracker tracker = new LoginFailureTracker( 60000, 4, now::get );
+
+        assertEquals( 0, tracker.getFailures( "key" ) );
+        assertEquals( 1, tracker.recordFailure( "key" ) );
+        now.addAndGet( 30000 );
+        assertEquals( 2, tracker.recordFailure( "key" ) );
+        assertEquals( 1, tracker.recordFailure( "other" ) );
+
+        // The first failure falls out of the window
+        now.addAndGet( 30001 );
+        assertEquals( 1, tracker.getFailures( "key" ) );
+
+        // Never more than the capacity, however many failures
+        for ( int i = 0; i < 10; i++ ) {
+            tracker.recordFailure( "key" );
+        }
+        assertEquals( 4, tracker.getFailures( "key" ) );
+
+        // Keys with nothing left in the window are swept away
+        now.addAndGet( 60001 );
+        assertEquals( 0, tracker.getFailures( "key" ) );
+        assertEquals( 2, tracker.size() );
+        tracker.sweep();
+        assertEquals( 0, tracker.size() );
+
+        assertEquals( 1, tracker.recordFailure( "key" ) );
+        tracker.clear( "key" );
+        assertEquals( 0, tracker.getFailures( "key" ) );
+    }
+
+    /**
+     * Tests that a tracker never holds more keys than its limit, forgetting
+     * the least recently used first
+     */
+    @Test
+    public void testFailureKeyLimit () {
+        final AtomicLong now = new AtomicLong( 1000000 );
+        final LoginFailureTracker tracker = new LoginFailureTracker( 60000, 4, 3, now::get );
+
+        tracker.recordFailure( "a" );
+        tracker.recordFailure( "b" );
+        tracker.recordFailure( "c" );
+        assertEquals( 2, tracker.recordFailure( "a" ) );
+
+        // A flood of new keys pushes out the ones not seen for longest
+        tracker.recordFailure( "d" );
+        assertEquals( 3, tracker.size() );
+        assertEquals( 0, tracker.getFailures( "b" ) );
+        assertEquals( 2, tracker.getFailures( "a" ) );
+        for ( int i = 0; i < 100; i++ ) {
+            tracker.recordFailure( "flood" + i );
+        }
+        assertEquals( 3, tracker.size() );
+        assertEquals( 0, tracker.getFailures( "a" ) );
+        assertEquals( 1, tracker.getFailures( "flood99" ) );
     }
 }
@@ -2,13 +2,25 @@ package edu.ncsu.csc.itrust2.unit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.junit.Test;
 
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
 import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.AuditLogWriter;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
 
 /**
  * Unit tests for the LoggerUtil and LogEntry classes
@@ -66,4 +78,181 @@ public class LogTest {
         assertEquals( null, sameUserEntry.getSecondaryUser() );
 
     }
+
+    /**
+     * Tests paging through a user's log by cursor and by page number
+     */
+    @Test
+    public void testPaging () {
+        for ( int i = 0; i < 5; i++ ) {
+            LoggerUtil.log( TransactionType.LOGIN_SUCCESS, "logPagingUser", "paging entry " + i );
+        }
+        LoggerUtil.log( TransactionType.CREATE_HOSPITAL, "logPagingUser" );
+
+        final long total = LogEntry.countForUser( "logPagingUser", null, null, null );
+        assertEquals( LogEntry.getAllForUser( "logPagingUser" ).size(), total );
+
+        // Walking the pages by cursor visits every entry once, newest first
+        final List<LogEntry> walked = new ArrayList<LogEntry>();
+        String cursor = null;
+        List<LogEntry> page;
+        do {
+            page = LogEntry.getPageForUser( "logPagingUser", null, null, null, cursor, 4 );
+            assertTrue( page.size() <= 4 );
+            walked.addAll( page );
+            cursor = page.isEmpty() ? null : page.get( page.size() - 1 ).getCursor();
+        }
+        while ( !page.isEmpty() );
+        assertEquals( total, walked.size() );
+        for ( int i = 1; i < walked.size(); i++ ) {
+            assertTrue( !walked.get( i ).getTime().isAfter( walked.get( i - 1 ).getTime() ) );
+        }
+
+        // Page numbers give the same pages
+        assertEquals( walked.get( 4 ).getId(),
+                LogEntry.getPageForUser( "logPagingUser", null, null, null, 2, 4 ).get( 0 ).getId() );
+
+        // Filtering by type
+        final List<TransactionType> types = Collections.singletonList( TransactionType.CREATE_HOSPITAL );
+        assertTrue( LogEntry.countForUser( "logPagingUser", null, null, types ) >= 1 );
+        for ( final LogEntry le : LogEntry.getPageForUser( "logPagingUser", null, null, types, 1, 10 ) ) {
+            assertEquals( TransactionType.CREATE_HOSPITAL, le.getLogCode() );
+        }
+
+        try {
+            LogEntry.getPageForUser( "logPagingUser", null, null, null, "not a cursor", 4 );
+            fail( "An invalid cursor should be rejected" );
+        }
+        catch ( final IllegalArgumentException e ) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that entries moved into the archive can still be found through
+     * LogEntry, together with the ones still in the table. Only this test's
+     * own entries are archived, into an archive of its own.
+     *
+     * @throws IOException
+     *             If the temporary archive cannot be created
+     */
+    @Test
+    public void testArchive () throws IOException {
+        final String user = "logArchiveUser" + System.nanoTime();
+        final File dir = Files.createTempDirectory( "audit-archive" ).toFile();
+        LogEntry.setArchiveDirectory( dir );
+        try {
+            final ZonedDateTime longAgo = ZonedDateTime.now().minusYears( 3 );
+            for ( int i = 0; i < 3; i++ ) {
+                final LogEntry old = new LogEntry( TransactionType.LOGIN_SUCCESS, user, null, "archived entry " + i );
+                old.setTime( longAgo.plusMinutes( i ) );
+                old.save();
+            }
+            new LogEntry( TransactionType.LOGIN_SUCCESS, user, null, "recent entry" ).save();
+            assertEquals( 4, LogEntry.getAllForUser( user ).size() );
+
+            assertEquals( 3, LogEntry.archiveBefore( ZonedDateTime.now().minusYears( 1 ), user ) );
+            // Nothing left to move
+            assertEquals( 0, LogEntry.archiveBefore( ZonedDateTime.now().minusYears( 1 ), user ) );
+
+            final List<LogEntry> all = LogEntry.getAllForUser( user );
+            assertEquals( 4, all.size() );
+            assertEquals( 4, LogEntry.countForUser( user, null, null, null ) );
+
+            // Newest first across both tiers, whether paging by cursor or
+            // number
+            final List<LogEntry> first = LogEntry.getPageForUser( user, null, null, null, null, 2 );
+            assertEquals( 2, first.size() );
+            assertEquals( "recent entry", first.get( 0 ).getMessage() );
+            final List<LogEntry> second = LogEntry.getPageForUser( user, null, null, null,
+                    first.get( 1 ).getCursor(), 2 );
+            assertEquals( second.get( 0 ).getId(),
+                    LogEntry.getPageForUser( user, null, null, null, 2, 2 ).get( 0 ).getId() );
+            assertTrue( second.get( 0 ).getTime().isBefore( first.get( 1 ).getTime() ) );
+
+            // Oldest first, from the archive and then the table
+            final List<LogEntry> top = LogEntry.getTopForUser( user, 4 );
+            assertEquals( "archived entry 0", top.get( 0 ).getMessage() );
+            assertEquals( "recent entry", top.get( 3 ).getMessage() );
+            final LogEntry archived = LogEntry.getTopForUser( user, 1 ).get( 0 );
+            assertEquals( "archived entry 0", archived.getMessage() );
+            assertEquals( archived.getMessage(), LogEntry.getById( archived.getId() ).getMessage() );
+            assertEquals( 3, LogEntry.countForUser( user, longAgo.minusDays( 1 ), longAgo.plusDays( 1 ), null ) );
+
+            // Move the recent entry too, so that nothing is left behind once
+            // the archive is deleted
+            assertEquals( 1, LogEntry.archiveBefore( ZonedDateTime.now().plusDays( 1 ), user ) );
+        }
+        finally {
+            LogEntry.setArchiveDirectory( null );
+            for ( final File f : dir.listFiles() ) {
+                f.delete();
+            }
+            dir.delete();
+        }
+        assertTrue( LogEntry.getAllForUser( user ).isEmpty() );
+    }
+
+    /**
+     * Tests that a request rolled back after an error still leaves its log
+     * entries behind, but atomic work that is rolled back does not
+     */
+    @Test
+    public void testRolledBack () {
+        final int initialEntries = LoggerUtil.getAllForUser( "logRollbackUser" ).size();
+
+        UnitOfWork.begin();
+        try {
+            LoggerUtil.log( TransactionType.LOGIN_SUCCESS, "logRollbackUser", "attempted" );
+            try {
+                UnitOfWork.atomically( () -> {
+                    LoggerUtil.log( TransactionType.LOGIN_SUCCESS, "logRollbackUser", "never happened" );
+                    throw new IllegalStateException( "Halfway through" );
+                } );
+                fail( "The exception should have been passed on" );
+            }
+            catch ( final IllegalStateException e ) {
+                assertEquals( "Halfway through", e.getMessage() );
+            }
+        }
+        finally {
+            UnitOfWork.end( false );
+        }
+
+        assertTrue( LoggerUtil.flush() );
+        final List<LogEntry> entries = LoggerUtil.getAllForUser( "logRollbackUser" );
+        assertEquals( 1, entries.size() - initialEntries );
+        assertTrue( entries.stream().noneMatch( e -> "never happened".equals( e.getMessage() ) ) );
+    }
+
+    /**
+     * Tests that entries saved in the background all reach the database, and
+     * that the synchronous mode saves them straight away
+     */
+    @Test
+    public void testBackgroundWriter () {
+        final AuditLogWriter writer = AuditLogWriter.getInstance();
+        final int initialEntries = LoggerUtil.getAllForUser( "logBatchUser" ).size();
+        final long initialWritten = writer.getWritten();
+
+        for ( int i = 0; i < 20; i++ ) {
+            LoggerUtil.log( TransactionType.LOGIN_SUCCESS, "logBatchUser", "background entry " + i );
+        }
+        assertTrue( LoggerUtil.flush() );
+        assertEquals( 0, writer.getQueueDepth() );
+        assertTrue( writer.getWritten() - initialWritten >= 20 );
+        assertEquals( 20, LoggerUtil.getAllForUser( "logBatchUser" ).size() - initialEntries );
+
+        writer.setSynchronous( true );
+        try {
+            final long written = writer.getWritten();
+            LoggerUtil.log( TransactionType.LOGIN_SUCCESS, "logBatchUser", "synchronous entry" );
+            assertEquals( 0, writer.getQueueDepth() );
+            assertEquals( written, writer.getWritten() );
+            assertEquals( 21, LoggerUtil.getAllForUser( "logBatchUser" ).size() - initialEntries );
+        }
+        finally {
+            writer.setSynchronous( false );
+        }
+    }
 }
@@ -1,9 +1,12 @@
 package edu.ncsu.csc.itrust2.unit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.text.ParseException;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
 
 import org.junit.Test;
 
@@ -15,6 +18,7 @@ import edu.ncsu.csc.itrust2.models.enums.PatientSmokingStatus;
 import edu.ncsu.csc.itrust2.models.persistent.BasicHealthMetrics;
 import edu.ncsu.csc.itrust2.models.persistent.DomainObject;
 import edu.ncsu.csc.itrust2.models.persistent.Hospital;
+import edu.ncsu.csc.itrust2.models.persistent.OfficeVisit;
 import edu.ncsu.csc.itrust2.models.persistent.OphthalmologySurgery;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 
@@ -109,7 +113,16 @@ public class OphthalmologySurgeryTest {
 
         visit.save();
 
+        // Office visit lookups search every type of visit in one query
+        assertTrue( OfficeVisit.getById( visit.getId() ) instanceof OphthalmologySurgery );
+        assertTrue( OfficeVisit.existsById( visit.getId() ) );
+        assertTrue( OfficeVisit
+                .getForTypes( Arrays.asList( AppointmentType.GENERAL_CHECKUP, AppointmentType.OPHTHALMOLOGY_SURGERY ) )
+                .contains( visit ) );
+        assertTrue( OfficeVisit.getForPatient( "AliceThirteen", 0, 100 ).contains( visit ) );
+
         visit.delete();
+        assertFalse( OfficeVisit.existsById( visit.getId() ) );
     }
 
     @Test
@@ -165,6 +165,7 @@ public class PassengerTest {
         assertEquals( 11, result[0] );
         assertEquals( 0, result[1] );
         assertEquals( 11, Passenger.getPassengers().size() );
+        assertEquals( 11, Passenger.getPassengerIds().size() );
 
         /* Test Duplicate Parse */
         Passenger.deleteAll();
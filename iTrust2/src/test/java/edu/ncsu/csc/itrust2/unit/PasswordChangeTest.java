@@ -1,6 +1,8 @@
 package edu.ncsu.csc.itrust2.unit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -11,6 +13,7 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import edu.ncsu.csc.itrust2.forms.personnel.PasswordChangeForm;
 import edu.ncsu.csc.itrust2.models.persistent.PasswordResetToken;
 import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.PasswordHasher;
 
 public class PasswordChangeTest {
 
@@ -173,4 +176,27 @@ public class PasswordChangeTest {
         }
     }
 
+    /**
+     * Tests hashing on the password pool, and that a password stored at a
+     * lower cost is hashed again at the current one once it matches
+     */
+    @Test
+    public void testPasswordHasher () {
+        final PasswordHasher hasher = PasswordHasher.getInstance();
+        final String hash = hasher.encode( "123456" );
+        assertTrue( hash.startsWith( String.format( "$2a$%02d$", hasher.getCost() ) ) );
+        assertTrue( hasher.matches( "123456", hash ) );
+        assertNull( PasswordHasher.takeRehash() );
+        assertFalse( hasher.matches( "654321", hash ) );
+
+        final String cheap = new BCryptPasswordEncoder( 4 ).encode( "123456" );
+        assertFalse( hasher.matches( "654321", cheap ) );
+        assertNull( PasswordHasher.takeRehash() );
+        assertTrue( hasher.matches( "123456", cheap ) );
+        final String rehash = PasswordHasher.takeRehash();
+        assertTrue( rehash.startsWith( String.format( "$2a$%02d$", hasher.getCost() ) ) );
+        assertTrue( pe.matches( "123456", rehash ) );
+        assertNull( PasswordHasher.takeRehash() );
+    }
+
 }
@@ -0,0 +1,241 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.utils.ReplicaRouter;
+
+/**
+ * Tests the routing of read-only work to read replicas. The databases are
+ * stand-ins that only answer the lag query, so no database server is needed.
+ */
+public class ReplicaRouterTest {
+
+    /** Lag query the stand-in replicas answer */
+    private static final String        LAG_QUERY = "SELECT lag";
+
+    /** Used to give each stand-in database a different name */
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    @Before
+    public void setUp () {
+        ReplicaRouter.forgetWrites();
+    }
+
+    @After
+    public void tearDown () {
+        // Go back to the router configured in db.properties
+        ReplicaRouter.setInstance( null );
+        ReplicaRouter.forgetWrites();
+    }
+
+    /**
+     * Reads are spread over every replica that is fresh enough, and only go
+     * to the primary when there is no replica to use
+     */
+    @Test
+    public void testChooseReplica () {
+        final DataSource primary = database( 0 );
+        final DataSource first = database( 0 );
+        final DataSource second = database( 1 );
+
+        assertNull( new ReplicaRouter( primary, Collections.emptyList(), 5000, LAG_QUERY, 0 ).chooseReplica() );
+
+        final ReplicaRouter router = new ReplicaRouter( primary, Arrays.asList( first, second ), 5000, LAG_QUERY,
+                60000 );
+        final DataSource a = router.chooseReplica();
+        final DataSource b = router.chooseReplica();
+        assertNotEquals( a, b );
+        assertEquals( a, router.chooseReplica() );
+
+        router.markFailed( first );
+        router.markFailed( second );
+        assertNull( router.chooseReplica() );
+    }
+
+    /**
+     * Replicas that are too far behind, not replicating, or unreachable are
+     * skipped
+     */
+    @Test
+    public void testStaleness () {
+        final DataSource primary = database( 0 );
+        final DataSource behind = database( 30 );
+        final DataSource stopped = database( null );
+        final DataSource down = database( new SQLException( "Connection refused" ) );
+        final DataSource current = database( 2 );
+
+        final ReplicaRouter router = new ReplicaRouter( primary, Arrays.asList( behind, stopped, down, current ), 5000,
+                LAG_QUERY, 60000 );
+        for ( int i = 0; i < 4; i++ ) {
+            assertSame( current, router.chooseReplica() );
+        }
+
+        final ReplicaRouter noneFresh = new ReplicaRouter( primary, Arrays.asList( behind, stopped, down ), 5000,
+                LAG_QUERY, 60000 );
+        assertNull( noneFresh.chooseReplica() );
+
+        // Without a lag query, any replica that can be reached is used
+        final ReplicaRouter unchecked = new ReplicaRouter( primary, Arrays.asList( behind, down ), 5000, null, 60000 );
+        assertSame( behind, unchecked.chooseReplica() );
+        assertSame( behind, unchecked.chooseReplica() );
+    }
+
+    /**
+     * Once a thread has written, its reads go to the primary until the
+     * replicas have had time to catch up or the next request starts
+     *
+     * @throws InterruptedException
+     *             If interrupted while waiting for the replicas to catch up
+     */
+    @Test
+    public void testReadYourWrites () throws InterruptedException {
+        final DataSource replica = database( 0 );
+        final ReplicaRouter router = new ReplicaRouter( database( 0 ), Collections.singletonList( replica ), 200,
+                LAG_QUERY, 60000 );
+        assertSame( replica, router.chooseReplica() );
+
+        ReplicaRouter.markWrite();
+        assertNull( router.chooseReplica() );
+        ReplicaRouter.forgetWrites();
+        assertSame( replica, router.chooseReplica() );
+
+        ReplicaRouter.markWrite();
+        assertNull( router.chooseReplica() );
+        Thread.sleep( 300 );
+        assertSame( replica, router.chooseReplica() );
+    }
+
+    /**
+     * Connections come from the primary unless a replica has been asked for
+     *
+     * @throws SQLException
+     *             If a connection cannot be opened
+     */
+    @Test
+    public void testRouting () throws SQLException {
+        final DataSource primary = database( 0 );
+        final DataSource replica = database( 0 );
+        ReplicaRouter.setInstance(
+                new ReplicaRouter( primary, Collections.singletonList( replica ), 5000, LAG_QUERY, 60000 ) );
+
+        final DataSource routing = ReplicaRouter.dataSource();
+        assertEquals( primary.toString(), routing.getConnection().toString() );
+        assertEquals( replica.toString(), ReplicaRouter.withConnectionsFrom( replica, () -> {
+            try {
+                return routing.getConnection().toString();
+            }
+            catch ( final SQLException e ) {
+                throw new IllegalStateException( e );
+            }
+        } ) );
+        assertEquals( primary.toString(), routing.getConnection().toString() );
+    }
+
+    /**
+     * Creates a stand-in database. Its connections answer any query with a
+     * single row holding the lag given, and describe themselves with the name
+     * of the database they came from.
+     *
+     * @param lag
+     *            Seconds behind the primary, null if not replicating, or an
+     *            SQLException to refuse connections with
+     * @return The database
+     */
+    private static DataSource database ( final Object lag ) {
+        final String name = "database-" + DATABASES.incrementAndGet();
+        final ResultSet rs = stub( ResultSet.class, ( method, args ) -> {
+            switch ( method ) {
+                case "next":
+                    return true;
+                case "getObject":
+                    return lag;
+                default:
+                    return null;
+            }
+        } );
+        final Statement st = stub( Statement.class, ( method, args ) -> "executeQuery".equals( method ) ? rs : null );
+        final Connection conn = stub( Connection.class, ( method, args ) -> {
+            switch ( method ) {
+                case "createStatement":
+                    return st;
+                case "toString":
+                    return name;
+                default:
+                    return null;
+            }
+        } );
+        return stub( DataSource.class, ( method, args ) -> {
+            if ( "getConnection".equals( method ) ) {
+                if ( lag instanceof SQLException ) {
+                    throw (SQLException) lag;
+                }
+                return conn;
+            }
+            return "toString".equals( method ) ? name : null;
+        } );
+    }
+
+    /**
+     * How a stand-in answers a call
+     */
+    @FunctionalInterface
+    private interface Answer {
+        /**
+         * Answers a call
+         *
+         * @param method
+         *            Name of the method called
+         * @param args
+         *            Arguments to it
+         * @return The result of the call
+         * @throws Exception
+         *             To throw from the call
+         */
+        Object answer ( String method, Object[] args ) throws Exception;
+    }
+
+    /**
+     * Creates a stand-in implementation of a JDBC interface
+     *
+     * @param type
+     *            The interface
+     * @param answer
+     *            How to answer calls to it
+     * @return The stand-in
+     */
+    private static <T> T stub ( final Class<T> type, final Answer answer ) {
+        return type.cast( Proxy.newProxyInstance( ReplicaRouterTest.class.getClassLoader(), new Class< ? >[] { type },
+                ( proxy, method, args ) -> {
+                    if ( "equals".equals( method.getName() ) ) {
+                        return proxy == args[0];
+                    }
+                    if ( "hashCode".equals( method.getName() ) ) {
+                        return System.identityHashCode( proxy );
+                    }
+                    final Object result = answer.answer( method.getName(), args );
+                    if ( null == result && method.getReturnType().isPrimitive() ) {
+                        return boolean.class == method.getReturnType() ? false : 0;
+                    }
+                    return result;
+                } ) );
+    }
+
+}
@@ -0,0 +1,83 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.utils.DBUtil;
+import edu.ncsu.csc.itrust2.utils.HibernateDataGenerator;
+import edu.ncsu.csc.itrust2.utils.SchemaMigrator;
+
+/**
+ * Tests that the schema migrations build the same schema on an empty database
+ * every time, whatever the persistent classes currently say.
+ */
+public class SchemaMigratorTest {
+
+    /**
+     * The baseline is fixed DDL; tables added since are left to the
+     * migrations that introduced them
+     *
+     * @throws Exception
+     *             If the script cannot be read
+     */
+    @Test
+    public void testBaselineIsFixed () throws Exception {
+        final InputStream in = SchemaMigrator.class.getResourceAsStream( "/migrations/V1.sql" );
+        assertNotNull( in );
+        final String script;
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( in, StandardCharsets.UTF_8 ) ) ) {
+            script = reader.lines().collect( Collectors.joining( "\n" ) );
+        }
+        assertTrue( script.contains( "create table Users " ) );
+        assertFalse( script.contains( "EmailOutbox" ) );
+    }
+
+    /**
+     * Migrating an empty database applies every migration, including the ones
+     * that create tables the baseline does not have
+     *
+     * @throws Exception
+     *             If the database cannot be recreated or read
+     */
+    @Test
+    public void testFreshDatabase () throws Exception {
+        HibernateDataGenerator.refreshDB();
+
+        try ( Connection conn = DBUtil.getConnection(); Statement st = conn.createStatement() ) {
+            try ( ResultSet rs = st.executeQuery( "SELECT MAX(version) FROM SchemaVersion" ) ) {
+                rs.next();
+                assertEquals( SchemaMigrator.getLatestVersion(), rs.getInt( 1 ) );
+            }
+
+            // The outbox comes from migration 4, not from the mapping
+            try ( ResultSet rs = st.executeQuery( "SELECT EXTRA FROM INFORMATION_SCHEMA.COLUMNS "
+                    + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'EmailOutbox' AND COLUMN_NAME = 'id'" ) ) {
+                assertTrue( rs.next() );
+                assertTrue( rs.getString( 1 ).toLowerCase().contains( "auto_increment" ) );
+            }
+
+            // The baseline seeds the id sequence once
+            try ( ResultSet rs = st.executeQuery( "SELECT COUNT(*) FROM hibernate_sequence" ) ) {
+                rs.next();
+                assertEquals( 1, rs.getInt( 1 ) );
+            }
+        }
+
+        // Running again does nothing
+        SchemaMigrator.migrate();
+    }
+
+}
@@ -2,15 +2,23 @@ package edu.ncsu.csc.itrust2.unit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
+import java.util.Map;
+
 import org.junit.Test;
+import org.springframework.security.core.CredentialsContainer;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UserDetails;
 
 import edu.ncsu.csc.itrust2.models.enums.Role;
 import edu.ncsu.csc.itrust2.models.enums.State;
 import edu.ncsu.csc.itrust2.models.persistent.Pharmacy;
 import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.UserDetailsCache;
 
 /**
  * Unit tests for the User class.
@@ -82,4 +90,63 @@ public class UserTest {
 
     }
 
+    /**
+     * Tests looking up the roles of several users at once, and that a cached
+     * role is forgotten when the user changes
+     */
+    @Test
+    public void testGetRoles () {
+        final User patient = new User( "roleLookupPatient", "123456", Role.ROLE_PATIENT, 1 );
+        patient.save();
+        final User hcp = new User( "roleLookupHcp", "123456", Role.ROLE_HCP, 1 );
+        hcp.save();
+
+        final Map<String, Role> roles = User.getRoles(
+                Arrays.asList( "roleLookupPatient", "roleLookupHcp", "roleLookupNobody", null ) );
+        assertEquals( 2, roles.size() );
+        assertEquals( Role.ROLE_PATIENT, roles.get( "roleLookupPatient" ) );
+        assertEquals( Role.ROLE_HCP, roles.get( "roleLookupHcp" ) );
+
+        hcp.setRole( Role.ROLE_ADMIN );
+        hcp.save();
+        assertEquals( Role.ROLE_ADMIN, User.getRole( "roleLookupHcp" ) );
+
+        hcp.delete();
+        assertNull( User.getRole( "roleLookupHcp" ) );
+        patient.delete();
+    }
+
+    /**
+     * Tests that cached login details are handed out as copies, and are
+     * dropped when the user changes
+     */
+    @Test
+    public void testUserDetailsCache () {
+        final String name = "detailsCacheUser";
+        final UserDetailsCache cache = UserDetailsCache.getInstance();
+        cache.putUserInCache( new org.springframework.security.core.userdetails.User( name, "hash",
+                AuthorityUtils.createAuthorityList( "ROLE_HCP" ) ) );
+
+        final long hits = cache.getHits();
+        final UserDetails cached = cache.getUserFromCache( name );
+        assertEquals( "hash", cached.getPassword() );
+        assertEquals( hits + 1, cache.getHits() );
+
+        // Spring Security erasing the password after login must not reach
+        // the cache
+        ( (CredentialsContainer) cached ).eraseCredentials();
+        assertEquals( "hash", cache.getUserFromCache( name ).getPassword() );
+
+        final User user = new User( name, "123456", Role.ROLE_HCP, 1 );
+        user.save();
+        assertNull( cache.getUserFromCache( name ) );
+
+        // Details read just before the change are not cached again
+        cache.putUserInCache( new org.springframework.security.core.userdetails.User( name, "hash",
+                AuthorityUtils.createAuthorityList( "ROLE_HCP" ) ) );
+        assertNull( cache.getUserFromCache( name ) );
+
+        user.delete();
+    }
+
 }
@@ -6,11 +6,6 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.hibernate.boot.MetadataSources;
-import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
-import org.hibernate.boot.spi.MetadataImplementor;
-import org.hibernate.tool.hbm2ddl.SchemaExport;
-
 import edu.ncsu.csc.itrust2.forms.admin.ICDCodeForm;
 import edu.ncsu.csc.itrust2.forms.admin.LOINCForm;
 import edu.ncsu.csc.itrust2.forms.admin.LOINCForm.ResultEntry;
@@ -28,6 +23,7 @@ import edu.ncsu.csc.itrust2.models.enums.Role;
 import edu.ncsu.csc.itrust2.models.enums.Specialty;
 import edu.ncsu.csc.itrust2.models.enums.State;
 import edu.ncsu.csc.itrust2.models.persistent.Diagnosis;
+import edu.ncsu.csc.itrust2.models.persistent.DomainObject;
 import edu.ncsu.csc.itrust2.models.persistent.Drug;
 import edu.ncsu.csc.itrust2.models.persistent.GeneralCheckup;
 import edu.ncsu.csc.itrust2.models.persistent.Hospital;
@@ -44,7 +40,10 @@ import edu.ncsu.csc.itrust2.models.persistent.User;
  * records for the various different types of persistent objects that exist in
  * the system. Takes advantage of Hibernate persistence. To use, instantiate the
  * type of object in question, set all of its parameters, and then call the
- * save() method on the object.
+ * save() method on the object. Records that do not depend on anything saved
+ * after them are collected up and saved together with
+ * {@link DomainObject#saveAll(List)}, so that they go to the database as JDBC
+ * batches rather than one statement and transaction at a time.
  *
  * @author Kai Presler-Marshall
  *
@@ -75,20 +74,12 @@ public class HibernateDataGenerator {
      * @throws IOException
      */
     public static void refreshDB () throws NumberFormatException, ParseException, IOException {
-        // using the config to drop/create taken from here:
-        // https://stackoverflow.com/questions/20535423/how-to-manually-invoke-create-drop-from-jpa-on-hibernate
-        // how to actually generate the schemaexport taken from here:
-        // http://www.javarticles.com/2015/06/generating-database-schema-using-hibernate.html
-
-        final StandardServiceRegistryBuilder ssrb = new StandardServiceRegistryBuilder();
-        ssrb.configure( "/hibernate.cfg.xml" );
-        ssrb.applySetting( "hibernate.connection.url", DBUtil.getUrl() );
-        ssrb.applySetting( "hibernate.connection.username", DBUtil.getUsername() );
-        ssrb.applySetting( "hibernate.connection.password", DBUtil.getPassword() );
-        final SchemaExport export = new SchemaExport(
-                (MetadataImplementor) new MetadataSources( ssrb.build() ).buildMetadata() );
-        export.drop( true, true );
-        export.create( true, true );
+        // Drop everything and migrate the empty database back up to date
+        SchemaMigrator.recreate();
+        // Anything cached from before the schema was recreated is gone
+        HibernateUtil.evictCaches();
+        User.clearRoleCache();
+        UserDetailsCache.getInstance().clear();
 
         generateUsers();
         generateTestFaculties();
@@ -102,9 +93,11 @@ public class HibernateDataGenerator {
      * Generate sample users for the iTrust2 system.
      */
     public static void generateUsers () {
+        final List<DomainObject> records = new ArrayList<DomainObject>();
+
         final User hcp = new User( "hcp", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.", Role.ROLE_HCP,
                 1 );
-        hcp.save();
+        records.add( hcp );
 
         final Personnel p = new Personnel();
         p.setSelf( hcp );
@@ -116,112 +109,114 @@ public class HibernateDataGenerator {
         p.setState( State.AK );
         p.setZip( "12345" );
         p.setPhone( "111-222-3333" );
-        p.save();
+        records.add( p );
 
         final User patient = new User( "patient", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_PATIENT, 1 );
-        patient.save();
+        records.add( patient );
 
         final User admin = new User( "admin", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_ADMIN, 1 );
-        admin.save();
+        records.add( admin );
 
         final User er = new User( "er", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.", Role.ROLE_ER,
                 1 );
-        er.save();
+        records.add( er );
 
         final User alminister = new User( "alminister", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_ADMIN, 1 );
-        alminister.save();
+        records.add( alminister );
 
         final User jbean = new User( "jbean", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_PATIENT, 1 );
-        jbean.save();
+        records.add( jbean );
 
         final User nsanderson = new User( "nsanderson", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_PATIENT, 1 );
-        nsanderson.save();
+        records.add( nsanderson );
 
         final User svang = new User( "svang", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_HCP, 1 );
-        svang.save();
+        records.add( svang );
 
         final User virologist = new User( "virologist", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_VIROLOGIST, 1 );
-        virologist.save();
+        records.add( virologist );
 
         // generate users for testing password change & reset
         for ( int i = 1; i <= 5; i++ ) {
             final User pwtestuser = new User( "pwtestuser" + i,
                     "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.", Role.ROLE_HCP, 1 );
-            pwtestuser.save();
+            records.add( pwtestuser );
         }
 
         final User lockoutUser = new User( "lockoutUser",
                 "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.", Role.ROLE_HCP, 1 );
-        lockoutUser.save();
+        records.add( lockoutUser );
 
         final User lockoutUser2 = new User( "lockoutUser2",
                 "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.", Role.ROLE_HCP, 1 );
-        lockoutUser2.save();
+        records.add( lockoutUser2 );
 
         final User knightSolaire = new User( "knightSolaire",
                 "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.", Role.ROLE_ER, 1 );
-        knightSolaire.save();
+        records.add( knightSolaire );
         final Personnel kniSolai = new Personnel();
         kniSolai.setSelf( knightSolaire );
         kniSolai.setFirstName( "Knight" );
         kniSolai.setLastName( "Solaire" );
-        kniSolai.save();
+        records.add( kniSolai );
 
         final User labTech = new User( "labtech", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_LABTECH, 1 );
-        labTech.save();
+        records.add( labTech );
         final Personnel labTechPerson = new Personnel();
         labTechPerson.setSelf( labTech );
         labTechPerson.setFirstName( "Lab" );
         labTechPerson.setLastName( "Technician" );
-        labTechPerson.save();
+        records.add( labTechPerson );
 
         final User larryTech = new User( "larrytech", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_LABTECH, 1 );
-        larryTech.save();
+        records.add( larryTech );
         final Personnel larryTechPerson = new Personnel();
         larryTechPerson.setSelf( larryTech );
         larryTechPerson.setFirstName( "Larry" );
         larryTechPerson.setLastName( "Teacher" );
-        larryTechPerson.save();
+        records.add( larryTechPerson );
 
         final Patient billy = new Patient();
         billy.setFirstName( "Billy" );
         final User billyUser = new User( "BillyBob", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_PATIENT, 1 );
-        billyUser.save();
+        records.add( billyUser );
         billy.setSelf( billyUser );
         billy.setLastName( "Bob" );
         billy.setDateOfBirth( LocalDate.now().minusYears( 40 ) ); // 40 years
                                                                   // old
-        billy.save();
+        records.add( billy );
 
         final Patient jill = new Patient();
         jill.setFirstName( "Jill" );
         final User jillUser = new User( "JillBob", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_PATIENT, 1 );
-        jillUser.save();
+        records.add( jillUser );
         jill.setSelf( jillUser );
         jill.setLastName( "Bob" );
         jill.setDateOfBirth( LocalDate.now().minusYears( 40 ) ); // 40 years old
-        jill.save();
+        records.add( jill );
 
         /** Optometrist Bobby Ibajnup. Robort's twin brother. */
         final User bobby = new User( "bobbyOD", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_OD, 1 );
-        bobby.save();
+        records.add( bobby );
 
         /** Ophthalmologist Robort Ibajnup. Bobby's twin brother. */
         final User robort = new User( "robortOPH", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_OPH, 1 );
-        robort.save();
+        records.add( robort );
+
+        DomainObject.saveAll( records );
     }
 
     /**
@@ -434,70 +429,73 @@ public class HibernateDataGenerator {
         GeneralCheckup.deleteAll();
 
         // Used for APIEmergencyRecordFormTest
+        final List<DomainObject> records = new ArrayList<DomainObject>();
         final Patient siegward = new Patient();
         siegward.setFirstName( "SiegwardOf" );
         final User siegwardUser = new User( "onionman", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_PATIENT, 1 );
-        siegwardUser.save();
+        records.add( siegwardUser );
         siegward.setSelf( siegwardUser );
         siegward.setLastName( "Catarina" );
         siegward.setGender( Gender.Male );
         siegward.setBloodType( BloodType.OPos );
         siegward.setDateOfBirth( LocalDate.now().minusYears( 30 ) ); // 30 years
                                                                      // old
-        siegward.save();
+        records.add( siegward );
 
         final Patient king1 = new Patient();
         king1.setFirstName( "King" );
         final User king1User = new User( "kingone", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_PATIENT, 1 );
-        king1User.save();
+        records.add( king1User );
         king1.setSelf( king1User );
         king1.setLastName( "One" );
         king1.setGender( Gender.Male );
         king1.setBloodType( BloodType.OPos );
         king1.setDateOfBirth( LocalDate.now().minusYears( 30 ) ); // 30 years
                                                                   // old
-        king1.save();
+        records.add( king1 );
 
         final Patient king2 = new Patient();
         king2.setFirstName( "King" );
         final User king2User = new User( "kingtwo", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_PATIENT, 1 );
-        king2User.save();
+        records.add( king2User );
         king2.setSelf( king2User );
         king2.setLastName( "Two" );
         king2.setGender( Gender.Male );
         king2.setBloodType( BloodType.OPos );
         king2.setDateOfBirth( LocalDate.now().minusYears( 30 ) ); // 30 years
                                                                   // old
-        king2.save();
+        records.add( king2 );
 
         final Patient king3 = new Patient();
         king3.setFirstName( "King" );
         final User king3User = new User( "kingthree", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_PATIENT, 1 );
-        king3User.save();
+        records.add( king3User );
         king3.setSelf( king3User );
         king3.setLastName( "Three" );
         king3.setGender( Gender.Male );
         king3.setBloodType( BloodType.OPos );
         king3.setDateOfBirth( LocalDate.now().minusYears( 30 ) ); // 30 years
                                                                   // old
-        king3.save();
+        records.add( king3 );
 
         final Patient king4 = new Patient();
         king4.setFirstName( "King" );
         final User king4User = new User( "kingfour", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_PATIENT, 1 );
-        king4User.save();
+        records.add( king4User );
         king4.setSelf( king4User );
         king4.setLastName( "Four" );
         king4.setGender( Gender.Male );
         king4.setBloodType( BloodType.OPos );
         king4.setDateOfBirth( LocalDate.now().minusYears( 30 ) ); // 30 years
                                                                   // old
-        king4.save();
+        records.add( king4 );
+
+        DomainObject.saveAll( records );
 
         // First Prescription for APIEmergencyRecordFormTest
         final Drug estus = new Drug();
@@ -595,21 +593,22 @@ public class HibernateDataGenerator {
      */
     public static void generateFindExpertTest () {
         // Personnel.deleteAll( Personnel.class );
+        final List<DomainObject> records = new ArrayList<DomainObject>();
         final Hospital rex = new Hospital( "Rex Hospital", "123 Lake Boone Trail", "27616-1234", "NC" );
-        rex.save();
+        records.add( rex );
         final Hospital unc = new Hospital( "UNC Hospital", "123 UNC Trail", "27601", "NC" );
-        unc.save();
+        records.add( unc );
         final Personnel ryan = new Personnel();
         ryan.setFirstName( "Ryan" );
         ryan.setHospitalId( "Rex Hospital" );
         ryan.setSpecialty( Specialty.CARDIOLOGIST );
         final User ryanUser = new User( "ryan", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_HCP, 1 );
-        ryanUser.save();
+        records.add( ryanUser );
         ryan.setEmail( "ryan_dr@gmail.com" );
         ryan.setLastName( "Catalfu" );
         ryan.setSelf( ryanUser );
-        ryan.save();
+        records.add( ryan );
 
         final Personnel neetya = new Personnel();
         neetya.setFirstName( "Neetya" );
@@ -618,23 +617,24 @@ public class HibernateDataGenerator {
         neetya.setSpecialty( Specialty.CARDIOLOGIST );
         final User neetyaUser = new User( "neetya", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_HCP, 1 );
-        neetyaUser.save();
+        records.add( neetyaUser );
         neetya.setSelf( neetyaUser );
         neetya.setLastName( "Shah" );
         neetya.setEmail( "neetya_dr@gmail.com" );
-        neetya.save();
+        records.add( neetya );
         final Personnel eddie = new Personnel();
         eddie.setFirstName( "Eddie" );
         eddie.setHospitalId( "UNC Hospital" );
         eddie.setSpecialty( Specialty.CARDIOLOGIST );
         final User eddieUser = new User( "eddie", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
                 Role.ROLE_HCP, 1 );
-        eddieUser.save();
+        records.add( eddieUser );
         eddie.setSelf( eddieUser );
         eddie.setLastName( "Woodhouse" );
         eddie.setEmail( "eddie_dr@gmail.com" );
-        eddie.save();
+        records.add( eddie );
 
+        DomainObject.saveAll( records );
     }
 
 }
@@ -0,0 +1,130 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A mail server for tests, listening on a free local port. It accepts every
+ * email it is given and keeps the message text, without checking anything,
+ * so that tests can send email without a real mail server.
+ */
+public class SmtpStub implements AutoCloseable {
+
+    /** Socket the stub listens on */
+    private final ServerSocket  server;
+
+    /** Text of each message received */
+    private final List<String>  messages    = new CopyOnWriteArrayList<String>();
+
+    /** Number of connections accepted */
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /**
+     * Starts the stub on a free port
+     *
+     * @throws IOException
+     *             If no port can be opened
+     */
+    public SmtpStub () throws IOException {
+        server = new ServerSocket( 0, 50, InetAddress.getLoopbackAddress() );
+        final Thread t = new Thread( this::accept, "SmtpStub" );
+        t.setDaemon( true );
+        t.start();
+    }
+
+    /**
+     * The port the stub listens on
+     *
+     * @return The port
+     */
+    public int getPort () {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Text of each message received, oldest first
+     *
+     * @return The messages
+     */
+    public List<String> getMessages () {
+        return messages;
+    }
+
+    /**
+     * Number of connections made to the stub
+     *
+     * @return Number of connections
+     */
+    public int getConnections () {
+        return connections.get();
+    }
+
+    @Override
+    public void close () throws IOException {
+        server.close();
+    }
+
+    /**
+     * Accepts connections until the stub is closed
+     */
+    private void accept () {
+        while ( !server.isClosed() ) {
+            try ( Socket socket = server.accept() ) {
+                connections.incrementAndGet();
+                converse( socket );
+            }
+            catch ( final IOException e ) {
+                // Closed, or the client went away
+            }
+        }
+    }
+
+    /**
+     * Answers one client until it quits
+     *
+     * @param socket
+     *            Connection to the client
+     * @throws IOException
+     *             If the connection fails
+     */
+    private void converse ( final Socket socket ) throws IOException {
+        final BufferedReader in = new BufferedReader(
+                new InputStreamReader( socket.getInputStream(), StandardCharsets.US_ASCII ) );
+        final PrintWriter out = new PrintWriter( socket.getOutputStream(), true );
+        out.print( "220 localhost SmtpStub\r\n" );
+        out.flush();
+        String line;
+        while ( null != ( line = in.readLine() ) ) {
+            final String command = line.toUpperCase();
+            if ( command.startsWith( "DATA" ) ) {
+                out.print( "354 End data with <CR><LF>.<CR><LF>\r\n" );
+                out.flush();
+                final StringBuilder message = new StringBuilder();
+                while ( null != ( line = in.readLine() ) && !".".equals( line ) ) {
+                    message.append( line ).append( "\n" );
+                }
+                messages.add( message.toString() );
+                out.print( "250 OK\r\n" );
+            }
+            else if ( command.startsWith( "QUIT" ) ) {
+                out.print( "221 Bye\r\n" );
+                out.flush();
+                return;
+            }
+            else {
+                out.print( "250 OK\r\n" );
+            }
+            out.flush();
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate prepares, both in total and on the
+ * current thread. Registered with Hibernate as its statement inspector by the
+ * hibernate.properties on the test classpath, so during tests every statement
+ * passes through here; it is counted and sent on unchanged. The application
+ * itself runs without it.
+ *
+ * The count for the current thread is what tests use to check how many
+ * queries an API call makes: take {@link #getCount()} before and after the
+ * call and compare. Background work (the audit log writer, for instance) runs
+ * on other threads and is not included.
+ */
+public class StatementCounter implements StatementInspector {
+
+    private static final long               serialVersionUID = 1L;
+
+    /** Statements prepared on each thread */
+    private static final ThreadLocal<long[]> PER_THREAD       = ThreadLocal.withInitial( () -> new long[1] );
+
+    /** Statements prepared on every thread */
+    private static final LongAdder           TOTAL            = new LongAdder();
+
+    /**
+     * Created by Hibernate
+     */
+    public StatementCounter () {
+    }
+
+    @Override
+    public String inspect ( final String sql ) {
+        PER_THREAD.get()[0]++;
+        TOTAL.increment();
+        return sql;
+    }
+
+    /**
+     * Number of statements prepared on the current thread since it started
+     *
+     * @return Number of statements
+     */
+    public static long getCount () {
+        return PER_THREAD.get()[0];
+    }
+
+    /**
+     * Number of statements prepared since the application started
+     *
+     * @return Number of statements
+     */
+    public static long getTotal () {
+        return TOTAL.sum();
+    }
+
+}